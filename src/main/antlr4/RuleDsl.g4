@@ -31,6 +31,7 @@ eqExpr
   | relExpr StrContainsRegexp relExpr
   | relExpr StrMatches relExpr
   | relExpr In stringList
+  | relExpr In numberList
   | additiveExpr Compare additiveExpr
   ;
 
@@ -57,6 +58,8 @@ relExpr
 
 stringList : OpSqBk (StringLiteral Comma )* StringLiteral ClSqBk ;
 
+numberList : OpSqBk (DigitSequence Comma )* DigitSequence ClSqBk ;
+
 Eq : '=' ;
 
 NEq : '!=' ;
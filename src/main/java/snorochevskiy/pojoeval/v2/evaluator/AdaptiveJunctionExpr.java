@@ -0,0 +1,246 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * AND / OR chain that reorders its operands at runtime so that cheap operands that decide the result
+ * (false for AND, true for OR) are evaluated first.
+ * <p>
+ * Operands start ordered by their {@link ExprCost} estimate. Then for each operand the engine counts
+ * how often it was evaluated and how often it decided the result, and every {@link #REORDER_PERIOD} evaluations
+ * operands are sorted by {@code cost / P(decisive)}. Counters are halved after each reordering,
+ * so the order follows changes in the data.
+ * <p>
+ * An operand that can fail (see {@link ExprSafety}) is never evaluated after the operands written after it:
+ * operands are split into groups that end with such an operand, and are reordered only within their group,
+ * so an operand that decides the result cannot skip an earlier one that would fail in the written order.
+ * If the operand that ends a group fails while evaluated out of the written order, the chain is evaluated
+ * again in the written order, so an error is reported only when evaluation in the written order reports it too.
+ * The chain is evaluated in the written order if the POJO is not an instance of the validated class,
+ * or the context overrides fields, as then any operand can fail.
+ * Operands are expected to have no side effects.
+ * Statistics are updated without synchronization and may lose updates under concurrent evaluation,
+ * which only affects the order.
+ */
+final class AdaptiveJunctionExpr<POJO> implements Expr<POJO> {
+
+    static final int REORDER_PERIOD = 1024;
+
+    /**
+     * true for AND, false for OR
+     */
+    final boolean conjunction;
+    final List<Expr<POJO>> operands;
+    private final int[] costs;
+    /**
+     * Group of each operand, operands are reordered only within their group
+     */
+    private final int[] groups;
+    private final Class<?> msgClass;
+
+    private transient volatile int[] order;
+    private transient int[] evaluated;
+    private transient int[] decisive;
+    private transient int calls;
+
+    AdaptiveJunctionExpr(boolean conjunction, List<Expr<POJO>> operands, Class<?> msgClass) {
+        this.conjunction = conjunction;
+        this.operands = Collections.unmodifiableList(operands);
+        this.msgClass = msgClass;
+        this.costs = new int[operands.size()];
+        this.groups = new int[operands.size()];
+        int group = 0;
+        for (int i = 0; i < costs.length; i++) {
+            costs[i] = ExprCost.estimate(operands.get(i));
+            groups[i] = group;
+            if (!ExprSafety.cannotFail(operands.get(i))) {
+                group++;
+            }
+        }
+        initStatistics();
+    }
+
+    /**
+     * Replaces AND and OR nodes of the tree with adaptive ones.
+     * @param msgClass validated class of the rule, or null
+     */
+    static <POJO> Expr<POJO> install(Expr<POJO> expr, Class<?> msgClass) {
+        if (expr instanceof AndExpr) {
+            return new AdaptiveJunctionExpr<>(true, installAll(((AndExpr<POJO>) expr).operands, msgClass), msgClass);
+        } else if (expr instanceof OrExpr) {
+            return new AdaptiveJunctionExpr<>(false, installAll(((OrExpr<POJO>) expr).operands, msgClass), msgClass);
+        } else if (expr instanceof NotExpr) {
+            return new NotExpr<>(install(((NotExpr<POJO>) expr).e, msgClass));
+        } else if (expr instanceof EqExpr) {
+            EqExpr<POJO> e = (EqExpr<POJO>) expr;
+            return new EqExpr<>(install(e.arg1, msgClass), install(e.arg2, msgClass));
+        } else if (expr instanceof NotEqExpr) {
+            NotEqExpr<POJO> e = (NotEqExpr<POJO>) expr;
+            return new NotEqExpr<>(install(e.arg1, msgClass), install(e.arg2, msgClass));
+        }
+        return expr;
+    }
+
+    private static <POJO> List<Expr<POJO>> installAll(List<Expr<POJO>> operands, Class<?> msgClass) {
+        List<Expr<POJO>> result = new ArrayList<>(operands.size());
+        for (Expr<POJO> operand : operands) {
+            result.add(install(operand, msgClass));
+        }
+        return result;
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.BOOL;
+    }
+
+    @Override
+    public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
+        return evalBoolean(pojo, context);
+    }
+
+    @Override
+    public boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        if (!ExprSafety.appliesTo(pojo, context, msgClass)) {
+            return evalInWrittenOrder(pojo, context);
+        }
+        int[] order = this.order;
+        boolean result;
+        try {
+            result = evalInOrder(order, pojo, context);
+        } catch (RuntimeException e) {
+            if (isWrittenOrder(order)) {
+                throw e;
+            }
+            return evalInWrittenOrder(pojo, context);
+        }
+        if (++calls % REORDER_PERIOD == 0) {
+            reorder();
+        }
+        return result;
+    }
+
+    /**
+     * Three-valued result doesn't depend on the order of operands even if some of them are UNKNOWN,
+     * so it is always evaluated in the current order.
+     */
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        TriState decisiveValue = conjunction ? TriState.FALSE : TriState.TRUE;
+        TriState result = decisiveValue.not();
+        for (int i : order) {
+            TriState v = operands.get(i).evalTri(pojo, context);
+            if (v == decisiveValue) {
+                return decisiveValue;
+            }
+            if (v == TriState.UNKNOWN) {
+                result = TriState.UNKNOWN;
+            }
+        }
+        return result;
+    }
+
+    private boolean evalInOrder(int[] order, POJO pojo, EvaluationContext<POJO> context) {
+        boolean decisiveValue = !conjunction;
+        for (int i : order) {
+            boolean v = operands.get(i).evalBoolean(pojo, context);
+            evaluated[i]++;
+            if (v == decisiveValue) {
+                decisive[i]++;
+                return decisiveValue;
+            }
+        }
+        return !decisiveValue;
+    }
+
+    private boolean evalInWrittenOrder(POJO pojo, EvaluationContext<POJO> context) {
+        boolean decisiveValue = !conjunction;
+        for (int i = 0; i < operands.size(); i++) {
+            if (operands.get(i).evalBoolean(pojo, context) == decisiveValue) {
+                return decisiveValue;
+            }
+        }
+        return !decisiveValue;
+    }
+
+    private void reorder() {
+        int n = operands.size();
+        double[] scores = new double[n];
+        List<Integer> indexes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            // Laplace smoothing: an operand that was never evaluated is assumed to be decisive half of the time
+            double p = (decisive[i] + 1.0) / (evaluated[i] + 2.0);
+            scores[i] = (costs[i] + 1) / p;
+            evaluated[i] >>= 1;
+            decisive[i] >>= 1;
+            indexes.add(i);
+        }
+        indexes.sort((i1, i2) -> groups[i1] != groups[i2]
+                ? Integer.compare(groups[i1], groups[i2])
+                : Double.compare(scores[i1], scores[i2]));
+        int[] newOrder = new int[n];
+        for (int i = 0; i < n; i++) {
+            newOrder[i] = indexes.get(i);
+        }
+        this.order = newOrder;
+    }
+
+    private static boolean isWrittenOrder(int[] order) {
+        for (int i = 0; i < order.length; i++) {
+            if (order[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void initStatistics() {
+        this.evaluated = new int[operands.size()];
+        this.decisive = new int[operands.size()];
+        reorder();
+    }
+
+    /**
+     * Order in which operands are currently evaluated, as indexes in {@link #operands}.
+     */
+    int[] currentOrder() {
+        return order.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof AdaptiveJunctionExpr)) {
+            return false;
+        }
+        AdaptiveJunctionExpr<?> other = (AdaptiveJunctionExpr<?>) o;
+        return conjunction == other.conjunction && operands.equals(other.operands);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * operands.hashCode() + (conjunction ? 1 : 2);
+    }
+
+    /**
+     * Operands are listed in the order they are currently evaluated.
+     */
+    @Override
+    public String toString() {
+        int[] order = this.order;
+        List<String> ordered = new ArrayList<>(order.length);
+        for (int i : order) {
+            ordered.add(operands.get(i).toString());
+        }
+        return ordered.stream().collect(Collectors.joining(conjunction ? " AND " : " OR ", "(", ")"));
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        initStatistics();
+    }
+}
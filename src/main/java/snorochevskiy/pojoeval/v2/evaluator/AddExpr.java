@@ -0,0 +1,23 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+final class AddExpr<POJO> extends BinaryArithmeticExpr<POJO> {
+
+    AddExpr(Expr<POJO> arg1, Expr<POJO> arg2) {
+        super(arg1, arg2);
+    }
+
+    @Override
+    double arithmCalc(double n1, double n2) {
+        return n1 + n2;
+    }
+
+    @Override
+    String operator() {
+        return "+";
+    }
+
+    @Override
+    BinaryArithmeticExpr<POJO> withArgs(Expr<POJO> arg1, Expr<POJO> arg2) {
+        return new AddExpr<>(arg1, arg2);
+    }
+}
@@ -0,0 +1,75 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Conjunction of any number of operands. Nested conjunctions are flattened into a single node by {@link ExprOptimizer}.
+ */
+final class AndExpr<POJO> implements Expr<POJO> {
+
+    final List<Expr<POJO>> operands;
+
+    AndExpr(Expr<POJO> e1, Expr<POJO> e2) {
+        this(Arrays.asList(e1, e2));
+    }
+
+    AndExpr(List<Expr<POJO>> operands) {
+        this.operands = Collections.unmodifiableList(operands);
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.BOOL;
+    }
+
+    @Override
+    public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
+        return evalBoolean(pojo, context);
+    }
+
+    /**
+     * Operands are evaluated in order until the first false one.
+     */
+    @Override
+    public boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        for (int i = 0; i < operands.size(); i++) {
+            if (!operands.get(i).evalBoolean(pojo, context)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        TriState result = TriState.TRUE;
+        for (int i = 0; i < operands.size(); i++) {
+            TriState v = operands.get(i).evalTri(pojo, context);
+            if (v == TriState.FALSE) {
+                return TriState.FALSE;
+            }
+            if (v == TriState.UNKNOWN) {
+                result = TriState.UNKNOWN;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof AndExpr && operands.equals(((AndExpr<?>) o).operands);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * operands.hashCode() + 1;
+    }
+
+    @Override
+    public String toString() {
+        return operands.stream().map(Object::toString).collect(Collectors.joining(" AND ", "(", ")"));
+    }
+}
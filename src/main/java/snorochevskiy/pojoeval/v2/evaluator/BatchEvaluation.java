@@ -0,0 +1,513 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Evaluates a boolean rule on a batch of rows an operator at a time, instead of a row at a time.
+ * <p>
+ * Boolean operators work on selection vectors: ascending arrays of numbers of the rows an operator is applied to.
+ * AND narrows the selection operand by operand, OR evaluates each operand only on the rows that no previous operand
+ * accepted, and NOT takes the rows of the selection its operand rejected. So every sub-expression is evaluated
+ * on the same rows as when the rule is evaluated a row at a time, and the batch fails if and only if
+ * the rule fails on some row.
+ * <p>
+ * Comparisons, equality and arithmetic compute their arguments for all selected rows first,
+ * then apply the operator in a loop over arrays. Other conditions are evaluated row by row on the selected rows.
+ * Rows are either POJOs ({@link PojoRows}) or columns of values ({@link ColumnRows}).
+ *
+ * @param <POJO> class of POJO that rules are to be evaluated on
+ */
+final class BatchEvaluation<POJO> {
+
+    private final Rows<POJO> rows;
+
+    BatchEvaluation(Rows<POJO> rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * Stores numbers of the rows the rule is true for in the given bitset, which is cleared first.
+     */
+    void evaluate(Expr<POJO> rule, BitSet out) {
+        int n = rows.size();
+        int[] all = new int[n];
+        for (int i = 0; i < n; i++) {
+            all[i] = i;
+        }
+        int[] selected = new int[n];
+        int count = select(rule, all, n, selected);
+        out.clear();
+        for (int i = 0; i < count; i++) {
+            out.set(selected[i]);
+        }
+    }
+
+    /**
+     * Stores numbers of the rows the rule is true for in the given bitset, evaluating the rule a row at a time
+     * in three-valued logic, with UNKNOWN mapped to the given value.
+     */
+    void evaluateTri(Expr<POJO> rule, boolean unknownAs, BitSet out) {
+        Expr<POJO> e = unwrap(rule);
+        out.clear();
+        for (int row = 0; row < rows.size(); row++) {
+            if (rows.tri(e, row).toBoolean(unknownAs)) {
+                out.set(row);
+            }
+        }
+    }
+
+    /**
+     * Selects the rows of the selection the condition is true for.
+     * @return number of selected rows, which are stored in ascending order in the beginning of out
+     */
+    int select(Expr<POJO> e, int[] sel, int n, int[] out) {
+        e = unwrap(e);
+        if (e instanceof AndExpr) {
+            return selectAll(((AndExpr<POJO>) e).operands, sel, n, out);
+        } else if (e instanceof OrExpr) {
+            return selectAny(((OrExpr<POJO>) e).operands, sel, n, out);
+        } else if (e instanceof AdaptiveJunctionExpr) {
+            // operands are in the written order here
+            AdaptiveJunctionExpr<POJO> junction = (AdaptiveJunctionExpr<POJO>) e;
+            return junction.conjunction
+                    ? selectAll(junction.operands, sel, n, out)
+                    : selectAny(junction.operands, sel, n, out);
+        } else if (e instanceof NotExpr) {
+            int[] matched = new int[n];
+            int m = select(((NotExpr<POJO>) e).e, sel, n, matched);
+            return difference(sel, n, matched, m, out);
+        } else if (e instanceof BooleanExpr) {
+            if (!((BooleanExpr<POJO>) e).value) {
+                return 0;
+            }
+            System.arraycopy(sel, 0, out, 0, n);
+            return n;
+        } else if (e instanceof CompareExpression) {
+            CompareExpression<POJO> c = (CompareExpression<POJO>) e;
+            double[] v1 = numbers(c.arg1, sel, n);
+            double[] v2 = numbers(c.arg2, sel, n);
+            return compare(c.operator, sel, n, v1, v2, out);
+        } else if (e instanceof EqExpr) {
+            EqExpr<POJO> eq = (EqExpr<POJO>) e;
+            return selectEqual(eq.arg1, eq.arg2, false, sel, n, out);
+        } else if (e instanceof NotEqExpr) {
+            NotEqExpr<POJO> ne = (NotEqExpr<POJO>) e;
+            return selectEqual(ne.arg1, ne.arg2, true, sel, n, out);
+        } else if (e instanceof NumberEqExpr && isUnboxed(((NumberEqExpr<POJO>) e).arg,
+                ((NumberEqExpr<POJO>) e).boxed)) {
+            NumberEqExpr<POJO> eq = (NumberEqExpr<POJO>) e;
+            double[] v = numbers(eq.arg, sel, n);
+            int m = 0;
+            for (int i = 0; i < n; i++) {
+                out[m] = sel[i];
+                m += (v[i] == eq.number) != eq.negate ? 1 : 0;
+            }
+            return m;
+        } else if (e instanceof NumberInExpr && isUnboxed(((NumberInExpr<POJO>) e).arg,
+                ((NumberInExpr<POJO>) e).boxed)) {
+            NumberInExpr<POJO> in = (NumberInExpr<POJO>) e;
+            double[] v = numbers(in.arg, sel, n);
+            int m = 0;
+            for (int i = 0; i < n; i++) {
+                if (in.test(v[i])) {
+                    out[m++] = sel[i];
+                }
+            }
+            return m;
+        }
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (rows.test(e, sel[i])) {
+                out[m++] = sel[i];
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Numeric equality reads its argument as a double, unless it's a field that can be null
+     * (see {@link NumberEqExpr#evalBoolean}).
+     */
+    private boolean isUnboxed(Expr<POJO> arg, boolean boxed) {
+        return !boxed && (!(arg instanceof FieldExpr) || !rows.mayBeNull((FieldExpr<POJO>) arg));
+    }
+
+    private int selectEqual(Expr<POJO> a1, Expr<POJO> a2, boolean negate, int[] sel, int n, int[] out) {
+        a1 = unwrap(a1);
+        a2 = unwrap(a2);
+        FieldExpr<POJO> field = a1 instanceof FieldExpr && a2 instanceof NumberExpr ? (FieldExpr<POJO>) a1
+                : a2 instanceof FieldExpr && a1 instanceof NumberExpr ? (FieldExpr<POJO>) a2
+                : null;
+        if (field != null && rows.isNumeric(field)) {
+            // values are doubles that are never null, which are compared as numbers (see EqExpr#isEqual)
+            double[] v = numbers(field, sel, n);
+            double number = ((NumberExpr<POJO>) (field == a1 ? a2 : a1)).number;
+            int m = 0;
+            for (int i = 0; i < n; i++) {
+                out[m] = sel[i];
+                m += (v[i] == number) != negate ? 1 : 0;
+            }
+            return m;
+        }
+        Object[] v1 = values(a1, sel, n);
+        Object[] v2 = values(a2, sel, n);
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (negate ? NotEqExpr.isNotEqual(v1[i], v2[i]) : EqExpr.isEqual(v1[i], v2[i])) {
+                out[m++] = sel[i];
+            }
+        }
+        return m;
+    }
+
+    private int selectAll(List<Expr<POJO>> operands, int[] sel, int n, int[] out) {
+        int[] current = sel;
+        int m = n;
+        for (Expr<POJO> operand : operands) {
+            if (m == 0) {
+                break;
+            }
+            int[] next = new int[m];
+            m = select(operand, current, m, next);
+            current = next;
+        }
+        System.arraycopy(current, 0, out, 0, m);
+        return m;
+    }
+
+    private int selectAny(List<Expr<POJO>> operands, int[] sel, int n, int[] out) {
+        // rows leave the rest only when they are accepted, so the accepted rows are the selection minus the rest
+        int[] rest = sel;
+        int restCount = n;
+        for (Expr<POJO> operand : operands) {
+            if (restCount == 0) {
+                break;
+            }
+            int[] matched = new int[restCount];
+            int m = select(operand, rest, restCount, matched);
+            if (m > 0) {
+                int[] remaining = new int[restCount - m];
+                restCount = difference(rest, restCount, matched, m, remaining);
+                rest = remaining;
+            }
+        }
+        return difference(sel, n, rest, restCount, out);
+    }
+
+    /**
+     * @return number of rows of a that are not in b, which is a subset of a; the rows are stored in out
+     */
+    private static int difference(int[] a, int an, int[] b, int bn, int[] out) {
+        int m = 0;
+        int j = 0;
+        for (int i = 0; i < an; i++) {
+            if (j < bn && b[j] == a[i]) {
+                j++;
+            } else {
+                out[m++] = a[i];
+            }
+        }
+        return m;
+    }
+
+    private static int compare(CompareExpression.Operator operator, int[] sel, int n,
+                               double[] v1, double[] v2, int[] out) {
+        // the row is stored unconditionally and kept by advancing the count, so the loops have no branches
+        int m = 0;
+        switch (operator) {
+            case LT:
+                for (int i = 0; i < n; i++) {
+                    out[m] = sel[i];
+                    m += v1[i] < v2[i] ? 1 : 0;
+                }
+                break;
+            case GT:
+                for (int i = 0; i < n; i++) {
+                    out[m] = sel[i];
+                    m += v1[i] > v2[i] ? 1 : 0;
+                }
+                break;
+            case GE:
+                for (int i = 0; i < n; i++) {
+                    out[m] = sel[i];
+                    m += v1[i] >= v2[i] ? 1 : 0;
+                }
+                break;
+            case LE:
+                for (int i = 0; i < n; i++) {
+                    out[m] = sel[i];
+                    m += v1[i] <= v2[i] ? 1 : 0;
+                }
+                break;
+        }
+        return m;
+    }
+
+    /**
+     * @return values of a numeric expression for the selected rows, in the order of the selection
+     */
+    double[] numbers(Expr<POJO> e, int[] sel, int n) {
+        e = unwrap(e);
+        double[] out = new double[n];
+        if (e instanceof NumberExpr) {
+            double number = ((NumberExpr<POJO>) e).number;
+            for (int i = 0; i < n; i++) {
+                out[i] = number;
+            }
+        } else if (e instanceof FieldExpr) {
+            rows.numbers((FieldExpr<POJO>) e, sel, n, out);
+        } else if (e instanceof BinaryArithmeticExpr) {
+            BinaryArithmeticExpr<POJO> a = (BinaryArithmeticExpr<POJO>) e;
+            double[] v1 = numbers(a.arg1, sel, n);
+            double[] v2 = numbers(a.arg2, sel, n);
+            if (a instanceof AddExpr) {
+                for (int i = 0; i < n; i++) {
+                    out[i] = v1[i] + v2[i];
+                }
+            } else if (a instanceof SubtractExpr) {
+                for (int i = 0; i < n; i++) {
+                    out[i] = v1[i] - v2[i];
+                }
+            } else if (a instanceof MultiplyExpr) {
+                for (int i = 0; i < n; i++) {
+                    out[i] = v1[i] * v2[i];
+                }
+            } else {
+                // division and modulo check the divisor
+                for (int i = 0; i < n; i++) {
+                    out[i] = a.arithmCalc(v1[i], v2[i]);
+                }
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                out[i] = rows.number(e, sel[i]);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return values of an expression for the selected rows, in the order of the selection
+     */
+    Object[] values(Expr<POJO> e, int[] sel, int n) {
+        e = unwrap(e);
+        Object[] out = new Object[n];
+        if (e instanceof LiteralExpr || e instanceof NumberExpr) {
+            Object constant = e.eval(null, null);
+            for (int i = 0; i < n; i++) {
+                out[i] = constant;
+            }
+        } else if (e instanceof FieldExpr) {
+            rows.values((FieldExpr<POJO>) e, sel, n, out);
+        } else {
+            for (int i = 0; i < n; i++) {
+                out[i] = rows.value(e, sel[i]);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return the expression tree a compiled or shared expression is evaluated by
+     */
+    private static <POJO> Expr<POJO> unwrap(Expr<POJO> e) {
+        if (e instanceof CompiledExpr) {
+            e = ((CompiledExpr<POJO>) e).source();
+        }
+        if (e instanceof BddExpr) {
+            e = ((BddExpr<POJO>) e).source();
+        }
+        return SharedExpr.unwrap(e);
+    }
+
+    /**
+     * Rows of a batch, and evaluation of an expression on a single row.
+     */
+    abstract static class Rows<POJO> {
+
+        abstract int size();
+
+        abstract boolean test(Expr<POJO> e, int row);
+
+        abstract double number(Expr<POJO> e, int row);
+
+        abstract Object value(Expr<POJO> e, int row);
+
+        abstract TriState tri(Expr<POJO> e, int row);
+
+        /**
+         * @return true if the field can be null for a numeric field, which makes it be read as an object
+         */
+        abstract boolean mayBeNull(FieldExpr<POJO> field);
+
+        /**
+         * @return true if values of the field are doubles that are never null
+         */
+        boolean isNumeric(FieldExpr<POJO> field) {
+            return false;
+        }
+
+        /**
+         * Reads a numeric field for the selected rows.
+         */
+        void numbers(FieldExpr<POJO> field, int[] sel, int n, double[] out) {
+            for (int i = 0; i < n; i++) {
+                out[i] = number(field, sel[i]);
+            }
+        }
+
+        /**
+         * Reads a field for the selected rows.
+         */
+        void values(FieldExpr<POJO> field, int[] sel, int n, Object[] out) {
+            for (int i = 0; i < n; i++) {
+                out[i] = value(field, sel[i]);
+            }
+        }
+    }
+
+    /**
+     * Rows that are POJOs.
+     */
+    static final class PojoRows<POJO> extends Rows<POJO> {
+        private final List<POJO> pojos;
+        private final EvaluationContext<POJO> context;
+
+        PojoRows(List<POJO> pojos, EvaluationContext<POJO> context) {
+            this.pojos = pojos;
+            this.context = context;
+        }
+
+        @Override
+        int size() {
+            return pojos.size();
+        }
+
+        @Override
+        boolean test(Expr<POJO> e, int row) {
+            return e.evalBoolean(pojos.get(row), context);
+        }
+
+        @Override
+        double number(Expr<POJO> e, int row) {
+            return e.evalDouble(pojos.get(row), context);
+        }
+
+        @Override
+        Object value(Expr<POJO> e, int row) {
+            return e.eval(pojos.get(row), context);
+        }
+
+        @Override
+        TriState tri(Expr<POJO> e, int row) {
+            return e.evalTri(pojos.get(row), context);
+        }
+
+        /**
+         * A field overridden by the context is read as an object.
+         */
+        @Override
+        boolean mayBeNull(FieldExpr<POJO> field) {
+            return EvaluationContext.overridesFields(context);
+        }
+    }
+
+    /**
+     * Rows that are stored in columns, each field of the rule is bound to the column of the same name.
+     * <p>
+     * Fields are read from columns directly by operators that are evaluated for the whole selection.
+     * Other expressions are evaluated on a cursor that points to a row, with a context that reads fields
+     * from the columns at the cursor, so the cursor is the only object the evaluation creates per batch.
+     */
+    static final class ColumnRows<POJO> extends Rows<POJO> {
+        private final int size;
+        /**
+         * Columns by field slots
+         */
+        private final Columns.Column[] columns;
+        private final Cursor cursor = new Cursor();
+        private final EvaluationContext<POJO> context;
+
+        @SuppressWarnings("unchecked")
+        ColumnRows(Columns columns, FieldSlots slots) {
+            this.size = columns.size();
+            this.columns = new Columns.Column[slots.size()];
+            Map<String, Function<POJO, Object>> extractors = new HashMap<>();
+            for (int slot = 0; slot < slots.size(); slot++) {
+                String name = slots.name(slot);
+                if (name == null) {
+                    continue;
+                }
+                Columns.Column column = columns.column(name);
+                if (column == null) {
+                    throw new EvalException("No column for field '" + name + "'");
+                }
+                this.columns[slot] = column;
+                extractors.put(name, pojo -> column.value(((Cursor) pojo).row));
+            }
+            this.context = new EvaluationContext<>(slots, extractors, null);
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @SuppressWarnings("unchecked")
+        private POJO at(int row) {
+            cursor.row = row;
+            return (POJO) cursor;
+        }
+
+        @Override
+        boolean test(Expr<POJO> e, int row) {
+            return e.evalBoolean(at(row), context);
+        }
+
+        @Override
+        double number(Expr<POJO> e, int row) {
+            if (e instanceof FieldExpr) {
+                return columns[((FieldExpr<POJO>) e).slot].number(row);
+            }
+            return e.evalDouble(at(row), context);
+        }
+
+        @Override
+        Object value(Expr<POJO> e, int row) {
+            if (e instanceof FieldExpr) {
+                return columns[((FieldExpr<POJO>) e).slot].value(row);
+            }
+            return e.eval(at(row), context);
+        }
+
+        @Override
+        TriState tri(Expr<POJO> e, int row) {
+            return e.evalTri(at(row), context);
+        }
+
+        @Override
+        boolean mayBeNull(FieldExpr<POJO> field) {
+            return !columns[field.slot].isNumeric();
+        }
+
+        @Override
+        boolean isNumeric(FieldExpr<POJO> field) {
+            return columns[field.slot].isNumeric();
+        }
+
+        @Override
+        void numbers(FieldExpr<POJO> field, int[] sel, int n, double[] out) {
+            columns[field.slot].numbers(sel, n, out);
+        }
+
+        private static final class Cursor {
+            int row;
+        }
+    }
+}
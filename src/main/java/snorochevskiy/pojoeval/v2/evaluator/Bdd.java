@@ -0,0 +1,381 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Reduced ordered binary decision diagram of the boolean structure of one or more rules.
+ * <p>
+ * Every distinct atom of the rules (a boolean sub-expression that is not AND / OR / NOT, e.g. {@code level > 3})
+ * is a variable of the diagram. Atoms are compared structurally, so the same atom in different rules is the same
+ * variable. Variables are ordered by the first appearance of the atoms in the rules. Each rule is a root node
+ * of the diagram, and sub-diagrams are shared between rules. Evaluation follows a path from the root to a terminal,
+ * evaluating each atom on the path once. Atoms the result doesn't depend on are not on the path, so only rules
+ * whose atoms cannot fail (see {@link ExprSafety}) are added to the diagram.
+ * <p>
+ * Size of the diagram can grow exponentially with the number of atoms, depending on their order. A rule that
+ * would grow the diagram over {@link #MAX_NODES} is not added, and is to be evaluated by its expression tree.
+ */
+final class Bdd<POJO> implements Serializable {
+
+    static final int FALSE = 0;
+    static final int TRUE = 1;
+
+    /**
+     * Maximum number of nodes, including intermediate ones created while the diagram is built.
+     */
+    static final int MAX_NODES = 1 << 16;
+
+    private final Expr<POJO>[] atoms;
+    /**
+     * Variable, low (atom is false) and high (atom is true) successors of each node, terminals are not included.
+     */
+    private final int[] vars;
+    private final int[] lows;
+    private final int[] highs;
+    private transient ThreadLocal<AtomMemo> memo;
+
+    private Bdd(Expr<POJO>[] atoms, int[] vars, int[] lows, int[] highs) {
+        this.atoms = atoms;
+        this.vars = vars;
+        this.lows = lows;
+        this.highs = highs;
+        this.memo = ThreadLocal.withInitial(AtomMemo::new);
+    }
+
+    /**
+     * Evaluates the diagram from the given root.
+     * @throws EvalException if an atom on the path fails to evaluate
+     */
+    boolean eval(int root, POJO pojo, EvaluationContext<POJO> context) {
+        int node = root;
+        while (node > TRUE) {
+            int i = node - 2;
+            node = atoms[vars[i]].evalBoolean(pojo, context) ? highs[i] : lows[i];
+        }
+        return node == TRUE;
+    }
+
+    /**
+     * Evaluates the diagram from the given root, taking atom values that are already known in the current
+     * evaluation from the memo. See {@link #beginEvaluation()}.
+     * @throws EvalException if an atom on the path fails to evaluate
+     */
+    boolean eval(int root, POJO pojo, EvaluationContext<POJO> context, AtomMemo memo) {
+        int node = root;
+        while (node > TRUE) {
+            int i = node - 2;
+            node = memo.value(vars[i], atoms[vars[i]], pojo, context) ? highs[i] : lows[i];
+        }
+        return node == TRUE;
+    }
+
+    /**
+     * Starts evaluation of several roots for one object.
+     * @return memo of atom values of the current thread, valid until the next call of the method by the thread
+     */
+    AtomMemo beginEvaluation() {
+        AtomMemo m = memo.get();
+        m.begin(atoms.length);
+        return m;
+    }
+
+    /**
+     * @return number of decision nodes, terminals are not counted
+     */
+    int nodeCount() {
+        return vars.length;
+    }
+
+    int atomCount() {
+        return atoms.length;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.memo = ThreadLocal.withInitial(AtomMemo::new);
+    }
+
+    /**
+     * Values of atoms computed during one evaluation. Values are valid for the current epoch only,
+     * so the memo is not cleared between evaluations.
+     */
+    static final class AtomMemo {
+        private static final byte FALSE_VALUE = 1;
+        private static final byte TRUE_VALUE = 2;
+        private static final byte ERROR_VALUE = 3;
+
+        private byte[] values = new byte[0];
+        private int[] stamps = new int[0];
+        private int epoch;
+
+        void begin(int atomCount) {
+            if (values.length < atomCount) {
+                values = new byte[atomCount];
+                stamps = new int[atomCount];
+                epoch = 0;
+            }
+            if (++epoch == 0) {
+                Arrays.fill(stamps, 0);
+                epoch = 1;
+            }
+        }
+
+        <POJO> boolean value(int var, Expr<POJO> atom, POJO pojo, EvaluationContext<POJO> context) {
+            if (stamps[var] == epoch) {
+                if (values[var] == ERROR_VALUE) {
+                    throw new EvalException("Failed to evaluate " + atom);
+                }
+                return values[var] == TRUE_VALUE;
+            }
+            stamps[var] = epoch;
+            values[var] = ERROR_VALUE;
+            boolean v = atom.evalBoolean(pojo, context);
+            values[var] = v ? TRUE_VALUE : FALSE_VALUE;
+            return v;
+        }
+    }
+
+    static <POJO> Builder<POJO> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Builds the diagram with the if-then-else operation over a unique table of nodes,
+     * so equal sub-diagrams are always the same node.
+     */
+    static final class Builder<POJO> {
+        private final List<Expr<POJO>> atoms = new ArrayList<>();
+        private final Map<Expr<POJO>, Integer> atomVars = new HashMap<>();
+        private final List<Integer> roots = new ArrayList<>();
+        private int[] vars = new int[1024];
+        private int[] lows = new int[1024];
+        private int[] highs = new int[1024];
+        private int size = 2;
+        private final Map<Triple, Integer> unique = new HashMap<>();
+        private final Map<Triple, Integer> computed = new HashMap<>();
+
+        /**
+         * Adds a rule to the diagram.
+         * @return index of the rule root, see {@link #roots()}, or -1 if the diagram would exceed {@link #MAX_NODES}
+         *         nodes with the rule, the diagram is not changed then
+         */
+        int add(Expr<POJO> rule) {
+            int nodeMark = size;
+            int atomMark = atoms.size();
+            int root;
+            try {
+                root = build(rule);
+            } catch (NodeLimitExceeded e) {
+                rollback(nodeMark, atomMark);
+                return -1;
+            }
+            roots.add(root);
+            return roots.size() - 1;
+        }
+
+        /**
+         * Removes the nodes and atoms created since the given sizes, and the operation results that refer to them.
+         */
+        private void rollback(int nodeMark, int atomMark) {
+            unique.values().removeIf(node -> node >= nodeMark);
+            computed.entrySet().removeIf(e -> e.getValue() >= nodeMark
+                    || e.getKey().a >= nodeMark || e.getKey().b >= nodeMark || e.getKey().c >= nodeMark);
+            size = nodeMark;
+            while (atoms.size() > atomMark) {
+                atomVars.remove(atoms.remove(atoms.size() - 1));
+            }
+        }
+
+        private int build(Expr<POJO> e) {
+            if (e instanceof BooleanExpr) {
+                return ((BooleanExpr<POJO>) e).value ? TRUE : FALSE;
+            } else if (e instanceof NotExpr) {
+                return ite(build(((NotExpr<POJO>) e).e), FALSE, TRUE);
+            } else if (e instanceof AndExpr) {
+                int result = TRUE;
+                for (Expr<POJO> operand : ((AndExpr<POJO>) e).operands) {
+                    result = ite(result, build(operand), FALSE);
+                }
+                return result;
+            } else if (e instanceof OrExpr) {
+                int result = FALSE;
+                for (Expr<POJO> operand : ((OrExpr<POJO>) e).operands) {
+                    result = ite(result, TRUE, build(operand));
+                }
+                return result;
+            }
+            Integer var = atomVars.get(e);
+            if (var == null) {
+                var = atoms.size();
+                atoms.add(e);
+                atomVars.put(e, var);
+            }
+            return node(var, FALSE, TRUE);
+        }
+
+        private int ite(int f, int g, int h) {
+            if (f == TRUE) {
+                return g;
+            } else if (f == FALSE) {
+                return h;
+            } else if (g == h) {
+                return g;
+            } else if (g == TRUE && h == FALSE) {
+                return f;
+            }
+            Triple key = new Triple(f, g, h);
+            Integer cached = computed.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            int v = Math.min(var(f), Math.min(var(g), var(h)));
+            int low = ite(low(f, v), low(g, v), low(h, v));
+            int high = ite(high(f, v), high(g, v), high(h, v));
+            int result = node(v, low, high);
+            computed.put(key, result);
+            return result;
+        }
+
+        private int var(int node) {
+            return node > TRUE ? vars[node] : Integer.MAX_VALUE;
+        }
+
+        private int low(int node, int var) {
+            return var(node) == var ? lows[node] : node;
+        }
+
+        private int high(int node, int var) {
+            return var(node) == var ? highs[node] : node;
+        }
+
+        private int node(int var, int low, int high) {
+            if (low == high) {
+                return low;
+            }
+            Triple key = new Triple(var, low, high);
+            Integer existing = unique.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            if (size >= MAX_NODES) {
+                throw NodeLimitExceeded.INSTANCE;
+            }
+            if (size == vars.length) {
+                vars = Arrays.copyOf(vars, size * 2);
+                lows = Arrays.copyOf(lows, size * 2);
+                highs = Arrays.copyOf(highs, size * 2);
+            }
+            vars[size] = var;
+            lows[size] = low;
+            highs[size] = high;
+            unique.put(key, size);
+            return size++;
+        }
+
+        /**
+         * Builds the diagram that has only the nodes reachable from the roots.
+         * Root nodes of the rules in the built diagram are returned by {@link #roots()} after that.
+         * @param compileAtoms compile each atom with {@link CompiledExpr}
+         */
+        Bdd<POJO> build(boolean compileAtoms, Class<POJO> msgClass) {
+            int[] remap = new int[size];
+            Arrays.fill(remap, -1);
+            remap[FALSE] = FALSE;
+            remap[TRUE] = TRUE;
+            List<Integer> order = new ArrayList<>();
+            for (int root : roots) {
+                collect(root, remap, order);
+            }
+            int n = order.size();
+            int[] newVars = new int[n];
+            int[] newLows = new int[n];
+            int[] newHighs = new int[n];
+            for (int i = 0; i < n; i++) {
+                int old = order.get(i);
+                newVars[i] = vars[old];
+                newLows[i] = remap[lows[old]];
+                newHighs[i] = remap[highs[old]];
+            }
+            for (int i = 0; i < roots.size(); i++) {
+                roots.set(i, remap[roots.get(i)]);
+            }
+            unique.clear();
+            computed.clear();
+            @SuppressWarnings("unchecked")
+            Expr<POJO>[] builtAtoms = atoms.toArray((Expr<POJO>[]) new Expr<?>[atoms.size()]);
+            if (compileAtoms) {
+                for (int i = 0; i < builtAtoms.length; i++) {
+                    builtAtoms[i] = new CompiledExpr<>(builtAtoms[i], msgClass);
+                }
+            }
+            return new Bdd<>(builtAtoms, newVars, newLows, newHighs);
+        }
+
+        /**
+         * Numbers reachable nodes in post-order, so successors are numbered before their parents.
+         */
+        private void collect(int node, int[] remap, List<Integer> order) {
+            if (remap[node] >= 0) {
+                return;
+            }
+            collect(lows[node], remap, order);
+            collect(highs[node], remap, order);
+            remap[node] = order.size() + 2;
+            order.add(node);
+        }
+
+        /**
+         * @return root nodes of the added rules, in the order they were added
+         */
+        int[] roots() {
+            return roots.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Thrown while a rule is added, when the diagram would exceed {@link #MAX_NODES} nodes.
+     */
+    private static final class NodeLimitExceeded extends RuntimeException {
+        static final NodeLimitExceeded INSTANCE = new NodeLimitExceeded();
+
+        private NodeLimitExceeded() {
+            super("Decision diagram exceeds " + MAX_NODES + " nodes", null, false, false);
+        }
+    }
+
+    private static final class Triple {
+        final int a;
+        final int b;
+        final int c;
+
+        Triple(int a, int b, int c) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Triple)) {
+                return false;
+            }
+            Triple other = (Triple) o;
+            return a == other.a && b == other.b && c == other.c;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(a, b, c);
+        }
+    }
+}
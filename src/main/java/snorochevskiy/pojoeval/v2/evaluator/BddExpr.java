@@ -0,0 +1,91 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+/**
+ * Boolean rule that is evaluated by a path in a {@link Bdd}, so each atom of the rule is evaluated at most once.
+ * <p>
+ * The diagram evaluates atoms in a different order than the written one, and skips atoms the result doesn't
+ * depend on, so it's built only for rules whose atoms cannot fail (see {@link ExprSafety}), and is used only
+ * for POJOs the check holds for. Other evaluations, as well as three-valued evaluation, are done
+ * by the source expression tree. If an atom fails anyway, the rule is evaluated again by the source expression tree.
+ */
+final class BddExpr<POJO> implements Expr<POJO> {
+
+    private final Bdd<POJO> bdd;
+    private final int root;
+    private final Expr<POJO> source;
+    private final Class<POJO> msgClass;
+
+    private BddExpr(Bdd<POJO> bdd, int root, Expr<POJO> source, Class<POJO> msgClass) {
+        this.bdd = bdd;
+        this.root = root;
+        this.source = source;
+        this.msgClass = msgClass;
+    }
+
+    /**
+     * Builds the diagram of a boolean expression whose atoms cannot fail.
+     * @param compileAtoms compile each atom with {@link CompiledExpr}
+     * @return null if the diagram would exceed {@link Bdd#MAX_NODES} nodes
+     */
+    static <POJO> BddExpr<POJO> build(Expr<POJO> source, boolean compileAtoms, Class<POJO> msgClass) {
+        Bdd.Builder<POJO> builder = Bdd.builder();
+        if (builder.add(source) < 0) {
+            return null;
+        }
+        Bdd<POJO> bdd = builder.build(compileAtoms, msgClass);
+        return new BddExpr<>(bdd, builder.roots()[0], source, msgClass);
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.BOOL;
+    }
+
+    @Override
+    public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
+        return evalBoolean(pojo, context);
+    }
+
+    @Override
+    public boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        if (!ExprSafety.appliesTo(pojo, context, msgClass)) {
+            return source.evalBoolean(pojo, context);
+        }
+        try {
+            return bdd.eval(root, pojo, context);
+        } catch (RuntimeException e) {
+            return source.evalBoolean(pojo, context);
+        }
+    }
+
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        return source.evalTri(pojo, context);
+    }
+
+    /**
+     * @return number of decision nodes of the diagram
+     */
+    int nodeCount() {
+        return bdd.nodeCount();
+    }
+
+    Expr<POJO> source() {
+        return source;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BddExpr && source.equals(((BddExpr<?>) o).source);
+    }
+
+    @Override
+    public int hashCode() {
+        return source.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return source.toString();
+    }
+}
@@ -0,0 +1,92 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.Objects;
+
+abstract class BinaryArithmeticExpr<POJO> implements Expr<POJO> {
+
+    final Expr<POJO> arg1;
+    final Expr<POJO> arg2;
+
+    BinaryArithmeticExpr(Expr<POJO> arg1, Expr<POJO> arg2) {
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.NUM;
+    }
+
+    @Override
+    public Double eval(POJO pojo, EvaluationContext<POJO> context) {
+        return evalDouble(pojo, context);
+    }
+
+    @Override
+    public double evalDouble(POJO pojo, EvaluationContext<POJO> context) {
+        double n1 = arg1.evalDouble(pojo, context);
+        double n2 = arg2.evalDouble(pojo, context);
+        return arithmCalc(n1, n2);
+    }
+
+    @Override
+    public Object evalValue(POJO pojo, EvaluationContext<POJO> context) {
+        Object v1 = arg1.evalValue(pojo, context);
+        if (!(v1 instanceof Number)) {
+            return Values.ERROR;
+        }
+        Object v2 = arg2.evalValue(pojo, context);
+        if (!(v2 instanceof Number)) {
+            return Values.ERROR;
+        }
+        double n2 = ((Number) v2).doubleValue();
+        return isUndefined(n2) ? Values.ERROR : (Object) arithmCalc(((Number) v1).doubleValue(), n2);
+    }
+
+    @Override
+    public double evalNumber(POJO pojo, EvaluationContext<POJO> context) {
+        return arithmCalcOrNaN(arg1.evalNumber(pojo, context), arg2.evalNumber(pojo, context));
+    }
+
+    abstract double arithmCalc(double n1, double n2);
+
+    /**
+     * Same as {@link #arithmCalc(double, double)}, but returns NaN instead of throwing.
+     */
+    double arithmCalcOrNaN(double n1, double n2) {
+        return isUndefined(n2) ? Double.NaN : arithmCalc(n1, n2);
+    }
+
+    /**
+     * @return true if the operation fails for the given second argument, e.g. division by zero
+     */
+    boolean isUndefined(double n2) {
+        return false;
+    }
+
+    abstract String operator();
+
+    /**
+     * @return the same operation applied to other arguments
+     */
+    abstract BinaryArithmeticExpr<POJO> withArgs(Expr<POJO> arg1, Expr<POJO> arg2);
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == null || o.getClass() != getClass()) {
+            return false;
+        }
+        BinaryArithmeticExpr<?> other = (BinaryArithmeticExpr<?>) o;
+        return arg1.equals(other.arg1) && arg2.equals(other.arg2);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getClass(), arg1, arg2);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + arg1 + " " + operator() + " " + arg2 + ")";
+    }
+}
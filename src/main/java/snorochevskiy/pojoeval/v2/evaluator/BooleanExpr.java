@@ -0,0 +1,48 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+/**
+ * Boolean constant. There is no boolean literal in the DSL, such nodes are produced by constant folding.
+ */
+final class BooleanExpr<POJO> implements Expr<POJO> {
+
+    final boolean value;
+
+    BooleanExpr(boolean value) {
+        this.value = value;
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.BOOL;
+    }
+
+    @Override
+    public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
+        return value;
+    }
+
+    @Override
+    public boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        return value;
+    }
+
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        return TriState.of(value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BooleanExpr && value == ((BooleanExpr<?>) o).value;
+    }
+
+    @Override
+    public int hashCode() {
+        return Boolean.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return value ? "TRUE" : "FALSE";
+    }
+}
@@ -0,0 +1,229 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A batch of rows stored by columns: each column is an array of values of one field for all rows,
+ * e.g. an {@code int[]} of levels and a {@code String[]} of host names.
+ * <p>
+ * Rules are evaluated on columns with {@link Evaluator#evaluateColumns(Columns)}, which binds each field
+ * of the rule to the column of the same name. Values of numeric columns are doubles, like numbers in rules,
+ * so e.g. {@code level = 5} holds for a row with level 5 in an {@code int[]} column.
+ * Arrays are not copied, so a column can be updated between evaluations.
+ */
+public final class Columns {
+
+    private final int size;
+    private final Map<String, Column> columns = new HashMap<>();
+
+    /**
+     * @param size number of rows, which is the length of each column
+     */
+    public Columns(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Number of rows must be non-negative: " + size);
+        }
+        this.size = size;
+    }
+
+    public Columns add(String name, double[] values) {
+        checkLength(name, values.length);
+        columns.put(name, new DoubleColumn(values));
+        return this;
+    }
+
+    public Columns add(String name, int[] values) {
+        checkLength(name, values.length);
+        columns.put(name, new IntColumn(values));
+        return this;
+    }
+
+    public Columns add(String name, long[] values) {
+        checkLength(name, values.length);
+        columns.put(name, new LongColumn(values));
+        return this;
+    }
+
+    /**
+     * Adds a column of objects, e.g. strings or boxed numbers, which can contain nulls.
+     * @return
+     */
+    public Columns add(String name, Object[] values) {
+        checkLength(name, values.length);
+        columns.put(name, new ObjectColumn(values));
+        return this;
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return column with the given name, or null
+     */
+    Column column(String name) {
+        return columns.get(name);
+    }
+
+    private void checkLength(String name, int length) {
+        if (length != size) {
+            throw new IllegalArgumentException("Column '" + name + "' has " + length + " rows instead of " + size);
+        }
+    }
+
+    abstract static class Column {
+
+        /**
+         * @return true if values are primitive numbers, so they are never null
+         */
+        abstract boolean isNumeric();
+
+        abstract Object value(int row);
+
+        abstract double number(int row);
+
+        /**
+         * Reads numbers of the selected rows.
+         */
+        void numbers(int[] sel, int n, double[] out) {
+            for (int i = 0; i < n; i++) {
+                out[i] = number(sel[i]);
+            }
+        }
+    }
+
+    // if all rows are selected, the selection is 0, 1, 2 ..., so numeric columns are read without indirection
+
+    private static final class DoubleColumn extends Column {
+        private final double[] values;
+
+        DoubleColumn(double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        boolean isNumeric() {
+            return true;
+        }
+
+        @Override
+        Object value(int row) {
+            return values[row];
+        }
+
+        @Override
+        double number(int row) {
+            return values[row];
+        }
+
+        @Override
+        void numbers(int[] sel, int n, double[] out) {
+            if (n == values.length) {
+                System.arraycopy(values, 0, out, 0, n);
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                out[i] = values[sel[i]];
+            }
+        }
+    }
+
+    private static final class IntColumn extends Column {
+        private final int[] values;
+
+        IntColumn(int[] values) {
+            this.values = values;
+        }
+
+        @Override
+        boolean isNumeric() {
+            return true;
+        }
+
+        @Override
+        Object value(int row) {
+            return (double) values[row];
+        }
+
+        @Override
+        double number(int row) {
+            return values[row];
+        }
+
+        @Override
+        void numbers(int[] sel, int n, double[] out) {
+            if (n == values.length) {
+                for (int i = 0; i < n; i++) {
+                    out[i] = values[i];
+                }
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                out[i] = values[sel[i]];
+            }
+        }
+    }
+
+    private static final class LongColumn extends Column {
+        private final long[] values;
+
+        LongColumn(long[] values) {
+            this.values = values;
+        }
+
+        @Override
+        boolean isNumeric() {
+            return true;
+        }
+
+        @Override
+        Object value(int row) {
+            return (double) values[row];
+        }
+
+        @Override
+        double number(int row) {
+            return values[row];
+        }
+
+        @Override
+        void numbers(int[] sel, int n, double[] out) {
+            if (n == values.length) {
+                for (int i = 0; i < n; i++) {
+                    out[i] = values[i];
+                }
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                out[i] = values[sel[i]];
+            }
+        }
+    }
+
+    private static final class ObjectColumn extends Column {
+        private final Object[] values;
+
+        ObjectColumn(Object[] values) {
+            this.values = values;
+        }
+
+        @Override
+        boolean isNumeric() {
+            return false;
+        }
+
+        @Override
+        Object value(int row) {
+            return values[row];
+        }
+
+        @Override
+        double number(int row) {
+            return Values.toDouble(values[row]);
+        }
+    }
+}
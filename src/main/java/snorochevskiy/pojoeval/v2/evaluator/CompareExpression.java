@@ -0,0 +1,92 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.Objects;
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+
+final class CompareExpression<POJO> implements Expr<POJO> {
+
+    final Expr<POJO> arg1;
+    final Expr<POJO> arg2;
+    final Operator operator;
+
+    CompareExpression(Expr<POJO> arg1, Expr<POJO> arg2, String operator) {
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+        this.operator = Operator.of(operator);
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.BOOL;
+    }
+
+    @Override
+    public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
+        return evalBoolean(pojo, context);
+    }
+
+    @Override
+    public boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        double n1 = arg1.evalDouble(pojo, context);
+        double n2 = arg2.evalDouble(pojo, context);
+        return operator.compare(n1, n2);
+    }
+
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        double n1 = arg1.evalNumber(pojo, context);
+        double n2 = arg2.evalNumber(pojo, context);
+        if (Values.isError(n1, arg1, pojo, context) || Values.isError(n2, arg2, pojo, context)) {
+            return TriState.UNKNOWN;
+        }
+        return TriState.of(operator.compare(n1, n2));
+    }
+
+    enum Operator {
+        LT("<"), GT(">"), GE(">="), LE("<=");
+
+        final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        boolean compare(double n1, double n2) {
+            switch (this) {
+                case LT : return n1 < n2;
+                case GT : return n1 > n2;
+                case GE : return n1 >= n2;
+                case LE : return n1 <= n2;
+            }
+            throw new EvalException("Unexpected comparison type: " + symbol);
+        }
+
+        static Operator of(String symbol) {
+            for (Operator op : values()) {
+                if (op.symbol.equals(symbol)) {
+                    return op;
+                }
+            }
+            throw new EvalException("Unexpected comparison type: " + symbol);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CompareExpression)) {
+            return false;
+        }
+        CompareExpression<?> other = (CompareExpression<?>) o;
+        return operator == other.operator && arg1.equals(other.arg1) && arg2.equals(other.arg2);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(operator, arg1, arg2);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + arg1 + " " + operator.symbol + " " + arg2 + ")";
+    }
+}
@@ -0,0 +1,108 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.lang.invoke.MethodHandle;
+
+/**
+ * Expression that is evaluated by a method handle compiled by {@link ExprCompiler} from the parsed expression tree.
+ * Method handles are not serializable, so the handle is recompiled from the source tree after deserialization.
+ */
+final class CompiledExpr<POJO> implements Expr<POJO> {
+
+    private final Expr<POJO> source;
+    private final Class<POJO> msgClass;
+    private transient MethodHandle handle;
+    private transient MethodHandle booleanHandle;
+    private transient MethodHandle doubleHandle;
+
+    CompiledExpr(Expr<POJO> source, Class<POJO> msgClass) {
+        this.source = source;
+        this.msgClass = msgClass;
+        compile();
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return source.resultType();
+    }
+
+    @Override
+    public Object eval(POJO pojo, EvaluationContext<POJO> context) {
+        try {
+            return (Object) handle.invokeExact((Object) pojo, (EvaluationContext) context);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new EvalException("Failed to evaluate compiled rule", t);
+        }
+    }
+
+    @Override
+    public boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        if (booleanHandle == null) {
+            return Values.toBoolean(eval(pojo, context));
+        }
+        try {
+            return (boolean) booleanHandle.invokeExact((Object) pojo, (EvaluationContext) context);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new EvalException("Failed to evaluate compiled rule", t);
+        }
+    }
+
+    @Override
+    public double evalDouble(POJO pojo, EvaluationContext<POJO> context) {
+        if (doubleHandle == null) {
+            return Values.toDouble(eval(pojo, context));
+        }
+        try {
+            return (double) doubleHandle.invokeExact((Object) pojo, (EvaluationContext) context);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new EvalException("Failed to evaluate compiled rule", t);
+        }
+    }
+
+    /**
+     * Exception-free evaluation is not compiled, it is delegated to the source expression tree.
+     */
+    @Override
+    public Object evalValue(POJO pojo, EvaluationContext<POJO> context) {
+        return source.evalValue(pojo, context);
+    }
+
+    @Override
+    public double evalNumber(POJO pojo, EvaluationContext<POJO> context) {
+        return source.evalNumber(pojo, context);
+    }
+
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        return source.evalTri(pojo, context);
+    }
+
+    Expr<POJO> source() {
+        return source;
+    }
+
+    @Override
+    public String toString() {
+        return source.toString();
+    }
+
+    private void compile() {
+        this.handle = ExprCompiler.compile(source, msgClass, Object.class);
+        this.booleanHandle = source.isBool() ? ExprCompiler.compile(source, msgClass, boolean.class) : null;
+        this.doubleHandle = source.isNum() ? ExprCompiler.compile(source, msgClass, double.class) : null;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        compile();
+    }
+}
@@ -0,0 +1,81 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.Objects;
+
+final class EqExpr<POJO> implements Expr<POJO> {
+
+    final Expr<POJO> arg1;
+    final Expr<POJO> arg2;
+
+    EqExpr(Expr<POJO> arg1, Expr<POJO> arg2) {
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.BOOL;
+    }
+
+    @Override
+    public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
+        return evalBoolean(pojo, context);
+    }
+
+    @Override
+    public boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        Object v1 = arg1.eval(pojo, context);
+        Object v2 = arg2.eval(pojo, context);
+        return isEqual(v1, v2);
+    }
+
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        Object v1 = arg1.evalValue(pojo, context);
+        Object v2 = arg2.evalValue(pojo, context);
+        if (v1 == Values.ERROR || v2 == Values.ERROR) {
+            return TriState.UNKNOWN;
+        }
+        return TriState.of(isEqual(v1, v2));
+    }
+
+    /**
+     * Equality of '=' and '!='. Numbers are equal if their double values are, regardless of their boxed types,
+     * and a number is equal to a string that holds the same number in the DSL format (e.g. {@code '5'}).
+     * Null is equal to null and to the {@code 'null'} literal.
+     */
+    static boolean isEqual(Object v1, Object v2) {
+        if (v1 == null) {
+            return v2 == null || "null".equals(v2);
+        }
+        if (v1 instanceof Number) {
+            if (v2 instanceof Number) {
+                return ((Number) v1).doubleValue() == ((Number) v2).doubleValue();
+            } else if (v2 instanceof String) {
+                return Values.isNumber((String) v2) && ((Number) v1).doubleValue() == Double.parseDouble((String) v2);
+            }
+        } else if (v1 instanceof String && v2 instanceof Number) {
+            return Values.isNumber((String) v1) && Double.parseDouble((String) v1) == ((Number) v2).doubleValue();
+        }
+        return v1.equals(v2);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof EqExpr)) {
+            return false;
+        }
+        EqExpr<?> other = (EqExpr<?>) o;
+        return arg1.equals(other.arg1) && arg2.equals(other.arg2);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(EqExpr.class, arg1, arg2);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + arg1 + " = " + arg2 + ")";
+    }
+}
@@ -0,0 +1,103 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Evaluation context used by the engine during a single evaluation, to evaluate each memoized field
+ * (see {@link FieldSlots#isMemoized(int)}) at most once.
+ * <p>
+ * Frames are reused: there is one per thread, and a value in it is valid only if it was stored
+ * during the current evaluation, which is tracked with an epoch number instead of clearing the frame.
+ * Field overrides are taken from the user's context the evaluation was started with.
+ */
+final class EvalFrame<POJO> extends EvaluationContext<POJO> {
+
+    private static final ThreadLocal<EvalFrame<?>> FRAMES = ThreadLocal.withInitial(EvalFrame::new);
+
+    private EvaluationContext<POJO> user;
+    private Object[] values = new Object[8];
+    private int[] stamps = new int[8];
+    private int epoch;
+    private int[] written = new int[8];
+    private int writtenCount;
+    private boolean inUse;
+
+    private EvalFrame() {
+        super(null, null);
+    }
+
+    /**
+     * Returns the frame of the current thread, or a new one if the thread's frame is already in use
+     * (e.g. a field extractor evaluates another rule).
+     */
+    @SuppressWarnings("unchecked")
+    static <POJO> EvalFrame<POJO> begin(int slotCount, EvaluationContext<POJO> user) {
+        EvalFrame<POJO> frame = (EvalFrame<POJO>) FRAMES.get();
+        if (frame.inUse) {
+            frame = new EvalFrame<>();
+        }
+        frame.inUse = true;
+        frame.user = user;
+        if (frame.values.length < slotCount) {
+            frame.values = new Object[slotCount];
+            frame.stamps = new int[slotCount];
+            frame.written = new int[slotCount];
+            frame.epoch = 0;
+        }
+        if (++frame.epoch == 0) {
+            Arrays.fill(frame.stamps, 0);
+            frame.epoch = 1;
+        }
+        return frame;
+    }
+
+    /**
+     * Releases the frame and references to the values of the finished evaluation.
+     */
+    void end() {
+        for (int i = 0; i < writtenCount; i++) {
+            values[written[i]] = null;
+        }
+        writtenCount = 0;
+        user = null;
+        inUse = false;
+    }
+
+    boolean has(int slot) {
+        return stamps[slot] == epoch;
+    }
+
+    Object get(int slot) {
+        return values[slot];
+    }
+
+    void put(int slot, Object value) {
+        if (stamps[slot] != epoch) {
+            stamps[slot] = epoch;
+            written[writtenCount++] = slot;
+        }
+        values[slot] = value;
+    }
+
+    @Override
+    public Map<String, Function<POJO, Object>> getFieldExtractorsMap() {
+        return user != null ? user.getFieldExtractorsMap() : null;
+    }
+
+    @Override
+    public ExternalFieldsExtractor<POJO> getExternalFieldsExtractor() {
+        return user != null ? user.getExternalFieldsExtractor() : null;
+    }
+
+    @Override
+    Function<POJO, Object> getFieldExtractor(FieldSlots slots, int slot) {
+        return user != null ? user.getFieldExtractor(slots, slot) : null;
+    }
+
+    @Override
+    boolean overridesFields() {
+        return user != null && user.overridesFields();
+    }
+}
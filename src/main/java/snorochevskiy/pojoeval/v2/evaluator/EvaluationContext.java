@@ -3,9 +3,17 @@ package snorochevskiy.pojoeval.v2.evaluator;
 import java.util.Map;
 import java.util.function.Function;
 
+/**
+ * Per-call overrides for the way rule fields are evaluated.
+ * <p>
+ * Field extractors given by name are resolved to the field slots of the evaluator the context is used with.
+ * Contexts created with {@link Evaluator#createContext(Map, ExternalFieldsExtractor)} are resolved up front,
+ * others are resolved on the first use with a given evaluator.
+ */
 public class EvaluationContext<POJO> {
     private Map<String, Function<POJO,Object>> fieldExtractorsMap;
     private ExternalFieldsExtractor<POJO> externalFieldsExtractor;
+    private volatile SlotBinding<POJO> slotBinding;
 
     public EvaluationContext(Map<String, Function<POJO, Object>> fieldExtractorsMap,
                              ExternalFieldsExtractor<POJO> externalFieldsExtractor) {
@@ -13,6 +21,12 @@ public class EvaluationContext<POJO> {
         this.externalFieldsExtractor = externalFieldsExtractor;
     }
 
+    EvaluationContext(FieldSlots slots, Map<String, Function<POJO, Object>> fieldExtractorsMap,
+                      ExternalFieldsExtractor<POJO> externalFieldsExtractor) {
+        this(fieldExtractorsMap, externalFieldsExtractor);
+        this.slotBinding = bind(slots);
+    }
+
     public Map<String, Function<POJO, Object>> getFieldExtractorsMap() {
         return fieldExtractorsMap;
     }
@@ -20,4 +34,52 @@ public class EvaluationContext<POJO> {
     public ExternalFieldsExtractor<POJO> getExternalFieldsExtractor() {
         return externalFieldsExtractor;
     }
+
+    /**
+     * @return true if the context can override values of rule fields
+     */
+    boolean overridesFields() {
+        return externalFieldsExtractor != null || fieldExtractorsMap != null && !fieldExtractorsMap.isEmpty();
+    }
+
+    static boolean overridesFields(EvaluationContext<?> context) {
+        return context != null && context.overridesFields();
+    }
+
+    /**
+     * @return extractor overriding the field in given slot, or null
+     */
+    Function<POJO, Object> getFieldExtractor(FieldSlots slots, int slot) {
+        SlotBinding<POJO> binding = slotBinding;
+        if (binding == null || binding.slots != slots) {
+            binding = bind(slots);
+            slotBinding = binding;
+        }
+        return binding.extractors != null ? binding.extractors[slot] : null;
+    }
+
+    private SlotBinding<POJO> bind(FieldSlots slots) {
+        if (fieldExtractorsMap == null || fieldExtractorsMap.isEmpty()) {
+            return new SlotBinding<>(slots, null);
+        }
+        @SuppressWarnings("unchecked")
+        Function<POJO, Object>[] extractors = (Function<POJO, Object>[]) new Function<?, ?>[slots.size()];
+        for (Map.Entry<String, Function<POJO, Object>> e : fieldExtractorsMap.entrySet()) {
+            int slot = slots.find(e.getKey());
+            if (slot >= 0) {
+                extractors[slot] = e.getValue();
+            }
+        }
+        return new SlotBinding<>(slots, extractors);
+    }
+
+    private static final class SlotBinding<POJO> {
+        final FieldSlots slots;
+        final Function<POJO, Object>[] extractors;
+
+        SlotBinding(FieldSlots slots, Function<POJO, Object>[] extractors) {
+            this.slots = slots;
+            this.extractors = extractors;
+        }
+    }
 }
@@ -3,25 +3,36 @@ package snorochevskiy.pojoeval.v2.evaluator;
 import snorochevskiy.pojoeval.v2.evaluator.exception.DslError;
 import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
 import snorochevskiy.pojoeval.v2.reflect.ReflectionUtils;
-import snorochevskiy.pojoeval.v2.util.Opt;
+import snorochevskiy.pojoeval.v2.util.DoubleHashSet;
 import org.antlr.v4.runtime.*;
 
 import snorochevskiy.pojoeval.v2.dsl.parser.RuleDslLexer;
 import snorochevskiy.pojoeval.v2.dsl.parser.RuleDslParser;
 import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
  * This class represents an engine for executing DSL expressions on POJOs.
+ * <p>
+ * Evaluator is immutable once built and is safe to share between threads: all evaluation methods can be called
+ * concurrently, including for rules compiled to bytecode or to a decision diagram. Per-evaluation state
+ * (memoized values) is kept per thread, and caches (reflection accessors, statistics of
+ * {@link Builder#adaptiveReordering()}) are updated without locks in a way that doesn't affect results.
+ * Field extractors given to the builder are expected to be thread-safe too.
  * @param <POJO> class of POJO that rules are to be evaluated on. Used only for rules validation.
  */
 public class Evaluator<POJO, R> implements Serializable {
@@ -29,15 +40,23 @@ public class Evaluator<POJO, R> implements Serializable {
     protected final Expr<POJO> compiled;
     protected final Class<POJO> msgClass;
     protected final Class<R> expectedResultType;
-    protected Map<String, Function<POJO,Object>> fieldExtractors = new HashMap<>();
-    protected boolean useReflection;
+    protected final Map<String, Function<POJO,Object>> fieldExtractors;
+    protected final boolean useReflection;
+    private final FieldSlots fieldSlots;
+    /**
+     * Value UNKNOWN results are mapped to when boolean rules are evaluated in three-valued logic,
+     * null if errors are reported with exceptions.
+     */
+    private final Boolean unknownAs;
 
-    private Evaluator(String rule, Class<POJO> msgClass, Class<R> expectedResultType, Map<String,
-            Function<POJO,Object>> fieldExtractors, boolean useReflection) {
-        this.msgClass = msgClass;
+    private Evaluator(Builder<POJO> builder, Class<R> expectedResultType) {
+        String rule = builder.rule;
+        this.msgClass = builder.pojoClass;
         this.expectedResultType = expectedResultType;
-        this.fieldExtractors.putAll(fieldExtractors);
-        this.useReflection = useReflection;
+        this.fieldExtractors = Collections.unmodifiableMap(new HashMap<>(builder.fieldExtractors));
+        this.useReflection = builder.useReflection;
+        this.unknownAs = builder.unknownAs;
+        this.fieldSlots = builder.fieldSlots != null ? builder.fieldSlots : new FieldSlots();
 
         RuleDslLexer lexer = new RuleDslLexer(CharStreams.fromString(rule));
 
@@ -47,7 +66,26 @@ public class Evaluator<POJO, R> implements Serializable {
 
         try {
             RuleDslParser.TopExprContext topExprContext = parser.topExpr();
-            this.compiled = parseTopExpr(topExprContext);
+            Expr<POJO> expr = parseTopExpr(topExprContext);
+            if (builder.optimize) {
+                expr = ExprOptimizer.optimize(expr);
+            }
+            if (builder.interner != null) {
+                expr = builder.interner.intern(expr);
+            }
+            fieldSlots.seal();
+            BddExpr<POJO> bdd = builder.compileToBdd && expr.resultType() == ExprResType.BOOL
+                    && ExprSafety.cannotFail(expr)
+                    ? BddExpr.build(expr, builder.compileToBytecode, msgClass)
+                    : null;
+            if (bdd != null) {
+                this.compiled = bdd;
+            } else {
+                if (builder.adaptiveReordering) {
+                    expr = AdaptiveJunctionExpr.install(expr, msgClass);
+                }
+                this.compiled = builder.compileToBytecode ? new CompiledExpr<>(expr, msgClass) : expr;
+            }
         } catch (ParseCancellationException e) {
             Throwable cause = e.getCause();
             if (cause instanceof RecognitionException) {
@@ -69,21 +107,228 @@ public class Evaluator<POJO, R> implements Serializable {
      * @return
      */
     public R evaluate(POJO pojo) {
-        Object res = compiled.eval(pojo, null);
-        if (!expectedResultType.isAssignableFrom(res.getClass())) {
-            throw new EvalException("");
-        }
-        return (R) res;
+        return evaluate(pojo, null);
     }
 
     public R evaluate(POJO pojo, EvaluationContext context) {
-        Object res = compiled.eval(pojo, context);
+        if (unknownAs != null && expectedResultType == Boolean.class) {
+            return (R) Boolean.valueOf(test(pojo, context));
+        }
+        Object res;
+        if (fieldSlots.hasMemoized()) {
+            EvalFrame<POJO> frame = EvalFrame.begin(fieldSlots.size(), context);
+            try {
+                res = compiled.eval(pojo, frame);
+            } finally {
+                frame.end();
+            }
+        } else {
+            res = compiled.eval(pojo, context);
+        }
         if (!expectedResultType.isAssignableFrom(res.getClass())) {
             throw new EvalException("");
         }
         return (R) res;
     }
 
+    /**
+     * Evaluate boolean rule on a given object without boxing the result.
+     * @param pojo
+     * @return
+     */
+    public boolean test(POJO pojo) {
+        return test(pojo, null);
+    }
+
+    public boolean test(POJO pojo, EvaluationContext<POJO> context) {
+        if (!fieldSlots.hasMemoized()) {
+            return testInFrame(pojo, context);
+        }
+        EvalFrame<POJO> frame = EvalFrame.begin(fieldSlots.size(), context);
+        try {
+            return testInFrame(pojo, frame);
+        } finally {
+            frame.end();
+        }
+    }
+
+    /**
+     * Evaluates boolean rule with a context that is already set up for memoization, if it's needed.
+     */
+    boolean testInFrame(POJO pojo, EvaluationContext<POJO> context) {
+        return unknownAs != null
+                ? compiled.evalTri(pojo, context).toBoolean(unknownAs)
+                : compiled.evalBoolean(pojo, context);
+    }
+
+    /**
+     * Evaluate boolean rule on a batch of objects.
+     * <p>
+     * The rule is evaluated an operator at a time for the whole batch rather than an object at a time:
+     * e.g. a comparison reads the field of all objects, then compares all values in one loop,
+     * and AND / OR / NOT combine sets of selected objects. Results are the same as of {@link #test(Object)}
+     * for each object, and {@link EvalException} is thrown if the rule fails on any of the objects.
+     * @param pojos
+     * @return positions of objects the rule is true for
+     */
+    public BitSet evaluateBatch(List<POJO> pojos) {
+        BitSet result = new BitSet(pojos.size());
+        evaluateBatch(pojos, null, result);
+        return result;
+    }
+
+    /**
+     * Evaluate boolean rule on a batch of objects, see {@link #evaluateBatch(List)}.
+     * @param pojos
+     * @param result bitset positions of objects the rule is true for are stored in, it's cleared first
+     */
+    public void evaluateBatch(POJO[] pojos, BitSet result) {
+        evaluateBatch(Arrays.asList(pojos), null, result);
+    }
+
+    public void evaluateBatch(List<POJO> pojos, EvaluationContext<POJO> context, BitSet result) {
+        checkBatchRule();
+        if (unknownAs != null) {
+            // three-valued logic is evaluated an object at a time
+            result.clear();
+            for (int i = 0; i < pojos.size(); i++) {
+                if (test(pojos.get(i), context)) {
+                    result.set(i);
+                }
+            }
+            return;
+        }
+        new BatchEvaluation<>(new BatchEvaluation.PojoRows<>(pojos, context)).evaluate(compiled, result);
+    }
+
+    /**
+     * Evaluate boolean rule on rows stored in columns (see {@link Columns}) instead of POJOs.
+     * Each field of the rule is read from the column of the same name, which must be present.
+     * Like {@link #evaluateBatch(List)}, the rule is evaluated an operator at a time, and comparisons,
+     * equality and arithmetic read numeric columns in loops over primitive arrays.
+     * @param columns
+     * @return positions of rows the rule is true for
+     */
+    public BitSet evaluateColumns(Columns columns) {
+        BitSet result = new BitSet(columns.size());
+        evaluateColumns(columns, result);
+        return result;
+    }
+
+    public void evaluateColumns(Columns columns, BitSet result) {
+        checkBatchRule();
+        BatchEvaluation<POJO> batch = new BatchEvaluation<>(new BatchEvaluation.ColumnRows<>(columns, fieldSlots));
+        if (unknownAs != null) {
+            batch.evaluateTri(compiled, unknownAs, result);
+        } else {
+            batch.evaluate(compiled, result);
+        }
+    }
+
+    /**
+     * Selects objects of a collection the boolean rule is true for, evaluating the rule on parts of the collection
+     * in parallel in the common fork-join pool.
+     * @return objects the rule is true for, in the order of the collection
+     */
+    public List<POJO> filter(Collection<POJO> pojos) {
+        return new ParallelFilter<>(this, true, false).run(pojos, ForkJoinPool.commonPool()).matched;
+    }
+
+    /**
+     * Same as {@link #filter(Collection)}, but evaluates the rule in a pool of the given parallelism,
+     * which is created for the call, or in the calling thread if parallelism is 1.
+     */
+    public List<POJO> filter(Collection<POJO> pojos, int parallelism) {
+        return new ParallelFilter<>(this, true, false).run(pojos, parallelism).matched;
+    }
+
+    /**
+     * Counts objects of a collection the boolean rule is true for, like {@link #filter(Collection)}.
+     */
+    public long count(Collection<POJO> pojos) {
+        return new ParallelFilter<>(this, false, false).run(pojos, ForkJoinPool.commonPool()).count;
+    }
+
+    public long count(Collection<POJO> pojos, int parallelism) {
+        return new ParallelFilter<>(this, false, false).run(pojos, parallelism).count;
+    }
+
+    /**
+     * Splits a collection into objects the boolean rule is true and false for, like {@link #filter(Collection)}.
+     * @return objects the rule is true for by key true, and the rest by key false, in the order of the collection
+     */
+    public Map<Boolean, List<POJO>> partition(Collection<POJO> pojos) {
+        return partition(new ParallelFilter<>(this, true, true).run(pojos, ForkJoinPool.commonPool()));
+    }
+
+    public Map<Boolean, List<POJO>> partition(Collection<POJO> pojos, int parallelism) {
+        return partition(new ParallelFilter<>(this, true, true).run(pojos, parallelism));
+    }
+
+    private static <POJO> Map<Boolean, List<POJO>> partition(ParallelFilter.Result<POJO> result) {
+        Map<Boolean, List<POJO>> partition = new HashMap<>();
+        partition.put(true, result.matched);
+        partition.put(false, result.rejected);
+        return partition;
+    }
+
+    private void checkBatchRule() {
+        if (expectedResultType != Boolean.class && compiled.resultType() != ExprResType.BOOL) {
+            throw new EvalException("Batch evaluation requires a boolean rule");
+        }
+    }
+
+    /**
+     * Evaluate boolean rule in three-valued logic. Instead of throwing {@link EvalException} when a value
+     * is missing or has a wrong type, the failed sub-expression becomes UNKNOWN, which propagates through
+     * NOT / AND / OR like SQL NULL.
+     * @param pojo
+     * @return
+     */
+    public TriState evaluateTri(POJO pojo) {
+        return evaluateTri(pojo, null);
+    }
+
+    public TriState evaluateTri(POJO pojo, EvaluationContext<POJO> context) {
+        if (!fieldSlots.hasMemoized()) {
+            return compiled.evalTri(pojo, context);
+        }
+        EvalFrame<POJO> frame = EvalFrame.begin(fieldSlots.size(), context);
+        try {
+            return compiled.evalTri(pojo, frame);
+        } finally {
+            frame.end();
+        }
+    }
+
+    /**
+     * Creates an evaluation context with field overrides bound to the fields of this rule up front,
+     * so evaluating the rule with it doesn't look up overrides by field name.
+     *
+     * @param fieldExtractors overrides for rule fields, may be null
+     * @param externalFieldsExtractor may be null
+     */
+    public EvaluationContext<POJO> createContext(Map<String, Function<POJO, Object>> fieldExtractors,
+                                                 ExternalFieldsExtractor<POJO> externalFieldsExtractor) {
+        return new EvaluationContext<>(fieldSlots, fieldExtractors, externalFieldsExtractor);
+    }
+
+    /**
+     * Returns the expression tree the rule is evaluated with, i.e. after optimizations, in a human readable form.
+     * Intended for debugging: every operation is enclosed in parentheses, folded constants are shown as values.
+     */
+    public String explain() {
+        return compiled.toString();
+    }
+
+    /**
+     * Returns number of decision nodes of the binary decision diagram the rule is evaluated with,
+     * or 0 if the rule is not compiled to a diagram (see {@link Builder#compileToBdd()}).
+     */
+    public int getBddNodeCount() {
+        return compiled instanceof BddExpr ? ((BddExpr<POJO>) compiled).nodeCount() : 0;
+    }
+
     public ExprResType getExpectedResultType() {
         return this.compiled.resultType();
     }
@@ -102,7 +347,7 @@ public class Evaluator<POJO, R> implements Serializable {
         } else if (orExprContext.getChildCount() == 3){
             Expr<POJO> e1 = parseOrExpr(orExprContext.orExpr());
             Expr<POJO> e2 = parseAndExpr(orExprContext.andExpr());
-            return new OrExpr(e1, e2);
+            return new OrExpr<>(e1, e2);
         } else {
             throw new DslError("Unable to parse expression", orExprContext);
         }
@@ -114,7 +359,7 @@ public class Evaluator<POJO, R> implements Serializable {
         } else if (andExprContext.getChildCount() == 3) {
             Expr<POJO> e1 = parseAndExpr(andExprContext.andExpr());
             Expr<POJO> e2 = parseNotExpr(andExprContext.notExpr());
-            return new AndExpr(e1, e2);
+            return new AndExpr<>(e1, e2);
         } else {
             throw new DslError("Unable to parse expression", andExprContext);
         }
@@ -125,7 +370,7 @@ public class Evaluator<POJO, R> implements Serializable {
             return parseEqExpr(notExprContext.eqExpr());
         } if (notExprContext.getChildCount() == 2) { // NOT expr
             Expr<POJO> e = parseNotExpr(notExprContext.notExpr());
-            return new NotExpr(e);
+            return new NotExpr<>(e);
         } else {
             throw new DslError("Unable to parse expression", notExprContext);
         }
@@ -139,18 +384,18 @@ public class Evaluator<POJO, R> implements Serializable {
         } else if (eqExprContext.getChildCount() == 3 && eqExprContext.Eq() != null) {
             Expr<POJO> e1 = parseEqExpr(eqExprContext.eqExpr());
             Expr<POJO> e2 = parseAdditiveExpr(eqExprContext.additiveExpr(0));
-            return new EqExpr(e1, e2);
+            return new EqExpr<>(e1, e2);
         } else if (eqExprContext.getChildCount() == 3 && eqExprContext.NEq() != null) {
             Expr<POJO> e1 = parseEqExpr(eqExprContext.eqExpr());
             Expr<POJO> e2 = parseAdditiveExpr(eqExprContext.additiveExpr(0));
-            return new NotEqExpr(e1, e2);
+            return new NotEqExpr<>(e1, e2);
         } else if (eqExprContext.getChildCount() == 3 && eqExprContext.StrContains() != null) {
             Expr<POJO> e1 = parseRelExpr(eqExprContext.relExpr(0));
             Expr<POJO> e2 = parseRelExpr(eqExprContext.relExpr(1));
             if (!e1.isStr() || !e2.isStr()) {
                 throw new DslError("Operation 'contains' can operate on string only", eqExprContext);
             }
-            return new StrContainsExpr(e1, e2);
+            return new StrContainsExpr<>(e1, e2);
         } else if (eqExprContext.getChildCount() == 3 && eqExprContext.StrContainsRegexp() != null) {
             Expr<POJO> e = parseRelExpr(eqExprContext.relExpr(0));
             String regex = parseTextFromRel(eqExprContext.relExpr(1));
@@ -162,7 +407,7 @@ public class Evaluator<POJO, R> implements Serializable {
             } catch (Exception exp) {
                 throw new DslError("Bad regular expression: " + regex, eqExprContext);
             }
-            return new ContainsRegexpExpr(e, regex);
+            return new ContainsRegexpExpr<>(e, regex);
         } else if (eqExprContext.getChildCount() == 3 && eqExprContext.StrMatches() != null) {
             Expr<POJO> e = parseRelExpr(eqExprContext.relExpr(0));
             String regex = parseTextFromRel(eqExprContext.relExpr(1));
@@ -174,18 +419,25 @@ public class Evaluator<POJO, R> implements Serializable {
             } catch (Exception exp) {
                 throw new DslError("Bad regular expression: " + regex, eqExprContext);
             }
-            return new MatchExpr(e, regex);
+            return new MatchExpr<>(e, regex);
+        } else if (eqExprContext.getChildCount() == 3 && eqExprContext.In() != null
+                && eqExprContext.numberList() != null) {
+            Expr<POJO> e = parseRelExpr(eqExprContext.relExpr(0));
+            if (!e.isNum()) {
+                throw new DslError("Only numbers can be searched in a list of numbers", eqExprContext);
+            }
+            return new NumberInExpr<>(e, parseNumberList(eqExprContext.numberList()));
         } else if (eqExprContext.getChildCount() == 3 && eqExprContext.In() != null) {
             Expr<POJO> e = parseTextExpr(eqExprContext.relExpr(0));
             List<String> stringList = parseStringList(eqExprContext.stringList());
-            return new InExpr(e, stringList);
+            return new InExpr<>(e, stringList);
         } else if (eqExprContext.Compare() != null) {
             Expr<POJO> e1 = parseAdditiveExpr(eqExprContext.additiveExpr(0));
             Expr<POJO> e2 = parseAdditiveExpr(eqExprContext.additiveExpr(1));
             if (!e1.isNum() || !e2.isNum()) {
                 throw new DslError("Only numbers can be compared", eqExprContext);
             }
-            return new CompareExpression(e1, e2, eqExprContext.Compare().getText());
+            return new CompareExpression<>(e1, e2, eqExprContext.Compare().getText());
         }
 
         throw new DslError("Unexpected expression", eqExprContext);
@@ -202,14 +454,14 @@ public class Evaluator<POJO, R> implements Serializable {
             if (!e1.isNum() || !e2.isNum()) {
                 throw new DslError("Non numeric arguments for arithmetic operation", additiveExprContext);
             }
-            return new AddExpr(e1, e2);
+            return new AddExpr<>(e1, e2);
         } else if (additiveExprContext.getChildCount() == 3 && additiveExprContext.Minus() != null) {
             Expr<POJO> e1 = parseAdditiveExpr(additiveExprContext.additiveExpr());
             Expr<POJO> e2 = parseMultiplicativeExpr(additiveExprContext.multiplicativeExpr());
             if (!e1.isNum() || !e2.isNum()) {
                 throw new DslError("Non numeric arguments for arithmetic operation", additiveExprContext);
             }
-            return new SubtractExpr(e1, e2);
+            return new SubtractExpr<>(e1, e2);
         }
 
         throw new DslError("Unexpected expression", additiveExprContext);
@@ -226,21 +478,21 @@ public class Evaluator<POJO, R> implements Serializable {
             if (!e1.isNum() || !e2.isNum()) {
                 throw new DslError("Non numeric arguments for arithmetic operation", multiplicativeExprContext);
             }
-            return new MultiplyExpr(e1, e2);
+            return new MultiplyExpr<>(e1, e2);
         } else if (multiplicativeExprContext.getChildCount() == 3 && multiplicativeExprContext.Divide() != null) {
             Expr<POJO> e1 = parseMultiplicativeExpr(multiplicativeExprContext.multiplicativeExpr());
             Expr<POJO> e2 = parseRelExpr(multiplicativeExprContext.relExpr());
             if (!e1.isNum() || !e2.isNum()) {
                 throw new DslError("Non numeric arguments for arithmetic operation", multiplicativeExprContext);
             }
-            return new DivideExpr(e1, e2);
+            return new DivideExpr<>(e1, e2);
         } else if (multiplicativeExprContext.getChildCount() == 3 && multiplicativeExprContext.Mod() != null) {
             Expr<POJO> e1 = parseMultiplicativeExpr(multiplicativeExprContext.multiplicativeExpr());
             Expr<POJO> e2 = parseRelExpr(multiplicativeExprContext.relExpr());
             if (!e1.isNum() || !e2.isNum()) {
                 throw new DslError("Non numeric arguments for arithmetic operation", multiplicativeExprContext);
             }
-            return new ModuloExpr(e1, e2);
+            return new ModuloExpr<>(e1, e2);
         }
 
         throw new DslError("Unexpected expression", multiplicativeExprContext);
@@ -257,11 +509,11 @@ public class Evaluator<POJO, R> implements Serializable {
             if (literal.charAt(0) == '"') {
                 txt = txt.replace("\\\"", "\"");
             }
-            return new LiteralExpr(txt);
+            return new LiteralExpr<>(txt);
         } else  if (relExprContext.DigitSequence() != null) {
             String numStr = relExprContext.DigitSequence().getText();
             try {
-                return new NumberExpr(Double.parseDouble(numStr));
+                return new NumberExpr<>(Double.parseDouble(numStr));
             } catch (Exception e) {
                 throw new DslError("Cannot parse a number from", relExprContext);
             }
@@ -277,16 +529,14 @@ public class Evaluator<POJO, R> implements Serializable {
         if (relExprContext.getChildCount() == 1) {
             if (relExprContext.Identifier() != null) {
                 String identifierName = relExprContext.Identifier().getText();
-                if (fieldExtractors.containsKey(identifierName)
-                        || msgClass != null && useReflection && ReflectionUtils.hasFieldPath(msgClass, identifierName)
-                        || msgClass == null) {
-                    return new FieldExpr(identifierName);
-                } else {
+                FieldExpr<POJO> field = newFieldExpr(identifierName);
+                if (field == null) {
                     throw new DslError("Cannot parse value", relExprContext.Identifier().getSymbol());
                 }
+                return field;
             } else if (relExprContext.StringLiteral() != null) {
                 String literal = relExprContext.StringLiteral().getText();
-                return new LiteralExpr(literal.substring(1, literal.length() - 1));
+                return new LiteralExpr<>(literal.substring(1, literal.length() - 1));
             }
         }
         throw new DslError("Unable to parse expression", relExprContext);
@@ -309,534 +559,45 @@ public class Evaluator<POJO, R> implements Serializable {
                 .collect(Collectors.toList());
     }
 
-    FieldExpr parseFieldExpr(RuleDslParser.RelExprContext relExprContext) {
-        String identifierName = relExprContext.Identifier().getText();
-
-        if (fieldExtractors.containsKey(identifierName)) {
-            // TODO: try to get field type from extractor function
-            return new FieldExpr(identifierName);
-        }
-        if (msgClass != null && useReflection && ReflectionUtils.hasFieldPath(msgClass, identifierName)) {
-            ExprResType resType = ReflectionUtils.getFieldExprType(msgClass, identifierName).get();
-            return new FieldExpr(identifierName, resType);
-        }
-        if (msgClass == null) {
-            return new FieldExpr(identifierName);
-        }
-
-        throw new DslError("Cannot parse value from ", relExprContext.Identifier().getSymbol());
-
-    }
-
-    private class OrExpr implements Expr<POJO> {
-
-        private final Expr<POJO> e1;
-        private final Expr<POJO> e2;
-
-        private OrExpr(Expr<POJO> e1, Expr<POJO> e2) {
-            this.e1 = e1;
-            this.e2 = e2;
-        }
-
-        @Override
-        public ExprResType resultType() {
-            return ExprResType.BOOL;
-        }
-
-        @Override
-        public Object eval(POJO pojo, EvaluationContext<POJO> context) {
-            Object v1 = e1.eval(pojo, context);
-            if (!(v1 instanceof Boolean)) {
-                throw new EvalException("Expected boolean but got " + v1.getClass().getName());
-            }
-            boolean v1Bool = (Boolean) v1;
-            if (v1Bool) {
-                return true;
-            }
-            Object v2 = e2.eval(pojo, context);
-            if (!(v2 instanceof Boolean)) {
-                throw new EvalException("Expected boolean but got " + v2.getClass().getName());
-            }
-            return v2;
-        }
-    }
-
-    private class AndExpr implements Expr<POJO> {
-
-        private final Expr<POJO> e1;
-        private final Expr<POJO> e2;
-
-        private AndExpr(Expr<POJO> e1, Expr<POJO> e2) {
-            this.e1 = e1;
-            this.e2 = e2;
-        }
-
-        @Override
-        public ExprResType resultType() {
-            return ExprResType.BOOL;
-        }
-
-        @Override
-        public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
-            Object v1 = e1.eval(pojo, context);
-            if (!(v1 instanceof Boolean)) {
-                throw new EvalException("Expected boolean but got " + v1.getClass().getName());
-            }
-            boolean v1Bool = (Boolean) v1;
-
-            Object v2 = e2.eval(pojo, context);
-            if (!(v2 instanceof Boolean)) {
-                throw new EvalException("Expected boolean but got " + v1.getClass().getName());
-            }
-            boolean v2Bool = (Boolean) v1;
-
-            return v1Bool && v2Bool;
-        }
-    }
-
-    private class NotExpr implements Expr<POJO> {
-
-        private final Expr<POJO> e;
-
-        private NotExpr(Expr<POJO> e) {
-            this.e = e;
-        }
-
-        @Override
-        public ExprResType resultType() {
-            return ExprResType.BOOL;
-        }
-
-        @Override
-        public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
-            Object v = e.eval(pojo, context);
-            if (!(v instanceof Boolean)) {
-                throw new EvalException("Expected boolean but got " + v.getClass().getName());
-            }
-            return !((Boolean)v);
-        }
-    }
-
-    private class EqExpr<T> implements Expr<POJO> {
-        private final Expr<POJO> arg1;
-        private final Expr<POJO> arg2;
-
-        public EqExpr(Expr<POJO> arg1, Expr<POJO> arg2) {
-            this.arg1 = arg1;
-            this.arg2 = arg2;
-        }
-
-        @Override
-        public ExprResType resultType() {
-            return ExprResType.BOOL;
-        }
-
-        @Override
-        public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
-            Object v1 = arg1.eval(pojo, context);
-            Object v2 = arg2.eval(pojo, context);
-
-            if (v1 == null) {
-                return v2 == null || "null".equals(v2);
-            }
-
-            return v1.equals(v2);
-        }
-    }
-
-    private class NotEqExpr<T> implements Expr<POJO> {
-        private final Expr<POJO> arg1;
-        private final Expr<POJO> arg2;
-
-        public NotEqExpr(Expr<POJO> arg1, Expr<POJO> arg2) {
-            this.arg1 = arg1;
-            this.arg2 = arg2;
-        }
-
-        @Override
-        public ExprResType resultType() {
-            return ExprResType.BOOL;
-        }
-
-        @Override
-        public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
-            Object v1 = arg1.eval(pojo, context);
-            Object v2 = arg2.eval(pojo, context);
-            return v1 != null
-                    ? !v1.equals(v2)
-                    : v2 == null;
-        }
-    }
-
-    private class StrContainsExpr implements Expr<POJO> {
-        private final Expr<POJO> arg1;
-        private final Expr<POJO> arg2;
-
-        public StrContainsExpr(Expr<POJO> arg1, Expr<POJO> arg2) {
-            this.arg1 = arg1;
-            this.arg2 = arg2;
-        }
-
-        @Override
-        public ExprResType resultType() {
-            return ExprResType.BOOL;
-        }
-
-        @Override
-        public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
-            Object o1 = arg1.eval(pojo, context);
-            if (o1 == null) {
-                return false;
-            }
-            if (!(o1 instanceof String)) {
-                throw new EvalException("Expected string but got " + o1.getClass().getName());
-            }
-            String s1 = (String) o1;
-
-            Object o2 = arg2.eval(pojo, context);
-            if (o2 == null) {
-                return false;
-            }
-            if (!(o2 instanceof String)) {
-                throw new EvalException("Expected string but got " + o1.getClass().getName());
-            }
-            String s2 = (String) o2;
-
-            return s1.contains(s2);
-        }
-    }
-
-    private class ContainsRegexpExpr implements Expr<POJO> {
-        private final Expr<POJO> arg1;
-        private final String regexp;
-        private final Pattern pattern;
-
-        public ContainsRegexpExpr(Expr<POJO> arg1, String regexp) {
-            this.arg1 = arg1;
-            this.regexp = regexp;
-            this.pattern = Pattern.compile(regexp);
-        }
-
-        @Override
-        public ExprResType resultType() {
-            return ExprResType.BOOL;
-        }
-
-        @Override
-        public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
-            Object o = arg1.eval(pojo, context);
-
-            if (o == null) {
-                return false;
-            }
-            if (!(o instanceof String)) {
-                throw new EvalException("Expected string but got " + o.getClass().getName());
-            }
-            String s = (String)o;
-
-            Matcher m = pattern.matcher(s);
-            boolean result = m.find();
-            return result;
-        }
-    }
-
-    private class MatchExpr implements Expr<POJO> {
-        private final Expr<POJO> arg1;
-        private final String regexp;
-        private final Pattern pattern;
-
-        public MatchExpr(Expr<POJO> arg1, String regexp) {
-            this.arg1 = arg1;
-            this.regexp = regexp;
-            this.pattern = Pattern.compile(regexp);
-        }
-
-        @Override
-        public ExprResType resultType() {
-            return ExprResType.BOOL;
-        }
-
-        @Override
-        public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
-            Object o = arg1.eval(pojo, context);
-
-            if (o == null) {
-                return false;
-            }
-            if (!(o instanceof String)) {
-                throw new EvalException("Expected string but got " + o.getClass().getName());
-            }
-            String s = (String)o;
-
-            Matcher m = pattern.matcher(s);
-            boolean result = m.matches();
-            return result;
-        }
-    }
-
-    private class InExpr implements Expr<POJO> {
-        private final Expr<POJO> fieldExpr;
-        private final List<String> stringList;
-
-        private InExpr(Expr<POJO> field, List<String> stringList) {
-            this.fieldExpr = field;
-            this.stringList = stringList;
-        }
-
-        @Override
-        public ExprResType resultType() {
-            return ExprResType.BOOL;
-        }
-
-        @Override
-        public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
-            Object o = fieldExpr.eval(pojo, context);
-            if (o == null) {
-                return false;
-            }
-            if (!(o instanceof String)) {
-                throw new EvalException("Expected string but got " + o.getClass().getName());
-            }
-
-            String s = (String)o;
-            return stringList.contains(s);
-        }
-    }
-
-    private abstract class BinaryArithmeticExpr implements Expr<POJO> {
-
-        private final Expr<POJO> arg1;
-        private final Expr<POJO> arg2;
-
-        public BinaryArithmeticExpr(Expr<POJO> arg1, Expr<POJO> arg2) {
-            this.arg1 = arg1;
-            this.arg2 = arg2;
-        }
-
-        @Override
-        public ExprResType resultType() {
-            return ExprResType.NUM;
-        }
-
-        @Override
-        public Object eval(POJO pojo, EvaluationContext<POJO> context) {
-            Object o1 = arg1.eval(pojo, context);
-            if (o1 == null) {
-                throw new EvalException("Left argument is null");
-            }
-            if (!(o1 instanceof Number)) {
-                throw new EvalException("Left argument should be number, but it is " + o1.getClass().getName());
-            }
-            Number n1 = (Number) o1;
-
-            Object o2 = arg2.eval(pojo, context);
-            if (o2 == null) {
-                throw new EvalException("Left argument is null");
-            }
-            if (!(o2 instanceof Number)) {
-                throw new EvalException("Left argument should be number, but it is " + o2.getClass().getName());
-            }
-            Number n2 = (Number) o2;
-
-            return arithmCalc(n1, n2);
-        }
-
-        protected abstract Number arithmCalc(Number n1, Number n2);
-    }
-
-    private class AddExpr extends BinaryArithmeticExpr {
-
-        public AddExpr(Expr<POJO> arg1, Expr<POJO> arg2) {
-            super(arg1, arg2);
-        }
-
-        @Override
-        protected Number arithmCalc(Number n1, Number n2) {
-            return n1.doubleValue() + n2.doubleValue();
-        }
-    }
-
-    private class SubtractExpr extends BinaryArithmeticExpr {
-
-        public SubtractExpr(Expr<POJO> arg1, Expr<POJO> arg2) {
-            super(arg1, arg2);
-        }
-
-        @Override
-        protected Number arithmCalc(Number n1, Number n2) {
-            return n1.doubleValue() - n2.doubleValue();
-        }
-    }
-
-    private class MultiplyExpr extends BinaryArithmeticExpr {
-
-        public MultiplyExpr(Expr<POJO> arg1, Expr<POJO> arg2) {
-            super(arg1, arg2);
-        }
-
-        @Override
-        protected Number arithmCalc(Number n1, Number n2) {
-            return n1.doubleValue() * n2.doubleValue();
-        }
-    }
-
-    private class DivideExpr extends BinaryArithmeticExpr {
-
-        public DivideExpr(Expr<POJO> arg1, Expr<POJO> arg2) {
-            super(arg1, arg2);
-        }
-
-        @Override
-        protected Number arithmCalc(Number n1, Number n2) {
-            if (n2.doubleValue() == 0) {
-                throw new EvalException("Cannot divide by zero");
-            }
-            return n1.doubleValue() / n2.doubleValue();
-        }
-    }
-
-    private class ModuloExpr extends BinaryArithmeticExpr {
-
-        public ModuloExpr(Expr<POJO> arg1, Expr<POJO> arg2) {
-            super(arg1, arg2);
-        }
-
-        @Override
-        protected Number arithmCalc(Number n1, Number n2) {
-            if (n2.doubleValue() == 0) {
-                throw new EvalException("Cannot divide by zero");
-            }
-            return n1.doubleValue() % n2.doubleValue();
-        }
-    }
-
-    private class CompareExpression implements Expr<POJO> {
-
-        private final Expr<POJO> arg1;
-        private final Expr<POJO> arg2;
-        private String operator;
-
-        public CompareExpression(Expr<POJO> arg1, Expr<POJO> arg2, String operator) {
-            this.arg1 = arg1;
-            this.arg2 = arg2;
-            this.operator = operator;
-        }
-
-        @Override
-        public ExprResType resultType() {
-            return ExprResType.BOOL;
-        }
-
-        @Override
-        public Object eval(POJO pojo, EvaluationContext<POJO> context) {
-            Object o1 = arg1.eval(pojo, context);
-            if (o1 == null) {
-                throw new EvalException("Left argument is null");
-            }
-            if (!(o1 instanceof Number)) {
-                throw new EvalException("Left argument should be number, but it is " + o1.getClass().getName());
-            }
-            Number n1 = (Number) o1;
-
-            Object o2 = arg2.eval(pojo, context);
-            if (o2 == null) {
-                throw new EvalException("Left argument is null");
-            }
-            if (!(o2 instanceof Number)) {
-                throw new EvalException("Left argument should be number, but it is " + o2.getClass().getName());
-            }
-            Number n2 = (Number) o2;
-
-            switch (operator) {
-                case "<"  : return n1.doubleValue() < n2.doubleValue();
-                case ">"  : return n1.doubleValue() > n2.doubleValue();
-                case ">=" : return n1.doubleValue() >= n2.doubleValue();
-                case "<=" : return n1.doubleValue() <= n2.doubleValue();
-            }
-
-            throw new EvalException("Unexpected comparison type: " + operator);
-        }
-    }
-
-    private class FieldExpr implements Expr<POJO> {
-        private final String field;
-        private final ExprResType exprResType;
-
-        public FieldExpr(String field, ExprResType exprResType) {
-            this.field = field;
-            this.exprResType = exprResType;
-        }
-
-        public FieldExpr(String field) {
-            this(field, ExprResType.UNKNOWN);
-        }
-
-        @Override
-        public ExprResType resultType() {
-            return exprResType;
-        }
-
-        @Override
-        public Object eval(POJO pojo, EvaluationContext<POJO> context) {
-
-            if (context != null && context.getFieldExtractorsMap() != null && context.getFieldExtractorsMap().containsKey(field)) {
-                return context.getFieldExtractorsMap().get(field).apply(pojo);
-            }
-            if (context != null && context.getExternalFieldsExtractor() != null) {
-                Opt<Object> o = context.getExternalFieldsExtractor().extractFieldValue(pojo, field);
-                if (o.isDefined()) {
-                    return o.get();
-                }
-            }
-            if (fieldExtractors.containsKey(field)) {
-                return fieldExtractors.get(field).apply(pojo).toString();
-            }
-            if (useReflection) {
-                Opt<Object> v = ReflectionUtils.getFieldPathValue(pojo, field);
-                if (v.isNotDefined()) {
-                    throw new EvalException("Unable to get field '" + field + "' value via reflection");
-                }
-                return v.get();
+    DoubleHashSet parseNumberList(RuleDslParser.NumberListContext numberListContext) {
+        DoubleHashSet numbers = new DoubleHashSet(numberListContext.DigitSequence().size());
+        for (TerminalNode number : numberListContext.DigitSequence()) {
+            try {
+                numbers.add(Double.parseDouble(number.getText()));
+            } catch (Exception e) {
+                throw new DslError("Cannot parse a number from", numberListContext);
             }
-
-            throw new EvalException("Unable to evaluate field '" + field + "'");
         }
+        return numbers;
     }
 
-    private class LiteralExpr implements Expr<POJO> {
-        private final String literal;
-
-        public LiteralExpr(String literal) {
-            this.literal = literal;
-        }
-
-        @Override
-        public ExprResType resultType() {
-            return ExprResType.STR;
-        }
-
-        @Override
-        public String eval(POJO pojo, EvaluationContext<POJO> context) {
-            return literal;
+    FieldExpr<POJO> parseFieldExpr(RuleDslParser.RelExprContext relExprContext) {
+        String identifierName = relExprContext.Identifier().getText();
+        FieldExpr<POJO> field = newFieldExpr(identifierName);
+        if (field == null) {
+            throw new DslError("Cannot parse value from ", relExprContext.Identifier().getSymbol());
         }
+        return field;
     }
 
-    private class NumberExpr implements Expr<POJO> {
-        private final double number;
-
-        public NumberExpr(double number) {
-            this.number = number;
+    /**
+     * Binds the field to a slot and decides how it is evaluated.
+     * @return field expression, or null if the field cannot be evaluated for the validated class
+     */
+    private FieldExpr<POJO> newFieldExpr(String identifierName) {
+        Function<POJO, Object> extractor = fieldExtractors.get(identifierName);
+        if (extractor != null) {
+            // TODO: try to get field type from extractor function
+            return new FieldExpr<>(identifierName, fieldSlots, ExprResType.UNKNOWN, extractor, useReflection, msgClass);
         }
-
-        @Override
-        public ExprResType resultType() {
-            return ExprResType.NUM;
+        if (msgClass != null && useReflection && ReflectionUtils.hasFieldPath(msgClass, identifierName)) {
+            ExprResType resType = ReflectionUtils.getFieldExprType(msgClass, identifierName).get();
+            return new FieldExpr<>(identifierName, fieldSlots, resType, null, useReflection, msgClass);
         }
-
-        @Override
-        public Object eval(POJO pojo, EvaluationContext<POJO> context) {
-            return number;
+        if (msgClass == null) {
+            return new FieldExpr<>(identifierName, fieldSlots, ExprResType.UNKNOWN, null, useReflection, null);
         }
+        return null;
     }
 
     public static <POJO> Builder<POJO> createForRule(String rule) {
@@ -848,6 +609,13 @@ public class Evaluator<POJO, R> implements Serializable {
         private Class<POJO> pojoClass = null;
         private Map<String, Function<POJO,Object>> fieldExtractors = new HashMap<>();
         private boolean useReflection = true;
+        private boolean compileToBytecode = false;
+        private boolean optimize = true;
+        private boolean adaptiveReordering = false;
+        private boolean compileToBdd = false;
+        private Boolean unknownAs = null;
+        private FieldSlots fieldSlots = null;
+        private transient ExprInterner<POJO> interner = null;
 
         public Builder(String rule) {
             this.rule = rule;
@@ -873,20 +641,101 @@ public class Evaluator<POJO, R> implements Serializable {
             return this;
         }
 
+        /**
+         * Compile the rule into a method handle tree that the JVM turns into a generated class per rule,
+         * instead of interpreting the expression tree on each evaluation.
+         * Compiled evaluator gives the same results as the interpreted one.
+         * @return
+         */
+        public Builder<POJO> compileToBytecode() {
+            this.compileToBytecode = true;
+            return this;
+        }
+
+        /**
+         * Enables or disables rewriting of the parsed rule by the optimizer (constant folding,
+         * boolean simplification, literal conversion). Enabled by default.
+         * @return
+         */
+        public Builder<POJO> optimize(boolean optimize) {
+            this.optimize = optimize;
+            return this;
+        }
+
+        /**
+         * Let AND / OR chains reorder their operands at runtime, so that cheap operands that most often decide
+         * the result are evaluated first. Initial order is based on estimated cost of operands,
+         * then it's adjusted using statistics collected during evaluation. An operand is never moved ahead of
+         * an earlier operand that can fail, e.g. comparison of a field that can be null, so results and errors
+         * are the same as in the written order. Works best with {@link #validateAgainstClass(Class)},
+         * without it no operand is known not to fail.
+         * @return
+         */
+        public Builder<POJO> adaptiveReordering() {
+            this.adaptiveReordering = true;
+            return this;
+        }
+
+        /**
+         * Compile the boolean structure of the rule into a reduced ordered binary decision diagram,
+         * where each distinct condition of the rule is a variable. The rule is then evaluated by a single path
+         * in the diagram, which evaluates each condition at most once, and skips conditions the result
+         * doesn't depend on. Applies only to boolean rules whose conditions cannot fail (e.g. no comparison
+         * of a field that can be null, see {@link #validateAgainstClass(Class)}), so that skipping a condition
+         * doesn't change evaluation results. Replaces {@link #adaptiveReordering()} for such rules.
+         * If the diagram would be too large (its size can grow exponentially with the number of conditions),
+         * the rule is evaluated as if the option was not set.
+         * If combined with {@link #compileToBytecode()}, each condition is compiled separately.
+         * @return
+         */
+        public Builder<POJO> compileToBdd() {
+            this.compileToBdd = true;
+            return this;
+        }
+
+        /**
+         * Evaluate boolean rules in three-valued logic (see {@link Evaluator#evaluateTri(Object)}),
+         * so bad values don't cause exceptions, and map UNKNOWN result to the given value.
+         * Affects {@link Evaluator#test(Object)} and {@link Evaluator#evaluate(Object)} of boolean evaluators.
+         * @return
+         */
+        public Builder<POJO> unknownAs(boolean unknownAs) {
+            this.unknownAs = unknownAs;
+            return this;
+        }
+
+        /**
+         * Bind fields of the rule to the given slots instead of the rule's own ones,
+         * so several rules can share memoized field values (see {@link RuleSet}).
+         */
+        Builder<POJO> withFieldSlots(FieldSlots fieldSlots) {
+            this.fieldSlots = fieldSlots;
+            return this;
+        }
+
+        /**
+         * Share structurally equal sub-expressions of the rule with other rules interned by the same interner.
+         * The interner must be bound to the same slots as the rule (see {@link #withFieldSlots(FieldSlots)}).
+         */
+        Builder<POJO> withInterner(ExprInterner<POJO> interner) {
+            this.interner = interner;
+            return this;
+        }
+
         public Evaluator<POJO, Object> build() {
-            return new Evaluator<>(rule, pojoClass, Object.class, fieldExtractors, useReflection);
+            return new Evaluator<>(this, Object.class);
         }
 
         public Evaluator<POJO, Boolean> buildBoolEvaluator() {
-            return new Evaluator<>(rule, pojoClass, Boolean.class, fieldExtractors, useReflection);
+            return new Evaluator<>(this, Boolean.class);
         }
 
         public Evaluator<POJO, String> buildStringEvaluator() {
-            return new Evaluator<>(rule, pojoClass, String.class, fieldExtractors, useReflection);
+            return new Evaluator<>(this, String.class);
         }
 
         public Evaluator<POJO, Double> buildNumberEvaluator() {
-            return new Evaluator<>(rule, pojoClass, Double.class, fieldExtractors, useReflection);
+            return new Evaluator<>(this, Double.class);
         }
     }
 
@@ -1,5 +1,7 @@
 package snorochevskiy.pojoeval.v2.evaluator;
 
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+
 import java.io.Serializable;
 
 public interface Expr<POJO> extends Serializable {
@@ -8,6 +10,59 @@ public interface Expr<POJO> extends Serializable {
 
     Object eval(POJO pojo, EvaluationContext<POJO> context);
 
+    /**
+     * Evaluates boolean expression without boxing the result.
+     * Boolean nodes override it, so a boolean rule is evaluated without allocations.
+     */
+    default boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        return Values.toBoolean(eval(pojo, context));
+    }
+
+    /**
+     * Evaluates numeric expression without boxing the result.
+     * Numeric nodes override it, so arithmetic and comparisons are evaluated on primitive doubles.
+     */
+    default double evalDouble(POJO pojo, EvaluationContext<POJO> context) {
+        return Values.toDouble(eval(pojo, context));
+    }
+
+    /**
+     * Evaluates expression without throwing {@link EvalException} on bad values:
+     * a value that cannot be evaluated is returned as {@link Values#ERROR}.
+     * Boolean expressions return ERROR for {@link TriState#UNKNOWN}.
+     */
+    default Object evalValue(POJO pojo, EvaluationContext<POJO> context) {
+        if (resultType() == ExprResType.BOOL) {
+            return evalTri(pojo, context).toValue();
+        }
+        try {
+            return eval(pojo, context);
+        } catch (EvalException e) {
+            return Values.ERROR;
+        }
+    }
+
+    /**
+     * Evaluates numeric expression without throwing {@link EvalException}: a missing or non-numeric value
+     * is returned as NaN, and NaN propagates through arithmetic. A NaN value of a field is returned as NaN too,
+     * so NaN results are told apart with {@link Values#isError(double, Expr, Object, EvaluationContext)}.
+     */
+    default double evalNumber(POJO pojo, EvaluationContext<POJO> context) {
+        return Values.toDoubleOrNaN(evalValue(pojo, context));
+    }
+
+    /**
+     * Evaluates boolean expression in three-valued logic, without throwing {@link EvalException}:
+     * errors in sub-expressions make the result {@link TriState#UNKNOWN}, which then propagates like SQL NULL.
+     */
+    default TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        try {
+            return Values.toTri(eval(pojo, context));
+        } catch (EvalException e) {
+            return TriState.UNKNOWN;
+        }
+    }
+
     default boolean isBool() {
         return resultType() == ExprResType.BOOL || resultType() == ExprResType.UNKNOWN;
     }
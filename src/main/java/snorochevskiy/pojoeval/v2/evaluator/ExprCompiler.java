@@ -0,0 +1,346 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+import snorochevskiy.pojoeval.v2.reflect.FieldAccessor;
+import snorochevskiy.pojoeval.v2.reflect.UndefinedFieldValueException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Compiles a parsed expression tree into a single {@link MethodHandle} assembled from method handle combinators.
+ * <p>
+ * The JVM spins every combined handle into its own generated classes (LambdaForms customized for that handle),
+ * so getter calls, comparisons and short-circuit branches of a rule end up in straight-line bytecode that
+ * the JIT can inline, instead of a walk over megamorphic {@link Expr#eval} calls.
+ * <p>
+ * Every produced handle has parameters {@code (Object pojo, EvaluationContext context)} and returns
+ * {@code boolean} for boolean nodes, {@code double} for numeric nodes, and a reference otherwise.
+ * Type checks are delegated to {@link Values}, so compiled rules fail exactly like interpreted ones.
+ */
+final class ExprCompiler {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType ROOT_TYPE = methodType(Object.class, Object.class, EvaluationContext.class);
+
+    private static final MethodHandle EXPR_EVAL;
+    private static final MethodHandle TO_BOOLEAN;
+    private static final MethodHandle TO_DOUBLE;
+    private static final MethodHandle NOT;
+    private static final MethodHandle EXPR_EVAL_BOOLEAN;
+    private static final MethodHandle EXPR_EVAL_DOUBLE;
+    private static final MethodHandle IS_MEMOIZED_IN;
+    private static final MethodHandle IS_NULL;
+    private static final MethodHandle IS_EQUAL;
+    private static final MethodHandle IS_NOT_EQUAL;
+    private static final MethodHandle NUMBER_EQ;
+    private static final MethodHandle NUMBER_EQ_VALUE;
+    private static final MethodHandle CONTAINS_REST;
+    private static final MethodHandle TO_STR;
+    private static final MethodHandle FIND;
+    private static final MethodHandle MATCHES;
+    private static final MethodHandle IS_IN;
+    private static final MethodHandle NUMBER_IN;
+    private static final MethodHandle NUMBER_IN_VALUE;
+    private static final MethodHandle ARITHM_CALC;
+    private static final MethodHandle LT;
+    private static final MethodHandle GT;
+    private static final MethodHandle GE;
+    private static final MethodHandle LE;
+    private static final MethodHandle FAST_PATH_APPLICABLE;
+    private static final MethodHandle FIELD_ACCESS_FAILED;
+    private static final MethodHandle OVERRIDES_FIELDS;
+
+    static {
+        try {
+            EXPR_EVAL = LOOKUP.findVirtual(Expr.class, "eval", ROOT_TYPE);
+            TO_BOOLEAN = LOOKUP.findStatic(Values.class, "toBoolean", methodType(boolean.class, Object.class));
+            TO_DOUBLE = LOOKUP.findStatic(Values.class, "toDouble", methodType(double.class, Object.class));
+            TO_STR = LOOKUP.findStatic(Values.class, "toStr", methodType(String.class, Object.class));
+            NOT = LOOKUP.findStatic(ExprCompiler.class, "not", methodType(boolean.class, boolean.class));
+            EXPR_EVAL_BOOLEAN = LOOKUP.findVirtual(Expr.class, "evalBoolean",
+                    methodType(boolean.class, Object.class, EvaluationContext.class));
+            EXPR_EVAL_DOUBLE = LOOKUP.findVirtual(Expr.class, "evalDouble",
+                    methodType(double.class, Object.class, EvaluationContext.class));
+            IS_MEMOIZED_IN = LOOKUP.findVirtual(SharedExpr.class, "isMemoizedIn",
+                    methodType(boolean.class, Object.class, EvaluationContext.class));
+            IS_NULL = LOOKUP.findStatic(ExprCompiler.class, "isNull", methodType(boolean.class, Object.class));
+            IS_EQUAL = LOOKUP.findStatic(EqExpr.class, "isEqual", methodType(boolean.class, Object.class, Object.class));
+            IS_NOT_EQUAL = LOOKUP.findStatic(NotEqExpr.class, "isNotEqual", methodType(boolean.class, Object.class, Object.class));
+            NUMBER_EQ = LOOKUP.findVirtual(NumberEqExpr.class, "test", methodType(boolean.class, double.class));
+            NUMBER_EQ_VALUE = LOOKUP.findVirtual(NumberEqExpr.class, "testValue", methodType(boolean.class, Object.class));
+            CONTAINS_REST = LOOKUP.findStatic(ExprCompiler.class, "containsRest", methodType(boolean.class, String.class, Object.class));
+            FIND = LOOKUP.findStatic(ContainsRegexpExpr.class, "find", methodType(boolean.class, Pattern.class, Object.class));
+            MATCHES = LOOKUP.findStatic(MatchExpr.class, "matches", methodType(boolean.class, Pattern.class, Object.class));
+            IS_IN = LOOKUP.findStatic(InExpr.class, "isIn", methodType(boolean.class, Set.class, Object.class));
+            NUMBER_IN = LOOKUP.findVirtual(NumberInExpr.class, "test", methodType(boolean.class, double.class));
+            NUMBER_IN_VALUE = LOOKUP.findVirtual(NumberInExpr.class, "testValue", methodType(boolean.class, Object.class));
+            ARITHM_CALC = LOOKUP.findVirtual(BinaryArithmeticExpr.class, "arithmCalc", methodType(double.class, double.class, double.class));
+            LT = LOOKUP.findStatic(ExprCompiler.class, "lt", methodType(boolean.class, double.class, double.class));
+            GT = LOOKUP.findStatic(ExprCompiler.class, "gt", methodType(boolean.class, double.class, double.class));
+            GE = LOOKUP.findStatic(ExprCompiler.class, "ge", methodType(boolean.class, double.class, double.class));
+            LE = LOOKUP.findStatic(ExprCompiler.class, "le", methodType(boolean.class, double.class, double.class));
+            FAST_PATH_APPLICABLE = LOOKUP.findStatic(ExprCompiler.class, "fastPathApplicable",
+                    methodType(boolean.class, Class.class, Object.class, EvaluationContext.class));
+            FIELD_ACCESS_FAILED = LOOKUP.findStatic(ExprCompiler.class, "fieldAccessFailed",
+                    methodType(Object.class, String.class, UndefinedFieldValueException.class));
+            OVERRIDES_FIELDS = MethodHandles.dropArguments(LOOKUP.findStatic(EvaluationContext.class,
+                    "overridesFields", methodType(boolean.class, EvaluationContext.class)), 0, Object.class);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Class<?> msgClass;
+
+    private ExprCompiler(Class<?> msgClass) {
+        this.msgClass = msgClass;
+    }
+
+    /**
+     * Compiles given expression to a handle of type {@code (Object, EvaluationContext)returnType}.
+     * @param expr root of the parsed expression tree
+     * @param msgClass class of POJO the rule was validated against, or null
+     * @param returnType one of Object, boolean or double
+     * @return
+     */
+    static MethodHandle compile(Expr<?> expr, Class<?> msgClass, Class<?> returnType) {
+        ExprCompiler compiler = new ExprCompiler(msgClass);
+        if (returnType == boolean.class) {
+            return compiler.toBoolean(expr);
+        } else if (returnType == double.class) {
+            return compiler.toDouble(expr);
+        }
+        return compiler.toObject(expr);
+    }
+
+    private MethodHandle compileNatural(Expr<?> expr) {
+        if (expr instanceof OrExpr) {
+            List<? extends Expr<?>> operands = ((OrExpr<?>) expr).operands;
+            MethodHandle h = toBoolean(operands.get(operands.size() - 1));
+            for (int i = operands.size() - 2; i >= 0; i--) {
+                h = MethodHandles.guardWithTest(toBoolean(operands.get(i)), constant(boolean.class, true), h);
+            }
+            return h;
+        } else if (expr instanceof AndExpr) {
+            List<? extends Expr<?>> operands = ((AndExpr<?>) expr).operands;
+            MethodHandle h = toBoolean(operands.get(operands.size() - 1));
+            for (int i = operands.size() - 2; i >= 0; i--) {
+                h = MethodHandles.guardWithTest(toBoolean(operands.get(i)), h, constant(boolean.class, false));
+            }
+            return h;
+        } else if (expr instanceof AdaptiveJunctionExpr) {
+            return EXPR_EVAL_BOOLEAN.bindTo(expr);
+        } else if (expr instanceof SharedExpr) {
+            // memoization is decided when all rules that share the condition are built, so it's checked at runtime
+            return MethodHandles.guardWithTest(IS_MEMOIZED_IN.bindTo(expr), EXPR_EVAL_BOOLEAN.bindTo(expr),
+                    toBoolean(((SharedExpr<?>) expr).e));
+        } else if (expr instanceof NotExpr) {
+            return MethodHandles.filterReturnValue(toBoolean(((NotExpr<?>) expr).e), NOT);
+        } else if (expr instanceof EqExpr) {
+            EqExpr<?> e = (EqExpr<?>) expr;
+            return combine(IS_EQUAL, toObject(e.arg1), toObject(e.arg2));
+        } else if (expr instanceof NotEqExpr) {
+            NotEqExpr<?> e = (NotEqExpr<?>) expr;
+            return combine(IS_NOT_EQUAL, toObject(e.arg1), toObject(e.arg2));
+        } else if (expr instanceof NumberEqExpr) {
+            NumberEqExpr<?> e = (NumberEqExpr<?>) expr;
+            return compileNumberTest(e.arg, e.boxed, NUMBER_EQ.bindTo(e), NUMBER_EQ_VALUE.bindTo(e));
+        } else if (expr instanceof StrContainsExpr) {
+            return compileContains((StrContainsExpr<?>) expr);
+        } else if (expr instanceof ContainsRegexpExpr) {
+            ContainsRegexpExpr<?> e = (ContainsRegexpExpr<?>) expr;
+            return MethodHandles.filterReturnValue(toObject(e.arg1), FIND.bindTo(e.pattern));
+        } else if (expr instanceof MatchExpr) {
+            MatchExpr<?> e = (MatchExpr<?>) expr;
+            return MethodHandles.filterReturnValue(toObject(e.arg1), MATCHES.bindTo(e.pattern));
+        } else if (expr instanceof InExpr) {
+            InExpr<?> e = (InExpr<?>) expr;
+            return MethodHandles.filterReturnValue(toObject(e.fieldExpr), IS_IN.bindTo(e.stringSet));
+        } else if (expr instanceof NumberInExpr) {
+            NumberInExpr<?> e = (NumberInExpr<?>) expr;
+            return compileNumberTest(e.arg, e.boxed, NUMBER_IN.bindTo(e), NUMBER_IN_VALUE.bindTo(e));
+        } else if (expr instanceof BinaryArithmeticExpr) {
+            BinaryArithmeticExpr<?> e = (BinaryArithmeticExpr<?>) expr;
+            return combine(ARITHM_CALC.bindTo(e), toDouble(e.arg1), toDouble(e.arg2));
+        } else if (expr instanceof CompareExpression) {
+            CompareExpression<?> e = (CompareExpression<?>) expr;
+            return combine(comparison(e.operator), toDouble(e.arg1), toDouble(e.arg2));
+        } else if (expr instanceof BooleanExpr) {
+            return constant(boolean.class, ((BooleanExpr<?>) expr).value);
+        } else if (expr instanceof NumberExpr) {
+            return constant(double.class, ((NumberExpr<?>) expr).number);
+        } else if (expr instanceof LiteralExpr) {
+            return constant(Object.class, ((LiteralExpr<?>) expr).literal);
+        } else if (expr instanceof FieldExpr) {
+            return compileField((FieldExpr<?>) expr, Object.class);
+        }
+        return EXPR_EVAL.bindTo(expr);
+    }
+
+    private MethodHandle toBoolean(Expr<?> expr) {
+        if (expr instanceof FieldExpr) {
+            return compileField((FieldExpr<?>) expr, boolean.class);
+        }
+        return adapt(compileNatural(expr), boolean.class);
+    }
+
+    private MethodHandle toDouble(Expr<?> expr) {
+        if (expr instanceof FieldExpr) {
+            return compileField((FieldExpr<?>) expr, double.class);
+        }
+        return adapt(compileNatural(expr), double.class);
+    }
+
+    private MethodHandle toObject(Expr<?> expr) {
+        return adapt(compileNatural(expr), Object.class);
+    }
+
+    /**
+     * Converts return value of a handle to the required type, applying the same checks as the interpreter does.
+     */
+    static MethodHandle adapt(MethodHandle h, Class<?> required) {
+        Class<?> rtype = h.type().returnType();
+        if (rtype == required) {
+            return h;
+        }
+        if (required == Object.class) {
+            return h.asType(h.type().changeReturnType(Object.class));
+        }
+        if (required == double.class && isNumericPrimitive(rtype)) {
+            return h.asType(h.type().changeReturnType(double.class));
+        }
+        MethodHandle boxed = h.asType(h.type().changeReturnType(Object.class));
+        if (required == boolean.class) {
+            return MethodHandles.filterReturnValue(boxed, TO_BOOLEAN);
+        }
+        return MethodHandles.filterReturnValue(boxed, TO_DOUBLE);
+    }
+
+    private static boolean isNumericPrimitive(Class<?> cls) {
+        return cls == byte.class || cls == short.class || cls == int.class
+                || cls == long.class || cls == float.class || cls == double.class;
+    }
+
+    /**
+     * Field access is compiled into a guard: when evaluation context doesn't override fields and the POJO is an instance
+     * of the validated class, the getter chain is called directly, otherwise the regular field lookup is used.
+     */
+    private MethodHandle compileField(FieldExpr<?> field, Class<?> required) {
+        // numbers are read via evalDouble(), which reads primitive getters without boxing, also for POJOs
+        // of classes other than the validated one
+        MethodHandle slow = required == double.class
+                ? EXPR_EVAL_DOUBLE.bindTo(field)
+                : adapt(EXPR_EVAL.bindTo(field), required);
+        FieldAccessor accessor = field.boundAccessor();
+        if (accessor == null || accessor.getHandle() == null) {
+            return slow;
+        }
+        MethodHandle getter = accessor.getHandle();
+        MethodHandle handler = MethodHandles.insertArguments(FIELD_ACCESS_FAILED, 0, field.field);
+        handler = MethodHandles.dropArguments(handler, 1, Object.class)
+                .asType(methodType(getter.type().returnType(), UndefinedFieldValueException.class, Object.class));
+        getter = MethodHandles.catchException(getter, UndefinedFieldValueException.class, handler);
+        MethodHandle fast = adapt(MethodHandles.dropArguments(getter, 1, EvaluationContext.class), required);
+        return MethodHandles.guardWithTest(FAST_PATH_APPLICABLE.bindTo(msgClass), fast, slow);
+    }
+
+    /**
+     * Numeric '=' and 'in' read a primitive argument as a double, unless it's a field and the context
+     * overrides fields: an extractor of the context can return any value, so it's tested as a value,
+     * the same way as in {@link NumberEqExpr#evalBoolean} and {@link NumberInExpr#evalBoolean}.
+     */
+    private MethodHandle compileNumberTest(Expr<?> arg, boolean boxed, MethodHandle test, MethodHandle testValue) {
+        MethodHandle value = MethodHandles.filterReturnValue(toObject(arg), testValue);
+        if (boxed) {
+            return value;
+        }
+        MethodHandle number = MethodHandles.filterReturnValue(toDouble(arg), test);
+        if (!(arg instanceof FieldExpr)) {
+            return number;
+        }
+        return MethodHandles.guardWithTest(OVERRIDES_FIELDS, value, number);
+    }
+
+    /**
+     * 'contains' evaluates its right argument only if the left one is not null.
+     */
+    private MethodHandle compileContains(StrContainsExpr<?> e) {
+        MethodHandle rest = MethodHandles.collectArguments(CONTAINS_REST, 1, toObject(e.arg2));
+        rest = MethodHandles.filterArguments(rest, 0, TO_STR);
+        MethodHandle nullLeft = MethodHandles.dropArguments(constant(boolean.class, false), 0, Object.class);
+        MethodHandle isNullLeft = MethodHandles.dropArguments(IS_NULL, 1, Object.class, EvaluationContext.class);
+        MethodHandle target = MethodHandles.guardWithTest(isNullLeft, nullLeft, rest);
+        return MethodHandles.foldArguments(target, toObject(e.arg1));
+    }
+
+    private static MethodHandle comparison(CompareExpression.Operator operator) {
+        switch (operator) {
+            case LT : return LT;
+            case GT : return GT;
+            case GE : return GE;
+            default : return LE;
+        }
+    }
+
+    /**
+     * Combines binary operation with handles computing its arguments.
+     * Left argument is evaluated before the right one.
+     */
+    private static MethodHandle combine(MethodHandle op, MethodHandle left, MethodHandle right) {
+        MethodHandle h = MethodHandles.collectArguments(op, 1, right);
+        h = MethodHandles.collectArguments(h, 0, left);
+        MethodType type = methodType(op.type().returnType(), Object.class, EvaluationContext.class);
+        return MethodHandles.permuteArguments(h, type, 0, 1, 0, 1);
+    }
+
+    private static MethodHandle constant(Class<?> type, Object value) {
+        return MethodHandles.dropArguments(MethodHandles.constant(type, value), 0, Object.class, EvaluationContext.class);
+    }
+
+    private static boolean not(boolean v) {
+        return !v;
+    }
+
+    private static boolean isNull(Object v) {
+        return v == null;
+    }
+
+    private static boolean containsRest(String s1, Object o2) {
+        if (o2 == null) {
+            return false;
+        }
+        return s1.contains(Values.toStr(o2));
+    }
+
+    private static boolean lt(double n1, double n2) {
+        return n1 < n2;
+    }
+
+    private static boolean gt(double n1, double n2) {
+        return n1 > n2;
+    }
+
+    private static boolean ge(double n1, double n2) {
+        return n1 >= n2;
+    }
+
+    private static boolean le(double n1, double n2) {
+        return n1 <= n2;
+    }
+
+    private static boolean fastPathApplicable(Class<?> msgClass, Object pojo, EvaluationContext<?> context) {
+        return !EvaluationContext.overridesFields(context) && msgClass.isInstance(pojo);
+    }
+
+    private static Object fieldAccessFailed(String fieldPath, UndefinedFieldValueException e) {
+        throw new EvalException("Unable to get field '" + fieldPath + "' value via reflection", e);
+    }
+}
@@ -0,0 +1,79 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.List;
+
+/**
+ * Static estimate of the relative cost of evaluating an expression.
+ * Regular expressions are more expensive than substring search, which is more expensive than
+ * equality and list lookups, which are more expensive than numeric comparison.
+ * Used to order operands of AND / OR before any runtime statistics are collected.
+ */
+final class ExprCost {
+
+    private static final int CONSTANT = 0;
+    private static final int FIELD = 2;
+    private static final int EXTRACTOR = 4;
+    private static final int ARITHMETIC = 1;
+    private static final int COMPARISON = 1;
+    private static final int EQUALITY = 3;
+    private static final int LOOKUP = 4;
+    private static final int CONTAINS = 8;
+    private static final int REGEXP = 32;
+    private static final int UNKNOWN = 16;
+
+    private ExprCost() {
+
+    }
+
+    static int estimate(Expr<?> expr) {
+        if (expr instanceof LiteralExpr || expr instanceof NumberExpr || expr instanceof BooleanExpr) {
+            return CONSTANT;
+        } else if (expr instanceof FieldExpr) {
+            return ((FieldExpr<?>) expr).resolution == FieldExpr.Resolution.EXTRACTOR ? EXTRACTOR : FIELD;
+        } else if (expr instanceof BinaryArithmeticExpr) {
+            BinaryArithmeticExpr<?> e = (BinaryArithmeticExpr<?>) expr;
+            return ARITHMETIC + estimate(e.arg1) + estimate(e.arg2);
+        } else if (expr instanceof CompareExpression) {
+            CompareExpression<?> e = (CompareExpression<?>) expr;
+            return COMPARISON + estimate(e.arg1) + estimate(e.arg2);
+        } else if (expr instanceof NumberEqExpr) {
+            return COMPARISON + estimate(((NumberEqExpr<?>) expr).arg);
+        } else if (expr instanceof EqExpr) {
+            EqExpr<?> e = (EqExpr<?>) expr;
+            return EQUALITY + estimate(e.arg1) + estimate(e.arg2);
+        } else if (expr instanceof NotEqExpr) {
+            NotEqExpr<?> e = (NotEqExpr<?>) expr;
+            return EQUALITY + estimate(e.arg1) + estimate(e.arg2);
+        } else if (expr instanceof InExpr) {
+            return LOOKUP + estimate(((InExpr<?>) expr).fieldExpr);
+        } else if (expr instanceof NumberInExpr) {
+            return LOOKUP + estimate(((NumberInExpr<?>) expr).arg);
+        } else if (expr instanceof StrContainsExpr) {
+            StrContainsExpr<?> e = (StrContainsExpr<?>) expr;
+            return CONTAINS + estimate(e.arg1) + estimate(e.arg2);
+        } else if (expr instanceof ContainsRegexpExpr) {
+            return REGEXP + estimate(((ContainsRegexpExpr<?>) expr).arg1);
+        } else if (expr instanceof MatchExpr) {
+            return REGEXP + estimate(((MatchExpr<?>) expr).arg1);
+        } else if (expr instanceof NotExpr) {
+            return estimate(((NotExpr<?>) expr).e);
+        } else if (expr instanceof AndExpr) {
+            return sum(((AndExpr<?>) expr).operands);
+        } else if (expr instanceof OrExpr) {
+            return sum(((OrExpr<?>) expr).operands);
+        } else if (expr instanceof SharedExpr) {
+            return estimate(((SharedExpr<?>) expr).e);
+        } else if (expr instanceof AdaptiveJunctionExpr) {
+            return sum(((AdaptiveJunctionExpr<?>) expr).operands);
+        }
+        return UNKNOWN;
+    }
+
+    private static int sum(List<? extends Expr<?>> operands) {
+        int cost = 0;
+        for (Expr<?> operand : operands) {
+            cost += estimate(operand);
+        }
+        return cost;
+    }
+}
@@ -0,0 +1,143 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Hash-consing of expression trees: replaces structurally equal sub-expressions of the rules
+ * it's applied to with one shared instance, so rules that have common conditions don't keep copies of them.
+ * Compiled patterns of regular expressions are shared too, also between conditions on different fields.
+ * <p>
+ * Conditions (boolean sub-expressions other than AND / OR / NOT and constants) are wrapped in {@link SharedExpr},
+ * so a condition referenced by several rules is evaluated once per evaluation.
+ * All rules must be bound to the same {@link FieldSlots}, which is to be sealed after all rules are interned.
+ * The interner is needed only while the rules are built.
+ */
+final class ExprInterner<POJO> {
+
+    private final FieldSlots slots;
+    private final Map<Expr<POJO>, Expr<POJO>> nodes = new HashMap<>();
+    private final Map<String, Pattern> patterns = new HashMap<>();
+
+    ExprInterner(FieldSlots slots) {
+        this.slots = slots;
+    }
+
+    Expr<POJO> intern(Expr<POJO> expr) {
+        Expr<POJO> node = internArgs(expr);
+        Expr<POJO> canonical = nodes.get(node);
+        if (canonical != null) {
+            if (canonical instanceof SharedExpr) {
+                slots.reference(((SharedExpr<POJO>) canonical).slot);
+            }
+            return canonical;
+        }
+        canonical = isCondition(node) ? new SharedExpr<>(node, slots) : node;
+        nodes.put(node, canonical);
+        return canonical;
+    }
+
+    /**
+     * @return number of distinct sub-expressions interned so far
+     */
+    int size() {
+        return nodes.size();
+    }
+
+    private static boolean isCondition(Expr<?> e) {
+        return e.resultType() == ExprResType.BOOL
+                && !(e instanceof AndExpr || e instanceof OrExpr || e instanceof NotExpr
+                || e instanceof BooleanExpr || e instanceof FieldExpr);
+    }
+
+    /**
+     * @return node with interned arguments, which is the given node if none of the arguments changed
+     */
+    private Expr<POJO> internArgs(Expr<POJO> expr) {
+        if (expr instanceof OrExpr) {
+            List<Expr<POJO>> operands = ((OrExpr<POJO>) expr).operands;
+            List<Expr<POJO>> interned = internAll(operands);
+            return interned == operands ? expr : new OrExpr<>(interned);
+        } else if (expr instanceof AndExpr) {
+            List<Expr<POJO>> operands = ((AndExpr<POJO>) expr).operands;
+            List<Expr<POJO>> interned = internAll(operands);
+            return interned == operands ? expr : new AndExpr<>(interned);
+        } else if (expr instanceof NotExpr) {
+            NotExpr<POJO> e = (NotExpr<POJO>) expr;
+            Expr<POJO> a = intern(e.e);
+            return a == e.e ? e : new NotExpr<>(a);
+        } else if (expr instanceof EqExpr) {
+            EqExpr<POJO> e = (EqExpr<POJO>) expr;
+            Expr<POJO> a1 = intern(e.arg1);
+            Expr<POJO> a2 = intern(e.arg2);
+            return a1 == e.arg1 && a2 == e.arg2 ? e : new EqExpr<>(a1, a2);
+        } else if (expr instanceof NotEqExpr) {
+            NotEqExpr<POJO> e = (NotEqExpr<POJO>) expr;
+            Expr<POJO> a1 = intern(e.arg1);
+            Expr<POJO> a2 = intern(e.arg2);
+            return a1 == e.arg1 && a2 == e.arg2 ? e : new NotEqExpr<>(a1, a2);
+        } else if (expr instanceof NumberEqExpr) {
+            NumberEqExpr<POJO> e = (NumberEqExpr<POJO>) expr;
+            Expr<POJO> a = intern(e.arg);
+            return a == e.arg ? e : e.withArg(a);
+        } else if (expr instanceof StrContainsExpr) {
+            StrContainsExpr<POJO> e = (StrContainsExpr<POJO>) expr;
+            Expr<POJO> a1 = intern(e.arg1);
+            Expr<POJO> a2 = intern(e.arg2);
+            return a1 == e.arg1 && a2 == e.arg2 ? e : new StrContainsExpr<>(a1, a2);
+        } else if (expr instanceof ContainsRegexpExpr) {
+            ContainsRegexpExpr<POJO> e = (ContainsRegexpExpr<POJO>) expr;
+            Expr<POJO> a = intern(e.arg1);
+            Pattern p = pattern(e.pattern);
+            return a == e.arg1 && p == e.pattern ? e : new ContainsRegexpExpr<>(a, e.regexp, p);
+        } else if (expr instanceof MatchExpr) {
+            MatchExpr<POJO> e = (MatchExpr<POJO>) expr;
+            Expr<POJO> a = intern(e.arg1);
+            Pattern p = pattern(e.pattern);
+            return a == e.arg1 && p == e.pattern ? e : new MatchExpr<>(a, e.regexp, p);
+        } else if (expr instanceof InExpr) {
+            InExpr<POJO> e = (InExpr<POJO>) expr;
+            Expr<POJO> a = intern(e.fieldExpr);
+            return a == e.fieldExpr ? e : new InExpr<>(a, e.stringList);
+        } else if (expr instanceof NumberInExpr) {
+            NumberInExpr<POJO> e = (NumberInExpr<POJO>) expr;
+            Expr<POJO> a = intern(e.arg);
+            return a == e.arg ? e : new NumberInExpr<>(a, e.numbers);
+        } else if (expr instanceof BinaryArithmeticExpr) {
+            BinaryArithmeticExpr<POJO> e = (BinaryArithmeticExpr<POJO>) expr;
+            Expr<POJO> a1 = intern(e.arg1);
+            Expr<POJO> a2 = intern(e.arg2);
+            return a1 == e.arg1 && a2 == e.arg2 ? e : e.withArgs(a1, a2);
+        } else if (expr instanceof CompareExpression) {
+            CompareExpression<POJO> e = (CompareExpression<POJO>) expr;
+            Expr<POJO> a1 = intern(e.arg1);
+            Expr<POJO> a2 = intern(e.arg2);
+            return a1 == e.arg1 && a2 == e.arg2 ? e : new CompareExpression<>(a1, a2, e.operator.symbol);
+        }
+        return expr;
+    }
+
+    /**
+     * @return the given list if none of the operands changed
+     */
+    private List<Expr<POJO>> internAll(List<Expr<POJO>> operands) {
+        List<Expr<POJO>> result = new ArrayList<>(operands.size());
+        boolean changed = false;
+        for (Expr<POJO> operand : operands) {
+            Expr<POJO> interned = intern(operand);
+            changed |= interned != operand;
+            result.add(interned);
+        }
+        return changed ? result : operands;
+    }
+
+    /**
+     * Patterns are compared by regular expression and flags, which are the same for all patterns of the DSL.
+     */
+    private Pattern pattern(Pattern pattern) {
+        return patterns.computeIfAbsent(pattern.pattern(), regex -> pattern);
+    }
+}
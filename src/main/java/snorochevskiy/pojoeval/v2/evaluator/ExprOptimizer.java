@@ -0,0 +1,225 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rewrites a parsed expression tree into an equivalent one that is cheaper to evaluate:
+ * <ul>
+ *     <li>sub-expressions that don't depend on fields are evaluated once (e.g. {@code level > 2 * 3});</li>
+ *     <li>double negation of a boolean expression is removed;</li>
+ *     <li>nested AND / OR chains are flattened into n-ary nodes, duplicate and constant operands are removed,
+ *     and operands after a constant that decides the result are dropped;</li>
+ *     <li>equality of a numeric expression and a number (or a literal that holds a number) is evaluated
+ *     on doubles, see {@link NumberEqExpr}.</li>
+ * </ul>
+ * Nodes are compared structurally, so {@code x = 'a' OR x = 'a'} is reduced to a single comparison.
+ * Operands that are not known to be boolean are never unwrapped from AND / OR / NOT,
+ * so type errors are reported the same way as for the original tree. Likewise, a constant that decides
+ * the result of AND / OR replaces the whole node only if it's the first operand, since the operands before it
+ * are still evaluated and can fail.
+ */
+final class ExprOptimizer {
+
+    private ExprOptimizer() {
+
+    }
+
+    static <POJO> Expr<POJO> optimize(Expr<POJO> expr) {
+        if (expr instanceof OrExpr) {
+            return optimizeOr((OrExpr<POJO>) expr);
+        } else if (expr instanceof AndExpr) {
+            return optimizeAnd((AndExpr<POJO>) expr);
+        } else if (expr instanceof NotExpr) {
+            return optimizeNot((NotExpr<POJO>) expr);
+        } else if (expr instanceof EqExpr) {
+            EqExpr<POJO> e = (EqExpr<POJO>) expr;
+            return optimizeEquality(optimize(e.arg1), optimize(e.arg2), false);
+        } else if (expr instanceof NotEqExpr) {
+            NotEqExpr<POJO> e = (NotEqExpr<POJO>) expr;
+            return optimizeEquality(optimize(e.arg1), optimize(e.arg2), true);
+        } else if (expr instanceof StrContainsExpr) {
+            StrContainsExpr<POJO> e = (StrContainsExpr<POJO>) expr;
+            Expr<POJO> a1 = optimize(e.arg1);
+            Expr<POJO> a2 = optimize(e.arg2);
+            return fold(a1 == e.arg1 && a2 == e.arg2 ? e : new StrContainsExpr<>(a1, a2));
+        } else if (expr instanceof ContainsRegexpExpr) {
+            ContainsRegexpExpr<POJO> e = (ContainsRegexpExpr<POJO>) expr;
+            Expr<POJO> a = optimize(e.arg1);
+            return fold(a == e.arg1 ? e : new ContainsRegexpExpr<>(a, e.regexp));
+        } else if (expr instanceof MatchExpr) {
+            MatchExpr<POJO> e = (MatchExpr<POJO>) expr;
+            Expr<POJO> a = optimize(e.arg1);
+            return fold(a == e.arg1 ? e : new MatchExpr<>(a, e.regexp));
+        } else if (expr instanceof InExpr) {
+            InExpr<POJO> e = (InExpr<POJO>) expr;
+            Expr<POJO> a = optimize(e.fieldExpr);
+            return fold(a == e.fieldExpr ? e : new InExpr<>(a, e.stringList));
+        } else if (expr instanceof NumberInExpr) {
+            NumberInExpr<POJO> e = (NumberInExpr<POJO>) expr;
+            Expr<POJO> a = optimize(e.arg);
+            return fold(a == e.arg ? e : new NumberInExpr<>(a, e.numbers));
+        } else if (expr instanceof BinaryArithmeticExpr) {
+            BinaryArithmeticExpr<POJO> e = (BinaryArithmeticExpr<POJO>) expr;
+            Expr<POJO> a1 = optimize(e.arg1);
+            Expr<POJO> a2 = optimize(e.arg2);
+            return fold(a1 == e.arg1 && a2 == e.arg2 ? e : e.withArgs(a1, a2));
+        } else if (expr instanceof CompareExpression) {
+            CompareExpression<POJO> e = (CompareExpression<POJO>) expr;
+            Expr<POJO> a1 = optimize(e.arg1);
+            Expr<POJO> a2 = optimize(e.arg2);
+            return fold(a1 == e.arg1 && a2 == e.arg2 ? e : new CompareExpression<>(a1, a2, e.operator.symbol));
+        }
+        return expr;
+    }
+
+    private static <POJO> Expr<POJO> optimizeOr(OrExpr<POJO> e) {
+        List<Expr<POJO>> operands = new ArrayList<>();
+        for (Expr<POJO> operand : e.operands) {
+            Expr<POJO> o = optimize(operand);
+            operands.addAll(o instanceof OrExpr ? ((OrExpr<POJO>) o).operands : Collections.singletonList(o));
+        }
+        Set<Expr<POJO>> kept = junctionOperands(operands, true);
+        if (kept.size() == 1 && kept.iterator().next().resultType() == ExprResType.BOOL) {
+            return kept.iterator().next();
+        }
+        return kept.isEmpty() ? new BooleanExpr<>(false) : new OrExpr<>(new ArrayList<>(kept));
+    }
+
+    private static <POJO> Expr<POJO> optimizeAnd(AndExpr<POJO> e) {
+        List<Expr<POJO>> operands = new ArrayList<>();
+        for (Expr<POJO> operand : e.operands) {
+            Expr<POJO> o = optimize(operand);
+            operands.addAll(o instanceof AndExpr ? ((AndExpr<POJO>) o).operands : Collections.singletonList(o));
+        }
+        Set<Expr<POJO>> kept = junctionOperands(operands, false);
+        if (kept.size() == 1 && kept.iterator().next().resultType() == ExprResType.BOOL) {
+            return kept.iterator().next();
+        }
+        return kept.isEmpty() ? new BooleanExpr<>(true) : new AndExpr<>(new ArrayList<>(kept));
+    }
+
+    /**
+     * Removes duplicates and constants that don't decide the result from flattened operands of AND / OR.
+     * A constant that decides the result is kept as the last operand, and the operands after it are dropped.
+     * @param decisiveValue true for OR, false for AND
+     */
+    private static <POJO> Set<Expr<POJO>> junctionOperands(List<Expr<POJO>> operands, boolean decisiveValue) {
+        Set<Expr<POJO>> kept = new LinkedHashSet<>();
+        for (Expr<POJO> o : operands) {
+            if (!(o instanceof BooleanExpr)) {
+                kept.add(o);
+            } else if (((BooleanExpr<POJO>) o).value == decisiveValue) {
+                kept.add(o);
+                break;
+            }
+        }
+        return kept;
+    }
+
+    private static <POJO> Expr<POJO> optimizeNot(NotExpr<POJO> e) {
+        Expr<POJO> o = optimize(e.e);
+        if (o instanceof BooleanExpr) {
+            return new BooleanExpr<>(!((BooleanExpr<POJO>) o).value);
+        }
+        if (o instanceof NotExpr && ((NotExpr<POJO>) o).e.resultType() == ExprResType.BOOL) {
+            return ((NotExpr<POJO>) o).e;
+        }
+        return o == e.e ? e : new NotExpr<>(o);
+    }
+
+    private static <POJO> Expr<POJO> optimizeEquality(Expr<POJO> a1, Expr<POJO> a2, boolean negate) {
+        if (isConstant(a1) && isConstant(a2)) {
+            return fold(negate ? new NotEqExpr<>(a1, a2) : new EqExpr<>(a1, a2));
+        }
+        Object constant = a1.resultType() == ExprResType.NUM ? numericConstant(a2) : null;
+        if (constant != null) {
+            return new NumberEqExpr<>(a1, constant, negate, true);
+        }
+        constant = a2.resultType() == ExprResType.NUM ? numericConstant(a1) : null;
+        if (constant != null) {
+            return new NumberEqExpr<>(a2, constant, negate, false);
+        }
+        return negate ? new NotEqExpr<>(a1, a2) : new EqExpr<>(a1, a2);
+    }
+
+    /**
+     * @return value of a number, or a literal that holds a number, otherwise null
+     */
+    private static Object numericConstant(Expr<?> e) {
+        if (e instanceof NumberExpr) {
+            return ((NumberExpr<?>) e).number;
+        }
+        if (e instanceof LiteralExpr && Values.isNumber(((LiteralExpr<?>) e).literal)) {
+            return ((LiteralExpr<?>) e).literal;
+        }
+        return null;
+    }
+
+    private static boolean isConstant(Expr<?> e) {
+        return e instanceof NumberExpr || e instanceof LiteralExpr || e instanceof BooleanExpr;
+    }
+
+    /**
+     * Replaces the node with a constant if all its arguments are constants.
+     * Nodes that fail to evaluate (e.g. division by zero) are kept, so the error is reported on evaluation.
+     */
+    private static <POJO> Expr<POJO> fold(Expr<POJO> e) {
+        for (Expr<POJO> arg : args(e)) {
+            if (!isConstant(arg)) {
+                return e;
+            }
+        }
+        Object v;
+        try {
+            v = e.eval(null, null);
+        } catch (EvalException ex) {
+            return e;
+        }
+        if (v instanceof Boolean) {
+            return new BooleanExpr<>((Boolean) v);
+        } else if (v instanceof Double) {
+            return new NumberExpr<>((Double) v);
+        } else if (v instanceof String) {
+            return new LiteralExpr<>((String) v);
+        }
+        return e;
+    }
+
+    private static <POJO> List<Expr<POJO>> args(Expr<POJO> e) {
+        List<Expr<POJO>> args = new ArrayList<>(2);
+        if (e instanceof EqExpr) {
+            args.add(((EqExpr<POJO>) e).arg1);
+            args.add(((EqExpr<POJO>) e).arg2);
+        } else if (e instanceof NotEqExpr) {
+            args.add(((NotEqExpr<POJO>) e).arg1);
+            args.add(((NotEqExpr<POJO>) e).arg2);
+        } else if (e instanceof StrContainsExpr) {
+            args.add(((StrContainsExpr<POJO>) e).arg1);
+            args.add(((StrContainsExpr<POJO>) e).arg2);
+        } else if (e instanceof ContainsRegexpExpr) {
+            args.add(((ContainsRegexpExpr<POJO>) e).arg1);
+        } else if (e instanceof MatchExpr) {
+            args.add(((MatchExpr<POJO>) e).arg1);
+        } else if (e instanceof InExpr) {
+            args.add(((InExpr<POJO>) e).fieldExpr);
+        } else if (e instanceof NumberInExpr) {
+            args.add(((NumberInExpr<POJO>) e).arg);
+        } else if (e instanceof BinaryArithmeticExpr) {
+            args.add(((BinaryArithmeticExpr<POJO>) e).arg1);
+            args.add(((BinaryArithmeticExpr<POJO>) e).arg2);
+        } else if (e instanceof CompareExpression) {
+            args.add(((CompareExpression<POJO>) e).arg1);
+            args.add(((CompareExpression<POJO>) e).arg2);
+        } else {
+            // unknown node, not safe to fold
+            args.add(e);
+        }
+        return args;
+    }
+}
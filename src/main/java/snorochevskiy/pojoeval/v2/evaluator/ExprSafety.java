@@ -0,0 +1,130 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.List;
+
+/**
+ * Static check that evaluation of an expression cannot fail, i.e. cannot throw {@link
+ * snorochevskiy.pojoeval.v2.evaluator.exception.EvalException}, whatever the field values are.
+ * <p>
+ * The check holds only for a POJO that is an instance of the validated class, when fields are not overridden
+ * by the evaluation context (see {@link #appliesTo(Object, EvaluationContext, Class)}). Fields are then read
+ * by getters bound when the rule is built, and getters are expected not to throw, the same way operands are
+ * expected to have no side effects. A field can still be null unless it is of a numeric primitive type,
+ * so e.g. comparison of a boxed number field or division by a field can fail.
+ * Used to decide which operands of AND / OR can be evaluated out of the written order.
+ */
+final class ExprSafety {
+
+    private ExprSafety() {
+
+    }
+
+    /**
+     * @return true if evaluation of the boolean expression cannot fail
+     */
+    static boolean cannotFail(Expr<?> expr) {
+        if (expr instanceof BooleanExpr) {
+            return true;
+        } else if (expr instanceof CompareExpression) {
+            CompareExpression<?> e = (CompareExpression<?>) expr;
+            return isNumber(e.arg1) && isNumber(e.arg2);
+        } else if (expr instanceof NumberEqExpr) {
+            NumberEqExpr<?> e = (NumberEqExpr<?>) expr;
+            return e.boxed ? isValue(e.arg) : isNumber(e.arg);
+        } else if (expr instanceof NumberInExpr) {
+            NumberInExpr<?> e = (NumberInExpr<?>) expr;
+            return e.boxed ? isValue(e.arg) && e.arg.resultType() == ExprResType.NUM : isNumber(e.arg);
+        } else if (expr instanceof EqExpr) {
+            EqExpr<?> e = (EqExpr<?>) expr;
+            return isValue(e.arg1) && isValue(e.arg2);
+        } else if (expr instanceof NotEqExpr) {
+            NotEqExpr<?> e = (NotEqExpr<?>) expr;
+            return isValue(e.arg1) && isValue(e.arg2);
+        } else if (expr instanceof InExpr) {
+            return isString(((InExpr<?>) expr).fieldExpr);
+        } else if (expr instanceof StrContainsExpr) {
+            StrContainsExpr<?> e = (StrContainsExpr<?>) expr;
+            return isString(e.arg1) && isString(e.arg2);
+        } else if (expr instanceof ContainsRegexpExpr) {
+            return isString(((ContainsRegexpExpr<?>) expr).arg1);
+        } else if (expr instanceof MatchExpr) {
+            return isString(((MatchExpr<?>) expr).arg1);
+        } else if (expr instanceof NotExpr) {
+            return cannotFail(((NotExpr<?>) expr).e);
+        } else if (expr instanceof AndExpr) {
+            return allCannotFail(((AndExpr<?>) expr).operands);
+        } else if (expr instanceof OrExpr) {
+            return allCannotFail(((OrExpr<?>) expr).operands);
+        } else if (expr instanceof AdaptiveJunctionExpr) {
+            return allCannotFail(((AdaptiveJunctionExpr<?>) expr).operands);
+        } else if (expr instanceof SharedExpr) {
+            return cannotFail(((SharedExpr<?>) expr).e);
+        }
+        return false;
+    }
+
+    /**
+     * @return true if {@link #cannotFail(Expr)} holds for the evaluation of a rule on the given POJO
+     */
+    static boolean appliesTo(Object pojo, EvaluationContext<?> context, Class<?> msgClass) {
+        return msgClass != null && msgClass.isInstance(pojo) && !EvaluationContext.overridesFields(context);
+    }
+
+    private static boolean allCannotFail(List<? extends Expr<?>> operands) {
+        for (Expr<?> operand : operands) {
+            if (!cannotFail(operand)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the expression is evaluated to a value, possibly null, without failing
+     */
+    private static boolean isValue(Expr<?> expr) {
+        if (expr instanceof LiteralExpr || expr instanceof NumberExpr) {
+            return true;
+        } else if (expr instanceof FieldExpr) {
+            return isBound((FieldExpr<?>) expr);
+        }
+        return isNumber(expr) || expr.resultType() == ExprResType.BOOL && cannotFail(expr);
+    }
+
+    /**
+     * @return true if the expression is evaluated to a number that is never null, without failing
+     */
+    private static boolean isNumber(Expr<?> expr) {
+        if (expr instanceof NumberExpr) {
+            return true;
+        } else if (expr instanceof FieldExpr) {
+            FieldExpr<?> field = (FieldExpr<?>) expr;
+            return isBound(field) && field.isNumericPrimitive();
+        } else if (expr instanceof DivideExpr || expr instanceof ModuloExpr) {
+            BinaryArithmeticExpr<?> e = (BinaryArithmeticExpr<?>) expr;
+            return isNumber(e.arg1) && e.arg2 instanceof NumberExpr && ((NumberExpr<?>) e.arg2).number != 0;
+        } else if (expr instanceof BinaryArithmeticExpr) {
+            BinaryArithmeticExpr<?> e = (BinaryArithmeticExpr<?>) expr;
+            return isNumber(e.arg1) && isNumber(e.arg2);
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the expression is evaluated to a string or null, without failing
+     */
+    private static boolean isString(Expr<?> expr) {
+        if (expr instanceof LiteralExpr) {
+            return true;
+        }
+        return expr instanceof FieldExpr && isBound((FieldExpr<?>) expr) && expr.resultType() == ExprResType.STR;
+    }
+
+    /**
+     * @return true if the field is read by a single getter of the validated class
+     */
+    private static boolean isBound(FieldExpr<?> field) {
+        return field.resolution == FieldExpr.Resolution.REFLECTION && field.boundAccessor() != null
+                && field.field.indexOf('.') < 0;
+    }
+}
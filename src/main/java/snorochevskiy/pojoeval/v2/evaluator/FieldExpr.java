@@ -0,0 +1,249 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+import snorochevskiy.pojoeval.v2.reflect.FieldAccessor;
+import snorochevskiy.pojoeval.v2.reflect.ReflectionUtils;
+import snorochevskiy.pojoeval.v2.reflect.UndefinedFieldValueException;
+import snorochevskiy.pojoeval.v2.util.Opt;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * Rule field. The way the field is evaluated (builder-registered extractor, reflection or nothing)
+ * is decided when the rule is built, so evaluation doesn't search for the field by name.
+ * Evaluation context can still override the field, either via an extractor in the field's slot,
+ * or via an external fields extractor.
+ */
+final class FieldExpr<POJO> implements Expr<POJO> {
+
+    enum Resolution {
+        EXTRACTOR, REFLECTION, UNRESOLVED
+    }
+
+    final String field;
+    final int slot;
+    final FieldSlots slots;
+    final ExprResType exprResType;
+    final Resolution resolution;
+    final Function<POJO,Object> extractor;
+    final Class<POJO> msgClass;
+
+    /**
+     * Getter chain bound when the rule is built against the validated class, null if the class is not known
+     * or the field is not evaluated via reflection.
+     */
+    private transient FieldAccessor accessor;
+
+    /**
+     * Inline cache of accessors resolved against runtime classes of POJOs, for POJOs that are not instances
+     * of the validated class (or if the rule was not validated). Holds up to {@link #INLINE_CACHE_SIZE} classes,
+     * POJOs of other classes use the shared per-class cache in {@link ReflectionUtils}.
+     * The array is replaced, never modified, so it can be read without synchronization.
+     */
+    private transient volatile CachedAccessor[] inlineCache;
+
+    static final int INLINE_CACHE_SIZE = 4;
+
+    FieldExpr(String field, FieldSlots slots, ExprResType exprResType, Function<POJO,Object> extractor,
+              boolean useReflection, Class<POJO> msgClass) {
+        this.field = field;
+        this.slots = slots;
+        this.slot = slots.slotOf(field);
+        this.exprResType = exprResType;
+        this.extractor = extractor;
+        this.resolution = extractor != null ? Resolution.EXTRACTOR
+                : useReflection ? Resolution.REFLECTION
+                : Resolution.UNRESOLVED;
+        this.msgClass = msgClass;
+        this.accessor = resolveAccessor();
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return exprResType;
+    }
+
+    @Override
+    public Object eval(POJO pojo, EvaluationContext<POJO> context) {
+        Object v = evalValue(pojo, context);
+        if (v == Values.ERROR) {
+            throw new EvalException(resolution == Resolution.REFLECTION
+                    ? "Unable to get field '" + field + "' value via reflection"
+                    : "Unable to evaluate field '" + field + "'");
+        }
+        return v;
+    }
+
+    @Override
+    public Object evalValue(POJO pojo, EvaluationContext<POJO> context) {
+        if (context instanceof EvalFrame && slots.isMemoized(slot)) {
+            EvalFrame<POJO> frame = (EvalFrame<POJO>) context;
+            if (frame.has(slot)) {
+                return frame.get(slot);
+            }
+            Object v = read(pojo, context);
+            frame.put(slot, v);
+            return v;
+        }
+        return read(pojo, context);
+    }
+
+    private Object read(POJO pojo, EvaluationContext<POJO> context) {
+        if (context != null) {
+            Function<POJO, Object> override = context.getFieldExtractor(slots, slot);
+            if (override != null) {
+                return override.apply(pojo);
+            }
+            if (context.getExternalFieldsExtractor() != null) {
+                Opt<Object> o = context.getExternalFieldsExtractor().extractFieldValue(pojo, field);
+                if (o.isDefined()) {
+                    return o.get();
+                }
+            }
+        }
+        switch (resolution) {
+            case EXTRACTOR:
+                return extractor.apply(pojo);
+            case REFLECTION:
+                FieldAccessor a = accessorFor(pojo);
+                Object v = a != null ? a.get(pojo) : FieldAccessor.UNDEFINED;
+                return v == FieldAccessor.UNDEFINED ? Values.ERROR : v;
+            default:
+                return Values.ERROR;
+        }
+    }
+
+    @Override
+    public double evalDouble(POJO pojo, EvaluationContext<POJO> context) {
+        FieldAccessor a = numericAccessorFor(pojo, context);
+        if (a != null) {
+            try {
+                return a.getDouble(pojo);
+            } catch (UndefinedFieldValueException e) {
+                throw new EvalException("Unable to get field '" + field + "' value via reflection", e);
+            }
+        }
+        return Values.toDouble(eval(pojo, context));
+    }
+
+    @Override
+    public double evalNumber(POJO pojo, EvaluationContext<POJO> context) {
+        FieldAccessor a = numericAccessorFor(pojo, context);
+        if (a != null) {
+            try {
+                return a.getDouble(pojo);
+            } catch (UndefinedFieldValueException e) {
+                return Double.NaN;
+            }
+        }
+        return Values.toDoubleOrNaN(evalValue(pojo, context));
+    }
+
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        return Values.toTri(evalValue(pojo, context));
+    }
+
+    /**
+     * Accessor bound at build time, if it is applicable for the given POJO,
+     * otherwise the one resolved against the runtime class of the POJO.
+     */
+    private FieldAccessor accessorFor(POJO pojo) {
+        if (accessor != null && msgClass.isInstance(pojo)) {
+            return accessor;
+        }
+        if (pojo == null) {
+            return null;
+        }
+        Class<?> cls = pojo.getClass();
+        CachedAccessor[] cache = inlineCache;
+        if (cache != null) {
+            for (CachedAccessor cached : cache) {
+                if (cached.cls == cls) {
+                    return cached.accessor;
+                }
+            }
+        }
+        FieldAccessor a = ReflectionUtils.getFieldAccessor(cls, field).orElse(null);
+        if (cache == null) {
+            inlineCache = new CachedAccessor[] {new CachedAccessor(cls, a)};
+        } else if (cache.length < INLINE_CACHE_SIZE) {
+            CachedAccessor[] extended = Arrays.copyOf(cache, cache.length + 1);
+            extended[cache.length] = new CachedAccessor(cls, a);
+            inlineCache = extended;
+        }
+        return a;
+    }
+
+    /**
+     * Accessor to read the field as a primitive number, or null if the field is overridden by the context,
+     * or it's not a numeric primitive for the POJO's class.
+     */
+    private FieldAccessor numericAccessorFor(POJO pojo, EvaluationContext<POJO> context) {
+        if (resolution != Resolution.REFLECTION || EvaluationContext.overridesFields(context)) {
+            return null;
+        }
+        FieldAccessor a = accessorFor(pojo);
+        return a != null && a.isNumericPrimitive() ? a : null;
+    }
+
+    int inlineCacheSize() {
+        CachedAccessor[] cache = inlineCache;
+        return cache != null ? cache.length : 0;
+    }
+
+    FieldAccessor boundAccessor() {
+        return accessor;
+    }
+
+    /**
+     * @return true if the field is read via a getter of numeric primitive type, so its value is never null
+     */
+    boolean isNumericPrimitive() {
+        return accessor != null && accessor.isNumericPrimitive();
+    }
+
+    private FieldAccessor resolveAccessor() {
+        if (resolution != Resolution.REFLECTION || msgClass == null) {
+            return null;
+        }
+        return ReflectionUtils.getFieldAccessor(msgClass, field).orElse(null);
+    }
+
+    private static final class CachedAccessor {
+        final Class<?> cls;
+        final FieldAccessor accessor;
+
+        CachedAccessor(Class<?> cls, FieldAccessor accessor) {
+            this.cls = cls;
+            this.accessor = accessor;
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.accessor = resolveAccessor();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FieldExpr)) {
+            return false;
+        }
+        FieldExpr<?> other = (FieldExpr<?>) o;
+        return field.equals(other.field) && slots == other.slots;
+    }
+
+    @Override
+    public int hashCode() {
+        return field.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return field;
+    }
+}
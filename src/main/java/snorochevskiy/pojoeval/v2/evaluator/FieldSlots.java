@@ -0,0 +1,90 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns integer slots to the field identifiers referenced by a rule.
+ * Slots are assigned while the rule is parsed, and then used to address per-field data
+ * (like evaluation context extractors or memoized values) by index instead of by name.
+ * Conditions shared between rules get slots too (see {@link SharedExpr}), they have no name.
+ */
+final class FieldSlots implements Serializable {
+
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<Integer> references = new ArrayList<>();
+    private boolean[] memoized = new boolean[0];
+    private boolean anyMemoized;
+
+    int slotOf(String fieldName) {
+        Integer slot = slots.get(fieldName);
+        if (slot == null) {
+            slot = names.size();
+            slots.put(fieldName, slot);
+            names.add(fieldName);
+            references.add(0);
+        }
+        references.set(slot, references.get(slot) + 1);
+        return slot;
+    }
+
+    /**
+     * Assigns a slot to a condition shared between rules, which is referenced once so far.
+     */
+    int conditionSlot() {
+        names.add(null);
+        references.add(1);
+        return names.size() - 1;
+    }
+
+    /**
+     * Adds a reference to an already assigned slot.
+     */
+    void reference(int slot) {
+        references.set(slot, references.get(slot) + 1);
+    }
+
+    /**
+     * @return slot of the field, or -1 if the field is not referenced
+     */
+    int find(String fieldName) {
+        Integer slot = slots.get(fieldName);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * @return name of the field in the slot, or null if the slot is assigned to a condition
+     */
+    String name(int slot) {
+        return names.get(slot);
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    /**
+     * Decides which fields and conditions are memoized during an evaluation: the ones referenced more than once.
+     * Called when all fields of the rule are parsed.
+     */
+    void seal() {
+        memoized = new boolean[names.size()];
+        anyMemoized = false;
+        for (int i = 0; i < memoized.length; i++) {
+            memoized[i] = references.get(i) > 1;
+            anyMemoized |= memoized[i];
+        }
+    }
+
+    boolean isMemoized(int slot) {
+        return slot < memoized.length && memoized[slot];
+    }
+
+    boolean hasMemoized() {
+        return anyMemoized;
+    }
+}
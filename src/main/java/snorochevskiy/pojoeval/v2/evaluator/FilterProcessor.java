@@ -0,0 +1,420 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.reactivestreams.Processor;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reactive Streams operator that passes downstream the items a boolean rule is true for.
+ * (Reactive Streams interfaces are used rather than {@code java.util.concurrent.Flow}, which requires Java 9;
+ * they are converted to each other with {@code org.reactivestreams.FlowAdapters}.)
+ * <p>
+ * Items are requested from upstream and evaluated in batches: the processor requests
+ * {@code batchSize * maxPendingBatches} items up front, evaluates every {@code batchSize} received items
+ * with {@link Evaluator#evaluateBatch(List, EvaluationContext, BitSet)}, and requests another batch
+ * when all matched items of a batch are passed downstream. So at most {@code maxPendingBatches} batches are buffered,
+ * and items are emitted only as downstream requests them. The last batch may be smaller, and is evaluated
+ * when upstream completes.
+ * <p>
+ * If an executor is given, batches are evaluated in it, several at a time, and emitted in the order
+ * they were received. Otherwise a batch is evaluated in the thread that delivers its last item.
+ * If the rule fails on an item, the processor cancels upstream and signals the error downstream.
+ * Errors from upstream are signaled downstream without waiting for the buffered items.
+ * The processor supports a single subscriber.
+ *
+ * @param <POJO> class of POJO that rules are to be evaluated on
+ */
+public class FilterProcessor<POJO> implements Processor<POJO, POJO> {
+
+    private final Evaluator<POJO, Boolean> evaluator;
+    private final int batchSize;
+    private final int maxPendingBatches;
+    private final Executor executor;
+
+    /**
+     * Batches in the order of their items, evaluated or not.
+     */
+    private final Queue<Batch> pending = new ConcurrentLinkedQueue<>();
+    /**
+     * Batch that receives items, accessed only by upstream signals, which are serial.
+     */
+    private List<POJO> filling;
+
+    private volatile Subscription upstream;
+    private volatile Subscriber<? super POJO> downstream;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private final AtomicLong requested = new AtomicLong();
+    private volatile boolean done;
+    private volatile Throwable upstreamError;
+    private volatile boolean cancelled;
+    /**
+     * Accessed only by the drain loop.
+     */
+    private boolean started;
+    private boolean terminated;
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong emitted = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+
+    private FilterProcessor(Builder<POJO> builder) {
+        this.evaluator = builder.evaluator;
+        this.batchSize = builder.batchSize;
+        this.maxPendingBatches = builder.maxPendingBatches;
+        this.executor = builder.executor;
+        this.filling = new ArrayList<>(batchSize);
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        if (subscription == null) {
+            throw new NullPointerException("Subscription is null");
+        }
+        if (upstream != null || cancelled || done) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(POJO item) {
+        if (item == null) {
+            throw new NullPointerException("Item is null");
+        }
+        if (done || cancelled) {
+            return;
+        }
+        received.incrementAndGet();
+        queued.incrementAndGet();
+        filling.add(item);
+        if (filling.size() == batchSize) {
+            submit();
+        }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        if (error == null) {
+            throw new NullPointerException("Error is null");
+        }
+        if (done) {
+            return;
+        }
+        upstreamError = error;
+        done = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        if (done) {
+            return;
+        }
+        if (!filling.isEmpty()) {
+            submit();
+        }
+        // set after the last batch is queued, so that the drain loop sees the batch when it sees completion
+        done = true;
+        drain();
+    }
+
+    private void submit() {
+        Batch batch = new Batch(filling);
+        filling = new ArrayList<>(batchSize);
+        pending.add(batch);
+        if (executor == null) {
+            batch.run();
+            return;
+        }
+        try {
+            executor.execute(batch);
+        } catch (RejectedExecutionException e) {
+            batch.fail(e);
+        }
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super POJO> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber is null");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("FilterProcessor supports a single subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Downstream());
+        // set after onSubscribe returns, so that no signal is delivered before it
+        downstream = subscriber;
+        drain();
+    }
+
+    /**
+     * Passes evaluated items downstream as far as demand allows, replenishes upstream and delivers terminal signals.
+     * Runs in one thread at a time: a call that finds the loop running only makes it run one more time.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Subscriber<? super POJO> d = downstream;
+            if (d != null && !terminated) {
+                if (!started && upstream != null && !cancelled) {
+                    started = true;
+                    upstream.request((long) batchSize * maxPendingBatches);
+                }
+                emit(d);
+            }
+            if (terminated || cancelled) {
+                pending.clear();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void emit(Subscriber<? super POJO> d) {
+        long demand = requested.get();
+        long count = 0;
+        while (!cancelled) {
+            Throwable error = upstreamError;
+            if (error != null) {
+                terminated = true;
+                d.onError(error);
+                return;
+            }
+            boolean completed = done;
+            Batch batch = pending.peek();
+            if (batch == null) {
+                if (completed) {
+                    terminated = true;
+                    d.onComplete();
+                }
+                break;
+            }
+            if (!batch.evaluated) {
+                break;
+            }
+            if (batch.error != null) {
+                terminated = true;
+                upstream.cancel();
+                d.onError(batch.error);
+                return;
+            }
+            if (batch.position == batch.matched.size()) {
+                pending.poll();
+                if (!completed) {
+                    upstream.request(batch.items.size());
+                }
+                continue;
+            }
+            if (count == demand) {
+                break;
+            }
+            POJO item = batch.matched.get(batch.position++);
+            count++;
+            emitted.incrementAndGet();
+            queued.decrementAndGet();
+            d.onNext(item);
+        }
+        if (count != 0 && demand != Long.MAX_VALUE) {
+            requested.addAndGet(-count);
+        }
+    }
+
+    /**
+     * @return number of items received from upstream
+     */
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    /**
+     * @return number of items the rule was true for
+     */
+    public long getMatchedCount() {
+        return matched.get();
+    }
+
+    /**
+     * @return number of items passed downstream
+     */
+    public long getEmittedCount() {
+        return emitted.get();
+    }
+
+    /**
+     * @return number of received items that are not yet evaluated, or are matched and wait for downstream demand
+     */
+    public long getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Items of upstream that are evaluated together.
+     */
+    private final class Batch implements Runnable {
+        final List<POJO> items;
+        /**
+         * Set after the matched items or the error, which publishes them to the drain loop.
+         */
+        volatile boolean evaluated;
+        List<POJO> matched;
+        Throwable error;
+        /**
+         * Number of matched items passed downstream, accessed only by the drain loop.
+         */
+        int position;
+
+        Batch(List<POJO> items) {
+            this.items = items;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                BitSet bits = new BitSet(items.size());
+                evaluator.evaluateBatch(items, null, bits);
+                List<POJO> result = new ArrayList<>(bits.cardinality());
+                for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                    result.add(items.get(i));
+                }
+                matched = result;
+            } catch (RuntimeException e) {
+                fail(e);
+                return;
+            }
+            FilterProcessor.this.matched.addAndGet(matched.size());
+            queued.addAndGet(matched.size() - items.size());
+            evaluated = true;
+            drain();
+        }
+
+        void fail(Throwable e) {
+            error = e;
+            evaluated = true;
+            drain();
+        }
+    }
+
+    private final class Downstream implements Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // signaled as an upstream error, so that it's delivered by the drain loop
+                Subscription s = upstream;
+                if (s != null) {
+                    s.cancel();
+                }
+                upstreamError = new IllegalArgumentException("Requested number of items must be positive: " + n);
+                done = true;
+                drain();
+                return;
+            }
+            long r;
+            long updated;
+            do {
+                r = requested.get();
+                if (r == Long.MAX_VALUE) {
+                    return;
+                }
+                updated = r + n < 0 ? Long.MAX_VALUE : r + n;
+            } while (!requested.compareAndSet(r, updated));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            Subscription s = upstream;
+            if (s != null) {
+                s.cancel();
+            }
+            drain();
+        }
+    }
+
+    public static <POJO> Builder<POJO> builder(Evaluator<POJO, Boolean> evaluator) {
+        return new Builder<>(evaluator);
+    }
+
+    public static class Builder<POJO> {
+        private final Evaluator<POJO, Boolean> evaluator;
+        private int batchSize = 256;
+        private int maxPendingBatches = 4;
+        private Executor executor = null;
+
+        private Builder(Evaluator<POJO, Boolean> evaluator) {
+            this.evaluator = evaluator;
+        }
+
+        /**
+         * Number of items evaluated together, 256 by default.
+         * @return
+         */
+        public Builder<POJO> batchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Number of batches that are requested from upstream before their items are passed downstream,
+         * i.e. that can be evaluated at the same time, 4 by default.
+         * @return
+         */
+        public Builder<POJO> maxPendingBatches(int maxPendingBatches) {
+            if (maxPendingBatches < 1) {
+                throw new IllegalArgumentException("Number of pending batches must be positive: " + maxPendingBatches);
+            }
+            this.maxPendingBatches = maxPendingBatches;
+            return this;
+        }
+
+        /**
+         * Executor batches are evaluated in, by default they are evaluated in the thread that delivers them.
+         * @return
+         */
+        public Builder<POJO> withExecutor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public FilterProcessor<POJO> build() {
+            return new FilterProcessor<>(this);
+        }
+    }
+}
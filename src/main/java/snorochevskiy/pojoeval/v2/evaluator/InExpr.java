@@ -0,0 +1,74 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Checks if a string is in a list of string literals. The list is hashed when the rule is built.
+ */
+final class InExpr<POJO> implements Expr<POJO> {
+
+    final Expr<POJO> fieldExpr;
+    final List<String> stringList;
+    final Set<String> stringSet;
+
+    InExpr(Expr<POJO> field, List<String> stringList) {
+        this.fieldExpr = field;
+        this.stringList = stringList;
+        this.stringSet = new HashSet<>(stringList);
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.BOOL;
+    }
+
+    @Override
+    public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
+        return evalBoolean(pojo, context);
+    }
+
+    @Override
+    public boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        return isIn(stringSet, fieldExpr.eval(pojo, context));
+    }
+
+    static boolean isIn(Set<String> stringSet, Object o) {
+        if (o == null) {
+            return false;
+        }
+        return stringSet.contains(Values.toStr(o));
+    }
+
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        Object o = fieldExpr.evalValue(pojo, context);
+        if (o == null) {
+            return TriState.FALSE;
+        }
+        return o instanceof String ? TriState.of(stringSet.contains(o)) : TriState.UNKNOWN;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof InExpr)) {
+            return false;
+        }
+        InExpr<?> other = (InExpr<?>) o;
+        return fieldExpr.equals(other.fieldExpr) && stringList.equals(other.stringList);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(InExpr.class, fieldExpr, stringList);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + fieldExpr + " in " + stringList.stream().map(LiteralExpr::quote)
+                .collect(Collectors.joining(", ", "[", "]")) + ")";
+    }
+}
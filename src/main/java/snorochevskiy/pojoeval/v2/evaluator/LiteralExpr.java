@@ -0,0 +1,39 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+final class LiteralExpr<POJO> implements Expr<POJO> {
+
+    final String literal;
+
+    LiteralExpr(String literal) {
+        this.literal = literal;
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.STR;
+    }
+
+    @Override
+    public String eval(POJO pojo, EvaluationContext<POJO> context) {
+        return literal;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof LiteralExpr && literal.equals(((LiteralExpr<?>) o).literal);
+    }
+
+    @Override
+    public int hashCode() {
+        return literal.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return quote(literal);
+    }
+
+    static String quote(String s) {
+        return "'" + s.replace("'", "\\'") + "'";
+    }
+}
@@ -0,0 +1,395 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import snorochevskiy.pojoeval.v2.evaluator.exception.DslError;
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * A set of boolean rules, like {@link RuleSet}, that can be changed while it's evaluated.
+ * <p>
+ * The set is an immutable snapshot: a base {@link RuleSet} with indexes, plus a small delta of rules that were
+ * added or replaced since the base was built, and tombstones of base rules that were removed or replaced.
+ * A change creates a new snapshot that shares the base with the previous one, so only the rule that changed
+ * is compiled. Readers take the current snapshot from a volatile field and never lock, so evaluation
+ * doesn't wait for changes, and each evaluation sees a consistent set of rules.
+ * <p>
+ * The indexes of the base are not updated by changes: the rules of the delta are evaluated one by one,
+ * without indexes, until a new base is built.
+ * When the delta and tombstones grow over the threshold, a new base is built from all rules in the background,
+ * and replaces the old one when it's ready. Changes made meanwhile stay in the delta of the new snapshot.
+ * If the executor rejects the build, the new base is built in the thread that made the change.
+ * Replaced snapshots are reclaimed by the garbage collector when the last evaluation that uses them finishes.
+ *
+ * @param <POJO> class of POJO that rules are to be evaluated on
+ */
+public class LiveRuleSet<POJO> {
+
+    /**
+     * Minimal number of changes that triggers building of a new base.
+     */
+    static final int MIN_COMPACTION_THRESHOLD = 64;
+
+    /**
+     * Options of the base rule sets and of the rules of the delta.
+     */
+    private final RuleSet.Builder<POJO> options;
+    private final Executor compactionExecutor;
+
+    private volatile Snapshot<POJO> snapshot;
+
+    // the fields below are guarded by this
+    /**
+     * Current rules, and the rules the current base is built from.
+     */
+    private final Map<Integer, String> rules = new LinkedHashMap<>();
+    private Map<Integer, String> baseRules;
+    private final Map<Integer, Evaluator<POJO, Boolean>> delta = new LinkedHashMap<>();
+    private final BitSet tombstones = new BitSet();
+    /**
+     * Number of changes made so far, and the number of changes the current base includes.
+     */
+    private long version;
+    private long baseVersion;
+    private boolean compacting;
+
+    private LiveRuleSet(Builder<POJO> builder) {
+        this.options = builder.options.copyOptions();
+        this.compactionExecutor = builder.compactionExecutor;
+        this.rules.putAll(builder.rules);
+        this.baseRules = new LinkedHashMap<>(builder.rules);
+        this.snapshot = new Snapshot<>(buildBase(baseRules), new BitSet(), delta);
+    }
+
+    /**
+     * Adds a rule to the set. Evaluations that start after the method returns see the rule.
+     * @param id non-negative ID the rule is reported with when it matches
+     * @throws IllegalArgumentException if the set already has a rule with the ID
+     * @throws DslError if the rule cannot be parsed, the set is not changed then
+     */
+    public void addRule(int id, String rule) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Rule ID must be non-negative: " + id);
+        }
+        Evaluator<POJO, Boolean> evaluator = buildRule(id, rule);
+        synchronized (this) {
+            if (rules.containsKey(id)) {
+                throw new IllegalArgumentException("Duplicate rule ID: " + id);
+            }
+            put(id, rule, evaluator);
+        }
+    }
+
+    /**
+     * Replaces a rule of the set, or adds it if there is no rule with the ID.
+     * Each evaluation sees either the old rule or the new one.
+     * @throws DslError if the rule cannot be parsed, the set is not changed then
+     */
+    public void replaceRule(int id, String rule) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Rule ID must be non-negative: " + id);
+        }
+        Evaluator<POJO, Boolean> evaluator = buildRule(id, rule);
+        synchronized (this) {
+            put(id, rule, evaluator);
+        }
+    }
+
+    /**
+     * Removes a rule from the set. Evaluations that start after the method returns don't see the rule.
+     * @return false if there was no rule with the ID
+     */
+    public synchronized boolean removeRule(int id) {
+        if (rules.remove(id) == null) {
+            return false;
+        }
+        delta.remove(id);
+        if (baseRules.containsKey(id)) {
+            tombstones.set(id);
+        }
+        changed();
+        return true;
+    }
+
+    private void put(int id, String rule, Evaluator<POJO, Boolean> evaluator) {
+        rules.put(id, rule);
+        if (rule.equals(baseRules.get(id))) {
+            delta.remove(id);
+            tombstones.clear(id);
+        } else {
+            delta.put(id, evaluator);
+            if (baseRules.containsKey(id)) {
+                tombstones.set(id);
+            }
+        }
+        changed();
+    }
+
+    private void changed() {
+        version++;
+        snapshot = new Snapshot<>(snapshot.base, tombstones, delta);
+        if (!compacting && delta.size() + tombstones.cardinality() > compactionThreshold()) {
+            compacting = true;
+            Map<Integer, String> target = new LinkedHashMap<>(rules);
+            long targetVersion = version;
+            try {
+                compactionExecutor.execute(() -> compact(target, targetVersion));
+            } catch (RejectedExecutionException e) {
+                compacting = false;
+                install(buildBase(target), target, targetVersion);
+            }
+        }
+    }
+
+    private int compactionThreshold() {
+        return Math.max(MIN_COMPACTION_THRESHOLD, baseRules.size() / 8);
+    }
+
+    /**
+     * Builds a new base from all current rules in the calling thread, so the delta becomes empty.
+     */
+    public void compact() {
+        Map<Integer, String> target;
+        long targetVersion;
+        synchronized (this) {
+            target = new LinkedHashMap<>(rules);
+            targetVersion = version;
+        }
+        RuleSet<POJO> base = buildBase(target);
+        synchronized (this) {
+            install(base, target, targetVersion);
+        }
+    }
+
+    private void compact(Map<Integer, String> target, long targetVersion) {
+        try {
+            RuleSet<POJO> base = buildBase(target);
+            synchronized (this) {
+                install(base, target, targetVersion);
+            }
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Replaces the base with the one built from the given rules, and keeps in the delta
+     * only the changes made after the rules were taken.
+     */
+    private void install(RuleSet<POJO> base, Map<Integer, String> target, long targetVersion) {
+        if (targetVersion <= baseVersion) {
+            // a newer base is already installed
+            return;
+        }
+        Map<Integer, Evaluator<POJO, Boolean>> newDelta = new LinkedHashMap<>();
+        BitSet newTombstones = new BitSet();
+        for (Map.Entry<Integer, String> e : target.entrySet()) {
+            if (!e.getValue().equals(rules.get(e.getKey()))) {
+                newTombstones.set(e.getKey());
+            }
+        }
+        for (Map.Entry<Integer, String> e : rules.entrySet()) {
+            if (!e.getValue().equals(target.get(e.getKey()))) {
+                // changed after the rules were taken, so it's usually in the delta of the current base too,
+                // unless it was changed back to the rule of the current base
+                Evaluator<POJO, Boolean> evaluator = delta.get(e.getKey());
+                newDelta.put(e.getKey(), evaluator != null ? evaluator : buildRule(e.getKey(), e.getValue()));
+            }
+        }
+        baseRules = target;
+        baseVersion = targetVersion;
+        delta.clear();
+        delta.putAll(newDelta);
+        tombstones.clear();
+        tombstones.or(newTombstones);
+        snapshot = new Snapshot<>(base, tombstones, delta);
+    }
+
+    /**
+     * Evaluates all rules on a given object.
+     * @return IDs of matched rules
+     */
+    public BitSet match(POJO pojo) {
+        return match(pojo, null);
+    }
+
+    public BitSet match(POJO pojo, EvaluationContext<POJO> context) {
+        BitSet result = new BitSet();
+        match(pojo, context, result);
+        return result;
+    }
+
+    /**
+     * Evaluates all rules on a given object, and stores IDs of matched rules in the given bitset,
+     * which is cleared first. See {@link RuleSet#match(Object, EvaluationContext, BitSet)}.
+     */
+    public void match(POJO pojo, EvaluationContext<POJO> context, BitSet result) {
+        Snapshot<POJO> s = snapshot;
+        s.base.match(pojo, context, result);
+        result.andNot(s.tombstones);
+        for (int i = 0; i < s.deltaIds.length; i++) {
+            boolean matched;
+            try {
+                matched = s.deltaRules[i].test(pojo, context);
+            } catch (EvalException e) {
+                matched = false;
+            }
+            if (matched) {
+                result.set(s.deltaIds[i]);
+            }
+        }
+    }
+
+    /**
+     * @return IDs of matched rules in ascending order
+     */
+    public int[] matchingIds(POJO pojo) {
+        return matchingIds(pojo, null);
+    }
+
+    public int[] matchingIds(POJO pojo, EvaluationContext<POJO> context) {
+        return match(pojo, context).stream().toArray();
+    }
+
+    /**
+     * @return number of rules in the set
+     */
+    public synchronized int size() {
+        return rules.size();
+    }
+
+    public synchronized boolean containsRule(int id) {
+        return rules.containsKey(id);
+    }
+
+    /**
+     * @return number of rules that are evaluated outside of the base, i.e. without indexes
+     */
+    int deltaSize() {
+        return snapshot.deltaIds.length;
+    }
+
+    private RuleSet<POJO> buildBase(Map<Integer, String> rules) {
+        return options.copyOptions().addRules(rules).build();
+    }
+
+    private Evaluator<POJO, Boolean> buildRule(int id, String rule) {
+        return RuleSet.buildBoolEvaluator(id, options.evaluatorFor(rule));
+    }
+
+    /**
+     * Rules visible to evaluations. Never modified after it's published.
+     */
+    private static final class Snapshot<POJO> {
+        final RuleSet<POJO> base;
+        /**
+         * IDs of base rules that are removed or replaced.
+         */
+        final BitSet tombstones;
+        final int[] deltaIds;
+        final Evaluator<POJO, Boolean>[] deltaRules;
+
+        Snapshot(RuleSet<POJO> base, BitSet tombstones, Map<Integer, Evaluator<POJO, Boolean>> delta) {
+            this.base = base;
+            this.tombstones = (BitSet) tombstones.clone();
+            this.deltaIds = new int[delta.size()];
+            @SuppressWarnings("unchecked")
+            Evaluator<POJO, Boolean>[] deltaRules = (Evaluator<POJO, Boolean>[]) new Evaluator<?, ?>[delta.size()];
+            this.deltaRules = deltaRules;
+            int i = 0;
+            for (Map.Entry<Integer, Evaluator<POJO, Boolean>> e : delta.entrySet()) {
+                deltaIds[i] = e.getKey();
+                deltaRules[i] = e.getValue();
+                i++;
+            }
+        }
+    }
+
+    public static <POJO> Builder<POJO> builder() {
+        return new Builder<>();
+    }
+
+    public static class Builder<POJO> {
+        private final Map<Integer, String> rules = new LinkedHashMap<>();
+        private final RuleSet.Builder<POJO> options = RuleSet.builder();
+        private Executor compactionExecutor = ForkJoinPool.commonPool();
+
+        /**
+         * Adds a boolean rule the set starts with.
+         * @param id non-negative ID the rule is reported with when it matches
+         */
+        public Builder<POJO> addRule(int id, String rule) {
+            if (id < 0) {
+                throw new IllegalArgumentException("Rule ID must be non-negative: " + id);
+            }
+            if (rules.putIfAbsent(id, rule) != null) {
+                throw new IllegalArgumentException("Duplicate rule ID: " + id);
+            }
+            return this;
+        }
+
+        public Builder<POJO> addRules(Map<Integer, String> rules) {
+            rules.forEach(this::addRule);
+            return this;
+        }
+
+        public Builder<POJO> validateAgainstClass(Class<POJO> cls) {
+            options.validateAgainstClass(cls);
+            return this;
+        }
+
+        public Builder<POJO> withFieldExtractors(Map<String, Function<POJO,Object>> fieldExtractors) {
+            options.withFieldExtractors(fieldExtractors);
+            return this;
+        }
+
+        public Builder<POJO> withFieldExtractor(String fieldName, Function<POJO,Object> fieldExtractor) {
+            options.withFieldExtractor(fieldName, fieldExtractor);
+            return this;
+        }
+
+        public Builder<POJO> allowReflectionFieldLookup(boolean useReflection) {
+            options.allowReflectionFieldLookup(useReflection);
+            return this;
+        }
+
+        /**
+         * See {@link Evaluator.Builder#compileToBytecode()}.
+         * @return
+         */
+        public Builder<POJO> compileToBytecode() {
+            options.compileToBytecode();
+            return this;
+        }
+
+        /**
+         * See {@link RuleSet.Builder#indexConditions(boolean)}.
+         * @return
+         */
+        public Builder<POJO> indexConditions(boolean indexConditions) {
+            options.indexConditions(indexConditions);
+            return this;
+        }
+
+        /**
+         * Executor new bases are built in, the common fork-join pool by default.
+         * @return
+         */
+        public Builder<POJO> compactionExecutor(Executor compactionExecutor) {
+            this.compactionExecutor = compactionExecutor;
+            return this;
+        }
+
+        public LiveRuleSet<POJO> build() {
+            return new LiveRuleSet<>(this);
+        }
+    }
+}
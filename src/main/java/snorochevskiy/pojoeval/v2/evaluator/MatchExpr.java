@@ -0,0 +1,74 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+final class MatchExpr<POJO> implements Expr<POJO> {
+
+    final Expr<POJO> arg1;
+    final String regexp;
+    final Pattern pattern;
+
+    MatchExpr(Expr<POJO> arg1, String regexp) {
+        this(arg1, regexp, Pattern.compile(regexp));
+    }
+
+    /**
+     * @param pattern compiled regexp, may be shared with other nodes
+     */
+    MatchExpr(Expr<POJO> arg1, String regexp, Pattern pattern) {
+        this.arg1 = arg1;
+        this.regexp = regexp;
+        this.pattern = pattern;
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.BOOL;
+    }
+
+    @Override
+    public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
+        return evalBoolean(pojo, context);
+    }
+
+    @Override
+    public boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        return matches(pattern, arg1.eval(pojo, context));
+    }
+
+    static boolean matches(Pattern pattern, Object o) {
+        if (o == null) {
+            return false;
+        }
+        return pattern.matcher(Values.toStr(o)).matches();
+    }
+
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        Object o = arg1.evalValue(pojo, context);
+        if (o == null) {
+            return TriState.FALSE;
+        }
+        return o instanceof String ? TriState.of(pattern.matcher((String) o).matches()) : TriState.UNKNOWN;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof MatchExpr)) {
+            return false;
+        }
+        MatchExpr<?> other = (MatchExpr<?>) o;
+        return arg1.equals(other.arg1) && regexp.equals(other.regexp);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(MatchExpr.class, arg1, regexp);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + arg1 + " matches " + LiteralExpr.quote(regexp) + ")";
+    }
+}
@@ -0,0 +1,33 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+
+final class ModuloExpr<POJO> extends BinaryArithmeticExpr<POJO> {
+
+    ModuloExpr(Expr<POJO> arg1, Expr<POJO> arg2) {
+        super(arg1, arg2);
+    }
+
+    @Override
+    double arithmCalc(double n1, double n2) {
+        if (isUndefined(n2)) {
+            throw new EvalException("Cannot divide by zero");
+        }
+        return n1 % n2;
+    }
+
+    @Override
+    boolean isUndefined(double n2) {
+        return n2 == 0;
+    }
+
+    @Override
+    String operator() {
+        return "%";
+    }
+
+    @Override
+    BinaryArithmeticExpr<POJO> withArgs(Expr<POJO> arg1, Expr<POJO> arg2) {
+        return new ModuloExpr<>(arg1, arg2);
+    }
+}
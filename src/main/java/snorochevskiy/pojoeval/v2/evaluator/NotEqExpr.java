@@ -0,0 +1,66 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.Objects;
+
+final class NotEqExpr<POJO> implements Expr<POJO> {
+
+    final Expr<POJO> arg1;
+    final Expr<POJO> arg2;
+
+    NotEqExpr(Expr<POJO> arg1, Expr<POJO> arg2) {
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.BOOL;
+    }
+
+    @Override
+    public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
+        return evalBoolean(pojo, context);
+    }
+
+    @Override
+    public boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        Object v1 = arg1.eval(pojo, context);
+        Object v2 = arg2.eval(pojo, context);
+        return isNotEqual(v1, v2);
+    }
+
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        Object v1 = arg1.evalValue(pojo, context);
+        Object v2 = arg2.evalValue(pojo, context);
+        if (v1 == Values.ERROR || v2 == Values.ERROR) {
+            return TriState.UNKNOWN;
+        }
+        return TriState.of(isNotEqual(v1, v2));
+    }
+
+    static boolean isNotEqual(Object v1, Object v2) {
+        return v1 != null
+                ? !EqExpr.isEqual(v1, v2)
+                : v2 == null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof NotEqExpr)) {
+            return false;
+        }
+        NotEqExpr<?> other = (NotEqExpr<?>) o;
+        return arg1.equals(other.arg1) && arg2.equals(other.arg2);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(NotEqExpr.class, arg1, arg2);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + arg1 + " != " + arg2 + ")";
+    }
+}
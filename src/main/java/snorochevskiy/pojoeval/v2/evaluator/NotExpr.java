@@ -0,0 +1,45 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+final class NotExpr<POJO> implements Expr<POJO> {
+
+    final Expr<POJO> e;
+
+    NotExpr(Expr<POJO> e) {
+        this.e = e;
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.BOOL;
+    }
+
+    @Override
+    public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
+        return evalBoolean(pojo, context);
+    }
+
+    @Override
+    public boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        return !e.evalBoolean(pojo, context);
+    }
+
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        return e.evalTri(pojo, context).not();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof NotExpr && e.equals(((NotExpr<?>) o).e);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * e.hashCode() + 3;
+    }
+
+    @Override
+    public String toString() {
+        return "NOT " + e;
+    }
+}
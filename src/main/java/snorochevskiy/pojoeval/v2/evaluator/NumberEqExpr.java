@@ -0,0 +1,106 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.Objects;
+
+/**
+ * Equality of a numeric expression and a number known when the rule is built.
+ * Produced by {@link ExprOptimizer} from '=' and '!=' where the constant (a number, or a literal that holds a number)
+ * is converted to a double once, so numeric values are compared as doubles without boxing.
+ * Values that are not numbers are compared with the constant the same way as by '=' and '!='
+ * (see {@link EqExpr#isEqual(Object, Object)}), so the result is the same as of the original node.
+ */
+final class NumberEqExpr<POJO> implements Expr<POJO> {
+
+    final Expr<POJO> arg;
+    /**
+     * The constant as it was written: a Double or a String.
+     */
+    final Object constant;
+    final double number;
+    final boolean negate;
+    /**
+     * True if the argument was written before the constant, which matters for '!=' with a null value.
+     */
+    final boolean argFirst;
+    /**
+     * True if the argument is a field that can hold null, then it is evaluated to an object rather than to a double.
+     */
+    final boolean boxed;
+
+    NumberEqExpr(Expr<POJO> arg, Object constant, boolean negate, boolean argFirst) {
+        this.arg = arg;
+        this.constant = constant;
+        this.number = constant instanceof Number
+                ? ((Number) constant).doubleValue()
+                : Double.parseDouble((String) constant);
+        this.negate = negate;
+        this.argFirst = argFirst;
+        this.boxed = arg instanceof FieldExpr && !((FieldExpr<POJO>) arg).isNumericPrimitive();
+    }
+
+    NumberEqExpr<POJO> withArg(Expr<POJO> arg) {
+        return new NumberEqExpr<>(arg, constant, negate, argFirst);
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.BOOL;
+    }
+
+    @Override
+    public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
+        return evalBoolean(pojo, context);
+    }
+
+    @Override
+    public boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        if (!boxed && (!EvaluationContext.overridesFields(context) || !(arg instanceof FieldExpr))) {
+            return test(arg.evalDouble(pojo, context));
+        }
+        return testValue(arg.eval(pojo, context));
+    }
+
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        if (!boxed && (!EvaluationContext.overridesFields(context) || !(arg instanceof FieldExpr))) {
+            double v = arg.evalNumber(pojo, context);
+            return Values.isError(v, arg, pojo, context) ? TriState.UNKNOWN : TriState.of(test(v));
+        }
+        Object v = arg.evalValue(pojo, context);
+        return v == Values.ERROR ? TriState.UNKNOWN : TriState.of(testValue(v));
+    }
+
+    boolean test(double v) {
+        return (v == number) != negate;
+    }
+
+    boolean testValue(Object v) {
+        if (v instanceof Number) {
+            return test(((Number) v).doubleValue());
+        }
+        if (!negate) {
+            return EqExpr.isEqual(v, constant);
+        }
+        return argFirst ? NotEqExpr.isNotEqual(v, constant) : NotEqExpr.isNotEqual(constant, v);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof NumberEqExpr)) {
+            return false;
+        }
+        NumberEqExpr<?> other = (NumberEqExpr<?>) o;
+        return constant.equals(other.constant) && negate == other.negate && argFirst == other.argFirst
+                && arg.equals(other.arg);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(arg, constant, negate);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + arg + (negate ? " != " : " = ") + NumberExpr.format(number) + ")";
+    }
+}
@@ -0,0 +1,51 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+final class NumberExpr<POJO> implements Expr<POJO> {
+
+    final double number;
+
+    NumberExpr(double number) {
+        this.number = number;
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.NUM;
+    }
+
+    @Override
+    public Double eval(POJO pojo, EvaluationContext<POJO> context) {
+        return number;
+    }
+
+    @Override
+    public double evalDouble(POJO pojo, EvaluationContext<POJO> context) {
+        return number;
+    }
+
+    @Override
+    public double evalNumber(POJO pojo, EvaluationContext<POJO> context) {
+        return number;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof NumberExpr && Double.compare(number, ((NumberExpr<?>) o).number) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Double.hashCode(number);
+    }
+
+    @Override
+    public String toString() {
+        return format(number);
+    }
+
+    static String format(double number) {
+        return number == Math.rint(number) && !Double.isInfinite(number)
+                ? String.valueOf((long) number)
+                : String.valueOf(number);
+    }
+}
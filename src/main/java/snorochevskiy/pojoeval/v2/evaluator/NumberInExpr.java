@@ -0,0 +1,89 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import snorochevskiy.pojoeval.v2.util.DoubleHashSet;
+
+import java.util.Objects;
+
+/**
+ * Checks if a number is in a list of numbers, e.g. {@code level in [1, 3, 5]}.
+ * Numbers are kept in a primitive hash set, so the lookup takes the same time for any list size
+ * and doesn't box the value. A null value is not in any list.
+ */
+final class NumberInExpr<POJO> implements Expr<POJO> {
+
+    final Expr<POJO> arg;
+    final DoubleHashSet numbers;
+    /**
+     * True if the argument is a field that can hold null, then it is evaluated to an object rather than to a double.
+     */
+    final boolean boxed;
+
+    NumberInExpr(Expr<POJO> arg, DoubleHashSet numbers) {
+        this.arg = arg;
+        this.numbers = numbers;
+        this.boxed = arg instanceof FieldExpr && !((FieldExpr<POJO>) arg).isNumericPrimitive();
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.BOOL;
+    }
+
+    @Override
+    public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
+        return evalBoolean(pojo, context);
+    }
+
+    @Override
+    public boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        if (!boxed && (!EvaluationContext.overridesFields(context) || !(arg instanceof FieldExpr))) {
+            return test(arg.evalDouble(pojo, context));
+        }
+        return testValue(arg.eval(pojo, context));
+    }
+
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        if (!boxed && (!EvaluationContext.overridesFields(context) || !(arg instanceof FieldExpr))) {
+            double v = arg.evalNumber(pojo, context);
+            return Values.isError(v, arg, pojo, context) ? TriState.UNKNOWN : TriState.of(test(v));
+        }
+        Object v = arg.evalValue(pojo, context);
+        if (v == null) {
+            return TriState.FALSE;
+        }
+        return v instanceof Number ? TriState.of(test(((Number) v).doubleValue())) : TriState.UNKNOWN;
+    }
+
+    boolean test(double v) {
+        return numbers.contains(v);
+    }
+
+    boolean testValue(Object v) {
+        return v != null && test(Values.toDouble(v));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof NumberInExpr)) {
+            return false;
+        }
+        NumberInExpr<?> other = (NumberInExpr<?>) o;
+        return arg.equals(other.arg) && numbers.equals(other.numbers);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(NumberInExpr.class, arg, numbers);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("(").append(arg).append(" in [");
+        double[] values = numbers.toSortedArray();
+        for (int i = 0; i < values.length; i++) {
+            sb.append(i > 0 ? ", " : "").append(NumberExpr.format(values[i]));
+        }
+        return sb.append("])").toString();
+    }
+}
@@ -0,0 +1,164 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Evaluates a boolean rule on the elements of a collection in a {@link ForkJoinPool}.
+ * <p>
+ * The collection is split with its {@link Spliterator} until parts are small enough. Each part collects
+ * its elements into a scratch list of its own and evaluates the rule on them with
+ * {@link Evaluator#evaluateBatch(List, EvaluationContext, BitSet)}. Results of parts are chained
+ * in the order of the parts, which is the order of the collection, and are copied into one list at the end.
+ *
+ * @param <POJO> class of POJO that rules are to be evaluated on
+ */
+final class ParallelFilter<POJO> {
+
+    /**
+     * Parts are not split below this size, so that tasks are not too small.
+     */
+    static final int MIN_PART_SIZE = 1024;
+
+    private final Evaluator<POJO, ?> evaluator;
+    private final boolean collectMatched;
+    private final boolean collectRejected;
+
+    ParallelFilter(Evaluator<POJO, ?> evaluator, boolean collectMatched, boolean collectRejected) {
+        this.evaluator = evaluator;
+        this.collectMatched = collectMatched;
+        this.collectRejected = collectRejected;
+    }
+
+    /**
+     * Evaluates the rule on all elements in a pool of the given parallelism,
+     * or in the calling thread if parallelism is 1.
+     */
+    Result<POJO> run(Collection<POJO> pojos, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        if (parallelism == 1) {
+            return run(pojos, null);
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return run(pojos, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Evaluates the rule on all elements in the given pool, or in the calling thread if the pool is null.
+     */
+    Result<POJO> run(Collection<POJO> pojos, ForkJoinPool pool) {
+        int parallelism = pool != null ? pool.getParallelism() : 1;
+        // a few parts per thread, so that threads that are done early can steal the rest
+        long partSize = Math.max(MIN_PART_SIZE, pojos.size() / (4L * parallelism));
+        Task task = new Task(pojos.spliterator(), partSize);
+        Part<POJO> first = pool == null ? task.compute() : pool.invoke(task);
+        return new Result<>(first, collectMatched, collectRejected);
+    }
+
+    /**
+     * Results of the rule on a part of the collection, and a link to the results of the next part.
+     */
+    private static final class Part<POJO> {
+        final List<POJO> matched;
+        final List<POJO> rejected;
+        final long count;
+        Part<POJO> next;
+        Part<POJO> last = this;
+
+        Part(List<POJO> matched, List<POJO> rejected, long count) {
+            this.matched = matched;
+            this.rejected = rejected;
+            this.count = count;
+        }
+
+        /**
+         * Appends the chain of the next parts to the chain of this part.
+         * @return this part
+         */
+        Part<POJO> append(Part<POJO> part) {
+            last.next = part;
+            last = part.last;
+            return this;
+        }
+    }
+
+    private final class Task extends RecursiveTask<Part<POJO>> {
+        private final Spliterator<POJO> spliterator;
+        private final long partSize;
+
+        Task(Spliterator<POJO> spliterator, long partSize) {
+            this.spliterator = spliterator;
+            this.partSize = partSize;
+        }
+
+        @Override
+        protected Part<POJO> compute() {
+            // the split off part is the prefix of the rest, so it goes first
+            Spliterator<POJO> prefix = spliterator.estimateSize() > partSize ? spliterator.trySplit() : null;
+            if (prefix == null) {
+                return evaluate();
+            }
+            Task first = new Task(prefix, partSize);
+            first.fork();
+            Part<POJO> rest = new Task(spliterator, partSize).compute();
+            return first.join().append(rest);
+        }
+
+        private Part<POJO> evaluate() {
+            List<POJO> scratch = new ArrayList<>((int) Math.min(spliterator.estimateSize(), Integer.MAX_VALUE));
+            spliterator.forEachRemaining(scratch::add);
+            BitSet bits = new BitSet(scratch.size());
+            evaluator.evaluateBatch(scratch, null, bits);
+            int count = bits.cardinality();
+            List<POJO> matched = collectMatched ? new ArrayList<>(count) : null;
+            List<POJO> rejected = collectRejected ? new ArrayList<>(scratch.size() - count) : null;
+            if (collectMatched || collectRejected) {
+                for (int i = 0; i < scratch.size(); i++) {
+                    List<POJO> target = bits.get(i) ? matched : rejected;
+                    if (target != null) {
+                        target.add(scratch.get(i));
+                    }
+                }
+            }
+            return new Part<>(matched, rejected, count);
+        }
+    }
+
+    /**
+     * Results of the rule for the whole collection, in the order of the collection.
+     */
+    static final class Result<POJO> {
+        final List<POJO> matched;
+        final List<POJO> rejected;
+        final long count;
+
+        private Result(Part<POJO> first, boolean collectMatched, boolean collectRejected) {
+            long count = 0;
+            for (Part<POJO> p = first; p != null; p = p.next) {
+                count += p.count;
+            }
+            this.count = count;
+            this.matched = collectMatched ? new ArrayList<>((int) count) : null;
+            this.rejected = collectRejected ? new ArrayList<>() : null;
+            for (Part<POJO> p = first; p != null; p = p.next) {
+                if (matched != null) {
+                    matched.addAll(p.matched);
+                }
+                if (rejected != null) {
+                    rejected.addAll(p.rejected);
+                }
+            }
+        }
+    }
+}
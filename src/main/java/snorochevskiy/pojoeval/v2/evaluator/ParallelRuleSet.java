@@ -0,0 +1,301 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+/**
+ * A set of boolean rules, like {@link RuleSet}, that evaluates each object on several threads.
+ * <p>
+ * Rules are partitioned into shards of about equal cost, and each shard is a {@link RuleSet} of its own.
+ * Cost of a rule is measured by evaluating it on sample objects, if they are given to the builder,
+ * otherwise it's the static estimate of {@link ExprCost}. Evaluation of an object forks a task per shard
+ * in a {@link ForkJoinPool}. Each task stores the matches of its shard in its own bitset, and the bitsets
+ * are merged by the calling thread when all tasks are joined, so shards don't synchronize with each other.
+ *
+ * @param <POJO> class of POJO that rules are to be evaluated on
+ */
+public class ParallelRuleSet<POJO> {
+
+    private final RuleSet<POJO>[] shards;
+    private final ForkJoinPool pool;
+
+    private ParallelRuleSet(Builder<POJO> builder) {
+        this.pool = builder.pool;
+        int shardCount = Math.max(1, Math.min(builder.shards > 0 ? builder.shards : pool.getParallelism(),
+                builder.rules.size()));
+        List<Map<Integer, String>> partitions = partition(builder, shardCount);
+        @SuppressWarnings("unchecked")
+        RuleSet<POJO>[] shards = (RuleSet<POJO>[]) new RuleSet<?>[partitions.size()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = builder.options.copyOptions().addRules(partitions.get(i)).build();
+        }
+        this.shards = shards;
+    }
+
+    /**
+     * Assigns the most expensive of the remaining rules to the cheapest shard, until all rules are assigned.
+     */
+    private static <POJO> List<Map<Integer, String>> partition(Builder<POJO> builder, int shardCount) {
+        List<Map.Entry<Integer, String>> rules = new ArrayList<>(builder.rules.entrySet());
+        Map<Integer, Long> costs = new HashMap<>();
+        for (Map.Entry<Integer, String> rule : rules) {
+            costs.put(rule.getKey(), cost(builder, rule.getKey(), rule.getValue()));
+        }
+        rules.sort((r1, r2) -> Long.compare(costs.get(r2.getKey()), costs.get(r1.getKey())));
+
+        List<Map<Integer, String>> partitions = new ArrayList<>();
+        long[] loads = new long[shardCount];
+        PriorityQueue<Integer> cheapest = new PriorityQueue<>((s1, s2) -> loads[s1] != loads[s2]
+                ? Long.compare(loads[s1], loads[s2])
+                : Integer.compare(s1, s2));
+        for (int i = 0; i < shardCount; i++) {
+            partitions.add(new LinkedHashMap<>());
+            cheapest.add(i);
+        }
+        for (Map.Entry<Integer, String> rule : rules) {
+            int shard = cheapest.poll();
+            partitions.get(shard).put(rule.getKey(), rule.getValue());
+            loads[shard] += costs.get(rule.getKey());
+            cheapest.add(shard);
+        }
+        return partitions;
+    }
+
+    /**
+     * @return nanoseconds the rule takes to evaluate the samples, or the static estimate if there are no samples
+     */
+    private static <POJO> long cost(Builder<POJO> builder, int id, String rule) {
+        Evaluator<POJO, Boolean> evaluator = RuleSet.buildBoolEvaluator(id, builder.options.evaluatorFor(rule));
+        if (builder.samples.isEmpty()) {
+            return ExprCost.estimate(evaluator.compiled) + 1;
+        }
+        long nanos = 0;
+        // the first pass warms up the rule
+        for (int pass = 0; pass < 2; pass++) {
+            long start = System.nanoTime();
+            for (POJO sample : builder.samples) {
+                try {
+                    evaluator.test(sample);
+                } catch (EvalException e) {
+                    // failing rules cost something too
+                }
+            }
+            nanos = System.nanoTime() - start;
+        }
+        return Math.max(1, nanos);
+    }
+
+    /**
+     * Evaluates all rules on a given object.
+     * @return IDs of matched rules
+     */
+    public BitSet match(POJO pojo) {
+        return match(pojo, null);
+    }
+
+    public BitSet match(POJO pojo, EvaluationContext<POJO> context) {
+        BitSet result = new BitSet();
+        match(pojo, context, result);
+        return result;
+    }
+
+    /**
+     * Evaluates all rules on a given object, and stores IDs of matched rules in the given bitset,
+     * which is cleared first.
+     */
+    public void match(POJO pojo, EvaluationContext<POJO> context, BitSet result) {
+        if (shards.length == 1) {
+            shards[0].match(pojo, context, result);
+            return;
+        }
+        BitSet[] matches = new BitSet[shards.length];
+        MatchTask<POJO> task = new MatchTask<>(shards, 0, shards.length, pojo, context, matches);
+        if (ForkJoinTask.getPool() == pool) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+        result.clear();
+        for (BitSet m : matches) {
+            result.or(m);
+        }
+    }
+
+    /**
+     * @return IDs of matched rules in ascending order
+     */
+    public int[] matchingIds(POJO pojo) {
+        return matchingIds(pojo, null);
+    }
+
+    public int[] matchingIds(POJO pojo, EvaluationContext<POJO> context) {
+        return match(pojo, context).stream().toArray();
+    }
+
+    /**
+     * @return number of rules in the set
+     */
+    public int size() {
+        int size = 0;
+        for (RuleSet<POJO> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    int shardSize(int shard) {
+        return shards[shard].size();
+    }
+
+    /**
+     * Evaluates a range of shards, splitting it in halves while it has more than one shard.
+     */
+    private static final class MatchTask<POJO> extends RecursiveAction {
+        private final RuleSet<POJO>[] shards;
+        private final int from;
+        private final int to;
+        private final POJO pojo;
+        private final EvaluationContext<POJO> context;
+        private final BitSet[] matches;
+
+        MatchTask(RuleSet<POJO>[] shards, int from, int to, POJO pojo, EvaluationContext<POJO> context,
+                  BitSet[] matches) {
+            this.shards = shards;
+            this.from = from;
+            this.to = to;
+            this.pojo = pojo;
+            this.context = context;
+            this.matches = matches;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                // each task writes its own element, the array is read after the tasks are joined
+                matches[from] = shards[from].match(pojo, context);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new MatchTask<>(shards, from, mid, pojo, context, matches),
+                    new MatchTask<>(shards, mid, to, pojo, context, matches));
+        }
+    }
+
+    public static <POJO> Builder<POJO> builder() {
+        return new Builder<>();
+    }
+
+    public static class Builder<POJO> {
+        private final Map<Integer, String> rules = new LinkedHashMap<>();
+        private final RuleSet.Builder<POJO> options = RuleSet.builder();
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+        private int shards = 0;
+        private final List<POJO> samples = new ArrayList<>();
+
+        /**
+         * Adds a boolean rule to the set.
+         * @param id non-negative ID the rule is reported with when it matches
+         */
+        public Builder<POJO> addRule(int id, String rule) {
+            if (id < 0) {
+                throw new IllegalArgumentException("Rule ID must be non-negative: " + id);
+            }
+            if (rules.putIfAbsent(id, rule) != null) {
+                throw new IllegalArgumentException("Duplicate rule ID: " + id);
+            }
+            return this;
+        }
+
+        public Builder<POJO> addRules(Map<Integer, String> rules) {
+            rules.forEach(this::addRule);
+            return this;
+        }
+
+        public Builder<POJO> validateAgainstClass(Class<POJO> cls) {
+            options.validateAgainstClass(cls);
+            return this;
+        }
+
+        public Builder<POJO> withFieldExtractors(Map<String, Function<POJO,Object>> fieldExtractors) {
+            options.withFieldExtractors(fieldExtractors);
+            return this;
+        }
+
+        public Builder<POJO> withFieldExtractor(String fieldName, Function<POJO,Object> fieldExtractor) {
+            options.withFieldExtractor(fieldName, fieldExtractor);
+            return this;
+        }
+
+        public Builder<POJO> allowReflectionFieldLookup(boolean useReflection) {
+            options.allowReflectionFieldLookup(useReflection);
+            return this;
+        }
+
+        /**
+         * See {@link Evaluator.Builder#compileToBytecode()}.
+         * @return
+         */
+        public Builder<POJO> compileToBytecode() {
+            options.compileToBytecode();
+            return this;
+        }
+
+        /**
+         * See {@link RuleSet.Builder#indexConditions(boolean)}.
+         * @return
+         */
+        public Builder<POJO> indexConditions(boolean indexConditions) {
+            options.indexConditions(indexConditions);
+            return this;
+        }
+
+        /**
+         * Pool that shards are evaluated in, the common fork-join pool by default.
+         * @return
+         */
+        public Builder<POJO> withPool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * Number of shards, parallelism of the pool by default.
+         * @return
+         */
+        public Builder<POJO> shards(int shards) {
+            if (shards < 1) {
+                throw new IllegalArgumentException("Number of shards must be positive: " + shards);
+            }
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * Objects that rules are evaluated on to measure their cost when shards are balanced.
+         * @return
+         */
+        public Builder<POJO> balanceWith(Iterable<POJO> samples) {
+            samples.forEach(this.samples::add);
+            return this;
+        }
+
+        public ParallelRuleSet<POJO> build() {
+            return new ParallelRuleSet<>(this);
+        }
+    }
+}
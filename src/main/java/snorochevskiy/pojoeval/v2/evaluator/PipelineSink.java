@@ -0,0 +1,30 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.BitSet;
+
+/**
+ * Receiver of the results of a {@link RulePipeline}.
+ * <p>
+ * The sink is called by all consumer threads of the pipeline, each thread calls it for its own events
+ * in the order of their sequences. Calls from different threads are concurrent.
+ *
+ * @param <POJO> class of POJO that rules are evaluated on
+ */
+@FunctionalInterface
+public interface PipelineSink<POJO> {
+
+    /**
+     * Receives the result of an event.
+     * @param sequence sequence number of the event in the pipeline
+     * @param event
+     * @param matches IDs of the matched rules. The bitset is reused for the next event of the consumer,
+     *                so it must not be kept after the call.
+     */
+    void accept(long sequence, POJO event, BitSet matches);
+
+    /**
+     * Called by a consumer after the last event of a batch, e.g. to flush buffered results.
+     */
+    default void endOfBatch() {
+    }
+}
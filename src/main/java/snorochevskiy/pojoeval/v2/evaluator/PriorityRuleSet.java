@@ -0,0 +1,139 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A set of boolean rules with priorities, that finds the matching rule with the highest priority
+ * instead of all matching rules, e.g. to route an object.
+ * <p>
+ * Rules are evaluated from the highest priority down, and evaluation stops at the first match.
+ * Conditions of the rules are indexed the same way as in {@link RuleSet} (see {@link RuleIndex}), so a rule
+ * whose indexed conditions (e.g. {@code fqdn = 'a'}) don't hold is skipped without evaluating it.
+ * Rules with equal priority are evaluated in the order they were added.
+ *
+ * @param <POJO> class of POJO that rules are to be evaluated on
+ */
+public class PriorityRuleSet<POJO> {
+
+    /**
+     * Rules in descending order of priority.
+     */
+    private final RuleSet<POJO> rules;
+
+    private PriorityRuleSet(Builder<POJO> builder) {
+        List<PrioritizedRule> ordered = new ArrayList<>(builder.rules);
+        // stable sort keeps the order of addition for equal priorities
+        ordered.sort((r1, r2) -> Integer.compare(r2.priority, r1.priority));
+        RuleSet.Builder<POJO> b = builder.options.copyOptions();
+        for (PrioritizedRule rule : ordered) {
+            b.addRule(rule.id, rule.rule);
+        }
+        this.rules = b.build();
+    }
+
+    /**
+     * Finds the matching rule with the highest priority.
+     * @return ID of the rule, or -1 if no rule matches
+     */
+    public int firstMatch(POJO pojo) {
+        return firstMatch(pojo, null);
+    }
+
+    public int firstMatch(POJO pojo, EvaluationContext<POJO> context) {
+        return rules.matchFirst(pojo, context);
+    }
+
+    /**
+     * @return number of rules in the set
+     */
+    public int size() {
+        return rules.size();
+    }
+
+    public static <POJO> Builder<POJO> builder() {
+        return new Builder<>();
+    }
+
+    private static final class PrioritizedRule {
+        final int id;
+        final int priority;
+        final String rule;
+
+        PrioritizedRule(int id, int priority, String rule) {
+            this.id = id;
+            this.priority = priority;
+            this.rule = rule;
+        }
+    }
+
+    public static class Builder<POJO> {
+        private final List<PrioritizedRule> rules = new ArrayList<>();
+        private final Set<Integer> ids = new HashSet<>();
+        private final RuleSet.Builder<POJO> options = RuleSet.builder();
+
+        /**
+         * Adds a boolean rule to the set.
+         * @param id non-negative ID the rule is reported with when it matches
+         * @param priority rules with greater priority win
+         * @param rule
+         * @return
+         */
+        public Builder<POJO> addRule(int id, int priority, String rule) {
+            if (id < 0) {
+                throw new IllegalArgumentException("Rule ID must be non-negative: " + id);
+            }
+            if (!ids.add(id)) {
+                throw new IllegalArgumentException("Duplicate rule ID: " + id);
+            }
+            rules.add(new PrioritizedRule(id, priority, rule));
+            return this;
+        }
+
+        public Builder<POJO> validateAgainstClass(Class<POJO> cls) {
+            options.validateAgainstClass(cls);
+            return this;
+        }
+
+        public Builder<POJO> withFieldExtractors(Map<String, Function<POJO,Object>> fieldExtractors) {
+            options.withFieldExtractors(fieldExtractors);
+            return this;
+        }
+
+        public Builder<POJO> withFieldExtractor(String fieldName, Function<POJO,Object> fieldExtractor) {
+            options.withFieldExtractor(fieldName, fieldExtractor);
+            return this;
+        }
+
+        public Builder<POJO> allowReflectionFieldLookup(boolean useReflection) {
+            options.allowReflectionFieldLookup(useReflection);
+            return this;
+        }
+
+        /**
+         * See {@link Evaluator.Builder#compileToBytecode()}.
+         * @return
+         */
+        public Builder<POJO> compileToBytecode() {
+            options.compileToBytecode();
+            return this;
+        }
+
+        /**
+         * See {@link RuleSet.Builder#indexConditions(boolean)}.
+         * @return
+         */
+        public Builder<POJO> indexConditions(boolean indexConditions) {
+            options.indexConditions(indexConditions);
+            return this;
+        }
+
+        public PriorityRuleSet<POJO> build() {
+            return new PriorityRuleSet<>(this);
+        }
+    }
+}
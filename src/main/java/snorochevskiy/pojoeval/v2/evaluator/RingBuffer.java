@@ -0,0 +1,123 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pre-allocated array of event slots that producers publish events to and consumers read them from,
+ * coordinated by sequences instead of locks.
+ * <p>
+ * Event with sequence {@code s} is stored in slot {@code s % capacity}. A producer claims the next sequence,
+ * waits until all consumers are done with the event that was in the slot one lap before (gating sequences),
+ * stores the event and publishes it. With a single producer the cursor is the sequence of the last published event.
+ * With several producers the cursor is the last claimed sequence, claims are made by atomic increment,
+ * and each slot records the lap of the event last published to it, so a consumer sees which claimed events
+ * are published.
+ */
+final class RingBuffer<E> {
+
+    private final Object[] entries;
+    private final int mask;
+    private final int shift;
+    private final boolean multiProducer;
+    private final Sequence cursor = new Sequence(-1);
+    /**
+     * Lap of the event last published to each slot, for several producers only.
+     */
+    private final AtomicIntegerArray published;
+    private Sequence[] gatingSequences = new Sequence[0];
+
+    /**
+     * Last sequence claimed by the single producer.
+     */
+    private long claimed = -1;
+    /**
+     * The last seen minimum of gating sequences, it only grows, so a stale value is just too conservative.
+     */
+    private volatile long cachedGating = -1;
+
+    RingBuffer(int capacity, boolean multiProducer) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+        }
+        this.entries = new Object[capacity];
+        this.mask = capacity - 1;
+        this.shift = Integer.numberOfTrailingZeros(capacity);
+        this.multiProducer = multiProducer;
+        if (multiProducer) {
+            this.published = new AtomicIntegerArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                published.set(i, -1);
+            }
+        } else {
+            this.published = null;
+        }
+    }
+
+    /**
+     * Sets sequences of the consumers, producers don't overwrite events the consumers haven't processed.
+     * To be called before events are published.
+     */
+    void setGatingSequences(Sequence... sequences) {
+        this.gatingSequences = sequences;
+    }
+
+    int capacity() {
+        return entries.length;
+    }
+
+    /**
+     * Stores the event in the next slot, waiting until the slot is free.
+     * @return sequence of the event
+     */
+    long publish(E event) {
+        long sequence = multiProducer ? cursor.incrementAndGet() : ++claimed;
+        long wrapPoint = sequence - entries.length;
+        if (wrapPoint > cachedGating) {
+            long gating;
+            while (wrapPoint > (gating = Sequence.min(gatingSequences, sequence))) {
+                LockSupport.parkNanos(1L);
+            }
+            cachedGating = gating;
+        }
+        int index = (int) sequence & mask;
+        entries[index] = event;
+        // ordered writes make the event visible to the consumer that sees it published
+        if (multiProducer) {
+            published.lazySet(index, (int) (sequence >>> shift));
+        } else {
+            cursor.set(sequence);
+        }
+        return sequence;
+    }
+
+    /**
+     * @return the highest sequence such that all events from the given one up to it are published,
+     * less than the given one if it is not published yet
+     */
+    long highestPublished(long from) {
+        long last = cursor.get();
+        if (!multiProducer) {
+            return last;
+        }
+        for (long s = from; s <= last; s++) {
+            if (published.get((int) s & mask) != (int) (s >>> shift)) {
+                return s - 1;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * @return sequence of the last published event with a single producer, or of the last claimed one
+     * with several producers
+     */
+    long cursor() {
+        return cursor.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    E get(long sequence) {
+        return (E) entries[(int) sequence & mask];
+    }
+}
@@ -0,0 +1,677 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+import snorochevskiy.pojoeval.v2.util.AhoCorasick;
+import snorochevskiy.pojoeval.v2.util.IntervalTree;
+import snorochevskiy.pojoeval.v2.util.MultiRegex;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Discrimination index over the conditions of the rules of a {@link RuleSet}.
+ * <p>
+ * Top level conjuncts of a rule that compare a field with constants are taken out of the rule and put into
+ * per-field lookup tables:
+ * <ul>
+ *     <li>equality and IN conditions ({@code fqdn = 'a'}, {@code level = 5}, {@code interfaceName in ['Eth1', 'Eth2']},
+ *     {@code level in [1, 2]}) go to a hash table from a value to the rules that require it;</li>
+ *     <li>numeric comparisons of a field ({@code level > 2 AND level <= 8}) are intersected into one interval
+ *     per rule and field, and go to an {@link IntervalTree};</li>
+ *     <li>substring conditions ({@code message contains 'Panic'}) go to an {@link AhoCorasick} automaton per field,
+ *     so the field value is scanned once for all the substrings;</li>
+ *     <li>regular expressions ({@code matches}, {@code contains_regexp}) go to a {@link MultiRegex} per field,
+ *     so the field value is scanned once for all the expressions. Expressions it doesn't support stay in the rule.</li>
+ * </ul>
+ * On evaluation each indexed field is read once, and every rule found by its value gets a hit.
+ * A rule whose all indexed conditions got hits is a candidate, and only then the rest of its conjuncts is evaluated.
+ * So the cost of matching depends on the number of candidates rather than on the number of rules.
+ * Rules without indexed conditions are evaluated as usual.
+ * <p>
+ * A rule matches the same way as if it was evaluated entirely: a false indexed condition makes the conjunction false,
+ * and values that can't be equal or compared to a constant (null, values of other types) don't give hits.
+ */
+final class RuleIndex<POJO> implements Serializable {
+
+    private final FieldTable<POJO>[] tables;
+    /**
+     * Number of indexed conditions of each rule.
+     */
+    private final int[] required;
+    /**
+     * Conjuncts of each rule left after taking out indexed conditions, null if nothing is left.
+     * Whole rule for rules without indexed conditions.
+     */
+    private final Expr<POJO>[] residuals;
+    private final int[] unindexed;
+    private transient ThreadLocal<Scratch> scratch;
+
+    private RuleIndex(List<FieldTable<POJO>> tables, int[] required, Expr<POJO>[] residuals) {
+        @SuppressWarnings("unchecked")
+        FieldTable<POJO>[] array = (FieldTable<POJO>[]) new FieldTable<?>[tables.size()];
+        this.tables = tables.toArray(array);
+        this.required = required;
+        this.residuals = residuals;
+        this.unindexed = new int[(int) Arrays.stream(required).filter(r -> r == 0).count()];
+        for (int i = 0, j = 0; i < required.length; i++) {
+            if (required[i] == 0) {
+                unindexed[j++] = i;
+            }
+        }
+        this.scratch = ThreadLocal.withInitial(Scratch::new);
+    }
+
+    /**
+     * @param sources parsed (and optimized) rules
+     * @param rules rules as they are evaluated, e.g. compiled
+     * @param indexEqualities index equality and IN conditions, otherwise they stay in the rules
+     * @param compile compile residual expressions of indexed rules into bytecode
+     * @param msgClass validated class for compilation, may be null
+     */
+    static <POJO> RuleIndex<POJO> build(Expr<POJO>[] sources, Expr<POJO>[] rules, boolean indexEqualities,
+                                        boolean compile, Class<POJO> msgClass) {
+        Map<Integer, ValueTable.Builder<POJO>> values = new LinkedHashMap<>();
+        Map<Integer, RangeTable.Builder<POJO>> ranges = new LinkedHashMap<>();
+        Map<Integer, SubstringTable.Builder<POJO>> substrings = new LinkedHashMap<>();
+        Map<Integer, RegexTable.Builder<POJO>> regexes = new LinkedHashMap<>();
+        int[] required = new int[sources.length];
+        @SuppressWarnings("unchecked")
+        Expr<POJO>[] residuals = (Expr<POJO>[]) new Expr<?>[sources.length];
+        for (int r = 0; r < sources.length; r++) {
+            Expr<POJO> source = sources[r];
+            List<Expr<POJO>> conjuncts = source instanceof AndExpr
+                    ? ((AndExpr<POJO>) source).operands
+                    : Collections.singletonList(source);
+            Map<Integer, Range> ruleRanges = new LinkedHashMap<>();
+            List<Expr<POJO>> rest = new ArrayList<>();
+            for (Expr<POJO> conjunct : conjuncts) {
+                Expr<POJO> condition = SharedExpr.unwrap(conjunct);
+                if (indexEqualities && addValueCondition(values, condition, r) || addSubstringCondition(substrings, condition, r)
+                        || addRegexCondition(regexes, condition, r)) {
+                    required[r]++;
+                } else if (!addRangeCondition(ranges, ruleRanges, condition)) {
+                    rest.add(conjunct);
+                }
+            }
+            for (Map.Entry<Integer, Range> e : ruleRanges.entrySet()) {
+                ranges.get(e.getKey()).add(e.getValue(), r);
+                required[r]++;
+            }
+            if (required[r] == 0) {
+                residuals[r] = rules[r];
+            } else if (!rest.isEmpty()) {
+                Expr<POJO> residual = rest.size() == 1 ? rest.get(0) : new AndExpr<>(rest);
+                residuals[r] = compile ? new CompiledExpr<>(residual, msgClass) : residual;
+            }
+        }
+        List<FieldTable<POJO>> tables = new ArrayList<>();
+        for (ValueTable.Builder<POJO> b : values.values()) {
+            tables.add(b.build());
+        }
+        for (RangeTable.Builder<POJO> b : ranges.values()) {
+            tables.add(b.build());
+        }
+        for (SubstringTable.Builder<POJO> b : substrings.values()) {
+            tables.add(b.build());
+        }
+        for (RegexTable.Builder<POJO> b : regexes.values()) {
+            if (!b.rules.isEmpty()) {
+                tables.add(b.build());
+            }
+        }
+        return new RuleIndex<>(tables, required, residuals);
+    }
+
+    /**
+     * Adds the keys a field value must have for an equality condition to be true,
+     * see {@link EqExpr#isEqual(Object, Object)}.
+     */
+    private static <POJO> boolean addValueCondition(Map<Integer, ValueTable.Builder<POJO>> tables,
+                                                    Expr<POJO> e, int rule) {
+        if (e instanceof EqExpr) {
+            EqExpr<POJO> eq = (EqExpr<POJO>) e;
+            if (eq.arg1 instanceof FieldExpr && eq.arg2 instanceof LiteralExpr) {
+                return addLiteral(tables, (FieldExpr<POJO>) eq.arg1, ((LiteralExpr<POJO>) eq.arg2).literal, rule);
+            } else if (eq.arg2 instanceof FieldExpr && eq.arg1 instanceof LiteralExpr) {
+                return addLiteral(tables, (FieldExpr<POJO>) eq.arg2, ((LiteralExpr<POJO>) eq.arg1).literal, rule);
+            }
+        } else if (e instanceof InExpr && ((InExpr<POJO>) e).fieldExpr instanceof FieldExpr) {
+            InExpr<POJO> in = (InExpr<POJO>) e;
+            ValueTable.Builder<POJO> table = valueTable(tables, (FieldExpr<POJO>) in.fieldExpr);
+            for (String s : in.stringSet) {
+                table.strings.add(s, rule);
+            }
+            return true;
+        } else if (e instanceof NumberEqExpr && ((NumberEqExpr<POJO>) e).arg instanceof FieldExpr
+                && !((NumberEqExpr<POJO>) e).negate) {
+            NumberEqExpr<POJO> eq = (NumberEqExpr<POJO>) e;
+            ValueTable.Builder<POJO> table = valueTable(tables, (FieldExpr<POJO>) eq.arg);
+            table.numbers.add(ValueTable.key(eq.number), rule);
+            // a string value is compared with a number as a number, and with a literal as a string
+            if (eq.constant instanceof String) {
+                table.strings.add(eq.constant, rule);
+            } else {
+                table.numericStrings.add(ValueTable.key(eq.number), rule);
+            }
+            return true;
+        } else if (e instanceof NumberInExpr && ((NumberInExpr<POJO>) e).arg instanceof FieldExpr) {
+            NumberInExpr<POJO> in = (NumberInExpr<POJO>) e;
+            ValueTable.Builder<POJO> table = valueTable(tables, (FieldExpr<POJO>) in.arg);
+            for (double number : in.numbers.toSortedArray()) {
+                table.numbers.add(ValueTable.key(number), rule);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static <POJO> boolean addLiteral(Map<Integer, ValueTable.Builder<POJO>> tables,
+                                             FieldExpr<POJO> field, String literal, int rule) {
+        if ("null".equals(literal)) {
+            // null field value is equal to 'null' literal, keep it in the rule
+            return false;
+        }
+        ValueTable.Builder<POJO> table = valueTable(tables, field);
+        table.strings.add(literal, rule);
+        if (Values.isNumber(literal)) {
+            table.numbers.add(ValueTable.key(Double.parseDouble(literal)), rule);
+        }
+        return true;
+    }
+
+    private static <POJO> ValueTable.Builder<POJO> valueTable(Map<Integer, ValueTable.Builder<POJO>> tables,
+                                                             FieldExpr<POJO> field) {
+        return tables.computeIfAbsent(field.slot, slot -> new ValueTable.Builder<>(field));
+    }
+
+    private static <POJO> boolean addSubstringCondition(Map<Integer, SubstringTable.Builder<POJO>> tables,
+                                                        Expr<POJO> e, int rule) {
+        if (!(e instanceof StrContainsExpr)) {
+            return false;
+        }
+        StrContainsExpr<POJO> c = (StrContainsExpr<POJO>) e;
+        if (!(c.arg1 instanceof FieldExpr) || !(c.arg2 instanceof LiteralExpr)) {
+            return false;
+        }
+        FieldExpr<POJO> field = (FieldExpr<POJO>) c.arg1;
+        tables.computeIfAbsent(field.slot, slot -> new SubstringTable.Builder<>(field))
+                .add(((LiteralExpr<POJO>) c.arg2).literal, rule);
+        return true;
+    }
+
+    private static <POJO> boolean addRegexCondition(Map<Integer, RegexTable.Builder<POJO>> tables,
+                                                    Expr<POJO> e, int rule) {
+        Expr<POJO> arg;
+        String regex;
+        boolean fullMatch;
+        if (e instanceof MatchExpr) {
+            arg = ((MatchExpr<POJO>) e).arg1;
+            regex = ((MatchExpr<POJO>) e).regexp;
+            fullMatch = true;
+        } else if (e instanceof ContainsRegexpExpr) {
+            arg = ((ContainsRegexpExpr<POJO>) e).arg1;
+            regex = ((ContainsRegexpExpr<POJO>) e).regexp;
+            fullMatch = false;
+        } else {
+            return false;
+        }
+        if (!(arg instanceof FieldExpr)) {
+            return false;
+        }
+        FieldExpr<POJO> field = (FieldExpr<POJO>) arg;
+        return tables.computeIfAbsent(field.slot, slot -> new RegexTable.Builder<>(field))
+                .add(regex, fullMatch, rule);
+    }
+
+    /**
+     * Intersects a comparison of a field with a number into the range of the field for the rule.
+     */
+    private static <POJO> boolean addRangeCondition(Map<Integer, RangeTable.Builder<POJO>> tables,
+                                                    Map<Integer, Range> ruleRanges, Expr<POJO> e) {
+        if (!(e instanceof CompareExpression)) {
+            return false;
+        }
+        CompareExpression<POJO> c = (CompareExpression<POJO>) e;
+        FieldExpr<POJO> field;
+        double number;
+        boolean fieldFirst;
+        if (c.arg1 instanceof FieldExpr && c.arg2 instanceof NumberExpr) {
+            field = (FieldExpr<POJO>) c.arg1;
+            number = ((NumberExpr<POJO>) c.arg2).number;
+            fieldFirst = true;
+        } else if (c.arg2 instanceof FieldExpr && c.arg1 instanceof NumberExpr) {
+            field = (FieldExpr<POJO>) c.arg2;
+            number = ((NumberExpr<POJO>) c.arg1).number;
+            fieldFirst = false;
+        } else {
+            return false;
+        }
+        tables.computeIfAbsent(field.slot, slot -> new RangeTable.Builder<>(field));
+        Range range = ruleRanges.computeIfAbsent(field.slot, slot -> new Range());
+        boolean lower = (c.operator == CompareExpression.Operator.GT || c.operator == CompareExpression.Operator.GE)
+                == fieldFirst;
+        boolean closed = c.operator == CompareExpression.Operator.GE || c.operator == CompareExpression.Operator.LE;
+        if (lower) {
+            range.restrictLo(number, closed);
+        } else {
+            range.restrictHi(number, closed);
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates the rules, and sets IDs of the matched ones in the result.
+     * @param ids IDs of the rules, by rule index
+     */
+    void match(POJO pojo, EvaluationContext<POJO> context, int[] ids, BitSet result) {
+        for (int r : unindexed) {
+            if (test(residuals[r], pojo, context)) {
+                result.set(ids[r]);
+            }
+        }
+        Scratch s = scratch.get();
+        if (s.inUse) {
+            s = new Scratch();
+        }
+        s.acquire(required);
+        try {
+            for (FieldTable<POJO> table : tables) {
+                table.lookup(pojo, context, s);
+            }
+            for (int i = 0; i < s.candidateCount; i++) {
+                int r = s.candidates[i];
+                if (residuals[r] == null || test(residuals[r], pojo, context)) {
+                    result.set(ids[r]);
+                }
+            }
+        } finally {
+            s.release();
+        }
+    }
+
+    /**
+     * Finds the matching rule with the lowest index, evaluating residuals of the rules in the order of their indexes
+     * and stopping at the first match. Candidates found by the tables and rules without indexed conditions
+     * are two sorted sequences, which are merged on the fly.
+     * @return index of the rule, or -1 if no rule matches
+     */
+    int first(POJO pojo, EvaluationContext<POJO> context) {
+        Scratch s = scratch.get();
+        if (s.inUse) {
+            s = new Scratch();
+        }
+        s.acquire(required);
+        try {
+            for (FieldTable<POJO> table : tables) {
+                table.lookup(pojo, context, s);
+            }
+            Arrays.sort(s.candidates, 0, s.candidateCount);
+            int c = 0;
+            int u = 0;
+            while (c < s.candidateCount || u < unindexed.length) {
+                int r = u == unindexed.length || c < s.candidateCount && s.candidates[c] < unindexed[u]
+                        ? s.candidates[c++]
+                        : unindexed[u++];
+                if (residuals[r] == null || test(residuals[r], pojo, context)) {
+                    return r;
+                }
+            }
+            return -1;
+        } finally {
+            s.release();
+        }
+    }
+
+    private static <POJO> boolean test(Expr<POJO> e, POJO pojo, EvaluationContext<POJO> context) {
+        try {
+            return e.evalBoolean(pojo, context);
+        } catch (EvalException ex) {
+            return false;
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.scratch = ThreadLocal.withInitial(Scratch::new);
+    }
+
+    /**
+     * Rules found by the value of one field.
+     */
+    private abstract static class FieldTable<POJO> implements Serializable {
+        final FieldExpr<POJO> field;
+
+        FieldTable(FieldExpr<POJO> field) {
+            this.field = field;
+        }
+
+        void lookup(POJO pojo, EvaluationContext<POJO> context, Scratch hits) {
+            Object v = field.evalValue(pojo, context);
+            if (v != null && v != Values.ERROR) {
+                lookup(v, hits);
+            }
+        }
+
+        abstract void lookup(Object value, Scratch hits);
+    }
+
+    /**
+     * Values of one field that equality conditions require, mapped to the rules that require them.
+     * String values are looked up with {@code equals}, and, if they hold numbers, by the number among
+     * the conditions that compare them as numbers. Numbers are looked up by their double value.
+     */
+    private static final class ValueTable<POJO> extends FieldTable<POJO> {
+        final Map<Object, int[]> strings;
+        final Map<Object, int[]> numbers;
+        final Map<Object, int[]> numericStrings;
+
+        ValueTable(FieldExpr<POJO> field, Map<Object, int[]> strings, Map<Object, int[]> numbers,
+                   Map<Object, int[]> numericStrings) {
+            super(field);
+            this.strings = strings;
+            this.numbers = numbers;
+            this.numericStrings = numericStrings;
+        }
+
+        @Override
+        void lookup(Object value, Scratch hits) {
+            if (value instanceof String) {
+                accept(strings.get(value), hits);
+                if (!numericStrings.isEmpty() && Values.isNumber((String) value)) {
+                    accept(numericStrings.get(key(Double.parseDouble((String) value))), hits);
+                }
+            } else if (value instanceof Number) {
+                accept(numbers.get(key(((Number) value).doubleValue())), hits);
+            }
+        }
+
+        private static void accept(int[] found, IntConsumer hits) {
+            if (found != null) {
+                for (int r : found) {
+                    hits.accept(r);
+                }
+            }
+        }
+
+        static Double key(double number) {
+            // -0.0 and 0.0 are equal numbers, but not equal Double objects
+            return number == 0.0 ? 0.0 : number;
+        }
+
+        static final class Builder<POJO> {
+            final FieldExpr<POJO> field;
+            final Keys strings = new Keys();
+            final Keys numbers = new Keys();
+            final Keys numericStrings = new Keys();
+
+            Builder(FieldExpr<POJO> field) {
+                this.field = field;
+            }
+
+            ValueTable<POJO> build() {
+                return new ValueTable<>(field, strings.build(), numbers.build(), numericStrings.build());
+            }
+        }
+
+        static final class Keys {
+            final Map<Object, List<Integer>> rules = new HashMap<>();
+
+            void add(Object key, int rule) {
+                rules.computeIfAbsent(key, k -> new ArrayList<>()).add(rule);
+            }
+
+            Map<Object, int[]> build() {
+                Map<Object, int[]> table = new HashMap<>();
+                for (Map.Entry<Object, List<Integer>> e : rules.entrySet()) {
+                    table.put(e.getKey(), e.getValue().stream().mapToInt(Integer::intValue).toArray());
+                }
+                return table;
+            }
+        }
+    }
+
+    /**
+     * Ranges of one field that numeric comparisons require, one per rule.
+     */
+    private static final class RangeTable<POJO> extends FieldTable<POJO> {
+        final IntervalTree ranges;
+
+        RangeTable(FieldExpr<POJO> field, IntervalTree ranges) {
+            super(field);
+            this.ranges = ranges;
+        }
+
+        @Override
+        void lookup(Object value, Scratch hits) {
+            if (value instanceof Number) {
+                ranges.stab(((Number) value).doubleValue(), hits);
+            }
+        }
+
+        static final class Builder<POJO> {
+            final FieldExpr<POJO> field;
+            final IntervalTree.Builder ranges = IntervalTree.builder();
+
+            Builder(FieldExpr<POJO> field) {
+                this.field = field;
+            }
+
+            /**
+             * Empty ranges are not added, so the rule never gets a hit for them.
+             */
+            void add(Range range, int rule) {
+                ranges.add(range.lo, range.loClosed, range.hi, range.hiClosed, rule);
+            }
+
+            RangeTable<POJO> build() {
+                return new RangeTable<>(field, ranges.build());
+            }
+        }
+    }
+
+    /**
+     * Substrings that conditions on one field require, with the rules that require them.
+     */
+    private static final class SubstringTable<POJO> extends FieldTable<POJO> {
+        final AhoCorasick automaton;
+        /**
+         * Rules of each substring, by substring index in the automaton.
+         */
+        final int[][] rules;
+
+        SubstringTable(FieldExpr<POJO> field, AhoCorasick automaton, int[][] rules) {
+            super(field);
+            this.automaton = automaton;
+            this.rules = rules;
+        }
+
+        @Override
+        void lookup(Object value, Scratch hits) {
+            if (value instanceof String) {
+                automaton.searchDistinct((String) value, hits.found, p -> {
+                    for (int r : rules[p]) {
+                        hits.accept(r);
+                    }
+                });
+                hits.found.clear();
+            }
+        }
+
+        static final class Builder<POJO> {
+            final FieldExpr<POJO> field;
+            final Map<String, List<Integer>> rules = new LinkedHashMap<>();
+
+            Builder(FieldExpr<POJO> field) {
+                this.field = field;
+            }
+
+            void add(String substring, int rule) {
+                rules.computeIfAbsent(substring, k -> new ArrayList<>()).add(rule);
+            }
+
+            SubstringTable<POJO> build() {
+                AhoCorasick.Builder automaton = AhoCorasick.builder();
+                int[][] table = new int[rules.size()][];
+                for (Map.Entry<String, List<Integer>> e : rules.entrySet()) {
+                    table[automaton.add(e.getKey())] = e.getValue().stream().mapToInt(Integer::intValue).toArray();
+                }
+                return new SubstringTable<>(field, automaton.build(), table);
+            }
+        }
+    }
+
+    /**
+     * Regular expressions that conditions on one field require, with the rules that require them.
+     */
+    private static final class RegexTable<POJO> extends FieldTable<POJO> {
+        final MultiRegex regexes;
+        /**
+         * Rules of each expression, by expression index in the regex set.
+         */
+        final int[][] rules;
+
+        RegexTable(FieldExpr<POJO> field, MultiRegex regexes, int[][] rules) {
+            super(field);
+            this.regexes = regexes;
+            this.rules = rules;
+        }
+
+        @Override
+        void lookup(Object value, Scratch hits) {
+            if (value instanceof String) {
+                regexes.match((String) value, hits.found, e -> {
+                    for (int r : rules[e]) {
+                        hits.accept(r);
+                    }
+                });
+                hits.found.clear();
+            }
+        }
+
+        static final class Builder<POJO> {
+            final FieldExpr<POJO> field;
+            final MultiRegex.Builder regexes = MultiRegex.builder();
+            final Map<String, Integer> indexes = new HashMap<>();
+            final List<List<Integer>> rules = new ArrayList<>();
+
+            Builder(FieldExpr<POJO> field) {
+                this.field = field;
+            }
+
+            /**
+             * @return false if the expression is not supported by {@link MultiRegex}
+             */
+            boolean add(String regex, boolean fullMatch, int rule) {
+                String key = (fullMatch ? "M" : "F") + regex;
+                Integer index = indexes.get(key);
+                if (index == null) {
+                    index = regexes.add(regex, fullMatch);
+                    if (index < 0) {
+                        return false;
+                    }
+                    indexes.put(key, index);
+                    rules.add(new ArrayList<>());
+                }
+                rules.get(index).add(rule);
+                return true;
+            }
+
+            RegexTable<POJO> build() {
+                int[][] table = new int[rules.size()][];
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = rules.get(i).stream().mapToInt(Integer::intValue).toArray();
+                }
+                return new RegexTable<>(field, regexes.build(), table);
+            }
+        }
+    }
+
+    /**
+     * Intersection of numeric comparisons of a field in a rule.
+     * Unrestricted bounds include infinity, e.g. {@code level < 5} holds for negative infinity.
+     */
+    private static final class Range {
+        double lo = Double.NEGATIVE_INFINITY;
+        boolean loClosed = true;
+        double hi = Double.POSITIVE_INFINITY;
+        boolean hiClosed = true;
+
+        void restrictLo(double number, boolean closed) {
+            if (number > lo || number == lo && !closed) {
+                lo = number;
+                loClosed = closed;
+            }
+        }
+
+        void restrictHi(double number, boolean closed) {
+            if (number < hi || number == hi && !closed) {
+                hi = number;
+                hiClosed = closed;
+            }
+        }
+    }
+
+    /**
+     * Per-thread hit counters of the rules. Only counters of the rules that got hits are reset after evaluation.
+     */
+    private static final class Scratch implements IntConsumer {
+        int[] required;
+        int[] counts = new int[0];
+        int[] touched = new int[16];
+        int touchedCount;
+        int[] candidates = new int[16];
+        int candidateCount;
+        /**
+         * Patterns found in a field value by a table, cleared after each lookup.
+         */
+        final BitSet found = new BitSet();
+        boolean inUse;
+
+        void acquire(int[] required) {
+            this.required = required;
+            if (counts.length < required.length) {
+                counts = new int[required.length];
+            }
+            inUse = true;
+        }
+
+        @Override
+        public void accept(int rule) {
+            int count = ++counts[rule];
+            if (count == 1) {
+                touched = push(touched, touchedCount++, rule);
+            }
+            if (count == required[rule]) {
+                candidates = push(candidates, candidateCount++, rule);
+            }
+        }
+
+        private static int[] push(int[] array, int index, int value) {
+            if (index == array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+            }
+            array[index] = value;
+            return array;
+        }
+
+        void release() {
+            for (int i = 0; i < touchedCount; i++) {
+                counts[touched[i]] = 0;
+            }
+            touchedCount = 0;
+            candidateCount = 0;
+            required = null;
+            inUse = false;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+
+import java.util.BitSet;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pipeline that hands events from producer threads to rule evaluation threads through a {@link RingBuffer},
+ * instead of a blocking queue.
+ * <p>
+ * Producers publish events to a pre-allocated ring buffer, with a single producer or several ones.
+ * Each consumer thread evaluates every n-th event, where n is the number of consumers, so consumers don't contend
+ * for events. A consumer takes all events published since its previous batch at once, evaluates the rules
+ * on them and passes the results to the {@link PipelineSink} in a bitset it reuses, then publishes its progress
+ * once per batch. A producer waits only if the buffer is full, i.e. if a consumer is a whole buffer behind.
+ * Consumers that wait for events use a {@link WaitStrategy}.
+ * <p>
+ * Rules are either a {@link RuleSet}, or a single boolean {@link Evaluator} that is reported as rule 0.
+ * Like in a rule set, a rule that fails to evaluate doesn't match. Other exceptions thrown by the rules
+ * (e.g. by field extractors) or by the sink are passed to the uncaught exception handler of the consumer thread,
+ * and the consumer goes on with the next event, so producers never wait for a consumer that died.
+ * The buffer holds references to the last events until they are overwritten.
+ *
+ * @param <POJO> class of POJO that rules are to be evaluated on
+ */
+public class RulePipeline<POJO> {
+
+    private final RingBuffer<POJO> ring;
+    private final Matcher<POJO> matcher;
+    private final PipelineSink<POJO> sink;
+    private final WaitStrategy waitStrategy;
+    private final Consumer[] consumers;
+    private final Thread[] threads;
+    private volatile boolean running;
+    private volatile boolean started;
+
+    private RulePipeline(Builder<POJO> builder) {
+        if (builder.sink == null) {
+            throw new IllegalArgumentException("Sink is not set");
+        }
+        this.ring = new RingBuffer<>(builder.bufferSize, builder.multiProducer);
+        this.matcher = builder.matcher;
+        this.sink = builder.sink;
+        this.waitStrategy = builder.waitStrategy;
+        @SuppressWarnings("unchecked")
+        Consumer[] consumers = (Consumer[]) new RulePipeline<?>.Consumer[builder.consumers];
+        this.consumers = consumers;
+        this.threads = new Thread[builder.consumers];
+        Sequence[] sequences = new Sequence[consumers.length];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new Consumer(i);
+            sequences[i] = consumers[i].sequence;
+            threads[i] = builder.threadFactory.newThread(consumers[i]);
+        }
+        ring.setGatingSequences(sequences);
+    }
+
+    /**
+     * Starts consumer threads.
+     */
+    public synchronized void start() {
+        if (started) {
+            throw new IllegalStateException("Pipeline is already started");
+        }
+        started = true;
+        running = true;
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Publishes an event to be evaluated, waiting while the buffer is full.
+     * Can be called by several threads if the pipeline is built for several producers.
+     * @return sequence number of the event
+     */
+    public long publish(POJO event) {
+        return ring.publish(event);
+    }
+
+    /**
+     * Waits until all published events are evaluated, then stops consumer threads.
+     * Events must not be published after the call.
+     */
+    public synchronized void shutdown() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        long last = ring.cursor();
+        for (Consumer consumer : consumers) {
+            while (consumer.sequence.get() < last && threads[consumer.index].isAlive()) {
+                Thread.sleep(1);
+            }
+        }
+        running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * @return number of events evaluated by all consumers
+     */
+    public long getEvaluatedCount() {
+        long count = 0;
+        for (Consumer consumer : consumers) {
+            count += consumer.evaluated;
+        }
+        return count;
+    }
+
+    public int getBufferSize() {
+        return ring.capacity();
+    }
+
+    /**
+     * Evaluates every n-th event of the ring buffer.
+     */
+    private final class Consumer implements Runnable {
+        final int index;
+        final Sequence sequence = new Sequence(-1);
+        /**
+         * Written only by the consumer thread.
+         */
+        volatile long evaluated;
+
+        Consumer(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            int n = consumers.length;
+            BitSet matches = new BitSet();
+            long next = 0;
+            while (true) {
+                long available = ring.highestPublished(next);
+                int attempts = 0;
+                while (available < next) {
+                    if (!running) {
+                        return;
+                    }
+                    waitStrategy.idle(attempts++);
+                    available = ring.highestPublished(next);
+                }
+                // first event of the batch that belongs to this consumer
+                long s = next + Math.floorMod(index - next, (long) n);
+                long count = 0;
+                for (; s <= available; s += n) {
+                    POJO event = ring.get(s);
+                    try {
+                        matcher.match(event, matches);
+                        sink.accept(s, event, matches);
+                    } catch (RuntimeException e) {
+                        uncaught(e);
+                    }
+                    count++;
+                }
+                if (count > 0) {
+                    try {
+                        sink.endOfBatch();
+                    } catch (RuntimeException e) {
+                        uncaught(e);
+                    }
+                    evaluated += count;
+                }
+                sequence.set(available);
+                next = available + 1;
+            }
+        }
+
+        private void uncaught(RuntimeException e) {
+            Thread t = Thread.currentThread();
+            t.getUncaughtExceptionHandler().uncaughtException(t, e);
+        }
+    }
+
+    /**
+     * Evaluates rules on an event and stores IDs of matched rules in the bitset, which is cleared first.
+     */
+    @FunctionalInterface
+    private interface Matcher<POJO> {
+        void match(POJO pojo, BitSet result);
+    }
+
+    /**
+     * @param ruleSet rules to evaluate on each event
+     */
+    public static <POJO> Builder<POJO> builder(RuleSet<POJO> ruleSet) {
+        return new Builder<>((pojo, result) -> ruleSet.match(pojo, null, result));
+    }
+
+    /**
+     * @param evaluator boolean rule to evaluate on each event, it's reported as rule 0
+     */
+    public static <POJO> Builder<POJO> builder(Evaluator<POJO, Boolean> evaluator) {
+        return new Builder<>((pojo, result) -> {
+            result.clear();
+            try {
+                if (evaluator.test(pojo)) {
+                    result.set(0);
+                }
+            } catch (EvalException e) {
+                // rules that fail to evaluate don't match
+            }
+        });
+    }
+
+    public static class Builder<POJO> {
+        private static final AtomicInteger PIPELINES = new AtomicInteger();
+
+        private final Matcher<POJO> matcher;
+        private PipelineSink<POJO> sink = null;
+        private int bufferSize = 1 << 14;
+        private int consumers = 1;
+        private boolean multiProducer = false;
+        private WaitStrategy waitStrategy = WaitStrategy.PARK;
+        private ThreadFactory threadFactory;
+
+        private Builder(Matcher<POJO> matcher) {
+            this.matcher = matcher;
+            int pipeline = PIPELINES.incrementAndGet();
+            AtomicInteger threads = new AtomicInteger();
+            this.threadFactory = r -> {
+                Thread t = new Thread(r, "rule-pipeline-" + pipeline + "-" + threads.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            };
+        }
+
+        public Builder<POJO> withSink(PipelineSink<POJO> sink) {
+            this.sink = sink;
+            return this;
+        }
+
+        /**
+         * Number of event slots in the ring buffer, a power of 2, 16384 by default.
+         * @return
+         */
+        public Builder<POJO> bufferSize(int bufferSize) {
+            if (bufferSize < 1 || Integer.bitCount(bufferSize) != 1) {
+                throw new IllegalArgumentException("Buffer size must be a power of 2: " + bufferSize);
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * Number of consumer threads, 1 by default.
+         * @return
+         */
+        public Builder<POJO> consumers(int consumers) {
+            if (consumers < 1) {
+                throw new IllegalArgumentException("Number of consumers must be positive: " + consumers);
+            }
+            this.consumers = consumers;
+            return this;
+        }
+
+        /**
+         * Allow events to be published by several threads. By default there must be a single producer thread,
+         * which publishes without atomic operations.
+         * @return
+         */
+        public Builder<POJO> multiProducer(boolean multiProducer) {
+            this.multiProducer = multiProducer;
+            return this;
+        }
+
+        /**
+         * See {@link WaitStrategy}, {@link WaitStrategy#PARK} by default.
+         * @return
+         */
+        public Builder<POJO> waitStrategy(WaitStrategy waitStrategy) {
+            this.waitStrategy = waitStrategy;
+            return this;
+        }
+
+        /**
+         * Factory of consumer threads, by default they are daemon threads.
+         * @return
+         */
+        public Builder<POJO> withThreadFactory(ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory;
+            return this;
+        }
+
+        public RulePipeline<POJO> build() {
+            return new RulePipeline<>(this);
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import snorochevskiy.pojoeval.v2.evaluator.exception.DslError;
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+
+import java.io.Serializable;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A set of boolean rules that are evaluated together against each POJO.
+ * <p>
+ * Rules of the set share field slots, so a field referenced by several rules is extracted once
+ * per evaluation of the set, instead of once per rule. Structurally equal sub-expressions of the rules are shared
+ * (see {@link ExprInterner}), and a condition referenced by several rules is evaluated once per evaluation too.
+ * Result of the evaluation is the set of IDs
+ * of the rules that matched. Rules that fail to evaluate (e.g. a field is missing) don't match.
+ * <p>
+ * Conditions of the rules that compare fields with constants are indexed (see {@link RuleIndex}),
+ * so a rule is evaluated only if the values of the fields it compares with constants match.
+ * Alternatively, the whole set can be compiled into a shared binary decision diagram (see {@link Builder#compileToBdd()}).
+ *
+ * @param <POJO> class of POJO that rules are to be evaluated on
+ */
+public class RuleSet<POJO> implements Serializable {
+
+    private final int[] ids;
+    private final Evaluator<POJO, Boolean>[] rules;
+    private final FieldSlots fieldSlots;
+    private final RuleIndex<POJO> index;
+    private final Bdd<POJO> bdd;
+    /**
+     * Root node of each rule in {@link #bdd}, -1 for rules that are not in the diagram.
+     */
+    private final int[] bddRoots;
+    private final Class<POJO> pojoClass;
+
+    private RuleSet(Builder<POJO> builder) {
+        this.fieldSlots = new FieldSlots();
+        this.pojoClass = builder.pojoClass;
+        this.ids = new int[builder.rules.size()];
+        @SuppressWarnings("unchecked")
+        Evaluator<POJO, Boolean>[] rules = (Evaluator<POJO, Boolean>[]) new Evaluator<?, ?>[builder.rules.size()];
+        this.rules = rules;
+        ExprInterner<POJO> interner = builder.shareExpressions ? new ExprInterner<>(fieldSlots) : null;
+        int i = 0;
+        for (Map.Entry<Integer, String> e : builder.rules.entrySet()) {
+            ids[i] = e.getKey();
+            rules[i] = buildRule(builder, interner, e.getKey(), e.getValue());
+            i++;
+        }
+        fieldSlots.seal();
+        if (builder.compileToBdd) {
+            this.bddRoots = new int[rules.length];
+            this.bdd = buildBdd(builder);
+            this.index = null;
+        } else {
+            this.bddRoots = null;
+            this.bdd = null;
+            this.index = builder.indexConditions ? buildIndex(builder) : null;
+        }
+    }
+
+    private Bdd<POJO> buildBdd(Builder<POJO> builder) {
+        Bdd.Builder<POJO> bddBuilder = Bdd.builder();
+        int[] added = new int[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            Expr<POJO> source = source(rules[i].compiled);
+            added[i] = source.resultType() == ExprResType.BOOL && ExprSafety.cannotFail(source)
+                    ? bddBuilder.add(source)
+                    : -1;
+        }
+        Bdd<POJO> result = bddBuilder.build(builder.compileToBytecode, builder.pojoClass);
+        int[] roots = bddBuilder.roots();
+        for (int i = 0; i < rules.length; i++) {
+            bddRoots[i] = added[i] >= 0 ? roots[added[i]] : -1;
+        }
+        return result;
+    }
+
+    private static <POJO> Expr<POJO> source(Expr<POJO> compiled) {
+        return compiled instanceof CompiledExpr ? ((CompiledExpr<POJO>) compiled).source() : compiled;
+    }
+
+    private RuleIndex<POJO> buildIndex(Builder<POJO> builder) {
+        @SuppressWarnings("unchecked")
+        Expr<POJO>[] sources = (Expr<POJO>[]) new Expr<?>[rules.length];
+        @SuppressWarnings("unchecked")
+        Expr<POJO>[] compiled = (Expr<POJO>[]) new Expr<?>[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            compiled[i] = rules[i].compiled;
+            sources[i] = source(compiled[i]);
+        }
+        return RuleIndex.build(sources, compiled, builder.indexEqualities, builder.compileToBytecode, builder.pojoClass);
+    }
+
+    private Evaluator<POJO, Boolean> buildRule(Builder<POJO> builder, ExprInterner<POJO> interner,
+                                               int id, String rule) {
+        return buildBoolEvaluator(id, builder.evaluatorFor(rule)
+                .withFieldSlots(fieldSlots)
+                .withInterner(interner));
+    }
+
+    /**
+     * @throws DslError with the ID of the rule in the message, if the rule cannot be parsed
+     */
+    static <POJO> Evaluator<POJO, Boolean> buildBoolEvaluator(int id, Evaluator.Builder<POJO> builder) {
+        try {
+            return builder.buildBoolEvaluator();
+        } catch (DslError e) {
+            throw new DslError("Rule " + id + ": " + e.getMessage(), e.getToken(),
+                    e.getStartPos(), e.getEndPos(), e.getLine());
+        }
+    }
+
+    /**
+     * Evaluates all rules on a given object.
+     * @param pojo
+     * @return IDs of matched rules
+     */
+    public BitSet match(POJO pojo) {
+        return match(pojo, null);
+    }
+
+    public BitSet match(POJO pojo, EvaluationContext<POJO> context) {
+        BitSet result = new BitSet();
+        match(pojo, context, result);
+        return result;
+    }
+
+    /**
+     * Evaluates all rules on a given object, and stores IDs of matched rules in the given bitset,
+     * which is cleared first. Allows reusing the bitset for a stream of objects.
+     */
+    public void match(POJO pojo, EvaluationContext<POJO> context, BitSet result) {
+        result.clear();
+        if (!fieldSlots.hasMemoized()) {
+            matchInFrame(pojo, context, result);
+            return;
+        }
+        EvalFrame<POJO> frame = EvalFrame.begin(fieldSlots.size(), context);
+        try {
+            matchInFrame(pojo, frame, result);
+        } finally {
+            frame.end();
+        }
+    }
+
+    /**
+     * Finds the first rule, in the order the rules were added, that matches a given object.
+     * Rules after the found one are not evaluated.
+     * @return ID of the rule, or -1 if no rule matches
+     */
+    int matchFirst(POJO pojo, EvaluationContext<POJO> context) {
+        if (!fieldSlots.hasMemoized()) {
+            return matchFirstInFrame(pojo, context);
+        }
+        EvalFrame<POJO> frame = EvalFrame.begin(fieldSlots.size(), context);
+        try {
+            return matchFirstInFrame(pojo, frame);
+        } finally {
+            frame.end();
+        }
+    }
+
+    private int matchFirstInFrame(POJO pojo, EvaluationContext<POJO> context) {
+        if (index != null) {
+            int r = index.first(pojo, context);
+            return r >= 0 ? ids[r] : -1;
+        }
+        Bdd.AtomMemo memo = bdd != null && ExprSafety.appliesTo(pojo, context, pojoClass)
+                ? bdd.beginEvaluation()
+                : null;
+        for (int i = 0; i < rules.length; i++) {
+            if (memo != null ? testBdd(i, pojo, context, memo) : test(i, pojo, context)) {
+                return ids[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Evaluates all rules on a given object.
+     * @param pojo
+     * @return IDs of matched rules in ascending order
+     */
+    public int[] matchingIds(POJO pojo) {
+        return matchingIds(pojo, null);
+    }
+
+    public int[] matchingIds(POJO pojo, EvaluationContext<POJO> context) {
+        return match(pojo, context).stream().toArray();
+    }
+
+    private void matchInFrame(POJO pojo, EvaluationContext<POJO> context, BitSet result) {
+        if (index != null) {
+            index.match(pojo, context, ids, result);
+            return;
+        }
+        if (bdd != null && ExprSafety.appliesTo(pojo, context, pojoClass)) {
+            matchBdd(pojo, context, result);
+            return;
+        }
+        for (int i = 0; i < rules.length; i++) {
+            if (test(i, pojo, context)) {
+                result.set(ids[i]);
+            }
+        }
+    }
+
+    /**
+     * Evaluates the rules by their paths in the shared diagram, so a condition that several rules have
+     * is evaluated once. Only rules whose conditions cannot fail are in the diagram, others are evaluated
+     * by their expression trees. If a condition on the path of a rule fails anyway, the rule is evaluated
+     * by its expression tree, which gives the same result as evaluation without the diagram.
+     */
+    private void matchBdd(POJO pojo, EvaluationContext<POJO> context, BitSet result) {
+        Bdd.AtomMemo memo = bdd.beginEvaluation();
+        for (int i = 0; i < rules.length; i++) {
+            if (testBdd(i, pojo, context, memo)) {
+                result.set(ids[i]);
+            }
+        }
+    }
+
+    private boolean testBdd(int rule, POJO pojo, EvaluationContext<POJO> context, Bdd.AtomMemo memo) {
+        if (bddRoots[rule] < 0) {
+            return test(rule, pojo, context);
+        }
+        try {
+            return bdd.eval(bddRoots[rule], pojo, context, memo);
+        } catch (RuntimeException e) {
+            return test(rule, pojo, context);
+        }
+    }
+
+    private boolean test(int rule, POJO pojo, EvaluationContext<POJO> context) {
+        try {
+            return rules[rule].testInFrame(pojo, context);
+        } catch (EvalException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return number of decision nodes of the diagram the set is compiled to,
+     * or 0 if it's not compiled to a diagram (see {@link Builder#compileToBdd()})
+     */
+    public int getBddNodeCount() {
+        return bdd != null ? bdd.nodeCount() : 0;
+    }
+
+    /**
+     * Creates an evaluation context with field overrides bound to the fields of the rules up front.
+     * See {@link Evaluator#createContext(Map, ExternalFieldsExtractor)}.
+     */
+    public EvaluationContext<POJO> createContext(Map<String, Function<POJO, Object>> fieldExtractors,
+                                                 ExternalFieldsExtractor<POJO> externalFieldsExtractor) {
+        return new EvaluationContext<>(fieldSlots, fieldExtractors, externalFieldsExtractor);
+    }
+
+    /**
+     * @return number of rules in the set
+     */
+    public int size() {
+        return rules.length;
+    }
+
+    /**
+     * @return names of the fields referenced by the rules of the set
+     */
+    public Set<String> getFields() {
+        Set<String> fields = new LinkedHashSet<>();
+        for (int slot = 0; slot < fieldSlots.size(); slot++) {
+            if (fieldSlots.name(slot) != null) {
+                fields.add(fieldSlots.name(slot));
+            }
+        }
+        return Collections.unmodifiableSet(fields);
+    }
+
+    public static <POJO> Builder<POJO> builder() {
+        return new Builder<>();
+    }
+
+    public static class Builder<POJO> implements Serializable {
+        private final Map<Integer, String> rules = new LinkedHashMap<>();
+        private Class<POJO> pojoClass = null;
+        private Map<String, Function<POJO,Object>> fieldExtractors = new HashMap<>();
+        private boolean useReflection = true;
+        private boolean compileToBytecode = false;
+        private boolean indexConditions = true;
+        private boolean indexEqualities = true;
+        private boolean compileToBdd = false;
+        private boolean shareExpressions = true;
+
+        /**
+         * Adds a boolean rule to the set.
+         * @param id non-negative ID the rule is reported with when it matches
+         * @param rule
+         * @return
+         */
+        public Builder<POJO> addRule(int id, String rule) {
+            if (id < 0) {
+                throw new IllegalArgumentException("Rule ID must be non-negative: " + id);
+            }
+            if (rules.putIfAbsent(id, rule) != null) {
+                throw new IllegalArgumentException("Duplicate rule ID: " + id);
+            }
+            return this;
+        }
+
+        public Builder<POJO> addRules(Map<Integer, String> rules) {
+            rules.forEach(this::addRule);
+            return this;
+        }
+
+        public Builder<POJO> validateAgainstClass(Class<POJO> cls) {
+            this.pojoClass = cls;
+            return this;
+        }
+
+        public Builder<POJO> withFieldExtractors(Map<String, Function<POJO,Object>> fieldExtractors) {
+            this.fieldExtractors.putAll(fieldExtractors);
+            return this;
+        }
+
+        public Builder<POJO> withFieldExtractor(String fieldName, Function<POJO,Object> fieldExtractor) {
+            this.fieldExtractors.put(fieldName, fieldExtractor);
+            return this;
+        }
+
+        public Builder<POJO> allowReflectionFieldLookup(boolean useReflection) {
+            this.useReflection = useReflection;
+            return this;
+        }
+
+        /**
+         * See {@link Evaluator.Builder#compileToBytecode()}.
+         * @return
+         */
+        public Builder<POJO> compileToBytecode() {
+            this.compileToBytecode = true;
+            return this;
+        }
+
+        /**
+         * Enables or disables indexing of the conditions of the rules (see {@link RuleIndex}).
+         * Enabled by default. Doesn't change evaluation results.
+         * @return
+         */
+        public Builder<POJO> indexConditions(boolean indexConditions) {
+            this.indexConditions = indexConditions;
+            return this;
+        }
+
+        /**
+         * Enables or disables indexing of equality conditions of the rules, if conditions are indexed.
+         * Enabled by default. Doesn't change evaluation results.
+         * @return
+         */
+        public Builder<POJO> indexEqualities(boolean indexEqualities) {
+            this.indexEqualities = indexEqualities;
+            return this;
+        }
+
+        /**
+         * Compile all rules of the set into one reduced ordered binary decision diagram, where each distinct
+         * condition is a variable, and rules share sub-diagrams. Each condition is evaluated at most once
+         * per evaluation of the set. The diagram is used instead of the condition index.
+         * Only rules whose conditions cannot fail are put into the diagram (see
+         * {@link Evaluator.Builder#compileToBdd()}), so it doesn't change evaluation results.
+         * A rule that would grow the diagram over its size limit is left out of it. Rules that are not
+         * in the diagram are evaluated one by one, without the condition index.
+         * @return
+         */
+        public Builder<POJO> compileToBdd() {
+            this.compileToBdd = true;
+            return this;
+        }
+
+        /**
+         * Enables or disables sharing of structurally equal sub-expressions between the rules,
+         * and memoization of the results of shared conditions. Enabled by default. Doesn't change evaluation results.
+         * @return
+         */
+        public Builder<POJO> shareExpressions(boolean shareExpressions) {
+            this.shareExpressions = shareExpressions;
+            return this;
+        }
+
+        public RuleSet<POJO> build() {
+            return new RuleSet<>(this);
+        }
+
+        /**
+         * @return a builder with the same options and no rules
+         */
+        Builder<POJO> copyOptions() {
+            Builder<POJO> copy = new Builder<>();
+            copy.pojoClass = pojoClass;
+            copy.fieldExtractors.putAll(fieldExtractors);
+            copy.useReflection = useReflection;
+            copy.compileToBytecode = compileToBytecode;
+            copy.indexConditions = indexConditions;
+            copy.indexEqualities = indexEqualities;
+            copy.compileToBdd = compileToBdd;
+            copy.shareExpressions = shareExpressions;
+            return copy;
+        }
+
+        /**
+         * @return a builder of an evaluator of the rule with the field lookup and compilation options of the set
+         */
+        Evaluator.Builder<POJO> evaluatorFor(String rule) {
+            Evaluator.Builder<POJO> b = Evaluator.<POJO>createForRule(rule)
+                    .withFieldExtractors(fieldExtractors)
+                    .allowReflectionFieldLookup(useReflection);
+            if (pojoClass != null) {
+                b.validateAgainstClass(pojoClass);
+            }
+            if (compileToBytecode) {
+                b.compileToBytecode();
+            }
+            return b;
+        }
+    }
+}
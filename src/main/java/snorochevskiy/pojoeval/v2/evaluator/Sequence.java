@@ -0,0 +1,59 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Position in a {@link RingBuffer}, written by one thread and read by others.
+ * <p>
+ * The value is padded on both sides, so that sequences of different threads don't share a cache line.
+ * Padding is in super and sub classes, because the JVM doesn't reorder fields across classes of a hierarchy.
+ */
+final class Sequence extends SequenceValue {
+
+    long p9, p10, p11, p12, p13, p14, p15;
+
+    Sequence(long initial) {
+        VALUE.lazySet(this, initial);
+    }
+
+    long get() {
+        return value;
+    }
+
+    /**
+     * Publishes the value without a full fence: writes before it are visible to a thread that reads the value.
+     */
+    void set(long v) {
+        VALUE.lazySet(this, v);
+    }
+
+    long incrementAndGet() {
+        return VALUE.incrementAndGet(this);
+    }
+
+    /**
+     * @return the minimum of the sequences, or the given value if it's smaller
+     */
+    static long min(Sequence[] sequences, long min) {
+        for (Sequence s : sequences) {
+            min = Math.min(min, s.get());
+        }
+        return min;
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(value);
+    }
+}
+
+class SequencePadding {
+    long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class SequenceValue extends SequencePadding {
+    static final AtomicLongFieldUpdater<SequenceValue> VALUE =
+            AtomicLongFieldUpdater.newUpdater(SequenceValue.class, "value");
+
+    volatile long value;
+}
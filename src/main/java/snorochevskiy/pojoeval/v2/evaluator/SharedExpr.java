@@ -0,0 +1,89 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+
+/**
+ * Condition that is interned by {@link ExprInterner}, so rules that have the same condition share the node.
+ * <p>
+ * If the condition is referenced more than once, its result is memoized in the {@link EvalFrame}
+ * of the evaluation, like a memoized field, so it's evaluated at most once per evaluation.
+ * A failure of the condition is memoized too, and is thrown again on each later use.
+ */
+final class SharedExpr<POJO> implements Expr<POJO> {
+
+    final Expr<POJO> e;
+    final FieldSlots slots;
+    final int slot;
+
+    SharedExpr(Expr<POJO> e, FieldSlots slots) {
+        this.e = e;
+        this.slots = slots;
+        this.slot = slots.conditionSlot();
+    }
+
+    static <POJO> Expr<POJO> unwrap(Expr<POJO> expr) {
+        return expr instanceof SharedExpr ? ((SharedExpr<POJO>) expr).e : expr;
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.BOOL;
+    }
+
+    @Override
+    public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
+        return evalBoolean(pojo, context);
+    }
+
+    @Override
+    public boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        if (!isMemoizedIn(pojo, context)) {
+            return e.evalBoolean(pojo, context);
+        }
+        EvalFrame<POJO> frame = (EvalFrame<POJO>) context;
+        if (frame.has(slot)) {
+            Object v = frame.get(slot);
+            if (v instanceof EvalException) {
+                throw (EvalException) v;
+            }
+            return v == Boolean.TRUE;
+        }
+        boolean v;
+        try {
+            v = e.evalBoolean(pojo, context);
+        } catch (EvalException ex) {
+            frame.put(slot, ex);
+            throw ex;
+        }
+        frame.put(slot, v);
+        return v;
+    }
+
+    /**
+     * @return true if the result is memoized in the given context. Takes the POJO so that it can be used
+     * as a guard of a compiled rule.
+     */
+    boolean isMemoizedIn(Object pojo, EvaluationContext<?> context) {
+        return context instanceof EvalFrame && slots.isMemoized(slot);
+    }
+
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        return e.evalTri(pojo, context);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SharedExpr && e.equals(((SharedExpr<?>) o).e);
+    }
+
+    @Override
+    public int hashCode() {
+        return e.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return e.toString();
+    }
+}
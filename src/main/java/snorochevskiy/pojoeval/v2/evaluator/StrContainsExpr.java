@@ -0,0 +1,79 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.Objects;
+
+final class StrContainsExpr<POJO> implements Expr<POJO> {
+
+    final Expr<POJO> arg1;
+    final Expr<POJO> arg2;
+
+    StrContainsExpr(Expr<POJO> arg1, Expr<POJO> arg2) {
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+    }
+
+    @Override
+    public ExprResType resultType() {
+        return ExprResType.BOOL;
+    }
+
+    @Override
+    public Boolean eval(POJO pojo, EvaluationContext<POJO> context) {
+        return evalBoolean(pojo, context);
+    }
+
+    @Override
+    public boolean evalBoolean(POJO pojo, EvaluationContext<POJO> context) {
+        Object o1 = arg1.eval(pojo, context);
+        if (o1 == null) {
+            return false;
+        }
+        String s1 = Values.toStr(o1);
+
+        Object o2 = arg2.eval(pojo, context);
+        if (o2 == null) {
+            return false;
+        }
+        String s2 = Values.toStr(o2);
+
+        return s1.contains(s2);
+    }
+
+    @Override
+    public TriState evalTri(POJO pojo, EvaluationContext<POJO> context) {
+        Object o1 = arg1.evalValue(pojo, context);
+        if (o1 == null) {
+            return TriState.FALSE;
+        }
+        if (!(o1 instanceof String)) {
+            return TriState.UNKNOWN;
+        }
+        Object o2 = arg2.evalValue(pojo, context);
+        if (o2 == null) {
+            return TriState.FALSE;
+        }
+        if (!(o2 instanceof String)) {
+            return TriState.UNKNOWN;
+        }
+        return TriState.of(((String) o1).contains((String) o2));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof StrContainsExpr)) {
+            return false;
+        }
+        StrContainsExpr<?> other = (StrContainsExpr<?>) o;
+        return arg1.equals(other.arg1) && arg2.equals(other.arg2);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(StrContainsExpr.class, arg1, arg2);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + arg1 + " contains " + arg2 + ")";
+    }
+}
@@ -0,0 +1,42 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+/**
+ * Result of a boolean rule in three-valued logic: UNKNOWN means that the result cannot be decided
+ * because some value the rule depends on is missing or has a wrong type.
+ * <p>
+ * UNKNOWN propagates the same way as NULL in SQL: {@code NOT UNKNOWN} is UNKNOWN,
+ * {@code FALSE AND UNKNOWN} is FALSE, {@code TRUE OR UNKNOWN} is TRUE, otherwise AND / OR with UNKNOWN is UNKNOWN.
+ */
+public enum TriState {
+    TRUE, FALSE, UNKNOWN;
+
+    public static TriState of(boolean b) {
+        return b ? TRUE : FALSE;
+    }
+
+    public TriState not() {
+        switch (this) {
+            case TRUE: return FALSE;
+            case FALSE: return TRUE;
+            default: return UNKNOWN;
+        }
+    }
+
+    /**
+     * @param unknownValue value UNKNOWN is mapped to
+     */
+    public boolean toBoolean(boolean unknownValue) {
+        return this == UNKNOWN ? unknownValue : this == TRUE;
+    }
+
+    /**
+     * @return Boolean value, or {@link Values#ERROR} for UNKNOWN
+     */
+    Object toValue() {
+        switch (this) {
+            case TRUE: return Boolean.TRUE;
+            case FALSE: return Boolean.FALSE;
+            default: return Values.ERROR;
+        }
+    }
+}
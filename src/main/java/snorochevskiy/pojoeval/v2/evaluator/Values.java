@@ -0,0 +1,103 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+
+/**
+ * Type checks and conversions shared by the interpreted expression nodes and the compiled ones,
+ * so both evaluation modes fail on the same values with the same messages.
+ */
+final class Values {
+
+    /**
+     * Result of a value that cannot be evaluated, returned instead of throwing {@link EvalException}
+     * by {@link Expr#evalValue(Object, EvaluationContext)}.
+     */
+    static final Object ERROR = new Object() {
+        @Override
+        public String toString() {
+            return "ERROR";
+        }
+    };
+
+    private Values() {
+
+    }
+
+    static boolean toBoolean(Object v) {
+        if (!(v instanceof Boolean)) {
+            throw new EvalException("Expected boolean but got " + typeName(v));
+        }
+        return (Boolean) v;
+    }
+
+    static double toDouble(Object v) {
+        if (!(v instanceof Number)) {
+            throw new EvalException("Expected number but got " + typeName(v));
+        }
+        return ((Number) v).doubleValue();
+    }
+
+    static String toStr(Object v) {
+        if (!(v instanceof String)) {
+            throw new EvalException("Expected string but got " + typeName(v));
+        }
+        return (String) v;
+    }
+
+    /**
+     * @return the number, or NaN if the value is not a number
+     */
+    static double toDoubleOrNaN(Object v) {
+        return v instanceof Number ? ((Number) v).doubleValue() : Double.NaN;
+    }
+
+    /**
+     * Tells a value that cannot be evaluated from a NaN value, both are returned as NaN
+     * by {@link Expr#evalNumber(Object, EvaluationContext)}.
+     * @param n result of evalNumber of the expression
+     * @return true if the expression cannot be evaluated to a number
+     */
+    static <POJO> boolean isError(double n, Expr<POJO> e, POJO pojo, EvaluationContext<POJO> context) {
+        return Double.isNaN(n) && !(e.evalValue(pojo, context) instanceof Number);
+    }
+
+    /**
+     * @return TRUE / FALSE for a boolean value, UNKNOWN for anything else
+     */
+    static TriState toTri(Object v) {
+        return v instanceof Boolean ? TriState.of((Boolean) v) : TriState.UNKNOWN;
+    }
+
+    /**
+     * @return true if the string is a number in the format of numbers in the DSL, e.g. {@code 5} or {@code -2.5}
+     */
+    static boolean isNumber(String s) {
+        int i = s.startsWith("-") ? 1 : 0;
+        int start = i;
+        while (i < s.length() && isDigit(s.charAt(i))) {
+            i++;
+        }
+        if (i == start) {
+            return false;
+        }
+        if (i == s.length()) {
+            return true;
+        }
+        if (s.charAt(i) != '.') {
+            return false;
+        }
+        start = ++i;
+        while (i < s.length() && isDigit(s.charAt(i))) {
+            i++;
+        }
+        return i > start && i == s.length();
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static String typeName(Object v) {
+        return v == null ? "null" : v.getClass().getName();
+    }
+}
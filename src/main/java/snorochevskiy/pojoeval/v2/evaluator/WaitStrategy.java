@@ -0,0 +1,45 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The way a consumer of a {@link RulePipeline} waits for events that are not published yet.
+ * The strategy trades latency for CPU usage of idle consumers.
+ */
+@FunctionalInterface
+public interface WaitStrategy {
+
+    /**
+     * Called repeatedly while the awaited event is not published.
+     * @param attempts number of previous calls while waiting for the same event
+     */
+    void idle(int attempts);
+
+    /**
+     * Spins in a loop: the lowest latency, but the consumer occupies a core all the time.
+     */
+    WaitStrategy BUSY_SPIN = attempts -> {
+    };
+
+    /**
+     * Spins for a while, then yields the core to other threads between checks.
+     */
+    WaitStrategy YIELD = attempts -> {
+        if (attempts > 100) {
+            Thread.yield();
+        }
+    };
+
+    /**
+     * Spins, then yields, then sleeps for up to a millisecond between checks: the least CPU usage,
+     * and the highest latency after an idle period.
+     */
+    WaitStrategy PARK = attempts -> {
+        if (attempts > 200) {
+            LockSupport.parkNanos(Math.min(TimeUnit.MILLISECONDS.toNanos(1), 1000L * (attempts - 200)));
+        } else if (attempts > 100) {
+            Thread.yield();
+        }
+    };
+}
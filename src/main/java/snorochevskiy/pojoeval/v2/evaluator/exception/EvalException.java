@@ -2,14 +2,17 @@ package snorochevskiy.pojoeval.v2.evaluator.exception;
 
 /**
  * Exception occurred during the evaluation on a POJO object.
+ * <p>
+ * Created without a stack trace: evaluation errors are expected on malformed data, and filling in the stack trace
+ * would cost more than the evaluation itself. The cause, if any, keeps its own stack trace.
  */
 public class EvalException extends RuntimeException {
 
     public EvalException(String msg) {
-        super(msg);
+        super(msg, null, false, false);
     }
 
     public EvalException(String msg, Throwable t) {
-        super(msg, t);
+        super(msg, t, false, false);
     }
 }
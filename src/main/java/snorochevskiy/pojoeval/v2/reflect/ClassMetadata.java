@@ -0,0 +1,100 @@
+package snorochevskiy.pojoeval.v2.reflect;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reflective metadata of a class: its getters and the field paths already resolved against it.
+ * Instances are kept in a {@link ClassValue}, so they don't prevent the class from being unloaded.
+ */
+final class ClassMetadata {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final ClassValue<ClassMetadata> METADATA = new ClassValue<ClassMetadata>() {
+        @Override
+        protected ClassMetadata computeValue(Class<?> type) {
+            return new ClassMetadata(type);
+        }
+    };
+
+    private final Class<?> cls;
+    private final Map<String, Method> getters;
+    private final Map<String, MethodHandle> getterHandles = new ConcurrentHashMap<>();
+    private final Map<String, Optional<FieldAccessor>> accessors = new ConcurrentHashMap<>();
+
+    private ClassMetadata(Class<?> cls) {
+        this.cls = cls;
+        Map<String, Method> found = new HashMap<>();
+        for (Method m : cls.getMethods()) {
+            if (m.getParameterCount() != 0 || Modifier.isStatic(m.getModifiers())) {
+                continue;
+            }
+            Method existing = found.get(m.getName());
+            if (existing == null || existing.isBridge()) {
+                found.put(m.getName(), m);
+            }
+        }
+        this.getters = Collections.unmodifiableMap(found);
+    }
+
+    static ClassMetadata of(Class<?> cls) {
+        return METADATA.get(cls);
+    }
+
+    Class<?> getType() {
+        return cls;
+    }
+
+    Optional<Method> getter(String getterName) {
+        return Optional.ofNullable(getters.get(getterName));
+    }
+
+    /**
+     * Returns a handle of type {@code (Object)R} for the getter with given name, or null if there is no such getter
+     * or it's not accessible.
+     */
+    MethodHandle getterHandle(String getterName) {
+        Method m = getters.get(getterName);
+        if (m == null) {
+            return null;
+        }
+        MethodHandle h = getterHandles.get(getterName);
+        if (h == null) {
+            try {
+                if (!m.isAccessible()) {
+                    m.setAccessible(true);
+                }
+            } catch (RuntimeException e) {
+                // not accessible reflectively, unreflect() below decides
+            }
+            try {
+                h = LOOKUP.unreflect(m);
+            } catch (IllegalAccessException e) {
+                return null;
+            }
+            h = h.asType(h.type().changeParameterType(0, Object.class));
+            getterHandles.put(getterName, h);
+        }
+        return h;
+    }
+
+    Optional<FieldAccessor> accessor(String fieldPath) {
+        Optional<FieldAccessor> accessor = accessors.get(fieldPath);
+        if (accessor == null) {
+            accessor = FieldAccessor.resolve(this, fieldPath);
+            Optional<FieldAccessor> existing = accessors.putIfAbsent(fieldPath, accessor);
+            if (existing != null) {
+                accessor = existing;
+            }
+        }
+        return accessor;
+    }
+}
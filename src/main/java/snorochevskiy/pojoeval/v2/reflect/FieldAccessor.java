@@ -0,0 +1,234 @@
+package snorochevskiy.pojoeval.v2.reflect;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Dot-separated field path resolved against a class into a chain of getter method handles.
+ * <p>
+ * Accessors are created once per (class, path) by {@link ReflectionUtils#getFieldAccessor(Class, String)}
+ * and then read values without any name lookups. If a nested field cannot be resolved against the declared type
+ * of its owner (e.g. getter declared to return {@code Object}), the rest of the path is resolved against
+ * the runtime class of the owner on access, the same way it's done for the root object.
+ */
+public final class FieldAccessor {
+
+    /**
+     * Returned by {@link #get(Object)} when the value cannot be read:
+     * the target or some intermediate object is null, or a getter has thrown an exception.
+     */
+    public static final Object UNDEFINED = new Object() {
+        @Override
+        public String toString() {
+            return "UNDEFINED";
+        }
+    };
+
+    private static final MethodHandle CHECK_NOT_NULL;
+    private static final MethodHandle UNDEFINED_VALUE;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            CHECK_NOT_NULL = lookup.findStatic(FieldAccessor.class, "checkNotNull",
+                    methodType(Object.class, String.class, Object.class));
+            UNDEFINED_VALUE = lookup.findStatic(FieldAccessor.class, "undefinedValue",
+                    methodType(Object.class, String.class, Throwable.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Class<?> rootClass;
+    private final String fieldPath;
+    private final MethodHandle[] getters;
+    private final MethodHandle[] objectGetters;
+    private final String dynamicTail;
+    private final Class<?> type;
+    private final MethodHandle handle;
+    private final MethodHandle doubleHandle;
+
+    private FieldAccessor(Class<?> rootClass, String fieldPath, MethodHandle[] getters, String dynamicTail) {
+        this.rootClass = rootClass;
+        this.fieldPath = fieldPath;
+        this.getters = getters;
+        this.objectGetters = new MethodHandle[getters.length];
+        for (int i = 0; i < getters.length; i++) {
+            objectGetters[i] = getters[i].asType(methodType(Object.class, Object.class));
+        }
+        this.dynamicTail = dynamicTail;
+        this.type = dynamicTail == null ? getters[getters.length - 1].type().returnType() : Object.class;
+        this.handle = dynamicTail == null ? chain() : null;
+        this.doubleHandle = handle != null && ReflectionUtils.isNumPrimitive(type)
+                ? handle.asType(methodType(double.class, Object.class))
+                : null;
+    }
+
+    static Optional<FieldAccessor> resolve(ClassMetadata root, String fieldPath) {
+        String[] segments = splitPath(fieldPath);
+        MethodHandle[] getters = new MethodHandle[segments.length];
+        ClassMetadata current = root;
+        for (int i = 0; i < segments.length; i++) {
+            MethodHandle getter = current.getterHandle(ReflectionUtils.getter(segments[i]));
+            if (getter == null) {
+                if (i == 0 || Modifier.isFinal(current.getType().getModifiers())) {
+                    return Optional.empty();
+                }
+                MethodHandle[] resolved = new MethodHandle[i];
+                System.arraycopy(getters, 0, resolved, 0, i);
+                String tail = String.join(".", Arrays.copyOfRange(segments, i, segments.length));
+                return Optional.of(new FieldAccessor(root.getType(), fieldPath, resolved, tail));
+            }
+            getters[i] = getter;
+            Class<?> returnType = getter.type().returnType();
+            if (i < segments.length - 1) {
+                if (returnType.isPrimitive()) {
+                    return Optional.empty();
+                }
+                current = ClassMetadata.of(returnType);
+            }
+        }
+        return Optional.of(new FieldAccessor(root.getType(), fieldPath, getters, null));
+    }
+
+    /**
+     * Class the path was resolved against. Accessor can be used for instances of this class and its subclasses.
+     */
+    public Class<?> getRootClass() {
+        return rootClass;
+    }
+
+    public String getFieldPath() {
+        return fieldPath;
+    }
+
+    /**
+     * Declared type of the field, or Object if it is only known at runtime.
+     */
+    public Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * @return true if the field is of numeric primitive type and can be read with {@link #getDouble(Object)}
+     */
+    public boolean isNumericPrimitive() {
+        return doubleHandle != null;
+    }
+
+    /**
+     * Reads the field value.
+     * @param target instance of the root class
+     * @return the value (possibly null), or {@link #UNDEFINED} if it cannot be read
+     */
+    public Object get(Object target) {
+        Object v = target;
+        for (MethodHandle getter : objectGetters) {
+            if (v == null) {
+                return UNDEFINED;
+            }
+            try {
+                v = (Object) getter.invokeExact(v);
+            } catch (Throwable t) {
+                return UNDEFINED;
+            }
+        }
+        if (dynamicTail != null) {
+            if (v == null) {
+                return UNDEFINED;
+            }
+            Optional<FieldAccessor> tail = ReflectionUtils.getFieldAccessor(v.getClass(), dynamicTail);
+            return tail.isPresent() ? tail.get().get(v) : UNDEFINED;
+        }
+        return v;
+    }
+
+    /**
+     * Reads the value of a numeric primitive field without boxing.
+     * @param target instance of the root class
+     * @throws UndefinedFieldValueException if the value cannot be read
+     * @throws IllegalStateException if the field is not of numeric primitive type
+     */
+    public double getDouble(Object target) {
+        if (doubleHandle == null) {
+            throw new IllegalStateException("Field '" + fieldPath + "' is not of numeric primitive type");
+        }
+        try {
+            return (double) doubleHandle.invokeExact(target);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndefinedFieldValueException(fieldPath, t);
+        }
+    }
+
+    /**
+     * Returns the getter chain as a single method handle of type {@code (Object)R}, where R is {@link #getType()}.
+     * The handle throws {@link UndefinedFieldValueException} when the value cannot be read.
+     * @return the handle, or null if the path is partially resolved at runtime
+     */
+    public MethodHandle getHandle() {
+        return handle;
+    }
+
+    private MethodHandle chain() {
+        MethodHandle chain = getters[0];
+        for (int i = 1; i < getters.length; i++) {
+            MethodHandle checkNotNull = MethodHandles.insertArguments(CHECK_NOT_NULL, 0, fieldPath);
+            MethodHandle getter = MethodHandles.filterArguments(getters[i], 0, checkNotNull);
+            chain = MethodHandles.filterReturnValue(chain.asType(chain.type().changeReturnType(Object.class)), getter);
+        }
+        MethodHandle first = MethodHandles.filterArguments(chain, 0,
+                MethodHandles.insertArguments(CHECK_NOT_NULL, 0, fieldPath));
+        MethodType type = first.type();
+        MethodHandle handler = MethodHandles.insertArguments(UNDEFINED_VALUE, 0, fieldPath);
+        handler = MethodHandles.dropArguments(handler, 1, Object.class)
+                .asType(methodType(type.returnType(), Throwable.class, Object.class));
+        return MethodHandles.catchException(first, Throwable.class, handler);
+    }
+
+    private static Object checkNotNull(String fieldPath, Object v) {
+        if (v == null) {
+            throw new UndefinedFieldValueException(fieldPath, null);
+        }
+        return v;
+    }
+
+    private static Object undefinedValue(String fieldPath, Throwable t) {
+        if (t instanceof UndefinedFieldValueException) {
+            throw (UndefinedFieldValueException) t;
+        }
+        throw new UndefinedFieldValueException(fieldPath, t);
+    }
+
+    private static String[] splitPath(String fieldPath) {
+        int count = 1;
+        for (int i = 0; i < fieldPath.length(); i++) {
+            if (fieldPath.charAt(i) == '.') {
+                count++;
+            }
+        }
+        String[] segments = new String[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = fieldPath.indexOf('.', start);
+            if (end < 0) {
+                end = fieldPath.length();
+            }
+            segments[i] = fieldPath.substring(start, end);
+            start = end + 1;
+        }
+        return segments;
+    }
+
+    @Override
+    public String toString() {
+        return "FieldAccessor{" + rootClass.getName() + "." + fieldPath + "}";
+    }
+}
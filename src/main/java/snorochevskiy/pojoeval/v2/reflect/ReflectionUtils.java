@@ -3,13 +3,20 @@ package snorochevskiy.pojoeval.v2.reflect;
 import snorochevskiy.pojoeval.v2.evaluator.ExprResType;
 import snorochevskiy.pojoeval.v2.util.Opt;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Optional;
-import java.util.function.BiFunction;
 
+/**
+ * Reflective access to POJO fields via their getters.
+ * <p>
+ * Getters of each class and field paths resolved against it are cached in a {@link ClassValue},
+ * so repeated lookups don't scan class methods or parse paths again, and cached data doesn't prevent
+ * classes from being unloaded.
+ */
 public class ReflectionUtils {
 
     private static final Class[] NUM_PRIMITIVES = new Class[]{
@@ -29,12 +36,18 @@ public class ReflectionUtils {
      * @return
      */
     public static Optional<Class<?>> getFieldPathType(Class<?> cls, String fieldName) {
-
-        BiFunction<Optional<Class<?>>, String, Optional<Class<?>>> reducer =
-                (opCls, name) -> opCls.flatMap((Class<?> c) -> ReflectionUtils.getFieldType(c, name));
-
-        return Arrays.stream(fieldName.split("\\."))
-                .reduce(Optional.ofNullable(cls), reducer, (a,b) -> a);
+        Optional<Class<?>> type = Optional.ofNullable(cls);
+        int start = 0;
+        while (type.isPresent()) {
+            int end = fieldName.indexOf('.', start);
+            String name = fieldName.substring(start, end < 0 ? fieldName.length() : end);
+            type = type.flatMap(c -> getFieldType(c, name));
+            if (end < 0) {
+                break;
+            }
+            start = end + 1;
+        }
+        return type;
     }
 
 
@@ -43,28 +56,48 @@ public class ReflectionUtils {
     }
 
     public static Optional<Class<?>> getFieldType(Class cls, String fieldName) {
-        String requiredGetter = getter(fieldName);
-        return Arrays.stream(cls.getMethods())
-                .filter(m -> requiredGetter.equals(m.getName()) && m.getParameterCount() == 0)
-                .findAny()
+        return getGetterMethod(cls, fieldName)
                 .map(Method::getReturnType);
     }
 
     public static Optional<ExprResType> getFieldExprType(Class cls, String fieldName) {
-        String requiredGetter = getter(fieldName);
-        return Arrays.stream(cls.getMethods())
-                .filter(m -> requiredGetter.equals(m.getName()) && m.getParameterCount() == 0)
-                .findAny()
-                .map(m-> toExprType(m.getReturnType()));
+        return getFieldPathType(cls, fieldName)
+                .map(ReflectionUtils::toExprType);
     }
 
-    public static <T> Opt<Object> getFieldPathValue(T t, String fieldName) {
+    /**
+     * Searches for a public no-argument getter method for a field with given name.
+     *
+     * @param cls
+     * @param fieldName
+     * @return
+     */
+    public static Optional<Method> getGetterMethod(Class<?> cls, String fieldName) {
+        return ClassMetadata.of(cls).getter(getter(fieldName));
+    }
 
-        BiFunction<Opt<Object>, String, Opt<Object>> reducer =
-                (optObj, name) -> optObj.flatMapNonNullable((Object o) -> ReflectionUtils.getFieldValueOpt(o, name));
+    /**
+     * Returns an accessor that reads the field with given dot-separated path from instances of given class.
+     * Accessors are resolved once and cached per class.
+     *
+     * @param cls
+     * @param fieldPath
+     * @return accessor, or empty if the class has no such field
+     */
+    public static Optional<FieldAccessor> getFieldAccessor(Class<?> cls, String fieldPath) {
+        return ClassMetadata.of(cls).accessor(fieldPath);
+    }
 
-        return Arrays.stream(fieldName.split("\\."))
-                .reduce(Opt.of(t), reducer, (a,b) -> a);
+    public static <T> Opt<Object> getFieldPathValue(T t, String fieldName) {
+        if (t == null) {
+            return Opt.empty();
+        }
+        Optional<FieldAccessor> accessor = getFieldAccessor(t.getClass(), fieldName);
+        if (!accessor.isPresent()) {
+            return Opt.empty();
+        }
+        Object v = accessor.get().get(t);
+        return v == FieldAccessor.UNDEFINED ? Opt.empty() : Opt.of(v);
     }
 
     public static <T> Object getFieldValueOrNull(T t, String fieldName) {
@@ -87,20 +120,19 @@ public class ReflectionUtils {
             throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
         String requiredGetter = getter(fieldName);
 
-        Method m = t.getClass().getMethod(requiredGetter);
-        if (!m.isAccessible()) {
-            m.setAccessible(true);
+        MethodHandle h = ClassMetadata.of(t.getClass()).getterHandle(requiredGetter);
+        if (h == null) {
+            throw new NoSuchMethodException(t.getClass().getName() + "." + requiredGetter + "()");
         }
 
-        Object v = m.invoke(t);
-        if (v instanceof String) {
-            return (String)v;
-        } else {
-            return v;
+        try {
+            return (Object) h.asType(h.type().changeReturnType(Object.class)).invokeExact((Object) t);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
         }
     }
 
-    private static String getter(String fieldName) {
+    static String getter(String fieldName) {
         return "get" + fieldName.substring(0,1).toUpperCase() + fieldName.substring(1);
     }
 
@@ -118,7 +150,11 @@ public class ReflectionUtils {
         }
     }
 
+    static boolean isNumPrimitive(Class<?> cls) {
+        return Arrays.asList(NUM_PRIMITIVES).contains(cls);
+    }
+
     private static boolean isNumType(Class<?> cls) {
-        return Arrays.asList(NUM_PRIMITIVES).contains(cls) || Number.class.isAssignableFrom(cls);
+        return isNumPrimitive(cls) || Number.class.isAssignableFrom(cls);
     }
 }
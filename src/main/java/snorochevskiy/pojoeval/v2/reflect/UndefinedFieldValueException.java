@@ -0,0 +1,12 @@
+package snorochevskiy.pojoeval.v2.reflect;
+
+/**
+ * Thrown when a field value cannot be read: the target or some intermediate object in the field path is null,
+ * or a getter has thrown an exception. Created without a stack trace, as it's a normal outcome for sparse objects.
+ */
+public class UndefinedFieldValueException extends RuntimeException {
+
+    public UndefinedFieldValueException(String fieldPath, Throwable cause) {
+        super("Unable to get field '" + fieldPath + "' value", cause, false, false);
+    }
+}
@@ -0,0 +1,186 @@
+package snorochevskiy.pojoeval.v2.util;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Aho-Corasick automaton that finds which of many substrings a text contains, in a single pass over the text.
+ * <p>
+ * Patterns are matched by chars, the same way as {@link String#contains(CharSequence)} does.
+ * Each pattern is identified by its index: the order in which it was added to the builder.
+ */
+public final class AhoCorasick implements Serializable {
+
+    /**
+     * Transition chars of each state, sorted, and target states of the transitions.
+     */
+    private final char[][] chars;
+    private final int[][] targets;
+    private final int[] fail;
+    /**
+     * Indexes of patterns that end in each state, including the ones reached via failure links.
+     */
+    private final int[][] outputs;
+    private final int patternCount;
+
+    private AhoCorasick(char[][] chars, int[][] targets, int[] fail, int[][] outputs, int patternCount) {
+        this.chars = chars;
+        this.targets = targets;
+        this.fail = fail;
+        this.outputs = outputs;
+        this.patternCount = patternCount;
+    }
+
+    /**
+     * Passes indexes of patterns that occur in the text to the consumer.
+     * A pattern is reported once for each place it occurs in, so it can be reported several times.
+     */
+    public void search(CharSequence text, IntConsumer consumer) {
+        report(0, consumer);
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, text.charAt(i));
+            report(state, consumer);
+        }
+    }
+
+    /**
+     * Passes indexes of patterns that occur in the text to the consumer, each pattern once.
+     */
+    public void searchDistinct(CharSequence text, IntConsumer consumer) {
+        searchDistinct(text, new BitSet(patternCount), consumer);
+    }
+
+    /**
+     * Same as {@link #searchDistinct(CharSequence, IntConsumer)}, but keeps track of reported patterns
+     * in the given set, so that a caller can reuse one set for many searches, clearing it in between.
+     * @param found patterns that are not reported, reported patterns are added to it
+     */
+    public void searchDistinct(CharSequence text, BitSet found, IntConsumer consumer) {
+        search(text, p -> {
+            if (!found.get(p)) {
+                found.set(p);
+                consumer.accept(p);
+            }
+        });
+    }
+
+    /**
+     * @return number of patterns in the automaton
+     */
+    public int size() {
+        return patternCount;
+    }
+
+    private void report(int state, IntConsumer consumer) {
+        for (int p : outputs[state]) {
+            consumer.accept(p);
+        }
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int i = Arrays.binarySearch(chars[state], c);
+            if (i >= 0) {
+                return targets[state][i];
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = fail[state];
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private final List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        private final List<List<Integer>> ends = new ArrayList<>();
+        private int patternCount;
+
+        private Builder() {
+            newState();
+        }
+
+        /**
+         * Adds a pattern, which gets the next index starting from 0.
+         * @return index of the pattern
+         */
+        public int add(String pattern) {
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                Integer next = trie.get(state).get(pattern.charAt(i));
+                if (next == null) {
+                    next = newState();
+                    trie.get(state).put(pattern.charAt(i), next);
+                }
+                state = next;
+            }
+            ends.get(state).add(patternCount);
+            return patternCount++;
+        }
+
+        public AhoCorasick build() {
+            int n = trie.size();
+            char[][] chars = new char[n][];
+            int[][] targets = new int[n][];
+            int[] fail = new int[n];
+            int[][] outputs = new int[n][];
+            Deque<Integer> queue = new ArrayDeque<>();
+            outputs[0] = toArray(ends.get(0));
+            queue.add(0);
+            // breadth-first, so failure links of shorter prefixes are known
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                TreeMap<Character, Integer> edges = trie.get(state);
+                chars[state] = new char[edges.size()];
+                targets[state] = new int[edges.size()];
+                int i = 0;
+                for (Map.Entry<Character, Integer> e : edges.entrySet()) {
+                    char c = e.getKey();
+                    int child = e.getValue();
+                    chars[state][i] = c;
+                    targets[state][i] = child;
+                    i++;
+                    if (state == 0) {
+                        fail[child] = 0;
+                    } else {
+                        int f = fail[state];
+                        while (f != 0 && !trie.get(f).containsKey(c)) {
+                            f = fail[f];
+                        }
+                        Integer t = trie.get(f).get(c);
+                        fail[child] = t != null ? t : 0;
+                    }
+                    List<Integer> out = new ArrayList<>(ends.get(child));
+                    for (int p : outputs[fail[child]]) {
+                        out.add(p);
+                    }
+                    outputs[child] = toArray(out);
+                    queue.add(child);
+                }
+            }
+            return new AhoCorasick(chars, targets, fail, outputs, patternCount);
+        }
+
+        private int newState() {
+            trie.add(new TreeMap<>());
+            ends.add(new ArrayList<>());
+            return trie.size() - 1;
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            return list.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+}
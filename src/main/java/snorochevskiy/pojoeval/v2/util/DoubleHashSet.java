@@ -0,0 +1,137 @@
+package snorochevskiy.pojoeval.v2.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Set of primitive doubles with open addressing and linear probing, so lookups don't box the value.
+ * <p>
+ * Values are compared the same way as with {@code ==}: {@code -0.0} and {@code 0.0} are the same value,
+ * and NaN is never contained in the set.
+ */
+public final class DoubleHashSet implements Serializable {
+
+    /**
+     * Marks a free cell. NaN is never stored, and {@link Double#doubleToLongBits(double)}
+     * always returns the same bits for NaN, so no stored value has these bits.
+     */
+    private static final long FREE = Double.doubleToLongBits(Double.NaN);
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] cells;
+    private int shift;
+    private int size;
+
+    public DoubleHashSet() {
+        this(8);
+    }
+
+    public DoubleHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    /**
+     * @return true if the value was added, false if it was already in the set or is NaN
+     */
+    public boolean add(double value) {
+        if (Double.isNaN(value)) {
+            return false;
+        }
+        long bits = bits(value);
+        int i = index(bits);
+        while (cells[i] != FREE) {
+            if (cells[i] == bits) {
+                return false;
+            }
+            i = (i + 1) & (cells.length - 1);
+        }
+        cells[i] = bits;
+        size++;
+        if (size > cells.length * LOAD_FACTOR) {
+            rehash(cells.length << 1);
+        }
+        return true;
+    }
+
+    public boolean contains(double value) {
+        long bits = bits(value);
+        int i = index(bits);
+        long cell;
+        while ((cell = cells[i]) != FREE) {
+            if (cell == bits) {
+                return true;
+            }
+            i = (i + 1) & (cells.length - 1);
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return values of the set in ascending order
+     */
+    public double[] toSortedArray() {
+        double[] values = new double[size];
+        int n = 0;
+        for (long cell : cells) {
+            if (cell != FREE) {
+                values[n++] = Double.longBitsToDouble(cell);
+            }
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private void allocate(int capacity) {
+        cells = new long[capacity];
+        Arrays.fill(cells, FREE);
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    private void rehash(int capacity) {
+        long[] old = cells;
+        allocate(capacity);
+        for (long cell : old) {
+            if (cell != FREE) {
+                int i = index(cell);
+                while (cells[i] != FREE) {
+                    i = (i + 1) & (cells.length - 1);
+                }
+                cells[i] = cell;
+            }
+        }
+    }
+
+    private int index(long bits) {
+        // Fibonacci hashing spreads values that differ only in high (exponent) bits
+        return (int) ((bits * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private static long bits(double value) {
+        return Double.doubleToLongBits(value == 0.0 ? 0.0 : value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof DoubleHashSet && Arrays.equals(toSortedArray(), ((DoubleHashSet) o).toSortedArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toSortedArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toSortedArray());
+    }
+}
@@ -0,0 +1,219 @@
+package snorochevskiy.pojoeval.v2.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Static centered interval tree over intervals of doubles, each labeled with an int.
+ * Finds all intervals that contain a point in {@code O(log n + m)} time, where m is the number of found intervals.
+ * <p>
+ * Each bound of an interval can be open or closed, and can be infinite (a closed infinite bound contains the infinity). Every node keeps the intervals
+ * that contain its center point, sorted by lower bound and by upper bound; intervals entirely to the left
+ * or to the right of the center go to the child nodes.
+ */
+public final class IntervalTree implements Serializable {
+
+    private final Node root;
+    private final int size;
+
+    private IntervalTree(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Passes labels of all intervals that contain the point to the consumer. NaN is not contained in any interval.
+     */
+    public void stab(double x, IntConsumer consumer) {
+        if (Double.isNaN(x)) {
+            return;
+        }
+        Node node = root;
+        while (node != null) {
+            if (x < node.center) {
+                for (int i = 0; i < node.lo.length && admitsFromBelow(node.lo[i], node.loClosed[i], x); i++) {
+                    consumer.accept(node.loLabels[i]);
+                }
+                node = node.left;
+            } else if (x > node.center) {
+                for (int i = 0; i < node.hi.length && admitsFromAbove(node.hi[i], node.hiClosed[i], x); i++) {
+                    consumer.accept(node.hiLabels[i]);
+                }
+                node = node.right;
+            } else {
+                for (int label : node.loLabels) {
+                    consumer.accept(label);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return number of intervals in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return true if the interval doesn't contain any double value
+     */
+    public static boolean isEmpty(double lo, boolean loClosed, double hi, boolean hiClosed) {
+        if (Double.isNaN(lo) || Double.isNaN(hi) || lo > hi) {
+            return true;
+        }
+        if (lo == hi) {
+            return !loClosed || !hiClosed;
+        }
+        return !loClosed && !hiClosed && Math.nextUp(lo) == hi;
+    }
+
+    private static boolean admitsFromBelow(double lo, boolean closed, double x) {
+        return lo < x || closed && lo == x;
+    }
+
+    private static boolean admitsFromAbove(double hi, boolean closed, double x) {
+        return hi > x || closed && hi == x;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private final List<Interval> intervals = new ArrayList<>();
+
+        /**
+         * Adds an interval, empty intervals are ignored.
+         * @param label value the interval is reported with when it contains a point
+         * @return
+         */
+        public Builder add(double lo, boolean loClosed, double hi, boolean hiClosed, int label) {
+            if (!isEmpty(lo, loClosed, hi, hiClosed)) {
+                intervals.add(new Interval(lo, loClosed, hi, hiClosed, label));
+            }
+            return this;
+        }
+
+        public IntervalTree build() {
+            return new IntervalTree(build(intervals), intervals.size());
+        }
+
+        private static Node build(List<Interval> intervals) {
+            if (intervals.isEmpty()) {
+                return null;
+            }
+            intervals.sort(BY_LO);
+            double center = intervals.get(intervals.size() / 2).innerPoint();
+            List<Interval> left = new ArrayList<>();
+            List<Interval> right = new ArrayList<>();
+            List<Interval> here = new ArrayList<>();
+            for (Interval i : intervals) {
+                if (i.contains(center)) {
+                    here.add(i);
+                } else if (i.hi < center || i.hi == center) {
+                    left.add(i);
+                } else {
+                    right.add(i);
+                }
+            }
+            // the interval the center is taken from always stays in the node, so children are smaller
+            return new Node(center, here, build(left), build(right));
+        }
+    }
+
+    /**
+     * Lower bounds in ascending order, a closed bound goes before an open one with the same value.
+     */
+    private static final Comparator<Interval> BY_LO = (a, b) -> a.lo != b.lo
+            ? Double.compare(a.lo, b.lo)
+            : Boolean.compare(b.loClosed, a.loClosed);
+
+    /**
+     * Upper bounds in descending order, a closed bound goes before an open one with the same value.
+     */
+    private static final Comparator<Interval> BY_HI_DESC = (a, b) -> a.hi != b.hi
+            ? Double.compare(b.hi, a.hi)
+            : Boolean.compare(b.hiClosed, a.hiClosed);
+
+    private static final class Interval {
+        final double lo;
+        final boolean loClosed;
+        final double hi;
+        final boolean hiClosed;
+        final int label;
+
+        Interval(double lo, boolean loClosed, double hi, boolean hiClosed, int label) {
+            this.lo = lo;
+            this.loClosed = loClosed;
+            this.hi = hi;
+            this.hiClosed = hiClosed;
+            this.label = label;
+        }
+
+        boolean contains(double x) {
+            return admitsFromBelow(lo, loClosed, x) && admitsFromAbove(hi, hiClosed, x);
+        }
+
+        /**
+         * @return some point of a non-empty interval
+         */
+        double innerPoint() {
+            if (loClosed) {
+                return lo;
+            }
+            if (hiClosed) {
+                return hi;
+            }
+            if (lo == Double.NEGATIVE_INFINITY) {
+                return hi == Double.POSITIVE_INFINITY ? 0.0 : Math.nextDown(hi);
+            }
+            return Math.nextUp(lo);
+        }
+    }
+
+    private static final class Node implements Serializable {
+        final double center;
+        final double[] lo;
+        final boolean[] loClosed;
+        final int[] loLabels;
+        final double[] hi;
+        final boolean[] hiClosed;
+        final int[] hiLabels;
+        final Node left;
+        final Node right;
+
+        Node(double center, List<Interval> intervals, Node left, Node right) {
+            this.center = center;
+            this.left = left;
+            this.right = right;
+            int n = intervals.size();
+            lo = new double[n];
+            loClosed = new boolean[n];
+            loLabels = new int[n];
+            hi = new double[n];
+            hiClosed = new boolean[n];
+            hiLabels = new int[n];
+            intervals.sort(BY_LO);
+            for (int i = 0; i < n; i++) {
+                lo[i] = intervals.get(i).lo;
+                loClosed[i] = intervals.get(i).loClosed;
+                loLabels[i] = intervals.get(i).label;
+            }
+            intervals.sort(BY_HI_DESC);
+            for (int i = 0; i < n; i++) {
+                hi[i] = intervals.get(i).hi;
+                hiClosed[i] = intervals.get(i).hiClosed;
+                hiLabels[i] = intervals.get(i).label;
+            }
+        }
+    }
+}
@@ -0,0 +1,853 @@
+package snorochevskiy.pojoeval.v2.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.IntConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * Set of regular expressions that are matched against a text together, in a single pass over the text.
+ * <p>
+ * Expressions are compiled into one NFA, which is turned into a DFA lazily: a DFA state is built the first time
+ * the text leads to it, and is cached for later texts. Each expression is either matched against the whole text
+ * (like {@link java.util.regex.Matcher#matches()}) or searched in the text (like {@link java.util.regex.Matcher#find()}).
+ * <p>
+ * Only the regular subset of {@link Pattern} syntax is supported: literals and escaped chars, {@code .},
+ * character classes without intersections, predefined classes {@code \d \w \s} and their negations, groups,
+ * alternation, greedy and lazy quantifiers, {@code ^} at the start of a searched expression and {@code $} at the end
+ * of a matched one. Expressions with other constructs (back references, lookarounds, flags, possessive quantifiers,
+ * boundaries, ...) are rejected by {@link Builder#add(String, boolean)}, and should be matched with {@link Pattern}.
+ * <p>
+ * Texts with surrogate chars, and texts evaluated after the DFA has grown to its size limit,
+ * are matched with {@link Pattern}, so results are always the same as with {@link Pattern}.
+ */
+public final class MultiRegex implements Serializable {
+
+    /**
+     * Maximum number of cached DFA states.
+     */
+    static final int MAX_DFA_STATES = 10_000;
+    /**
+     * Maximum number of NFA states of a single expression, e.g. {@code (a|b){1000}} is rejected.
+     */
+    private static final int MAX_NFA_STATES = 10_000;
+
+    private final String[] regexes;
+    private final boolean[] fullMatch;
+    private transient Pattern[] patterns;
+    private transient Automaton automaton;
+
+    private MultiRegex(String[] regexes, boolean[] fullMatch) {
+        this.regexes = regexes;
+        this.fullMatch = fullMatch;
+        init();
+    }
+
+    /**
+     * Passes indexes of the expressions that match the text to the consumer, each expression once.
+     */
+    public void match(CharSequence text, IntConsumer consumer) {
+        match(text, new BitSet(regexes.length), consumer);
+    }
+
+    /**
+     * Same as {@link #match(CharSequence, IntConsumer)}, but keeps track of reported expressions
+     * in the given set, so that a caller can reuse one set for many texts, clearing it in between.
+     * @param found expressions that are not reported, reported expressions are added to it
+     */
+    public void match(CharSequence text, BitSet found, IntConsumer consumer) {
+        if (!hasSurrogates(text) && automaton.run(text, found, consumer)) {
+            return;
+        }
+        for (int i = 0; i < patterns.length; i++) {
+            if (!found.get(i) && (fullMatch[i] ? patterns[i].matcher(text).matches() : patterns[i].matcher(text).find())) {
+                found.set(i);
+                consumer.accept(i);
+            }
+        }
+    }
+
+    /**
+     * @return number of expressions in the set
+     */
+    public int size() {
+        return regexes.length;
+    }
+
+    /**
+     * @return number of DFA states built so far
+     */
+    int dfaSize() {
+        return automaton.dfaSize();
+    }
+
+    private static boolean hasSurrogates(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isSurrogate(text.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void init() {
+        this.patterns = new Pattern[regexes.length];
+        Nfa nfa = new Nfa(Integer.MAX_VALUE);
+        int[] starts = new int[regexes.length];
+        boolean[] anchored = new boolean[regexes.length];
+        for (int i = 0; i < regexes.length; i++) {
+            patterns[i] = Pattern.compile(regexes[i]);
+            Parser parser = new Parser(regexes[i], fullMatch[i]);
+            Node node = parser.parse();
+            starts[i] = node.compile(nfa, nfa.match(i));
+            anchored[i] = fullMatch[i] || parser.anchoredStart;
+        }
+        this.automaton = new Automaton(nfa, starts, anchored, fullMatch);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private final List<String> regexes = new ArrayList<>();
+        private final List<Boolean> fullMatch = new ArrayList<>();
+
+        private Builder() {
+
+        }
+
+        /**
+         * Adds an expression, which gets the next index starting from 0, if it is supported.
+         * @param regex expression in {@link Pattern} syntax
+         * @param fullMatch true if the expression should match the whole text, false if it is searched in the text
+         * @return index of the expression, or -1 if the expression is not supported
+         */
+        public int add(String regex, boolean fullMatch) {
+            try {
+                Pattern.compile(regex);
+                new Parser(regex, fullMatch).parse().compile(new Nfa(MAX_NFA_STATES), 0);
+            } catch (RuntimeException e) {
+                return -1;
+            }
+            regexes.add(regex);
+            this.fullMatch.add(fullMatch);
+            return regexes.size() - 1;
+        }
+
+        public MultiRegex build() {
+            boolean[] full = new boolean[fullMatch.size()];
+            for (int i = 0; i < full.length; i++) {
+                full[i] = fullMatch.get(i);
+            }
+            return new MultiRegex(regexes.toArray(new String[0]), full);
+        }
+    }
+
+    /**
+     * Thrown by the parser for syntax outside of the supported subset.
+     */
+    private static final class UnsupportedRegexException extends RuntimeException {
+        UnsupportedRegexException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Sets of chars, as sorted disjoint inclusive ranges {@code [lo0, hi0, lo1, hi1, ...]}.
+     */
+    private static final class CharRanges {
+        static final int[] DIGIT = {'0', '9'};
+        static final int[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+        static final int[] SPACE = {'\t', '\r', ' ', ' '};
+        // any char except line terminators: LF, CR, U+0085, U+2028, U+2029
+        static final int[] DOT = complement(of('\n', '\r', 0x85, 0x2028, 0x2029));
+
+        static int[] of(int... chars) {
+            TreeSet<Integer> set = new TreeSet<>();
+            for (int c : chars) {
+                set.add(c);
+            }
+            List<int[]> ranges = new ArrayList<>();
+            for (int c : set) {
+                ranges.add(new int[] {c, c});
+            }
+            return normalize(ranges);
+        }
+
+        static int[] union(int[] a, int[] b) {
+            List<int[]> ranges = new ArrayList<>();
+            for (int i = 0; i < a.length; i += 2) {
+                ranges.add(new int[] {a[i], a[i + 1]});
+            }
+            for (int i = 0; i < b.length; i += 2) {
+                ranges.add(new int[] {b[i], b[i + 1]});
+            }
+            return normalize(ranges);
+        }
+
+        static int[] complement(int[] a) {
+            List<int[]> ranges = new ArrayList<>();
+            int from = 0;
+            for (int i = 0; i < a.length; i += 2) {
+                if (a[i] > from) {
+                    ranges.add(new int[] {from, a[i] - 1});
+                }
+                from = a[i + 1] + 1;
+            }
+            if (from <= Character.MAX_VALUE) {
+                ranges.add(new int[] {from, Character.MAX_VALUE});
+            }
+            return normalize(ranges);
+        }
+
+        static boolean contains(int[] ranges, int c) {
+            for (int i = 0; i < ranges.length && ranges[i] <= c; i += 2) {
+                if (c <= ranges[i + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int[] normalize(List<int[]> ranges) {
+            ranges.sort((x, y) -> Integer.compare(x[0], y[0]));
+            List<int[]> merged = new ArrayList<>();
+            for (int[] r : ranges) {
+                int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+                if (last != null && r[0] <= last[1] + 1) {
+                    last[1] = Math.max(last[1], r[1]);
+                } else {
+                    merged.add(new int[] {r[0], r[1]});
+                }
+            }
+            int[] result = new int[merged.size() * 2];
+            for (int i = 0; i < merged.size(); i++) {
+                result[2 * i] = merged.get(i)[0];
+                result[2 * i + 1] = merged.get(i)[1];
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Parsed expression.
+     */
+    private abstract static class Node {
+        /**
+         * Adds NFA states of the node that lead to the given next state.
+         * @return start state of the node
+         */
+        abstract int compile(Nfa nfa, int next);
+    }
+
+    private static final class CharNode extends Node {
+        final int[] ranges;
+
+        CharNode(int[] ranges) {
+            this.ranges = ranges;
+        }
+
+        @Override
+        int compile(Nfa nfa, int next) {
+            return nfa.chars(ranges, next);
+        }
+    }
+
+    private static final class ConcatNode extends Node {
+        final List<Node> nodes;
+
+        ConcatNode(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        int compile(Nfa nfa, int next) {
+            for (int i = nodes.size() - 1; i >= 0; i--) {
+                next = nodes.get(i).compile(nfa, next);
+            }
+            return next;
+        }
+    }
+
+    private static final class AltNode extends Node {
+        final List<Node> branches;
+
+        AltNode(List<Node> branches) {
+            this.branches = branches;
+        }
+
+        @Override
+        int compile(Nfa nfa, int next) {
+            int[] starts = new int[branches.size()];
+            for (int i = 0; i < starts.length; i++) {
+                starts[i] = branches.get(i).compile(nfa, next);
+            }
+            return nfa.split(starts);
+        }
+    }
+
+    private static final class RepeatNode extends Node {
+        final Node node;
+        final int min;
+        /**
+         * -1 if unbounded.
+         */
+        final int max;
+
+        RepeatNode(Node node, int min, int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        int compile(Nfa nfa, int next) {
+            int start = next;
+            if (max < 0) {
+                int loop = nfa.split();
+                nfa.setSplit(loop, node.compile(nfa, loop), next);
+                start = loop;
+            } else {
+                for (int i = min; i < max; i++) {
+                    start = nfa.split(node.compile(nfa, start), next);
+                }
+            }
+            for (int i = 0; i < min; i++) {
+                start = node.compile(nfa, start);
+            }
+            return start;
+        }
+    }
+
+    /**
+     * Recursive descent parser of the supported subset of {@link Pattern} syntax.
+     */
+    private static final class Parser {
+        private final String regex;
+        private final boolean fullMatch;
+        private int pos;
+        boolean anchoredStart;
+
+        Parser(String regex, boolean fullMatch) {
+            this.regex = regex;
+            this.fullMatch = fullMatch;
+        }
+
+        Node parse() {
+            if (regex.startsWith("^")) {
+                anchoredStart = true;
+                pos = 1;
+            }
+            List<Node> branches = parseBranches();
+            if (pos != regex.length()) {
+                throw new UnsupportedRegexException("Unexpected '" + regex.charAt(pos) + "'");
+            }
+            if (anchoredStart && branches.size() > 1) {
+                // '^' applies only to the first branch
+                throw new UnsupportedRegexException("Anchor in alternation");
+            }
+            return branches.size() == 1 ? branches.get(0) : new AltNode(branches);
+        }
+
+        private List<Node> parseBranches() {
+            List<Node> branches = new ArrayList<>();
+            branches.add(parseConcat());
+            while (peek() == '|') {
+                pos++;
+                branches.add(parseConcat());
+            }
+            return branches;
+        }
+
+        private Node parseConcat() {
+            List<Node> nodes = new ArrayList<>();
+            while (pos < regex.length() && peek() != '|' && peek() != ')') {
+                if (peek() == '$') {
+                    if (!fullMatch || pos != regex.length() - 1) {
+                        throw new UnsupportedRegexException("'$' is supported only at the end of matched expression");
+                    }
+                    // the whole text is matched, so the end anchor always holds
+                    pos++;
+                    continue;
+                }
+                nodes.add(parseRepeat());
+            }
+            return new ConcatNode(nodes);
+        }
+
+        private Node parseRepeat() {
+            Node node = parseAtom();
+            if (!isQuantifier(peek())) {
+                return node;
+            }
+            int min;
+            int max;
+            char c = regex.charAt(pos++);
+            if (c == '*') {
+                min = 0;
+                max = -1;
+            } else if (c == '+') {
+                min = 1;
+                max = -1;
+            } else if (c == '?') {
+                min = 0;
+                max = 1;
+            } else {
+                min = parseInt();
+                max = min;
+                if (peek() == ',') {
+                    pos++;
+                    max = peek() == '}' ? -1 : parseInt();
+                }
+                expect('}');
+                if (max >= 0 && max < min) {
+                    throw new UnsupportedRegexException("Bad repetition");
+                }
+            }
+            if (peek() == '?') {
+                // lazy quantifiers match the same texts
+                pos++;
+            } else if (peek() == '+') {
+                throw new UnsupportedRegexException("Possessive quantifier");
+            }
+            if (isQuantifier(peek())) {
+                // Pattern doesn't repeat the repetition, e.g. in .{1,2}{2}
+                throw new UnsupportedRegexException("Quantifier after quantifier");
+            }
+            return new RepeatNode(node, min, max);
+        }
+
+        private static boolean isQuantifier(char c) {
+            return c == '*' || c == '+' || c == '?' || c == '{';
+        }
+
+        private Node parseAtom() {
+            char c = regex.charAt(pos++);
+            switch (c) {
+                case '(':
+                    if (peek() == '?') {
+                        if (pos + 1 < regex.length() && regex.charAt(pos + 1) == ':') {
+                            pos += 2;
+                        } else {
+                            throw new UnsupportedRegexException("Special group");
+                        }
+                    }
+                    List<Node> branches = parseBranches();
+                    expect(')');
+                    return branches.size() == 1 ? branches.get(0) : new AltNode(branches);
+                case '[':
+                    return new CharNode(parseClass());
+                case '.':
+                    return new CharNode(CharRanges.DOT);
+                case '\\':
+                    return new CharNode(parseEscape(false));
+                case '^':
+                case '$':
+                case ')':
+                case ']':
+                case '{':
+                case '}':
+                case '*':
+                case '+':
+                case '?':
+                case '|':
+                    throw new UnsupportedRegexException("Unexpected '" + c + "'");
+                default:
+                    return new CharNode(literal(c));
+            }
+        }
+
+        private int[] parseClass() {
+            boolean negate = false;
+            if (peek() == '^') {
+                negate = true;
+                pos++;
+            }
+            if (peek() == ']') {
+                throw new UnsupportedRegexException("Empty class");
+            }
+            int[] ranges = new int[0];
+            while (peek() != ']') {
+                char c = regex.charAt(pos++);
+                if (c == '[' || c == '&' && peek() == '&') {
+                    throw new UnsupportedRegexException("Nested class");
+                }
+                int[] item;
+                int lo;
+                if (c == '\\') {
+                    item = parseEscape(true);
+                    lo = item.length == 2 && item[0] == item[1] ? item[0] : -1;
+                } else {
+                    item = literal(c);
+                    lo = c;
+                }
+                if (lo >= 0 && peek() == '-' && pos + 1 < regex.length() && regex.charAt(pos + 1) != ']') {
+                    pos++;
+                    char h = regex.charAt(pos++);
+                    int hi;
+                    if (h == '\\') {
+                        int[] e = parseEscape(true);
+                        if (e.length != 2 || e[0] != e[1]) {
+                            throw new UnsupportedRegexException("Bad range");
+                        }
+                        hi = e[0];
+                    } else if (h == '[') {
+                        throw new UnsupportedRegexException("Nested class");
+                    } else {
+                        hi = h;
+                    }
+                    if (hi < lo) {
+                        throw new UnsupportedRegexException("Bad range");
+                    }
+                    item = new int[] {lo, hi};
+                }
+                ranges = CharRanges.union(ranges, item);
+            }
+            pos++;
+            return negate ? CharRanges.complement(ranges) : ranges;
+        }
+
+        private int[] parseEscape(boolean inClass) {
+            if (pos >= regex.length()) {
+                throw new UnsupportedRegexException("Dangling escape");
+            }
+            char c = regex.charAt(pos++);
+            switch (c) {
+                case 'd': return CharRanges.DIGIT;
+                case 'D': return CharRanges.complement(CharRanges.DIGIT);
+                case 'w': return CharRanges.WORD;
+                case 'W': return CharRanges.complement(CharRanges.WORD);
+                case 's': return CharRanges.SPACE;
+                case 'S': return CharRanges.complement(CharRanges.SPACE);
+                case 't': return literal('\t');
+                case 'n': return literal('\n');
+                case 'r': return literal('\r');
+                case 'f': return literal('\f');
+                case 'a': return literal('\u0007');
+                case 'e': return literal('\u001B');
+                case 'x': return literal(parseHex(2));
+                case 'u': return literal(parseHex(4));
+                default:
+                    if (Character.isLetterOrDigit(c) || c >= 128) {
+                        throw new UnsupportedRegexException("Escape \\" + c);
+                    }
+                    return literal(c);
+            }
+        }
+
+        private int parseHex(int digits) {
+            if (pos + digits > regex.length()) {
+                throw new UnsupportedRegexException("Bad hex escape");
+            }
+            int v = Integer.parseInt(regex.substring(pos, pos + digits), 16);
+            pos += digits;
+            return v;
+        }
+
+        private int parseInt() {
+            int start = pos;
+            while (pos < regex.length() && Character.isDigit(regex.charAt(pos))) {
+                pos++;
+            }
+            if (start == pos || pos - start > 4) {
+                throw new UnsupportedRegexException("Bad repetition");
+            }
+            return Integer.parseInt(regex.substring(start, pos));
+        }
+
+        private static int[] literal(int c) {
+            if (Character.isSurrogate((char) c)) {
+                throw new UnsupportedRegexException("Surrogate char");
+            }
+            return new int[] {c, c};
+        }
+
+        private char peek() {
+            return pos < regex.length() ? regex.charAt(pos) : '\0';
+        }
+
+        private void expect(char c) {
+            if (peek() != c || pos >= regex.length()) {
+                throw new UnsupportedRegexException("Expected '" + c + "'");
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Thompson NFA of all expressions. A state either consumes a char from a set, or splits into several states
+     * without consuming input, or accepts an expression.
+     */
+    private static final class Nfa {
+        final List<int[]> charSets = new ArrayList<>();
+        final List<int[]> outs = new ArrayList<>();
+        final List<Integer> accepts = new ArrayList<>();
+        final int limit;
+
+        Nfa(int limit) {
+            this.limit = limit;
+        }
+
+        int chars(int[] ranges, int next) {
+            return add(ranges, new int[] {next}, -1);
+        }
+
+        int split(int... next) {
+            return add(null, next, -1);
+        }
+
+        void setSplit(int state, int... next) {
+            outs.set(state, next);
+        }
+
+        int match(int expression) {
+            return add(null, new int[0], expression);
+        }
+
+        int size() {
+            return outs.size();
+        }
+
+        private int add(int[] ranges, int[] next, int accept) {
+            if (outs.size() >= limit) {
+                throw new UnsupportedRegexException("Expression is too large");
+            }
+            charSets.add(ranges);
+            outs.add(next);
+            accepts.add(accept);
+            return outs.size() - 1;
+        }
+    }
+
+    /**
+     * DFA over classes of chars that no NFA state distinguishes, built from the NFA on demand.
+     * <p>
+     * Transitions are read without locking: a missing transition is built under the lock,
+     * and states are published with final fields, so a thread sees either null or a complete state.
+     */
+    private static final class Automaton {
+        private final int[][] charSets;
+        private final int[][] outs;
+        private final int[] accepts;
+        private final boolean[] fullMatch;
+        /**
+         * Lower bounds of the char classes, the first one is 0.
+         */
+        private final int[] classStarts;
+        private final int[] asciiClasses = new int[128];
+        /**
+         * Closure of the starts of searched expressions that are not anchored,
+         * added to every state so that they can start at any position.
+         */
+        private final int[] floating;
+        private final DState start;
+        private final Map<StateKey, DState> states = new HashMap<>();
+
+        Automaton(Nfa nfa, int[] starts, boolean[] anchored, boolean[] fullMatch) {
+            int n = nfa.size();
+            this.charSets = nfa.charSets.toArray(new int[n][]);
+            this.outs = nfa.outs.toArray(new int[n][]);
+            this.accepts = nfa.accepts.stream().mapToInt(Integer::intValue).toArray();
+            this.fullMatch = fullMatch;
+
+            TreeSet<Integer> bounds = new TreeSet<>();
+            bounds.add(0);
+            for (int[] set : charSets) {
+                if (set != null) {
+                    for (int i = 0; i < set.length; i += 2) {
+                        bounds.add(set[i]);
+                        if (set[i + 1] < Character.MAX_VALUE) {
+                            bounds.add(set[i + 1] + 1);
+                        }
+                    }
+                }
+            }
+            this.classStarts = bounds.stream().mapToInt(Integer::intValue).toArray();
+            for (int c = 0; c < asciiClasses.length; c++) {
+                asciiClasses[c] = classOfSlow(c);
+            }
+
+            BitSet floatingSet = new BitSet(n);
+            BitSet startSet = new BitSet(n);
+            for (int i = 0; i < starts.length; i++) {
+                closure(starts[i], startSet);
+                if (!anchored[i]) {
+                    closure(starts[i], floatingSet);
+                }
+            }
+            this.floating = floatingSet.stream().toArray();
+            this.start = state(startSet);
+        }
+
+        int dfaSize() {
+            synchronized (states) {
+                return states.size();
+            }
+        }
+
+        /**
+         * Runs the DFA over the text, and reports expressions that match it and are not found yet.
+         * @return false if the DFA has reached its size limit, then the text is not processed completely
+         */
+        boolean run(CharSequence text, BitSet found, IntConsumer consumer) {
+            DState s = start;
+            report(s.searchAccepts, found, consumer);
+            for (int i = 0; i < text.length() && !s.dead; i++) {
+                int cls = classOf(text.charAt(i));
+                DState t = s.next[cls];
+                if (t == null) {
+                    t = transition(s, cls);
+                    if (t == null) {
+                        return false;
+                    }
+                }
+                s = t;
+                report(s.searchAccepts, found, consumer);
+            }
+            report(s.matchAccepts, found, consumer);
+            return true;
+        }
+
+        private static void report(int[] expressions, BitSet found, IntConsumer consumer) {
+            for (int e : expressions) {
+                if (!found.get(e)) {
+                    found.set(e);
+                    consumer.accept(e);
+                }
+            }
+        }
+
+        private int classOf(char c) {
+            return c < asciiClasses.length ? asciiClasses[c] : classOfSlow(c);
+        }
+
+        private int classOfSlow(int c) {
+            int i = Arrays.binarySearch(classStarts, c);
+            return i >= 0 ? i : -i - 2;
+        }
+
+        private DState transition(DState s, int cls) {
+            synchronized (states) {
+                DState t = s.next[cls];
+                if (t != null) {
+                    return t;
+                }
+                if (states.size() >= MAX_DFA_STATES) {
+                    return null;
+                }
+                int c = classStarts[cls];
+                BitSet target = new BitSet(outs.length);
+                for (int nfaState : s.nfaStates) {
+                    int[] set = charSets[nfaState];
+                    if (set != null && CharRanges.contains(set, c)) {
+                        closure(outs[nfaState][0], target);
+                    }
+                }
+                for (int f : floating) {
+                    target.set(f);
+                }
+                t = state(target);
+                s.next[cls] = t;
+                return t;
+            }
+        }
+
+        /**
+         * Adds the state and states reachable from it without consuming input.
+         * Only states that consume input or accept are kept, splits are not needed after the closure.
+         */
+        private void closure(int state, BitSet result) {
+            BitSet visited = new BitSet(outs.length);
+            List<Integer> stack = new ArrayList<>();
+            stack.add(state);
+            while (!stack.isEmpty()) {
+                int s = stack.remove(stack.size() - 1);
+                if (visited.get(s)) {
+                    continue;
+                }
+                visited.set(s);
+                if (charSets[s] != null || accepts[s] >= 0) {
+                    result.set(s);
+                } else {
+                    for (int o : outs[s]) {
+                        stack.add(o);
+                    }
+                }
+            }
+        }
+
+        private DState state(BitSet nfaStates) {
+            StateKey key = new StateKey(nfaStates.stream().toArray());
+            DState s = states.get(key);
+            if (s == null) {
+                s = new DState(key.nfaStates, accepts, fullMatch, classStarts.length);
+                states.put(key, s);
+            }
+            return s;
+        }
+    }
+
+    private static final class StateKey {
+        final int[] nfaStates;
+        final int hash;
+
+        StateKey(int[] nfaStates) {
+            this.nfaStates = nfaStates;
+            this.hash = Arrays.hashCode(nfaStates);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateKey && Arrays.equals(nfaStates, ((StateKey) o).nfaStates);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class DState {
+        final int[] nfaStates;
+        /**
+         * Searched expressions found at this state.
+         */
+        final int[] searchAccepts;
+        /**
+         * Expressions that match the whole text if the text ends at this state.
+         */
+        final int[] matchAccepts;
+        final DState[] next;
+        final boolean dead;
+
+        DState(int[] nfaStates, int[] accepts, boolean[] fullMatch, int classCount) {
+            this.nfaStates = nfaStates;
+            List<Integer> search = new ArrayList<>();
+            List<Integer> match = new ArrayList<>();
+            for (int s : nfaStates) {
+                int e = accepts[s];
+                if (e >= 0) {
+                    (fullMatch[e] ? match : search).add(e);
+                }
+            }
+            this.searchAccepts = search.stream().mapToInt(Integer::intValue).toArray();
+            this.matchAccepts = match.stream().mapToInt(Integer::intValue).toArray();
+            this.next = new DState[classCount];
+            this.dead = nfaStates.length == 0;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsgs;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchEvaluationTest {
+
+    private static final String[] RULES = new String[] {
+            " level > 3 ",
+            " level * 2 - 1 <= 7 AND fqdn = 'device1.dc1.myisp.com' ",
+            " NOT (level >= 2) OR message contains 'Panic' ",
+            " level = 5 OR level != 2 AND interfaceName in ['Eth1', 'Eth2'] ",
+            " level in [1, 3, 6] AND NOT message contains 'Calm' ",
+            " fqdn matches 'device2\\..*' OR level % 3 = 0 ",
+            " level != 0 AND 10 / level < 3 ",
+            " 10 / level < 3 ",
+            " fqdn contains 'dc2' ",
+    };
+
+    private static List<NetDeviceInfoMsg> messages(boolean withNulls) {
+        return NetDeviceInfoMsgs.combinations(withNulls ? null : "x");
+    }
+
+    @Test
+    public void testSameResultsAsSingleEvaluation() {
+        for (boolean withNulls : new boolean[] {false, true}) {
+            List<NetDeviceInfoMsg> messages = messages(withNulls);
+            for (String rule : RULES) {
+                for (int mode = 0; mode < 4; mode++) {
+                    Evaluator<NetDeviceInfoMsg, Boolean> evaluator = build(rule, mode);
+                    BitSet expected = new BitSet();
+                    EvalException expectedError = null;
+                    for (int i = 0; i < messages.size(); i++) {
+                        try {
+                            if (evaluator.test(messages.get(i))) {
+                                expected.set(i);
+                            }
+                        } catch (EvalException e) {
+                            expectedError = e;
+                        }
+                    }
+                    try {
+                        BitSet actual = evaluator.evaluateBatch(messages);
+                        Assert.assertNull(rule, expectedError);
+                        Assert.assertEquals(rule, expected, actual);
+                    } catch (EvalException e) {
+                        Assert.assertNotNull(rule, expectedError);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testArrayBatch() {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = build(" level > 3 AND interfaceName = 'Eth1' ", 0);
+        NetDeviceInfoMsg[] messages = new NetDeviceInfoMsg[] {
+                new NetDeviceInfoMsg("a", "Eth1", "Calm", 4),
+                new NetDeviceInfoMsg("a", "Eth2", "Calm", 4),
+                new NetDeviceInfoMsg("a", "Eth1", "Calm", 3),
+                new NetDeviceInfoMsg("a", "Eth1", "Calm", 7),
+        };
+        BitSet result = new BitSet();
+        result.set(100);
+        evaluator.evaluateBatch(messages, result);
+        Assert.assertArrayEquals(new int[] {0, 3}, result.stream().toArray());
+    }
+
+    @Test
+    public void testOperandsEvaluatedOnlyOnUndecidedRows() {
+        AtomicInteger calls = new AtomicInteger();
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(
+                " level > 5 OR expensive = 'Panic' ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .withFieldExtractor("expensive", msg -> {
+                    calls.incrementAndGet();
+                    return msg.getMessage();
+                })
+                .buildBoolEvaluator();
+        List<NetDeviceInfoMsg> messages = messages(false);
+        BitSet result = evaluator.evaluateBatch(messages);
+
+        int undecided = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            NetDeviceInfoMsg msg = messages.get(i);
+            undecided += msg.getLevel() > 5 ? 0 : 1;
+            Assert.assertEquals(msg.getLevel() > 5 || "Panic".equals(msg.getMessage()), result.get(i));
+        }
+        Assert.assertEquals(undecided, calls.get());
+    }
+
+    @Test
+    public void testUnknownAs() {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(" 10 / level < 3 ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .unknownAs(true)
+                .buildBoolEvaluator();
+        List<NetDeviceInfoMsg> messages = new ArrayList<>();
+        for (int level = 0; level < 6; level++) {
+            messages.add(new NetDeviceInfoMsg("a", "Eth1", "Calm", level));
+        }
+        Assert.assertArrayEquals(new int[] {0, 4, 5}, evaluator.evaluateBatch(messages).stream().toArray());
+    }
+
+    @Test(expected = EvalException.class)
+    public void testNonBooleanRule() {
+        Evaluator.<NetDeviceInfoMsg>createForRule(" level + 1 ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .build()
+                .evaluateBatch(messages(false));
+    }
+
+    private static Evaluator<NetDeviceInfoMsg, Boolean> build(String rule, int mode) {
+        Evaluator.Builder<NetDeviceInfoMsg> b = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                .validateAgainstClass(NetDeviceInfoMsg.class);
+        switch (mode) {
+            case 1: b.compileToBytecode(); break;
+            case 2: b.compileToBdd(); break;
+            case 3: b.adaptiveReordering(); break;
+        }
+        return b.buildBoolEvaluator();
+    }
+}
@@ -0,0 +1,206 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsgs;
+
+import java.util.List;
+
+public class BddTest {
+
+    private static final List<NetDeviceInfoMsg> MESSAGES = NetDeviceInfoMsgs.combinations((String) null);
+
+    private static final String[] RULES = new String[] {
+            " fqdn = 'device1.dc1.myisp.com' AND level > 3 ",
+            " level > 3 AND fqdn = 'device1.dc1.myisp.com' ",
+            " (level > 3 OR message contains 'Panic') AND (interfaceName = 'Eth1' OR level > 3) ",
+            " NOT (level > 3) OR NOT (fqdn contains 'dc2') ",
+            " (interfaceName = 'Eth1' AND level < 2) OR (interfaceName = 'Eth2' AND level < 2) OR level = 7 ",
+            " message contains 'Panic' AND (level > 5 OR level < 2) AND NOT (interfaceName = 'Eth3') ",
+            " fqdn contains 'dc1' OR interfaceName in ['Eth2', 'Eth3'] AND message matches 'P.*' ",
+            " level > 3 AND NOT (level > 3) ",
+            " level > 3 OR NOT (level > 3) ",
+    };
+
+    @Test
+    public void testSameResultsAsTree() {
+        for (String rule : RULES) {
+            Evaluator<NetDeviceInfoMsg, Boolean> tree = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .buildBoolEvaluator();
+            Evaluator<NetDeviceInfoMsg, Boolean> bdd = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .compileToBdd()
+                    .buildBoolEvaluator();
+            Evaluator<NetDeviceInfoMsg, Boolean> compiledBdd = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .compileToBdd()
+                    .compileToBytecode()
+                    .buildBoolEvaluator();
+            for (NetDeviceInfoMsg msg : MESSAGES) {
+                String expected = result(tree, msg);
+                Assert.assertEquals(rule + " on " + msg, expected, result(bdd, msg));
+                Assert.assertEquals(rule + " on " + msg, expected, result(compiledBdd, msg));
+                Assert.assertEquals(tree.evaluateTri(msg), bdd.evaluateTri(msg));
+            }
+        }
+    }
+
+    @Test
+    public void testRuleSetSameResultsAsTree() {
+        RuleSet.Builder<NetDeviceInfoMsg> plain = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .indexConditions(false);
+        RuleSet.Builder<NetDeviceInfoMsg> bdd = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compileToBdd();
+        RuleSet.Builder<NetDeviceInfoMsg> compiledBdd = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compileToBdd()
+                .compileToBytecode();
+        for (int i = 0; i < RULES.length; i++) {
+            plain.addRule(i, RULES[i]);
+            bdd.addRule(i, RULES[i]);
+            compiledBdd.addRule(i, RULES[i]);
+        }
+        RuleSet<NetDeviceInfoMsg> plainSet = plain.build();
+        RuleSet<NetDeviceInfoMsg> bddSet = bdd.build();
+        RuleSet<NetDeviceInfoMsg> compiledBddSet = compiledBdd.build();
+        Assert.assertEquals(0, plainSet.getBddNodeCount());
+        Assert.assertTrue(bddSet.getBddNodeCount() > 0);
+
+        for (NetDeviceInfoMsg msg : MESSAGES) {
+            Assert.assertEquals(plainSet.match(msg), bddSet.match(msg));
+            Assert.assertEquals(plainSet.match(msg), compiledBddSet.match(msg));
+        }
+    }
+
+    @Test
+    public void testNodeCount() {
+        Assert.assertEquals(2, nodeCount(" fqdn = 'a' AND level > 3 "));
+        Assert.assertEquals(2, nodeCount(" (fqdn = 'a' AND level > 3) OR (level > 3 AND fqdn = 'a') "));
+        Assert.assertEquals(1, nodeCount(" level > 3 OR level > 3 AND fqdn = 'a' "));
+        Assert.assertEquals(0, nodeCount(" level > 3 AND NOT (level > 3) "));
+        Assert.assertEquals(0, Evaluator.<NetDeviceInfoMsg>createForRule(" fqdn = 'a' AND level > 3 ")
+                .buildBoolEvaluator()
+                .getBddNodeCount());
+    }
+
+    @Test
+    public void testRulesShareNodes() {
+        RuleSet<NetDeviceInfoMsg> one = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compileToBdd()
+                .addRule(0, " fqdn = 'a' AND level > 3 ")
+                .build();
+        Assert.assertEquals(2, one.getBddNodeCount());
+
+        RuleSet<NetDeviceInfoMsg> same = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compileToBdd()
+                .addRule(0, " fqdn = 'a' AND level > 3 ")
+                .addRule(1, " level > 3 AND fqdn = 'a' ")
+                .build();
+        Assert.assertEquals(2, same.getBddNodeCount());
+
+        // the OR rule has its own root node and shares the node of level > 3 with the AND rule
+        RuleSet<NetDeviceInfoMsg> shared = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compileToBdd()
+                .addRule(0, " fqdn = 'a' AND level > 3 ")
+                .addRule(1, " fqdn = 'a' OR level > 3 ")
+                .build();
+        Assert.assertEquals(3, shared.getBddNodeCount());
+        Assert.assertArrayEquals(new int[] {0, 1}, shared.matchingIds(new NetDeviceInfoMsg("a", "Eth1", "", 4)));
+        Assert.assertArrayEquals(new int[] {1}, shared.matchingIds(new NetDeviceInfoMsg("a", "Eth1", "", 3)));
+        Assert.assertArrayEquals(new int[] {1}, shared.matchingIds(new NetDeviceInfoMsg("b", "Eth1", "", 4)));
+        Assert.assertArrayEquals(new int[0], shared.matchingIds(new NetDeviceInfoMsg("b", "Eth1", "", 3)));
+    }
+
+    @Test
+    public void testFailedConditionFallsBackToTree() {
+        // the diagram evaluates level > 3 first in both rules, the tree doesn't evaluate it for fqdn = 'b'
+        RuleSet<NetDeviceInfoMsg> ruleSet = RuleSet.<NetDeviceInfoMsg>builder()
+                .compileToBdd()
+                .withFieldExtractor("lvl", msg -> msg.getLevel() < 0 ? "bad" : (Object) (double) msg.getLevel())
+                .addRule(0, " lvl > 3 AND fqdn = 'a' ")
+                .addRule(1, " fqdn = 'b' OR lvl > 3 ")
+                .build();
+        Assert.assertArrayEquals(new int[] {1}, ruleSet.matchingIds(new NetDeviceInfoMsg("b", "Eth1", "", -1)));
+        Assert.assertArrayEquals(new int[0], ruleSet.matchingIds(new NetDeviceInfoMsg("a", "Eth1", "", -1)));
+        Assert.assertArrayEquals(new int[] {0, 1}, ruleSet.matchingIds(new NetDeviceInfoMsg("a", "Eth1", "", 4)));
+    }
+
+    @Test
+    public void testRuleWithFailingOperandIsNotInDiagram() {
+        // in the diagram fqdn = 'a' of the first rule would be evaluated first, and the second rule
+        // would match without the division by zero
+        RuleSet<NetDeviceInfoMsg> ruleSet = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compileToBdd()
+                .addRule(0, " fqdn = 'a' ")
+                .addRule(1, " 10 / level > 1 OR fqdn = 'a' ")
+                .build();
+        Assert.assertEquals(1, ruleSet.getBddNodeCount());
+        Assert.assertArrayEquals(new int[] {0}, ruleSet.matchingIds(new NetDeviceInfoMsg("a", "Eth1", "", 0)));
+        Assert.assertArrayEquals(new int[] {0, 1}, ruleSet.matchingIds(new NetDeviceInfoMsg("a", "Eth1", "", 20)));
+
+        Assert.assertEquals(0, nodeCount(" 10 / level > 1 OR fqdn = 'a' "));
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(
+                " 10 / level > 1 OR fqdn = 'a' ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compileToBdd()
+                .buildBoolEvaluator();
+        Assert.assertEquals("error", result(evaluator, new NetDeviceInfoMsg("a", "Eth1", "", 0)));
+    }
+
+    @Test
+    public void testTooLargeDiagramFallsBackToTree() {
+        // with all fqdn conditions ordered before the message ones, the diagram of the pairs grows exponentially
+        StringBuilder any = new StringBuilder();
+        StringBuilder pairs = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            String or = i > 0 ? " OR " : "";
+            any.append(or).append("fqdn = 'a").append(i).append("'");
+            pairs.append(or).append("(fqdn = 'a").append(i).append("' AND message = 'b").append(i).append("')");
+        }
+        RuleSet<NetDeviceInfoMsg> ruleSet = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compileToBdd()
+                .addRule(0, any.toString())
+                .addRule(1, pairs.toString())
+                .build();
+        // only the first rule is in the diagram
+        Assert.assertEquals(20, ruleSet.getBddNodeCount());
+        Assert.assertArrayEquals(new int[] {0, 1}, ruleSet.matchingIds(new NetDeviceInfoMsg("a7", "Eth1", "b7", 1)));
+        Assert.assertArrayEquals(new int[] {0}, ruleSet.matchingIds(new NetDeviceInfoMsg("a7", "Eth1", "b6", 1)));
+        Assert.assertArrayEquals(new int[0], ruleSet.matchingIds(new NetDeviceInfoMsg("a20", "Eth1", "b20", 1)));
+
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(
+                "(" + any + ") AND (" + pairs + ")")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compileToBdd()
+                .buildBoolEvaluator();
+        Assert.assertEquals(0, evaluator.getBddNodeCount());
+        Assert.assertTrue(evaluator.evaluate(new NetDeviceInfoMsg("a7", "Eth1", "b7", 1)));
+        Assert.assertFalse(evaluator.evaluate(new NetDeviceInfoMsg("a7", "Eth1", "b6", 1)));
+    }
+
+    private static int nodeCount(String rule) {
+        return Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compileToBdd()
+                .buildBoolEvaluator()
+                .getBddNodeCount();
+    }
+
+    private static String result(Evaluator<NetDeviceInfoMsg, Boolean> evaluator, NetDeviceInfoMsg msg) {
+        try {
+            return String.valueOf(evaluator.evaluate(msg));
+        } catch (EvalException e) {
+            return "error";
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.Programmer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+public class BytecodeCompilationTest {
+
+    private static final String[] RULES = new String[] {
+            " fqdn = 'device123.dc2.myisp.com' AND level > 2",
+            " fqdn != 'device123.dc2.myisp.com' OR level <= 2",
+            " NOT interfaceName = 'Eth10' ",
+            " message contains 'Panic' AND NOT message contains 'Calm' ",
+            " fqdn contains_regexp 'dc\\d' ",
+            " fqdn matches '^device\\d+\\..*$' ",
+            " interfaceName in ['Eth1', 'Eth10'] ",
+            " level * 2 - 1 >= 9 ",
+            " level % 2 < 1 OR level / 5 > 0.5 ",
+    };
+
+    @Test
+    public void testCompiledGivesSameResultsAsInterpreted() {
+        NetDeviceInfoMsg[] messages = new NetDeviceInfoMsg[] {
+                new NetDeviceInfoMsg("device123.dc2.myisp.com", "Eth10", "Aaaaa! Panic !!!", 5),
+                new NetDeviceInfoMsg("device7.dc1.myisp.com", "Eth1", "Calm", 1),
+                new NetDeviceInfoMsg("router.myisp.com", "Eth2", "Panic", 2),
+        };
+
+        for (String rule : RULES) {
+            Evaluator<NetDeviceInfoMsg, Boolean> interpreted = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .buildBoolEvaluator();
+            Evaluator<NetDeviceInfoMsg, Boolean> compiled = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .compileToBytecode()
+                    .buildBoolEvaluator();
+
+            for (NetDeviceInfoMsg msg : messages) {
+                Assert.assertEquals(rule, interpreted.evaluate(msg), compiled.evaluate(msg));
+            }
+        }
+    }
+
+    @Test
+    public void testCompiledNumberEvaluator() {
+        Evaluator<?, Double> evaluator = Evaluator.createForRule("5 + 5.0 * 2")
+                .compileToBytecode()
+                .buildNumberEvaluator();
+
+        Assert.assertEquals(ExprResType.NUM, evaluator.getExpectedResultType());
+        Assert.assertEquals(15.0, evaluator.evaluate(null), 0.0);
+    }
+
+    @Test
+    public void testCompiledWithoutFieldsValidation() {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(" level > 2 ")
+                .compileToBytecode()
+                .buildBoolEvaluator();
+
+        Assert.assertTrue(evaluator.evaluate(new NetDeviceInfoMsg("a", "b", "c", 3)));
+        Assert.assertFalse(evaluator.evaluate(new NetDeviceInfoMsg("a", "b", "c", 1)));
+    }
+
+    @Test
+    public void testCompiledWithExtractorAndContext() {
+        String rule = " fullName = 'John Doe' AND grade = 'Junior' ";
+        Programmer pojo = new Programmer("John", "Doe", "05 10 1970", "Office3-Room10", "Junior",
+                "Software engineer" ,"Bachelor", new ArrayList<>());
+
+        Evaluator<Programmer, Boolean> evaluator = Evaluator.<Programmer>createForRule(rule)
+                .validateAgainstClass(Programmer.class)
+                .withFieldExtractor("fullName", p -> p.getFirstName() + " " + p.getLastName())
+                .compileToBytecode()
+                .buildBoolEvaluator();
+
+        Assert.assertTrue(evaluator.evaluate(pojo));
+
+        EvaluationContext<Programmer> context = new EvaluationContext<>(
+                Collections.singletonMap("grade", p -> "Senior"), null);
+        Assert.assertFalse(evaluator.evaluate(pojo, context));
+    }
+
+    @Test
+    public void testCompiledWithNumericFieldOverriddenByContext() {
+        NetDeviceInfoMsg msg = new NetDeviceInfoMsg("device123.dc2.myisp.com", "Eth10", "Panic", 5);
+        String[] rules = new String[] {" level = 5 ", " level != 5 ", " level != '1' ", " level in [1, 2, 5] "};
+        Object[] overrides = new Object[] {null, "5", 5, 1.0};
+        for (String rule : rules) {
+            Evaluator<NetDeviceInfoMsg, Boolean> interpreted = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .buildBoolEvaluator();
+            Evaluator<NetDeviceInfoMsg, Boolean> compiled = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .compileToBytecode()
+                    .buildBoolEvaluator();
+            Assert.assertEquals(rule, interpreted.evaluate(msg), compiled.evaluate(msg));
+            for (Object override : overrides) {
+                EvaluationContext<NetDeviceInfoMsg> context = new EvaluationContext<>(
+                        Collections.singletonMap("level", m -> override), null);
+                Assert.assertEquals(rule + " with " + override,
+                        result(interpreted, msg, context), result(compiled, msg, context));
+            }
+        }
+
+        RuleSet<NetDeviceInfoMsg> ruleSet = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compileToBytecode()
+                .addRule(0, rules[0])
+                .addRule(1, rules[1])
+                .addRule(2, rules[2])
+                .addRule(3, rules[3])
+                .build();
+        EvaluationContext<NetDeviceInfoMsg> context = new EvaluationContext<>(
+                Collections.singletonMap("level", m -> "5"), null);
+        Assert.assertArrayEquals(new int[] {0, 2}, ruleSet.matchingIds(msg, context));
+        context = new EvaluationContext<>(Collections.singletonMap("level", m -> 2), null);
+        Assert.assertArrayEquals(new int[] {1, 2, 3}, ruleSet.matchingIds(msg, context));
+    }
+
+    @Test(expected = EvalException.class)
+    public void testCompiledFailsOnNullNumericField() {
+        Evaluator<Programmer, Boolean> evaluator = Evaluator.<Programmer>createForRule(" firstName > 2 ")
+                .compileToBytecode()
+                .buildBoolEvaluator();
+
+        evaluator.evaluate(new Programmer(null, "Doe", "05 10 1970", "Office3-Room10", "Junior",
+                "Software engineer" ,"Bachelor", new ArrayList<>()));
+    }
+
+    private static String result(Evaluator<NetDeviceInfoMsg, Boolean> evaluator, NetDeviceInfoMsg msg,
+                                 EvaluationContext<NetDeviceInfoMsg> context) {
+        try {
+            return String.valueOf(evaluator.evaluate(msg, context));
+        } catch (EvalException e) {
+            return "error";
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsgs;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+public class ColumnarEvaluationTest {
+
+    private static final String[] RULES = new String[] {
+            " level > 3 ",
+            " level = 5 ",
+            " level != 2 AND fqdn = 'device1.dc1.myisp.com' ",
+            " level * 2 - 1 <= 7 OR interfaceName in ['Eth1', 'Eth2'] ",
+            " NOT (level >= 2) OR message contains 'Panic' ",
+            " level in [1, 3, 6] AND NOT message = 'Calm' ",
+            " fqdn matches 'device2\\..*' OR level % 3 = 0 ",
+            " level != 0 AND 10 / level < 3 ",
+            " fqdn != 'device2.dc2.myisp.com' AND interfaceName = 'Eth3' ",
+    };
+
+    @Test
+    public void testSameResultsAsPojos() {
+        Random random = new Random(17);
+        int size = 500;
+        int[] levels = new int[size];
+        String[] fqdns = new String[size];
+        String[] interfaces = new String[size];
+        String[] messages = new String[size];
+        List<NetDeviceInfoMsg> pojos = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            levels[i] = random.nextInt(NetDeviceInfoMsgs.LEVELS);
+            fqdns[i] = NetDeviceInfoMsgs.FQDNS[random.nextInt(NetDeviceInfoMsgs.FQDNS.length)];
+            interfaces[i] = NetDeviceInfoMsgs.INTERFACES[random.nextInt(NetDeviceInfoMsgs.INTERFACES.length)];
+            messages[i] = NetDeviceInfoMsgs.TEXTS[random.nextInt(NetDeviceInfoMsgs.TEXTS.length)];
+            pojos.add(new NetDeviceInfoMsg(fqdns[i], interfaces[i], messages[i], levels[i]));
+        }
+        Columns columns = new Columns(size)
+                .add("level", levels)
+                .add("fqdn", fqdns)
+                .add("interfaceName", interfaces)
+                .add("message", messages);
+
+        for (String rule : RULES) {
+            BitSet expected = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .buildBoolEvaluator()
+                    .evaluateBatch(pojos);
+            Assert.assertFalse(rule, expected.isEmpty());
+            BitSet actual = Evaluator.<Object>createForRule(rule).buildBoolEvaluator().evaluateColumns(columns);
+            Assert.assertEquals(rule, expected, actual);
+            BitSet compiled = Evaluator.<Object>createForRule(rule)
+                    .compileToBytecode()
+                    .buildBoolEvaluator()
+                    .evaluateColumns(columns);
+            Assert.assertEquals(rule, expected, compiled);
+        }
+    }
+
+    @Test
+    public void testNumericColumns() {
+        Columns columns = new Columns(4)
+                .add("temperature", new double[] {-1.5, 20.0, 36.6, 41.0})
+                .add("uptime", new long[] {10L, 3_000_000_000L, 7L, 0L})
+                .add("errors", new Object[] {null, 3, 0, 12});
+
+        Assert.assertArrayEquals(new int[] {2, 3},
+                evaluate(" temperature * 2 > 70 ", columns));
+        Assert.assertArrayEquals(new int[] {0, 1},
+                evaluate(" uptime > 1000000000 OR temperature < 0 ", columns));
+        Assert.assertArrayEquals(new int[] {1},
+                evaluate(" temperature = 20 AND uptime != 0 ", columns));
+        Assert.assertArrayEquals(new int[] {0, 3},
+                evaluate(" errors = 'null' OR temperature = 41 ", columns));
+    }
+
+    @Test
+    public void testNullNumberFails() {
+        Columns columns = new Columns(2).add("errors", new Object[] {1, null});
+        Assert.assertArrayEquals(new int[] {0}, evaluate(" errors != 'null' AND errors > 0 ", columns));
+        try {
+            evaluate(" errors > 0 ", columns);
+            Assert.fail();
+        } catch (EvalException e) {
+            // expected
+        }
+        BitSet result = Evaluator.<Object>createForRule(" errors > 0 ")
+                .unknownAs(false)
+                .buildBoolEvaluator()
+                .evaluateColumns(columns);
+        Assert.assertArrayEquals(new int[] {0}, result.stream().toArray());
+    }
+
+    @Test(expected = EvalException.class)
+    public void testMissingColumn() {
+        evaluate(" level > 3 AND fqdn = 'a' ", new Columns(1).add("level", new int[] {4}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testColumnOfWrongLength() {
+        new Columns(3).add("level", new int[] {1, 2});
+    }
+
+    private static int[] evaluate(String rule, Columns columns) {
+        return Evaluator.<Object>createForRule(rule).buildBoolEvaluator().evaluateColumns(columns).stream().toArray();
+    }
+}
@@ -0,0 +1,136 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsgs;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExprInternerTest {
+
+    private static final List<NetDeviceInfoMsg> MESSAGES = NetDeviceInfoMsgs.combinations((String) null);
+
+    private static final String[] RULES = new String[] {
+            " fqdn contains 'dc1' AND level > 3 ",
+            " level > 3 AND fqdn contains 'dc1' ",
+            " fqdn contains 'dc1' OR message matches 'P.*' ",
+            " interfaceName matches 'P.*' OR message matches 'P.*' ",
+            " NOT (level > 3) AND level * 2 < 12 ",
+            " level * 2 < 12 OR fqdn = 'device2.dc2.myisp.com' ",
+            " 10 / level > 3 AND level < 5 ",
+            " level < 5 AND 10 / level > 3 ",
+    };
+
+    @Test
+    public void testRulesShareNodes() {
+        FieldSlots slots = new FieldSlots();
+        ExprInterner<NetDeviceInfoMsg> interner = new ExprInterner<>(slots);
+        Expr<NetDeviceInfoMsg> r1 = build(" fqdn contains 'dc1' AND level > 3 ", slots, interner);
+        Expr<NetDeviceInfoMsg> r2 = build(" level > 3 OR fqdn contains 'dc1' ", slots, interner);
+        Expr<NetDeviceInfoMsg> r3 = build(" fqdn contains 'dc1' AND level > 3 ", slots, interner);
+
+        List<Expr<NetDeviceInfoMsg>> and = ((AndExpr<NetDeviceInfoMsg>) r1).operands;
+        List<Expr<NetDeviceInfoMsg>> or = ((OrExpr<NetDeviceInfoMsg>) r2).operands;
+        Assert.assertSame(and.get(0), or.get(1));
+        Assert.assertSame(and.get(1), or.get(0));
+        Assert.assertSame(r1, r3);
+        Assert.assertTrue(and.get(0) instanceof SharedExpr);
+    }
+
+    @Test
+    public void testPatternsShared() {
+        FieldSlots slots = new FieldSlots();
+        ExprInterner<NetDeviceInfoMsg> interner = new ExprInterner<>(slots);
+        Expr<NetDeviceInfoMsg> r1 = build(" fqdn matches 'dc\\d' ", slots, interner);
+        Expr<NetDeviceInfoMsg> r2 = build(" message contains_regexp 'dc\\d' ", slots, interner);
+
+        MatchExpr<NetDeviceInfoMsg> match = (MatchExpr<NetDeviceInfoMsg>) SharedExpr.unwrap(r1);
+        ContainsRegexpExpr<NetDeviceInfoMsg> find = (ContainsRegexpExpr<NetDeviceInfoMsg>) SharedExpr.unwrap(r2);
+        Assert.assertSame(match.pattern, find.pattern);
+    }
+
+    @Test
+    public void testSharedConditionEvaluatedOnce() {
+        AtomicInteger calls = new AtomicInteger();
+        FieldSlots slots = new FieldSlots();
+        FieldExpr<NetDeviceInfoMsg> field = new FieldExpr<>("msg", slots, ExprResType.STR, msg -> {
+            calls.incrementAndGet();
+            return msg.getMessage();
+        }, false, null);
+        SharedExpr<NetDeviceInfoMsg> condition = new SharedExpr<>(new StrContainsExpr<>(field, new LiteralExpr<>("an")), slots);
+        NetDeviceInfoMsg msg = new NetDeviceInfoMsg("a", "b", "Panic", 1);
+
+        slots.seal();
+        EvalFrame<NetDeviceInfoMsg> frame = EvalFrame.begin(slots.size(), null);
+        Assert.assertTrue(condition.evalBoolean(msg, frame));
+        Assert.assertTrue(condition.evalBoolean(msg, frame));
+        frame.end();
+        Assert.assertEquals(2, calls.get());
+
+        slots.reference(condition.slot);
+        slots.seal();
+        frame = EvalFrame.begin(slots.size(), null);
+        Assert.assertTrue(condition.evalBoolean(msg, frame));
+        Assert.assertTrue(condition.evalBoolean(msg, frame));
+        frame.end();
+        Assert.assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testSharedFailureThrownAgain() {
+        RuleSet<NetDeviceInfoMsg> ruleSet = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .indexConditions(false)
+                .addRule(0, " 10 / level > 3 AND level < 5 ")
+                .addRule(1, " level < 5 AND 10 / level > 3 ")
+                .addRule(2, " level < 5 OR 10 / level > 3 ")
+                .build();
+        Assert.assertArrayEquals(new int[] {2}, ruleSet.matchingIds(new NetDeviceInfoMsg("a", "b", "c", 0)));
+        Assert.assertArrayEquals(new int[] {0, 1, 2}, ruleSet.matchingIds(new NetDeviceInfoMsg("a", "b", "c", 2)));
+        Assert.assertArrayEquals(new int[0], ruleSet.matchingIds(new NetDeviceInfoMsg("a", "b", "c", 7)));
+    }
+
+    @Test
+    public void testSameResultsAsWithoutSharing() {
+        RuleSet.Builder<NetDeviceInfoMsg> plain = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .indexConditions(false)
+                .shareExpressions(false);
+        RuleSet.Builder<NetDeviceInfoMsg> shared = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .indexConditions(false);
+        RuleSet.Builder<NetDeviceInfoMsg> compiled = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .indexConditions(false)
+                .compileToBytecode();
+        RuleSet.Builder<NetDeviceInfoMsg> indexed = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class);
+        for (int i = 0; i < RULES.length; i++) {
+            plain.addRule(i, RULES[i]);
+            shared.addRule(i, RULES[i]);
+            compiled.addRule(i, RULES[i]);
+            indexed.addRule(i, RULES[i]);
+        }
+        RuleSet<NetDeviceInfoMsg> plainSet = plain.build();
+        RuleSet<NetDeviceInfoMsg> sharedSet = shared.build();
+        RuleSet<NetDeviceInfoMsg> compiledSet = compiled.build();
+        RuleSet<NetDeviceInfoMsg> indexedSet = indexed.build();
+
+        for (NetDeviceInfoMsg msg : MESSAGES) {
+            Assert.assertEquals(plainSet.match(msg), sharedSet.match(msg));
+            Assert.assertEquals(plainSet.match(msg), compiledSet.match(msg));
+            Assert.assertEquals(plainSet.match(msg), indexedSet.match(msg));
+        }
+    }
+
+    private static Expr<NetDeviceInfoMsg> build(String rule, FieldSlots slots, ExprInterner<NetDeviceInfoMsg> interner) {
+        return Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .withFieldSlots(slots)
+                .withInterner(interner)
+                .buildBoolEvaluator()
+                .compiled;
+    }
+}
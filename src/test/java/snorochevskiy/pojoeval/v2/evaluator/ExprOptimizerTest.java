@@ -0,0 +1,111 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+
+public class ExprOptimizerTest {
+
+    private static final NetDeviceInfoMsg[] MESSAGES = new NetDeviceInfoMsg[] {
+            new NetDeviceInfoMsg("device123.dc2.myisp.com", "Eth10", "Aaaaa! Panic !!!", 5),
+            new NetDeviceInfoMsg("device7.dc1.myisp.com", "Eth1", "Calm", 1),
+            new NetDeviceInfoMsg("router.myisp.com", "Eth2", "Panic", 7),
+    };
+
+    @Test
+    public void testConstantFolding() {
+        Assert.assertEquals("(level > 6)", explain(" level > 2 * 3 "));
+        Assert.assertEquals("TRUE", explain(" 'abc' contains 'b' OR level > 1 "));
+        Assert.assertEquals("FALSE", explain(" 1 > 2 AND level > 1 "));
+        Assert.assertEquals("(level > 1)", explain(" 10 / 5 = 2 AND level > 1 "));
+    }
+
+    @Test
+    public void testBooleanSimplification() {
+        Assert.assertEquals("(level > 3)", explain(" NOT NOT level > 3 "));
+        Assert.assertEquals("(fqdn = 'a')", explain(" fqdn = 'a' OR fqdn = 'a' "));
+        Assert.assertEquals("((level > 1) AND (level < 5) AND (fqdn = 'a'))",
+                explain(" level > 1 AND (level < 5 AND (fqdn = 'a' AND level > 1)) "));
+        Assert.assertEquals("((fqdn = 'a') OR (fqdn = 'b') OR NOT (level > 1))",
+                explain(" fqdn = 'a' OR (fqdn = 'b' OR NOT level > 1) "));
+    }
+
+    @Test
+    public void testLiteralConversion() {
+        Assert.assertEquals("(level = 5)", explain(" level = '5' "));
+        Assert.assertEquals("(fqdn != 5)", explain(" fqdn != 5 "));
+
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(" level = '5' OR 7 = level ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator();
+
+        Assert.assertTrue(evaluator.evaluate(MESSAGES[0]));
+        Assert.assertFalse(evaluator.evaluate(MESSAGES[1]));
+        Assert.assertTrue(evaluator.evaluate(MESSAGES[2]));
+    }
+
+    @Test
+    public void testOptimizedGivesSameResults() {
+        String[] rules = new String[] {
+                " fqdn = 'device123.dc2.myisp.com' AND (level > 2 AND level > 2) ",
+                " NOT NOT message contains 'Panic' OR interfaceName in ['Eth1'] ",
+                " level * (1 + 1) >= 4 * 2 + 2 ",
+                " fqdn contains_regexp 'dc\\d' AND (2 > 1 OR fqdn matches 'x') ",
+                " level = 5 OR level = 7.0 ",
+                " NOT (level = '5') AND '1' != level ",
+                " fqdn != 5 OR interfaceName = 'Eth10' ",
+        };
+        for (String rule : rules) {
+            Evaluator<NetDeviceInfoMsg, Boolean> plain = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .optimize(false)
+                    .buildBoolEvaluator();
+            Evaluator<NetDeviceInfoMsg, Boolean> optimized = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .buildBoolEvaluator();
+            Evaluator<NetDeviceInfoMsg, Boolean> compiled = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .compileToBytecode()
+                    .buildBoolEvaluator();
+            for (NetDeviceInfoMsg msg : MESSAGES) {
+                Assert.assertEquals(rule, plain.evaluate(msg), optimized.evaluate(msg));
+                Assert.assertEquals(rule, plain.evaluate(msg), compiled.evaluate(msg));
+            }
+        }
+    }
+
+    @Test
+    public void testConstantAfterFailingOperand() {
+        Assert.assertEquals("(((10 / level) > 1) OR TRUE)", explain(" 10 / level > 1 OR 0 < 1 OR fqdn = 'a' "));
+        Assert.assertEquals("TRUE", explain(" 0 < 1 OR 10 / level > 1 "));
+
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(
+                " 10 / level > 1 AND fqdn = 'a' OR 0 < 1 ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator();
+        Assert.assertTrue(evaluator.evaluate(MESSAGES[0]));
+        try {
+            evaluator.evaluate(new NetDeviceInfoMsg("router.myisp.com", "Eth2", "Panic", 0));
+            Assert.fail("Operand before the constant fails");
+        } catch (EvalException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = EvalException.class)
+    public void testDivisionByZeroIsNotFolded() {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(" level > 1 / 0 ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator();
+
+        evaluator.evaluate(MESSAGES[0]);
+    }
+
+    private static String explain(String rule) {
+        return Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .build()
+                .explain();
+    }
+}
@@ -0,0 +1,77 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.Programmer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+public class FieldSlotsTest {
+
+    @Test
+    public void testSlotsAssignedOncePerField() {
+        FieldSlots slots = new FieldSlots();
+
+        Assert.assertEquals(0, slots.slotOf("level"));
+        Assert.assertEquals(1, slots.slotOf("fqdn"));
+        Assert.assertEquals(0, slots.slotOf("level"));
+        Assert.assertEquals(2, slots.size());
+        Assert.assertEquals("fqdn", slots.name(1));
+        Assert.assertEquals(-1, slots.find("other"));
+    }
+
+    @Test
+    public void testExtractorValueKeepsItsType() {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(" doubleLevel > 9 ")
+                .withFieldExtractor("doubleLevel", m -> m.getLevel() * 2)
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator();
+
+        Assert.assertTrue(evaluator.evaluate(new NetDeviceInfoMsg("a", "b", "c", 5)));
+        Assert.assertFalse(evaluator.evaluate(new NetDeviceInfoMsg("a", "b", "c", 4)));
+    }
+
+    @Test
+    public void testCreatedContextOverridesField() {
+        Programmer pojo = new Programmer("John", "Doe", "05 10 1970", "Office3-Room10", "Junior",
+                "Software engineer" ,"Bachelor", new ArrayList<>());
+
+        Evaluator<Programmer, Boolean> evaluator = Evaluator.<Programmer>createForRule(" fullName = 'John Doe' AND grade = 'Senior' ")
+                .validateAgainstClass(Programmer.class)
+                .withFieldExtractor("fullName", p -> p.getFirstName())
+                .buildBoolEvaluator();
+
+        Map<String, Function<Programmer, Object>> overrides = new HashMap<>();
+        overrides.put("fullName", p -> p.getFirstName() + " " + p.getLastName());
+        overrides.put("grade", p -> "Senior");
+        overrides.put("unused", p -> "whatever");
+        EvaluationContext<Programmer> context = evaluator.createContext(overrides, null);
+
+        Assert.assertFalse(evaluator.evaluate(pojo));
+        Assert.assertTrue(evaluator.evaluate(pojo, context));
+    }
+
+    @Test
+    public void testContextSharedBetweenEvaluators() {
+        Programmer pojo = new Programmer("John", "Doe", "05 10 1970", "Office3-Room10", "Junior",
+                "Software engineer" ,"Bachelor", new ArrayList<>());
+
+        Evaluator<Programmer, Boolean> first = Evaluator.<Programmer>createForRule(" fullName = 'John Doe' ")
+                .buildBoolEvaluator();
+        Evaluator<Programmer, Boolean> second = Evaluator.<Programmer>createForRule(" grade = 'Junior' AND fullName = 'John Doe' ")
+                .buildBoolEvaluator();
+
+        Map<String, Function<Programmer, Object>> overrides = Collections.singletonMap("fullName",
+                (Programmer p) -> p.getFirstName() + " " + p.getLastName());
+        EvaluationContext<Programmer> context = new EvaluationContext<>(overrides, null);
+
+        Assert.assertTrue(first.evaluate(pojo, context));
+        Assert.assertTrue(second.evaluate(pojo, context));
+        Assert.assertTrue(first.evaluate(pojo, context));
+    }
+}
@@ -0,0 +1,222 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class FilterProcessorTest {
+
+    private static final Evaluator<NetDeviceInfoMsg, Boolean> EVALUATOR =
+            Evaluator.<NetDeviceInfoMsg>createForRule(" level > 4 AND interfaceName != 'Eth3' ")
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .buildBoolEvaluator();
+
+    private static List<NetDeviceInfoMsg> messages(int size) {
+        return IntStream.range(0, size)
+                .mapToObj(i -> new NetDeviceInfoMsg("device" + i, "Eth" + (i % 4), "m", i % 8))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void testFiltersInOrder() throws InterruptedException {
+        List<NetDeviceInfoMsg> messages = messages(10_000);
+        List<NetDeviceInfoMsg> expected = messages.stream().filter(EVALUATOR::test).collect(Collectors.toList());
+
+        FilterProcessor<NetDeviceInfoMsg> processor = FilterProcessor.builder(EVALUATOR).batchSize(100).build();
+        TestSubscriber subscriber = new TestSubscriber(7);
+        processor.subscribe(subscriber);
+        new IterablePublisher(messages).subscribe(processor);
+
+        Assert.assertTrue(subscriber.await());
+        Assert.assertNull(subscriber.error);
+        Assert.assertEquals(expected, subscriber.items);
+        Assert.assertEquals(messages.size(), processor.getReceivedCount());
+        Assert.assertEquals(expected.size(), processor.getMatchedCount());
+        Assert.assertEquals(expected.size(), processor.getEmittedCount());
+        Assert.assertEquals(0, processor.getQueueDepth());
+    }
+
+    @Test
+    public void testFiltersInOrderWithExecutor() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<NetDeviceInfoMsg> messages = messages(20_003);
+            List<NetDeviceInfoMsg> expected = messages.stream().filter(EVALUATOR::test).collect(Collectors.toList());
+
+            FilterProcessor<NetDeviceInfoMsg> processor = FilterProcessor.builder(EVALUATOR)
+                    .batchSize(64)
+                    .maxPendingBatches(8)
+                    .withExecutor(executor)
+                    .build();
+            TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+            // upstream subscribes first this time
+            new IterablePublisher(messages).subscribe(processor);
+            processor.subscribe(subscriber);
+
+            Assert.assertTrue(subscriber.await());
+            Assert.assertNull(subscriber.error);
+            Assert.assertEquals(expected, subscriber.items);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRespectsDemand() {
+        FilterProcessor<NetDeviceInfoMsg> processor = FilterProcessor.builder(EVALUATOR)
+                .batchSize(10)
+                .maxPendingBatches(2)
+                .build();
+        TestSubscriber subscriber = new TestSubscriber(0);
+        processor.subscribe(subscriber);
+        IterablePublisher publisher = new IterablePublisher(messages(1000));
+        publisher.subscribe(processor);
+
+        // two batches are requested up front, nothing is emitted without demand
+        Assert.assertEquals(20, publisher.requested.get());
+        Assert.assertTrue(subscriber.items.isEmpty());
+        // 2 matches of each batch wait for demand
+        Assert.assertEquals(4, processor.getQueueDepth());
+
+        subscriber.subscription.request(3);
+        Assert.assertEquals(3, subscriber.items.size());
+        // the first batch has 2 matches, when it's emitted the next batch is requested
+        Assert.assertEquals(30, publisher.requested.get());
+
+        subscriber.subscription.cancel();
+        Assert.assertTrue(publisher.cancelled);
+        Assert.assertEquals(3, subscriber.items.size());
+        Assert.assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void testEvaluationError() throws InterruptedException {
+        Evaluator<NetDeviceInfoMsg, Boolean> failing = Evaluator.<NetDeviceInfoMsg>createForRule(" 10 / level > 1 ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator();
+        FilterProcessor<NetDeviceInfoMsg> processor = FilterProcessor.builder(failing).batchSize(16).build();
+        TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+        processor.subscribe(subscriber);
+        IterablePublisher publisher = new IterablePublisher(messages(100));
+        publisher.subscribe(processor);
+
+        Assert.assertTrue(subscriber.await());
+        Assert.assertTrue(subscriber.error instanceof EvalException);
+        Assert.assertTrue(publisher.cancelled);
+    }
+
+    @Test
+    public void testSecondSubscriberRejected() {
+        FilterProcessor<NetDeviceInfoMsg> processor = FilterProcessor.builder(EVALUATOR).build();
+        processor.subscribe(new TestSubscriber(1));
+        TestSubscriber second = new TestSubscriber(1);
+        processor.subscribe(second);
+        Assert.assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    /**
+     * Publishes items of an iterable as they are requested, in the requesting thread.
+     */
+    private static final class IterablePublisher implements Publisher<NetDeviceInfoMsg> {
+        private final Iterator<NetDeviceInfoMsg> iterator;
+        final AtomicLong requested = new AtomicLong();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        volatile boolean cancelled;
+
+        IterablePublisher(Iterable<NetDeviceInfoMsg> items) {
+            this.iterator = items.iterator();
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super NetDeviceInfoMsg> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                    requested.addAndGet(n);
+                    demand.addAndGet(n);
+                    if (wip.getAndIncrement() != 0) {
+                        return;
+                    }
+                    do {
+                        while (!cancelled && demand.get() > 0 && iterator.hasNext()) {
+                            demand.decrementAndGet();
+                            subscriber.onNext(iterator.next());
+                        }
+                        if (!cancelled && !iterator.hasNext()) {
+                            cancelled = true;
+                            subscriber.onComplete();
+                        }
+                    } while (wip.decrementAndGet() != 0);
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    private static final class TestSubscriber implements Subscriber<NetDeviceInfoMsg> {
+        private final long initialRequest;
+        final List<NetDeviceInfoMsg> items = new ArrayList<>();
+        final CountDownLatch terminated = new CountDownLatch(1);
+        Subscription subscription;
+        volatile Throwable error;
+        volatile boolean completed;
+
+        TestSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(NetDeviceInfoMsg item) {
+            items.add(item);
+            // keeps requesting in chunks of the initial request
+            if (initialRequest > 0 && initialRequest != Long.MAX_VALUE && items.size() % initialRequest == 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            terminated.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return terminated.await(10, TimeUnit.SECONDS);
+        }
+    }
+}
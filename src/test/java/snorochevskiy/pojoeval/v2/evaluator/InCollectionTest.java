@@ -2,6 +2,8 @@ package snorochevskiy.pojoeval.v2.evaluator;
 
 import org.junit.Assert;
 import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.exception.DslError;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
 import snorochevskiy.pojoeval.v2.evaluator.pojos.Programmer;
 
 import java.util.ArrayList;
@@ -22,4 +24,57 @@ public class InCollectionTest {
         Assert.assertTrue(result);
     }
 
+    @Test
+    public void testLargeStringList() {
+        StringBuilder rule = new StringBuilder("fqdn in [");
+        for (int i = 0; i < 5000; i++) {
+            rule.append(i > 0 ? ", " : "").append("'host").append(i).append(".myisp.com'");
+        }
+        rule.append("]");
+
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(rule.toString())
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator();
+
+        Assert.assertTrue(evaluator.evaluate(new NetDeviceInfoMsg("host4321.myisp.com", "Eth1", "Panic", 1)));
+        Assert.assertFalse(evaluator.evaluate(new NetDeviceInfoMsg("host5000.myisp.com", "Eth1", "Panic", 1)));
+    }
+
+    @Test
+    public void testNumberList() {
+        String rule = "level in [1, 3, 5] OR (level % 10) in [8]";
+
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator();
+        Evaluator<NetDeviceInfoMsg, Boolean> compiled = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compileToBytecode()
+                .buildBoolEvaluator();
+
+        for (int level = 0; level < 20; level++) {
+            boolean expected = level == 1 || level == 3 || level == 5 || level % 10 == 8;
+            NetDeviceInfoMsg msg = new NetDeviceInfoMsg("a", "b", "c", level);
+            Assert.assertEquals(expected, evaluator.evaluate(msg));
+            Assert.assertEquals(expected, compiled.evaluate(msg));
+        }
+    }
+
+    @Test
+    public void testNumberListOnBoxedValue() {
+        Evaluator<Object, Boolean> evaluator = Evaluator.createForRule("size in [2, 4.5]")
+                .withFieldExtractor("size", o -> o == null ? null : ((String) o).length() * 1.5)
+                .buildBoolEvaluator();
+
+        Assert.assertTrue(evaluator.evaluate("abc"));
+        Assert.assertFalse(evaluator.evaluate("ab"));
+        Assert.assertFalse(evaluator.evaluate(null));
+    }
+
+    @Test(expected = DslError.class)
+    public void testNumberListOnStringField() {
+        Evaluator.<NetDeviceInfoMsg>createForRule("fqdn in [1, 2]")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator();
+    }
 }
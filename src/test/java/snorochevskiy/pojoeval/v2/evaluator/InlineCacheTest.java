@@ -0,0 +1,99 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+
+public class InlineCacheTest {
+
+    @Test
+    public void testPolymorphicStream() {
+        Evaluator<Object, Boolean> evaluator = Evaluator.createForRule(" level > 3 AND fqdn contains 'dc2' ")
+                .buildBoolEvaluator();
+        Evaluator<Object, Boolean> compiled = Evaluator.createForRule(" level > 3 AND fqdn contains 'dc2' ")
+                .compileToBytecode()
+                .buildBoolEvaluator();
+
+        Object[] messages = new Object[] {
+                new NetDeviceInfoMsg("device1.dc2.myisp.com", "Eth1", "Panic", 5),
+                new LinkDown("device2.dc2.myisp.com", 2),
+                new LinkUp("device3.dc2.myisp.com", 7),
+                new Flap("device4.dc1.myisp.com", 9),
+                new Reboot("device5.dc2.myisp.com", 4),
+                new Detached("device6.dc2.myisp.com", 8),
+        };
+        boolean[] expected = new boolean[] {true, false, true, false, true, true};
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < messages.length; i++) {
+                Assert.assertEquals(expected[i], evaluator.evaluate(messages[i]));
+                Assert.assertEquals(expected[i], compiled.evaluate(messages[i]));
+            }
+        }
+
+        FieldExpr<?> level = (FieldExpr<?>) ((CompareExpression<?>) ((AndExpr<?>) evaluator.compiled).operands.get(0)).arg1;
+        Assert.assertEquals(FieldExpr.INLINE_CACHE_SIZE, level.inlineCacheSize());
+    }
+
+    @Test
+    public void testClassWithoutField() {
+        Evaluator<Object, Boolean> evaluator = Evaluator.createForRule(" level > 3 ")
+                .buildBoolEvaluator();
+
+        Assert.assertTrue(evaluator.evaluate(new LinkUp("a", 5)));
+        try {
+            evaluator.evaluate("not a message");
+            Assert.fail();
+        } catch (EvalException e) {
+            Assert.assertEquals("Unable to get field 'level' value via reflection", e.getMessage());
+        }
+        Assert.assertEquals(TriState.UNKNOWN, evaluator.evaluateTri("not a message"));
+        Assert.assertTrue(evaluator.evaluate(new LinkUp("a", 5)));
+    }
+
+    public static class LinkDown extends NetDeviceInfoMsg {
+        public LinkDown(String fqdn, int level) {
+            super(fqdn, "Eth1", "Link down", level);
+        }
+    }
+
+    public static class LinkUp extends NetDeviceInfoMsg {
+        public LinkUp(String fqdn, int level) {
+            super(fqdn, "Eth1", "Link up", level);
+        }
+    }
+
+    public static class Flap extends NetDeviceInfoMsg {
+        public Flap(String fqdn, int level) {
+            super(fqdn, "Eth1", "Flap", level);
+        }
+    }
+
+    public static class Reboot extends NetDeviceInfoMsg {
+        public Reboot(String fqdn, int level) {
+            super(fqdn, "Eth1", "Reboot", level);
+        }
+    }
+
+    /**
+     * Not a NetDeviceInfoMsg, level is boxed.
+     */
+    public static class Detached {
+        private final String fqdn;
+        private final Integer level;
+
+        public Detached(String fqdn, Integer level) {
+            this.fqdn = fqdn;
+            this.level = level;
+        }
+
+        public String getFqdn() {
+            return fqdn;
+        }
+
+        public Integer getLevel() {
+            return level;
+        }
+    }
+}
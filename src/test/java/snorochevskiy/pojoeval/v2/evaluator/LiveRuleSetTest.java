@@ -0,0 +1,176 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.exception.DslError;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class LiveRuleSetTest {
+
+    private static final NetDeviceInfoMsg MSG = new NetDeviceInfoMsg("device1.dc1.myisp.com", "Eth1", "Panic", 5);
+
+    @Test
+    public void testAddRemoveReplace() {
+        LiveRuleSet<NetDeviceInfoMsg> ruleSet = LiveRuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compactionExecutor(Runnable::run)
+                .addRule(1, " fqdn contains 'dc1' ")
+                .addRule(2, " level > 7 ")
+                .build();
+        Assert.assertArrayEquals(new int[] {1}, ruleSet.matchingIds(MSG));
+
+        ruleSet.addRule(3, " interfaceName = 'Eth1' ");
+        Assert.assertArrayEquals(new int[] {1, 3}, ruleSet.matchingIds(MSG));
+
+        ruleSet.replaceRule(2, " level > 3 ");
+        Assert.assertArrayEquals(new int[] {1, 2, 3}, ruleSet.matchingIds(MSG));
+
+        Assert.assertTrue(ruleSet.removeRule(1));
+        Assert.assertFalse(ruleSet.removeRule(1));
+        Assert.assertArrayEquals(new int[] {2, 3}, ruleSet.matchingIds(MSG));
+        Assert.assertEquals(2, ruleSet.size());
+        Assert.assertFalse(ruleSet.containsRule(1));
+
+        ruleSet.replaceRule(2, " level > 7 ");
+        Assert.assertArrayEquals(new int[] {3}, ruleSet.matchingIds(MSG));
+        Assert.assertEquals(1, ruleSet.deltaSize());
+
+        ruleSet.compact();
+        Assert.assertEquals(0, ruleSet.deltaSize());
+        Assert.assertArrayEquals(new int[] {3}, ruleSet.matchingIds(MSG));
+    }
+
+    @Test
+    public void testInvalidChangesRejected() {
+        LiveRuleSet<NetDeviceInfoMsg> ruleSet = LiveRuleSet.<NetDeviceInfoMsg>builder()
+                .addRule(1, " fqdn contains 'dc1' ")
+                .build();
+        try {
+            ruleSet.addRule(1, " level > 3 ");
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            ruleSet.replaceRule(1, " level > ");
+            Assert.fail();
+        } catch (DslError e) {
+            Assert.assertTrue(e.getMessage().startsWith("Rule 1: "));
+        }
+        Assert.assertArrayEquals(new int[] {1}, ruleSet.matchingIds(MSG));
+    }
+
+    @Test
+    public void testSameResultsAsRebuiltRuleSet() {
+        Random random = new Random(7);
+        String[] rules = new String[] {
+                " level > %d ", " level = %d AND fqdn contains 'dc1' ", " message contains 'Pan' OR level < %d ",
+                " interfaceName = 'Eth%d' ",
+        };
+        LiveRuleSet<NetDeviceInfoMsg> live = LiveRuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compactionExecutor(Runnable::run)
+                .build();
+        Map<Integer, String> expected = new LinkedHashMap<>();
+        int compactions = 0;
+        for (int step = 0; step < 1000; step++) {
+            int id = random.nextInt(100);
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(id) != null, live.removeRule(id));
+            } else {
+                String rule = String.format(rules[random.nextInt(rules.length)], random.nextInt(8));
+                expected.put(id, rule);
+                live.replaceRule(id, rule);
+            }
+            if (live.deltaSize() == 0) {
+                compactions++;
+            }
+            if (step % 50 == 0) {
+                RuleSet<NetDeviceInfoMsg> rebuilt = RuleSet.<NetDeviceInfoMsg>builder()
+                        .validateAgainstClass(NetDeviceInfoMsg.class)
+                        .addRules(expected)
+                        .build();
+                for (int level = 0; level < 8; level++) {
+                    NetDeviceInfoMsg msg = new NetDeviceInfoMsg("device1.dc1.myisp.com", "Eth" + level, "Panic", level);
+                    Assert.assertEquals(rebuilt.match(msg), live.match(msg));
+                }
+            }
+        }
+        Assert.assertTrue(compactions > 0);
+        Assert.assertTrue(live.deltaSize() <= LiveRuleSet.MIN_COMPACTION_THRESHOLD);
+    }
+
+    @Test
+    public void testRejectedCompaction() {
+        LiveRuleSet<NetDeviceInfoMsg> ruleSet = LiveRuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compactionExecutor(command -> {
+                    throw new RejectedExecutionException();
+                })
+                .build();
+        for (int i = 0; i < LiveRuleSet.MIN_COMPACTION_THRESHOLD; i++) {
+            ruleSet.addRule(i, " level > 3 ");
+        }
+        Assert.assertEquals(LiveRuleSet.MIN_COMPACTION_THRESHOLD, ruleSet.deltaSize());
+
+        // the base is built in the calling thread
+        ruleSet.addRule(LiveRuleSet.MIN_COMPACTION_THRESHOLD, " level > 3 ");
+        Assert.assertEquals(0, ruleSet.deltaSize());
+        Assert.assertEquals(LiveRuleSet.MIN_COMPACTION_THRESHOLD + 1, ruleSet.matchingIds(MSG).length);
+
+        ruleSet.replaceRule(0, " level > 7 ");
+        Assert.assertEquals(1, ruleSet.deltaSize());
+        Assert.assertEquals(LiveRuleSet.MIN_COMPACTION_THRESHOLD, ruleSet.matchingIds(MSG).length);
+    }
+
+    @Test
+    public void testEvaluationDuringChanges() throws Exception {
+        LiveRuleSet<NetDeviceInfoMsg> ruleSet = LiveRuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .addRule(0, " fqdn contains 'dc1' ")
+                .build();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ExecutorService readers = Executors.newFixedThreadPool(2);
+        for (int t = 0; t < 2; t++) {
+            readers.execute(() -> {
+                BitSet result = new BitSet();
+                try {
+                    while (!done.get()) {
+                        ruleSet.match(MSG, null, result);
+                        // rule 0 never changes, rules i and i + 1000 are never in the set together
+                        Assert.assertTrue(result.get(0));
+                        for (int i = result.nextSetBit(1); i >= 0 && i < 1000; i = result.nextSetBit(i + 1)) {
+                            Assert.assertFalse(result.get(i + 1000));
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+        }
+        for (int i = 1; i < 500; i++) {
+            ruleSet.addRule(i, " level > 3 ");
+            if (i % 3 == 0) {
+                ruleSet.removeRule(i);
+                ruleSet.addRule(i + 1000, " level > 3 ");
+            }
+        }
+        done.set(true);
+        readers.shutdown();
+        readers.awaitTermination(10, TimeUnit.SECONDS);
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(500, ruleSet.matchingIds(MSG).length);
+    }
+}
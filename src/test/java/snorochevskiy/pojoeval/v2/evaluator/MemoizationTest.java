@@ -0,0 +1,79 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class MemoizationTest {
+
+    private static final String RULE = " datacenter contains 'dc' AND datacenter != 'dc0' AND datacenter matches 'dc\\d' ";
+
+    @Test
+    public void testExtractorCalledOncePerEvaluation() {
+        AtomicInteger calls = new AtomicInteger();
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(RULE)
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .withFieldExtractor("datacenter", countingDatacenter(calls))
+                .buildBoolEvaluator();
+
+        Assert.assertTrue(evaluator.evaluate(new NetDeviceInfoMsg("device123.dc2.myisp.com", "Eth10", "Panic", 5)));
+        Assert.assertEquals(1, calls.get());
+        Assert.assertFalse(evaluator.test(new NetDeviceInfoMsg("device123.dc0.myisp.com", "Eth10", "Panic", 5)));
+        Assert.assertEquals(2, calls.get());
+        Assert.assertEquals(TriState.TRUE, evaluator.evaluateTri(new NetDeviceInfoMsg("device1.dc1.myisp.com", "Eth1", "Panic", 5)));
+        Assert.assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testContextOverrideCalledOncePerEvaluation() {
+        AtomicInteger calls = new AtomicInteger();
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(RULE)
+                .buildBoolEvaluator();
+        EvaluationContext<NetDeviceInfoMsg> context = new EvaluationContext<>(
+                Collections.singletonMap("datacenter", countingDatacenter(calls)), null);
+
+        Assert.assertTrue(evaluator.evaluate(new NetDeviceInfoMsg("device123.dc2.myisp.com", "Eth10", "Panic", 5), context));
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testFrameReleasedAfterError() {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(" 10 / level > 1 AND level < 9 ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator();
+
+        try {
+            evaluator.evaluate(new NetDeviceInfoMsg("a", "b", "c", 0));
+            Assert.fail();
+        } catch (EvalException e) {
+            // expected
+        }
+        Assert.assertTrue(evaluator.evaluate(new NetDeviceInfoMsg("a", "b", "c", 2)));
+        Assert.assertFalse(evaluator.evaluate(new NetDeviceInfoMsg("a", "b", "c", 20)));
+    }
+
+    @Test
+    public void testNestedEvaluation() {
+        Evaluator<NetDeviceInfoMsg, Boolean> inner = Evaluator.<NetDeviceInfoMsg>createForRule(" level > 3 AND level < 10 ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator();
+        Evaluator<NetDeviceInfoMsg, Boolean> outer = Evaluator.<NetDeviceInfoMsg>createForRule(" severe = 'yes' OR severe = 'maybe' ")
+                .withFieldExtractor("severe", m -> inner.evaluate(m) ? "yes" : "no")
+                .buildBoolEvaluator();
+
+        Assert.assertTrue(outer.evaluate(new NetDeviceInfoMsg("a", "b", "c", 5)));
+        Assert.assertFalse(outer.evaluate(new NetDeviceInfoMsg("a", "b", "c", 1)));
+    }
+
+    private static Function<NetDeviceInfoMsg, Object> countingDatacenter(AtomicInteger calls) {
+        return m -> {
+            calls.incrementAndGet();
+            return m.getFqdn().split("\\.")[1];
+        };
+    }
+}
@@ -0,0 +1,131 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class ParallelFilterTest {
+
+    private static final String RULE = " (level > 4 OR fqdn contains 'dc2') AND interfaceName != 'Eth3' ";
+
+    private static List<NetDeviceInfoMsg> messages(int size) {
+        Random random = new Random(5);
+        List<NetDeviceInfoMsg> messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            messages.add(new NetDeviceInfoMsg("device" + i + (random.nextBoolean() ? ".dc1" : ".dc2"),
+                    "Eth" + random.nextInt(4), "message" + i, random.nextInt(8)));
+        }
+        return messages;
+    }
+
+    private static Evaluator<NetDeviceInfoMsg, Boolean> evaluator() {
+        return Evaluator.<NetDeviceInfoMsg>createForRule(RULE)
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator();
+    }
+
+    @Test
+    public void testFilterKeepsOrder() {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = evaluator();
+        List<NetDeviceInfoMsg> messages = messages(50_000);
+        List<NetDeviceInfoMsg> expected = messages.stream().filter(evaluator::test).collect(Collectors.toList());
+
+        Assert.assertEquals(expected, evaluator.filter(messages));
+        Assert.assertEquals(expected, evaluator.filter(messages, 4));
+        Assert.assertEquals(expected, evaluator.filter(messages, 1));
+        // linked list is split into parts of growing size
+        Assert.assertEquals(expected, evaluator.filter(new LinkedList<>(messages), 3));
+        Assert.assertEquals(expected.size(), evaluator.count(messages));
+        Assert.assertEquals(expected.size(), evaluator.count(messages, 2));
+    }
+
+    @Test
+    public void testPartition() {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = evaluator();
+        List<NetDeviceInfoMsg> messages = messages(10_000);
+        Map<Boolean, List<NetDeviceInfoMsg>> expected = messages.stream()
+                .collect(Collectors.partitioningBy(evaluator::test));
+
+        Assert.assertEquals(expected, evaluator.partition(messages));
+        Assert.assertEquals(expected, evaluator.partition(messages, 3));
+    }
+
+    @Test
+    public void testEmptyCollection() {
+        Assert.assertTrue(evaluator().filter(new ArrayList<>(), 2).isEmpty());
+        Assert.assertEquals(0, evaluator().count(new ArrayList<>()));
+    }
+
+    @Test(expected = EvalException.class)
+    public void testFailureIsPropagated() {
+        List<NetDeviceInfoMsg> messages = IntStream.range(0, 10_000)
+                .mapToObj(i -> new NetDeviceInfoMsg("a", "Eth1", "m", i % 100))
+                .collect(Collectors.toList());
+        Evaluator.<NetDeviceInfoMsg>createForRule(" 100 / level > 2 ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator()
+                .filter(messages, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadParallelism() {
+        evaluator().filter(messages(10), 0);
+    }
+
+    @Test
+    public void testSharedBetweenThreads() throws InterruptedException {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(
+                " level > 4 AND fqdn contains 'dc2' OR level < 2 AND fqdn contains 'dc1' ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .adaptiveReordering()
+                .compileToBytecode()
+                .buildBoolEvaluator();
+        List<NetDeviceInfoMsg> messages = messages(20_000);
+        List<NetDeviceInfoMsg> expected = messages.stream()
+                .filter(m -> m.getLevel() > 4 && m.getFqdn().contains("dc2")
+                        || m.getLevel() < 2 && m.getFqdn().contains("dc1"))
+                .collect(Collectors.toList());
+
+        List<Throwable> failures = new ArrayList<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    List<NetDeviceInfoMsg> actual = new ArrayList<>();
+                    for (NetDeviceInfoMsg msg : messages) {
+                        if (evaluator.test(msg)) {
+                            actual.add(msg);
+                        }
+                    }
+                    Assert.assertEquals(expected, actual);
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(new ArrayList<>(), failures);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testFieldExtractorsUnmodifiable() {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(" lvl > 1 ")
+                .withFieldExtractor("lvl", NetDeviceInfoMsg::getLevel)
+                .buildBoolEvaluator();
+        evaluator.fieldExtractors.put("fqdn", NetDeviceInfoMsg::getFqdn);
+    }
+}
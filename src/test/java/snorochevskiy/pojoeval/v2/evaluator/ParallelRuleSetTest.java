@@ -0,0 +1,92 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelRuleSetTest {
+
+    @Test
+    public void testSameResultsAsRuleSet() {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            RuleSet.Builder<NetDeviceInfoMsg> sequential = RuleSet.<NetDeviceInfoMsg>builder()
+                    .validateAgainstClass(NetDeviceInfoMsg.class);
+            ParallelRuleSet.Builder<NetDeviceInfoMsg> parallel = ParallelRuleSet.<NetDeviceInfoMsg>builder()
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .withPool(pool);
+            for (int i = 0; i < 200; i++) {
+                String rule = i % 3 == 0 ? " level > " + (i % 8)
+                        : i % 3 == 1 ? " interfaceName = 'Eth" + (i % 5) + "' AND message contains 'Pan' "
+                        : " fqdn matches 'device" + (i % 4) + "\\..*' OR level = " + (i % 7);
+                sequential.addRule(i, rule);
+                parallel.addRule(i, rule);
+            }
+            RuleSet<NetDeviceInfoMsg> sequentialSet = sequential.build();
+            ParallelRuleSet<NetDeviceInfoMsg> parallelSet = parallel.build();
+            Assert.assertEquals(3, parallelSet.getShardCount());
+            Assert.assertEquals(200, parallelSet.size());
+
+            for (NetDeviceInfoMsg msg : messages()) {
+                Assert.assertEquals(sequentialSet.match(msg), parallelSet.match(msg));
+            }
+            // evaluation from a worker of the pool runs in the same pool
+            for (NetDeviceInfoMsg msg : messages()) {
+                Assert.assertEquals(sequentialSet.match(msg), pool.submit(() -> parallelSet.match(msg)).join());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testShardsBalancedByCost() {
+        ParallelRuleSet.Builder<NetDeviceInfoMsg> builder = ParallelRuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .shards(2);
+        // one expensive rule, and many cheap ones
+        builder.addRule(0, " message matches '(a|b|c|d|e|f)*x' OR message contains_regexp '(P|p)an(i|I)c+' ");
+        for (int i = 1; i <= 10; i++) {
+            builder.addRule(i, " level > " + i);
+        }
+        ParallelRuleSet<NetDeviceInfoMsg> ruleSet = builder.build();
+        Assert.assertEquals(2, ruleSet.getShardCount());
+        Assert.assertEquals(1, Math.min(ruleSet.shardSize(0), ruleSet.shardSize(1)));
+
+        ParallelRuleSet<NetDeviceInfoMsg> measured = ParallelRuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .shards(2)
+                .balanceWith(messages())
+                .addRule(0, " level > 1 ")
+                .addRule(1, " level > 2 ")
+                .addRule(2, " level > 3 ")
+                .addRule(3, " level > 4 ")
+                .build();
+        Assert.assertEquals(4, measured.size());
+        Assert.assertTrue(measured.shardSize(0) > 0 && measured.shardSize(1) > 0);
+    }
+
+    @Test
+    public void testSingleShard() {
+        ParallelRuleSet<NetDeviceInfoMsg> ruleSet = ParallelRuleSet.<NetDeviceInfoMsg>builder()
+                .shards(4)
+                .addRule(7, " level > 3 ")
+                .build();
+        Assert.assertEquals(1, ruleSet.getShardCount());
+        Assert.assertArrayEquals(new int[] {7}, ruleSet.matchingIds(new NetDeviceInfoMsg("a", "b", "c", 4)));
+        Assert.assertArrayEquals(new int[0], ruleSet.matchingIds(new NetDeviceInfoMsg("a", "b", "c", 3)));
+    }
+
+    private static List<NetDeviceInfoMsg> messages() {
+        List<NetDeviceInfoMsg> messages = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            messages.add(new NetDeviceInfoMsg("device" + (i % 4) + ".dc1.myisp.com", "Eth" + (i % 5),
+                    i % 2 == 0 ? "Panic" : "Calm", i % 8));
+        }
+        return messages;
+    }
+}
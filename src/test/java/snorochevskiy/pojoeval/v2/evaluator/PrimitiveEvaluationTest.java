@@ -0,0 +1,61 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+
+public class PrimitiveEvaluationTest {
+
+    @Test
+    public void testNumericRuleOnPrimitiveGetter() {
+        String rule = " level * 2 > 7 AND level < 10 ";
+
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator();
+
+        Assert.assertTrue(evaluator.test(new NetDeviceInfoMsg("device123.dc2.myisp.com", "Eth10", "Panic", 5)));
+        Assert.assertFalse(evaluator.test(new NetDeviceInfoMsg("device123.dc2.myisp.com", "Eth10", "Panic", 3)));
+    }
+
+    @Test
+    public void testTestMatchesEvaluate() {
+        String rule = " fqdn = 'device123.dc2.myisp.com' OR NOT level >= 3 ";
+        NetDeviceInfoMsg[] messages = new NetDeviceInfoMsg[] {
+                new NetDeviceInfoMsg("device123.dc2.myisp.com", "Eth10", "Panic", 5),
+                new NetDeviceInfoMsg("other.dc2.myisp.com", "Eth10", "Panic", 5),
+                new NetDeviceInfoMsg("other.dc2.myisp.com", "Eth10", "Panic", 1),
+        };
+
+        Evaluator<NetDeviceInfoMsg, Boolean> interpreted = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator();
+        Evaluator<NetDeviceInfoMsg, Boolean> compiled = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compileToBytecode()
+                .buildBoolEvaluator();
+
+        for (NetDeviceInfoMsg msg : messages) {
+            Assert.assertEquals(interpreted.evaluate(msg), interpreted.test(msg));
+            Assert.assertEquals(interpreted.evaluate(msg), compiled.test(msg));
+        }
+    }
+
+    @Test
+    public void testUnvalidatedNumericField() {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(" level + 0.5 > 5 ")
+                .buildBoolEvaluator();
+
+        Assert.assertTrue(evaluator.test(new NetDeviceInfoMsg("a", "b", "c", 5)));
+    }
+
+    @Test(expected = EvalException.class)
+    public void testTestOnNonBooleanRule() {
+        Evaluator<NetDeviceInfoMsg, Object> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(" level + 1 ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .build();
+
+        evaluator.test(new NetDeviceInfoMsg("a", "b", "c", 5));
+    }
+}
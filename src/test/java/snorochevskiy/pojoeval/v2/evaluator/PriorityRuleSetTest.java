@@ -0,0 +1,102 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PriorityRuleSetTest {
+
+    private static final String[] RULES = new String[] {
+            " fqdn = 'device1.dc1.myisp.com' AND level > 3 ",
+            " interfaceName in ['Eth1', 'Eth2'] AND message contains 'Panic' ",
+            " level > 6 ",
+            " message contains 'Calm' OR level = 0 ",
+            " fqdn matches 'device2\\..*' AND level < 4 ",
+            " interfaceName = 'Eth3' ",
+    };
+
+    private static final int[] PRIORITIES = new int[] {10, 5, 20, 1, 5, 0};
+
+    @Test
+    public void testHighestPriorityMatchWins() {
+        PriorityRuleSet<NetDeviceInfoMsg> indexed = build(true);
+        PriorityRuleSet<NetDeviceInfoMsg> plain = build(false);
+        for (String fqdn : new String[] {"device1.dc1.myisp.com", "device2.dc2.myisp.com", null}) {
+            for (String interfaceName : new String[] {"Eth1", "Eth2", "Eth3", "Eth4"}) {
+                for (String text : new String[] {"Panic", "Calm", "Other"}) {
+                    for (int level = 0; level < 8; level++) {
+                        NetDeviceInfoMsg msg = new NetDeviceInfoMsg(fqdn, interfaceName, text, level);
+                        int expected = expected(msg);
+                        Assert.assertEquals(msg.toString(), expected, indexed.firstMatch(msg));
+                        Assert.assertEquals(msg.toString(), expected, plain.firstMatch(msg));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLowerPriorityRulesNotEvaluated() {
+        AtomicInteger calls = new AtomicInteger();
+        PriorityRuleSet<NetDeviceInfoMsg> ruleSet = PriorityRuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .withFieldExtractor("expensive", msg -> {
+                    calls.incrementAndGet();
+                    return msg.getMessage();
+                })
+                .addRule(1, 1, " expensive != 'Calm' ")
+                .addRule(2, 2, " fqdn = 'a' AND expensive != 'Panic' ")
+                .addRule(3, 3, " level > 3 ")
+                .build();
+
+        Assert.assertEquals(3, ruleSet.firstMatch(new NetDeviceInfoMsg("a", "Eth1", "Calm", 4)));
+        Assert.assertEquals(0, calls.get());
+        // rule 2 is skipped by its fqdn condition without evaluating the rest of it
+        Assert.assertEquals(1, ruleSet.firstMatch(new NetDeviceInfoMsg("b", "Eth1", "Panic", 1)));
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(2, ruleSet.firstMatch(new NetDeviceInfoMsg("a", "Eth1", "Calm", 1)));
+        Assert.assertEquals(-1, ruleSet.firstMatch(new NetDeviceInfoMsg("b", "Eth1", "Calm", 1)));
+    }
+
+    @Test
+    public void testEqualPrioritiesInOrderOfAddition() {
+        PriorityRuleSet<NetDeviceInfoMsg> ruleSet = PriorityRuleSet.<NetDeviceInfoMsg>builder()
+                .addRule(5, 0, " level > 1 ")
+                .addRule(2, 0, " level > 0 ")
+                .build();
+        Assert.assertEquals(5, ruleSet.firstMatch(new NetDeviceInfoMsg("a", "b", "c", 2)));
+        Assert.assertEquals(2, ruleSet.firstMatch(new NetDeviceInfoMsg("a", "b", "c", 1)));
+        Assert.assertEquals(2, ruleSet.size());
+    }
+
+    private static PriorityRuleSet<NetDeviceInfoMsg> build(boolean index) {
+        PriorityRuleSet.Builder<NetDeviceInfoMsg> builder = PriorityRuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .indexConditions(index);
+        for (int i = 0; i < RULES.length; i++) {
+            builder.addRule(i, PRIORITIES[i], RULES[i]);
+        }
+        return builder.build();
+    }
+
+    private static int expected(NetDeviceInfoMsg msg) {
+        int best = -1;
+        for (int i = 0; i < RULES.length; i++) {
+            boolean matched;
+            try {
+                matched = Evaluator.<NetDeviceInfoMsg>createForRule(RULES[i])
+                        .validateAgainstClass(NetDeviceInfoMsg.class)
+                        .buildBoolEvaluator()
+                        .evaluate(msg);
+            } catch (RuntimeException e) {
+                matched = false;
+            }
+            if (matched && (best < 0 || PRIORITIES[i] > PRIORITIES[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
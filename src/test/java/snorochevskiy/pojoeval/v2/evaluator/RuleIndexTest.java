@@ -0,0 +1,139 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsgs;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RuleIndexTest {
+
+    private static final List<NetDeviceInfoMsg> MESSAGES = NetDeviceInfoMsgs.combinations("null", null);
+
+    private static final String[] RULES = new String[] {
+            " fqdn = 'device1.dc1.myisp.com' AND level > 3 ",
+            " interfaceName in ['Eth1', 'Eth2'] AND message contains 'Panic' ",
+            " level = 5 ",
+            " level in [1, 2, 3] AND fqdn contains 'dc2' ",
+            " 'Eth3' = interfaceName AND level = 0 ",
+            " fqdn = 'null' ",
+            " message contains 'Panic' OR level = 7 ",
+            " level != 5 AND interfaceName = 'Eth2' ",
+            " fqdn = 'device2.dc2.myisp.com' AND fqdn in ['device2.dc2.myisp.com', 'x'] ",
+            " interfaceName in ['Eth1'] AND interfaceName = 'Eth2' ",
+            " level > 2 ",
+            " level >= 3 AND level < 6 AND 5 > level ",
+            " 2 <= level AND level <= 2 AND message contains 'Calm' ",
+            " level > 5 AND level < 4 ",
+            " fqdn = 'device2.dc2.myisp.com' AND level >= 4 ",
+            " level * 2 > 6 AND level < 7.5 ",
+            " message contains 'Pan' AND interfaceName contains 'th1' ",
+            " message contains 'Calm' AND message contains 'al' AND level > 3 ",
+            " message contains '' ",
+            " fqdn contains 'dc2' OR message contains 'Panic' ",
+            " fqdn matches 'device\\d\\.dc[12]\\..*' AND level < 4 ",
+            " fqdn contains_regexp 'dc\\d' AND interfaceName matches 'Eth[13]' ",
+            " message contains_regexp '^P' AND message matches '(\\w+)\\1' ",
+            " fqdn contains_regexp '(?i)DC2' ",
+    };
+
+    @Test
+    public void testSameResultsAsWithoutIndex() {
+        RuleSet.Builder<NetDeviceInfoMsg> indexed = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class);
+        RuleSet.Builder<NetDeviceInfoMsg> plain = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .indexConditions(false);
+        RuleSet.Builder<NetDeviceInfoMsg> compiled = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compileToBytecode();
+        RuleSet.Builder<NetDeviceInfoMsg> noEqualities = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .indexEqualities(false);
+        for (int i = 0; i < RULES.length; i++) {
+            indexed.addRule(i, RULES[i]);
+            plain.addRule(i, RULES[i]);
+            compiled.addRule(i, RULES[i]);
+            noEqualities.addRule(i, RULES[i]);
+        }
+        RuleSet<NetDeviceInfoMsg> indexedSet = indexed.build();
+        RuleSet<NetDeviceInfoMsg> plainSet = plain.build();
+        RuleSet<NetDeviceInfoMsg> compiledSet = compiled.build();
+        RuleSet<NetDeviceInfoMsg> noEqualitiesSet = noEqualities.build();
+
+        for (NetDeviceInfoMsg msg : MESSAGES) {
+            Assert.assertEquals(plainSet.match(msg), indexedSet.match(msg));
+            Assert.assertEquals(plainSet.match(msg), compiledSet.match(msg));
+            Assert.assertEquals(plainSet.match(msg), noEqualitiesSet.match(msg));
+        }
+    }
+
+    @Test
+    public void testResidualEvaluatedForCandidatesOnly() {
+        AtomicInteger calls = new AtomicInteger();
+        RuleSet<NetDeviceInfoMsg> ruleSet = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .withFieldExtractor("expensive", msg -> {
+                    calls.incrementAndGet();
+                    return msg.getMessage();
+                })
+                .addRule(0, " fqdn = 'a' AND expensive != 'Calm' ")
+                .addRule(1, " fqdn = 'b' AND interfaceName = 'Eth1' AND expensive != 'Calm' ")
+                .addRule(2, " fqdn in ['c', 'd'] AND level = 3 AND expensive != 'Panic' ")
+                .build();
+
+        Assert.assertArrayEquals(new int[0], ruleSet.matchingIds(new NetDeviceInfoMsg("x", "Eth1", "Panic", 3)));
+        Assert.assertEquals(0, calls.get());
+        Assert.assertArrayEquals(new int[0], ruleSet.matchingIds(new NetDeviceInfoMsg("b", "Eth2", "Panic", 3)));
+        Assert.assertEquals(0, calls.get());
+        Assert.assertArrayEquals(new int[] {1}, ruleSet.matchingIds(new NetDeviceInfoMsg("b", "Eth1", "Panic", 3)));
+        Assert.assertEquals(1, calls.get());
+        Assert.assertArrayEquals(new int[] {2}, ruleSet.matchingIds(new NetDeviceInfoMsg("d", "Eth1", "Calm", 3)));
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testThresholds() {
+        RuleSet.Builder<NetDeviceInfoMsg> builder = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class);
+        for (int i = 0; i < 100; i++) {
+            builder.addRule(i, " level > " + i + " AND level <= " + (i + 10));
+        }
+        RuleSet<NetDeviceInfoMsg> ruleSet = builder.build();
+
+        Assert.assertArrayEquals(new int[0], ruleSet.matchingIds(new NetDeviceInfoMsg("a", "b", "c", 0)));
+        Assert.assertArrayEquals(new int[] {0, 1, 2}, ruleSet.matchingIds(new NetDeviceInfoMsg("a", "b", "c", 3)));
+        Assert.assertArrayEquals(new int[] {40, 41, 42, 43, 44, 45, 46, 47, 48, 49},
+                ruleSet.matchingIds(new NetDeviceInfoMsg("a", "b", "c", 50)));
+    }
+
+    @Test
+    public void testKeywords() {
+        String[] keywords = new String[] {"Panic", "panic", "link down", "Link", "down", "BGP"};
+        RuleSet.Builder<NetDeviceInfoMsg> builder = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class);
+        for (int i = 0; i < keywords.length; i++) {
+            builder.addRule(i, " message contains '" + keywords[i] + "' ");
+        }
+        RuleSet<NetDeviceInfoMsg> ruleSet = builder.build();
+
+        Assert.assertArrayEquals(new int[] {3, 4}, ruleSet.matchingIds(new NetDeviceInfoMsg("a", "b", "Link is down", 1)));
+        Assert.assertArrayEquals(new int[] {1, 2, 4}, ruleSet.matchingIds(new NetDeviceInfoMsg("a", "b", "panic: link down", 1)));
+        Assert.assertArrayEquals(new int[0], ruleSet.matchingIds(new NetDeviceInfoMsg("a", "b", null, 1)));
+    }
+
+    @Test
+    public void testNullAndMissingValues() {
+        RuleSet<Object> ruleSet = RuleSet.builder()
+                .addRule(0, " fqdn = 'a' ")
+                .addRule(1, " fqdn = 'null' ")
+                .addRule(2, " level > 4 ")
+                .build();
+
+        Assert.assertArrayEquals(new int[] {1}, ruleSet.matchingIds(new NetDeviceInfoMsg(null, "Eth1", "m", 1)));
+        Assert.assertArrayEquals(new int[] {0, 2}, ruleSet.matchingIds(new NetDeviceInfoMsg("a", "Eth1", "m", 5)));
+        Assert.assertArrayEquals(new int[0], ruleSet.matchingIds("no fields"));
+    }
+}
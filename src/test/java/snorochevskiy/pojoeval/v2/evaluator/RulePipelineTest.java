@@ -0,0 +1,186 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RulePipelineTest {
+
+    private static final RuleSet<NetDeviceInfoMsg> RULES = RuleSet.<NetDeviceInfoMsg>builder()
+            .validateAgainstClass(NetDeviceInfoMsg.class)
+            .addRule(1, " level > 4 ")
+            .addRule(2, " interfaceName = 'Eth1' AND fqdn contains 'dc2' ")
+            .addRule(3, " 10 / level > 4 ")
+            .build();
+
+    private static List<NetDeviceInfoMsg> messages(int size) {
+        List<NetDeviceInfoMsg> messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            messages.add(new NetDeviceInfoMsg("device" + i + (i % 3 == 0 ? ".dc2" : ".dc1"), "Eth" + (i % 4),
+                    "m", i % 8));
+        }
+        return messages;
+    }
+
+    /**
+     * Records results by event, each event must be evaluated exactly once.
+     */
+    private static class RecordingSink implements PipelineSink<NetDeviceInfoMsg> {
+        final Map<NetDeviceInfoMsg, int[]> results = new ConcurrentHashMap<>();
+        final Map<Long, Boolean> sequences = new ConcurrentHashMap<>();
+        final AtomicInteger duplicates = new AtomicInteger();
+        final AtomicInteger batches = new AtomicInteger();
+
+        @Override
+        public void accept(long sequence, NetDeviceInfoMsg event, BitSet matches) {
+            if (results.put(event, matches.stream().toArray()) != null || sequences.put(sequence, true) != null) {
+                duplicates.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void endOfBatch() {
+            batches.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testSingleProducer() throws InterruptedException {
+        for (WaitStrategy waitStrategy : new WaitStrategy[] {
+                WaitStrategy.BUSY_SPIN, WaitStrategy.YIELD, WaitStrategy.PARK}) {
+            List<NetDeviceInfoMsg> messages = messages(20_000);
+            RecordingSink sink = new RecordingSink();
+            RulePipeline<NetDeviceInfoMsg> pipeline = RulePipeline.builder(RULES)
+                    .withSink(sink)
+                    .bufferSize(64)
+                    .consumers(3)
+                    .waitStrategy(waitStrategy)
+                    .build();
+            pipeline.start();
+            for (NetDeviceInfoMsg msg : messages) {
+                pipeline.publish(msg);
+            }
+            pipeline.shutdown();
+
+            assertResults(messages, sink);
+            Assert.assertEquals(messages.size(), pipeline.getEvaluatedCount());
+            Assert.assertTrue(sink.batches.get() > 0);
+        }
+    }
+
+    @Test
+    public void testMultipleProducers() throws InterruptedException {
+        List<NetDeviceInfoMsg> messages = messages(40_000);
+        RecordingSink sink = new RecordingSink();
+        RulePipeline<NetDeviceInfoMsg> pipeline = RulePipeline.builder(RULES)
+                .withSink(sink)
+                .bufferSize(128)
+                .consumers(2)
+                .multiProducer(true)
+                .waitStrategy(WaitStrategy.YIELD)
+                .build();
+        pipeline.start();
+        Thread[] producers = new Thread[4];
+        for (int p = 0; p < producers.length; p++) {
+            List<NetDeviceInfoMsg> part = messages.subList(p * 10_000, (p + 1) * 10_000);
+            producers[p] = new Thread(() -> part.forEach(pipeline::publish));
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        pipeline.shutdown();
+
+        assertResults(messages, sink);
+    }
+
+    @Test
+    public void testSingleEvaluator() throws InterruptedException {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(" 10 / level > 2 ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator();
+        List<NetDeviceInfoMsg> messages = messages(1000);
+        RecordingSink sink = new RecordingSink();
+        RulePipeline<NetDeviceInfoMsg> pipeline = RulePipeline.builder(evaluator).withSink(sink).build();
+        pipeline.start();
+        messages.forEach(pipeline::publish);
+        pipeline.shutdown();
+
+        for (NetDeviceInfoMsg msg : messages) {
+            boolean expected = msg.getLevel() != 0 && 10.0 / msg.getLevel() > 2;
+            Assert.assertArrayEquals(expected ? new int[] {0} : new int[0], sink.results.get(msg));
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testConsumerSurvivesExceptions() throws InterruptedException {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator.<NetDeviceInfoMsg>createForRule(" lvl > 2 ")
+                .withFieldExtractor("lvl", msg -> {
+                    if (msg.getLevel() == 3) {
+                        throw new IllegalStateException("extractor failed");
+                    }
+                    return msg.getLevel();
+                })
+                .buildBoolEvaluator();
+        List<NetDeviceInfoMsg> messages = messages(1000);
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        RecordingSink sink = new RecordingSink() {
+            @Override
+            public void endOfBatch() {
+                super.endOfBatch();
+                throw new IllegalStateException("sink failed");
+            }
+        };
+        RulePipeline<NetDeviceInfoMsg> pipeline = RulePipeline.builder(evaluator)
+                .withSink(sink)
+                .bufferSize(16)
+                .withThreadFactory(r -> {
+                    Thread t = new Thread(r);
+                    t.setDaemon(true);
+                    t.setUncaughtExceptionHandler((thread, e) -> failures.add(e));
+                    return t;
+                })
+                .build();
+        pipeline.start();
+        // the buffer is much smaller than the number of events, so publishing waits for the consumer
+        messages.forEach(pipeline::publish);
+        pipeline.shutdown();
+
+        Assert.assertEquals(messages.size(), pipeline.getEvaluatedCount());
+        for (NetDeviceInfoMsg msg : messages) {
+            if (msg.getLevel() == 3) {
+                Assert.assertNull(sink.results.get(msg));
+            } else {
+                Assert.assertArrayEquals(msg.getLevel() > 2 ? new int[] {0} : new int[0], sink.results.get(msg));
+            }
+        }
+        long extractorFailures = failures.stream().filter(e -> e.getMessage().equals("extractor failed")).count();
+        Assert.assertEquals(messages.stream().filter(msg -> msg.getLevel() == 3).count(), extractorFailures);
+        Assert.assertEquals(sink.batches.get(), failures.size() - extractorFailures);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBufferSizeMustBePowerOfTwo() {
+        RulePipeline.builder(RULES).bufferSize(100);
+    }
+
+    private static void assertResults(List<NetDeviceInfoMsg> messages, RecordingSink sink) {
+        Assert.assertEquals(0, sink.duplicates.get());
+        Assert.assertEquals(messages.size(), sink.results.size());
+        Map<NetDeviceInfoMsg, Boolean> seen = new IdentityHashMap<>();
+        for (NetDeviceInfoMsg msg : messages) {
+            Assert.assertNull(seen.put(msg, true));
+            Assert.assertEquals(Arrays.toString(RULES.matchingIds(msg)), Arrays.toString(sink.results.get(msg)));
+        }
+    }
+}
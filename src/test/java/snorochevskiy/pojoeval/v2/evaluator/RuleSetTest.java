@@ -0,0 +1,91 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.exception.DslError;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RuleSetTest {
+
+    private static final NetDeviceInfoMsg MSG = new NetDeviceInfoMsg("device123.dc2.myisp.com", "Eth10", "Aaaaa! Panic !!!", 5);
+
+    @Test
+    public void testMatchingIds() {
+        RuleSet<NetDeviceInfoMsg> ruleSet = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .addRule(1, " fqdn contains 'dc2' AND level > 3 ")
+                .addRule(7, " fqdn contains 'dc1' ")
+                .addRule(3, " message contains 'Panic' OR level > 10 ")
+                .addRule(100, " interfaceName in ['Eth1', 'Eth10'] ")
+                .build();
+
+        Assert.assertEquals(4, ruleSet.size());
+        Assert.assertArrayEquals(new int[] {1, 3, 100}, ruleSet.matchingIds(MSG));
+
+        BitSet result = new BitSet();
+        result.set(7);
+        ruleSet.match(new NetDeviceInfoMsg("device1.dc1.myisp.com", "Eth2", "Calm", 1), null, result);
+        Assert.assertEquals(BitSet.valueOf(new long[] {1L << 7}), result);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("fqdn", "level", "message", "interfaceName")), ruleSet.getFields());
+    }
+
+    @Test
+    public void testFieldExtractedOncePerEvent() {
+        AtomicInteger calls = new AtomicInteger();
+        RuleSet<NetDeviceInfoMsg> ruleSet = RuleSet.<NetDeviceInfoMsg>builder()
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .withFieldExtractor("datacenter", msg -> {
+                    calls.incrementAndGet();
+                    return msg.getFqdn().split("\\.")[1];
+                })
+                .addRule(0, " datacenter = 'dc1' ")
+                .addRule(1, " datacenter = 'dc2' ")
+                .addRule(2, " datacenter in ['dc2', 'dc3'] AND level > 1 ")
+                .build();
+
+        Assert.assertArrayEquals(new int[] {1, 2}, ruleSet.matchingIds(MSG));
+        Assert.assertEquals(1, calls.get());
+        Assert.assertArrayEquals(new int[] {0}, ruleSet.matchingIds(new NetDeviceInfoMsg("d.dc1.isp", "Eth1", "m", 1)));
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testFailedRuleDoesNotMatch() {
+        RuleSet<Object> ruleSet = RuleSet.builder()
+                .addRule(0, " level > 3 ")
+                .addRule(1, " 10 / (level - 5) > 1 ")
+                .addRule(2, " missing = 'x' ")
+                .addRule(3, " fqdn contains 'dc2' ")
+                .compileToBytecode()
+                .build();
+
+        Assert.assertArrayEquals(new int[] {0, 3}, ruleSet.matchingIds(MSG));
+    }
+
+    @Test
+    public void testBadRuleReported() {
+        try {
+            RuleSet.<NetDeviceInfoMsg>builder()
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .addRule(0, " level > 3 ")
+                    .addRule(42, " level > 'x' ")
+                    .build();
+            Assert.fail();
+        } catch (DslError e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Rule 42: "));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateId() {
+        RuleSet.builder()
+                .addRule(1, " level > 3 ")
+                .addRule(1, " level > 4 ");
+    }
+}
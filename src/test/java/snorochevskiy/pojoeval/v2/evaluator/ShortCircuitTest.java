@@ -0,0 +1,121 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+import snorochevskiy.pojoeval.v2.evaluator.pojos.NetDeviceInfoMsg;
+
+import java.util.Random;
+
+public class ShortCircuitTest {
+
+    @Test
+    public void testAndSkipsRightOperand() {
+        String rule = " level > 2 AND 10 / (level - level) > 1 ";
+        NetDeviceInfoMsg msg = new NetDeviceInfoMsg("device123.dc2.myisp.com", "Eth10", "Panic", 1);
+
+        Evaluator<NetDeviceInfoMsg, Boolean> interpreted = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .buildBoolEvaluator();
+        Evaluator<NetDeviceInfoMsg, Boolean> compiled = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .compileToBytecode()
+                .buildBoolEvaluator();
+
+        Assert.assertFalse(interpreted.evaluate(msg));
+        Assert.assertFalse(compiled.evaluate(msg));
+    }
+
+    @Test
+    public void testInitialOrderByCost() {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator
+                .<NetDeviceInfoMsg>createForRule(" message contains_regexp 'Pan.c' AND fqdn = 'a' AND level > 5 ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .adaptiveReordering()
+                .buildBoolEvaluator();
+
+        Assert.assertEquals("((level > 5) AND (fqdn = 'a') AND (message contains_regexp 'Pan.c'))", evaluator.explain());
+    }
+
+    @Test
+    public void testOrderAdaptsToData() {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator
+                .<NetDeviceInfoMsg>createForRule(" level > 0 AND level < 3 ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .adaptiveReordering()
+                .buildBoolEvaluator();
+
+        NetDeviceInfoMsg msg = new NetDeviceInfoMsg("a", "b", "c", 7);
+        for (int i = 0; i < AdaptiveJunctionExpr.REORDER_PERIOD; i++) {
+            Assert.assertFalse(evaluator.evaluate(msg));
+        }
+
+        Assert.assertEquals("((level < 3) AND (level > 0))", evaluator.explain());
+    }
+
+    @Test
+    public void testOperandIsNotMovedAheadOfFailingOne() {
+        Evaluator<NetDeviceInfoMsg, Boolean> evaluator = Evaluator
+                .<NetDeviceInfoMsg>createForRule(" 10 / level > 1 OR message contains 'Calm' OR level < 1 ")
+                .validateAgainstClass(NetDeviceInfoMsg.class)
+                .adaptiveReordering()
+                .buildBoolEvaluator();
+
+        Assert.assertEquals("(((10 / level) > 1) OR (level < 1) OR (message contains 'Calm'))", evaluator.explain());
+
+        NetDeviceInfoMsg msg = new NetDeviceInfoMsg("a", "b", "Calm", 0);
+        for (int i = 0; i < AdaptiveJunctionExpr.REORDER_PERIOD; i++) {
+            Assert.assertTrue(evaluator.evaluate(new NetDeviceInfoMsg("a", "b", "Calm", 20)));
+        }
+        Assert.assertEquals("(((10 / level) > 1) OR (message contains 'Calm') OR (level < 1))", evaluator.explain());
+        try {
+            evaluator.evaluate(msg);
+            Assert.fail("Division by zero is evaluated first, as it's written first");
+        } catch (EvalException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testAdaptiveGivesSameResults() {
+        String[] rules = new String[] {
+                " fqdn contains_regexp 'dc1' AND 10 / level > 1 ",
+                " message contains 'Panic' OR level > 7 OR fqdn = 'router.myisp.com' ",
+                " NOT (level > 3 AND interfaceName in ['Eth1', 'Eth2']) OR message matches '.*Calm.*' ",
+        };
+        String[] fqdns = new String[] {"device1.dc1.myisp.com", "device2.dc2.myisp.com", "router.myisp.com"};
+        String[] messages = new String[] {"Panic", "Calm", "Panic and Calm"};
+        Random random = new Random(42);
+
+        for (String rule : rules) {
+            Evaluator<NetDeviceInfoMsg, Boolean> plain = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .buildBoolEvaluator();
+            Evaluator<NetDeviceInfoMsg, Boolean> adaptive = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .adaptiveReordering()
+                    .buildBoolEvaluator();
+            Evaluator<NetDeviceInfoMsg, Boolean> compiled = Evaluator.<NetDeviceInfoMsg>createForRule(rule)
+                    .validateAgainstClass(NetDeviceInfoMsg.class)
+                    .adaptiveReordering()
+                    .compileToBytecode()
+                    .buildBoolEvaluator();
+
+            for (int i = 0; i < 5000; i++) {
+                NetDeviceInfoMsg msg = new NetDeviceInfoMsg(fqdns[random.nextInt(3)], "Eth" + random.nextInt(3),
+                        messages[random.nextInt(3)], random.nextInt(10));
+                Object expected = evaluate(plain, msg);
+                Assert.assertEquals(rule, expected, evaluate(adaptive, msg));
+                Assert.assertEquals(rule, expected, evaluate(compiled, msg));
+            }
+        }
+    }
+
+    private static Object evaluate(Evaluator<NetDeviceInfoMsg, Boolean> evaluator, NetDeviceInfoMsg msg) {
+        try {
+            return evaluator.evaluate(msg);
+        } catch (EvalException e) {
+            return e.getMessage();
+        }
+    }
+}
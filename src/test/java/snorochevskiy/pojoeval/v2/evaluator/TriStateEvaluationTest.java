@@ -0,0 +1,115 @@
+package snorochevskiy.pojoeval.v2.evaluator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import snorochevskiy.pojoeval.v2.evaluator.exception.EvalException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class TriStateEvaluationTest {
+
+    @Test
+    public void testMissingValueIsUnknown() {
+        Evaluator<Map<String, Object>, Boolean> evaluator = create(" level > 3 ").buildBoolEvaluator();
+
+        Assert.assertEquals(TriState.UNKNOWN, evaluator.evaluateTri(event(null, "x")));
+        Assert.assertEquals(TriState.TRUE, evaluator.evaluateTri(event(5, "x")));
+        Assert.assertEquals(TriState.UNKNOWN, evaluator.evaluateTri(event("five", "x")));
+    }
+
+    @Test
+    public void testUnknownPropagation() {
+        Map<String, Object> noLevel = event(null, "x");
+
+        Assert.assertEquals(TriState.TRUE, create(" level > 3 OR name = 'x' ").buildBoolEvaluator().evaluateTri(noLevel));
+        Assert.assertEquals(TriState.UNKNOWN, create(" level > 3 OR name = 'y' ").buildBoolEvaluator().evaluateTri(noLevel));
+        Assert.assertEquals(TriState.FALSE, create(" level > 3 AND name = 'y' ").buildBoolEvaluator().evaluateTri(noLevel));
+        Assert.assertEquals(TriState.UNKNOWN, create(" level > 3 AND name = 'x' ").buildBoolEvaluator().evaluateTri(noLevel));
+        Assert.assertEquals(TriState.UNKNOWN, create(" NOT level * 2 > 3 ").buildBoolEvaluator().evaluateTri(noLevel));
+        Assert.assertEquals(TriState.UNKNOWN, create(" 10 / (level - 5) > 1 ").buildBoolEvaluator().evaluateTri(event(5, "x")));
+        Assert.assertEquals(TriState.UNKNOWN, create(" name contains 'x' ").buildBoolEvaluator().evaluateTri(event(1, 2)));
+    }
+
+    @Test
+    public void testUnknownMapping() {
+        Map<String, Object> noLevel = event(null, "x");
+
+        Evaluator<Map<String, Object>, Boolean> unknownAsFalse = create(" NOT level > 3 ")
+                .unknownAs(false)
+                .buildBoolEvaluator();
+        Evaluator<Map<String, Object>, Boolean> unknownAsTrue = create(" NOT level > 3 ")
+                .unknownAs(true)
+                .compileToBytecode()
+                .buildBoolEvaluator();
+
+        Assert.assertFalse(unknownAsFalse.test(noLevel));
+        Assert.assertFalse(unknownAsFalse.evaluate(noLevel));
+        Assert.assertTrue(unknownAsTrue.test(noLevel));
+        Assert.assertTrue(unknownAsTrue.evaluate(noLevel));
+        Assert.assertTrue(unknownAsFalse.evaluate(event(1, "x")));
+    }
+
+    @Test
+    public void testNaNIsNotUnknown() {
+        String[] rules = new String[] {" value != 2.5 ", " value >= 3 ", " value = 2 ", " value * 2 < 1 ",
+                " value in [1, 2] ", " NOT value < 3 "};
+        Measurement nan = new Measurement(Double.NaN);
+        for (String rule : rules) {
+            for (boolean optimize : new boolean[] {false, true}) {
+                boolean expected = Evaluator.<Measurement>createForRule(rule)
+                        .validateAgainstClass(Measurement.class)
+                        .optimize(optimize)
+                        .buildBoolEvaluator()
+                        .test(nan);
+                Evaluator<Measurement, Boolean> unknownAsTrue = Evaluator.<Measurement>createForRule(rule)
+                        .validateAgainstClass(Measurement.class)
+                        .optimize(optimize)
+                        .unknownAs(true)
+                        .buildBoolEvaluator();
+                Assert.assertEquals(rule, TriState.of(expected), unknownAsTrue.evaluateTri(nan));
+                Assert.assertEquals(rule, expected, unknownAsTrue.test(nan));
+            }
+        }
+
+        Map<String, Object> nanLevel = event(Double.NaN, "x");
+        Assert.assertEquals(TriState.TRUE, create(" level != 2.5 ").buildBoolEvaluator().evaluateTri(nanLevel));
+        Assert.assertEquals(TriState.FALSE, create(" level + 1 >= 3 ").buildBoolEvaluator().evaluateTri(nanLevel));
+    }
+
+    @Test
+    public void testExceptionsAreStackless() {
+        Evaluator<Map<String, Object>, Boolean> evaluator = create(" level > 3 ").buildBoolEvaluator();
+        try {
+            evaluator.evaluate(event(null, "x"));
+            Assert.fail();
+        } catch (EvalException e) {
+            Assert.assertEquals(0, e.getStackTrace().length);
+        }
+    }
+
+    private static Evaluator.Builder<Map<String, Object>> create(String rule) {
+        return Evaluator.<Map<String, Object>>createForRule(rule)
+                .withFieldExtractor("level", m -> m.get("level"))
+                .withFieldExtractor("name", m -> m.get("name"));
+    }
+
+    private static Map<String, Object> event(Object level, Object name) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("level", level);
+        event.put("name", name);
+        return event;
+    }
+
+    private static class Measurement {
+        private final double value;
+
+        Measurement(double value) {
+            this.value = value;
+        }
+
+        public double getValue() {
+            return value;
+        }
+    }
+}
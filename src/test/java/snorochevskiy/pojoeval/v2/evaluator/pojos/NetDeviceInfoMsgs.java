@@ -0,0 +1,41 @@
+package snorochevskiy.pojoeval.v2.evaluator.pojos;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Messages that rule evaluation modes are compared on.
+ */
+public final class NetDeviceInfoMsgs {
+
+    public static final String[] FQDNS = new String[] {"device1.dc1.myisp.com", "device2.dc2.myisp.com"};
+    public static final String[] INTERFACES = new String[] {"Eth1", "Eth2", "Eth3"};
+    public static final String[] TEXTS = new String[] {"Panic", "Calm"};
+    public static final int LEVELS = 8;
+
+    private NetDeviceInfoMsgs() {
+
+    }
+
+    /**
+     * @param extraFqdns FQDNs to combine in addition to {@link #FQDNS}, can contain null
+     * @return messages with every combination of the FQDNs, {@link #INTERFACES}, {@link #TEXTS}
+     *         and levels from 0 to {@link #LEVELS} - 1
+     */
+    public static List<NetDeviceInfoMsg> combinations(String... extraFqdns) {
+        List<String> fqdns = new ArrayList<>(Arrays.asList(FQDNS));
+        fqdns.addAll(Arrays.asList(extraFqdns));
+        List<NetDeviceInfoMsg> messages = new ArrayList<>();
+        for (String fqdn : fqdns) {
+            for (String interfaceName : INTERFACES) {
+                for (String text : TEXTS) {
+                    for (int level = 0; level < LEVELS; level++) {
+                        messages.add(new NetDeviceInfoMsg(fqdn, interfaceName, text, level));
+                    }
+                }
+            }
+        }
+        return messages;
+    }
+}
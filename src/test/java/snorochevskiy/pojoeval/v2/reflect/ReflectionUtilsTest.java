@@ -23,6 +23,53 @@ public class ReflectionUtilsTest {
         Assert.assertEquals(EyeColor.YELLOW, optV.get());
     }
 
+    @Test
+    public void testFieldAccessorIsResolvedOnce() {
+        FieldAccessor a1 = ReflectionUtils.getFieldAccessor(Cat.class, "head.eyeColor").get();
+        FieldAccessor a2 = ReflectionUtils.getFieldAccessor(Cat.class, "head.eyeColor").get();
+
+        Assert.assertSame(a1, a2);
+        Assert.assertEquals(EyeColor.class, a1.getType());
+        Assert.assertEquals(EyeColor.GREEN, a1.get(new Cat(new Head(EyeColor.GREEN))));
+    }
+
+    @Test
+    public void testFieldAccessorUndefinedOnNullIntermediate() {
+        FieldAccessor accessor = ReflectionUtils.getFieldAccessor(Cat.class, "head.eyeColor").get();
+
+        Assert.assertSame(FieldAccessor.UNDEFINED, accessor.get(new Cat(null)));
+        Assert.assertFalse(ReflectionUtils.getFieldPathValue(new Cat(null), "head.eyeColor").isDefined());
+    }
+
+    @Test(expected = UndefinedFieldValueException.class)
+    public void testFieldAccessorHandleThrowsOnNullIntermediate() throws Throwable {
+        FieldAccessor accessor = ReflectionUtils.getFieldAccessor(Cat.class, "head.eyeColor").get();
+
+        Object ignored = (Object) accessor.getHandle().invoke((Object) new Cat(null));
+    }
+
+    @Test
+    public void testFieldAccessorReadsPrimitiveAsDouble() {
+        FieldAccessor accessor = ReflectionUtils.getFieldAccessor(Tail.class, "length").get();
+
+        Assert.assertTrue(accessor.isNumericPrimitive());
+        Assert.assertEquals(12.0, accessor.getDouble(new Tail(12)), 0.0);
+    }
+
+    @Test
+    public void testFieldAccessorResolvesRestOfPathAtRuntime() {
+        FieldAccessor accessor = ReflectionUtils.getFieldAccessor(Box.class, "content.length").get();
+
+        Assert.assertEquals(Object.class, accessor.getType());
+        Assert.assertEquals(7, accessor.get(new Box(new Tail(7))));
+    }
+
+    @Test
+    public void testMissingFieldHasNoAccessor() {
+        Assert.assertFalse(ReflectionUtils.getFieldAccessor(Cat.class, "tail").isPresent());
+        Assert.assertFalse(ReflectionUtils.hasFieldPath(Cat.class, "head.tail"));
+    }
+
     class Head {
         private EyeColor eyeColor;
 
@@ -55,6 +102,30 @@ public class ReflectionUtilsTest {
         }
     }
 
+    static class Tail {
+        private final int length;
+
+        Tail(int length) {
+            this.length = length;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    static class Box {
+        private final Object content;
+
+        Box(Object content) {
+            this.content = content;
+        }
+
+        public Object getContent() {
+            return content;
+        }
+    }
+
     enum EyeColor {
         YELLOW, BLUE, GREEN, BROWN
     }
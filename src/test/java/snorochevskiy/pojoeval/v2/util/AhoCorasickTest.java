@@ -0,0 +1,86 @@
+package snorochevskiy.pojoeval.v2.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class AhoCorasickTest {
+
+    @Test
+    public void testOverlappingPatterns() {
+        AhoCorasick.Builder builder = AhoCorasick.builder();
+        String[] patterns = new String[] {"he", "she", "his", "hers", "", "panic"};
+        for (String p : patterns) {
+            builder.add(p);
+        }
+        AhoCorasick automaton = builder.build();
+
+        Assert.assertEquals(6, automaton.size());
+        Assert.assertEquals("[0, 1, 3, 4]", search(automaton, "ushers"));
+        Assert.assertEquals("[4]", search(automaton, ""));
+        Assert.assertEquals("[0, 1, 2, 4]", search(automaton, "hishe"));
+        Assert.assertEquals("[4]", search(automaton, "Panic"));
+    }
+
+    @Test
+    public void testSameAsStringContains() {
+        Random random = new Random(7);
+        List<String> patterns = new ArrayList<>();
+        AhoCorasick.Builder builder = AhoCorasick.builder();
+        for (int i = 0; i < 300; i++) {
+            String p = randomString(random, 1 + random.nextInt(5));
+            patterns.add(p);
+            builder.add(p);
+        }
+        AhoCorasick automaton = builder.build();
+
+        for (int t = 0; t < 200; t++) {
+            String text = randomString(random, random.nextInt(60));
+            TreeSet<Integer> expected = new TreeSet<>();
+            for (int i = 0; i < patterns.size(); i++) {
+                if (text.contains(patterns.get(i))) {
+                    expected.add(i);
+                }
+            }
+            Assert.assertEquals(text, expected.toString(), search(automaton, text));
+        }
+    }
+
+    @Test
+    public void testReusedFoundSet() {
+        AhoCorasick.Builder builder = AhoCorasick.builder();
+        builder.add("he");
+        builder.add("she");
+        builder.add("hers");
+        AhoCorasick automaton = builder.build();
+        BitSet found = new BitSet();
+        List<Integer> reported = new ArrayList<>();
+
+        automaton.searchDistinct("she said hehe", found, reported::add);
+        Assert.assertEquals("[1, 0]", reported.toString());
+        Assert.assertEquals("{0, 1}", found.toString());
+
+        reported.clear();
+        automaton.searchDistinct("hers", found, reported::add);
+        Assert.assertEquals("[2]", reported.toString());
+    }
+
+    private static String search(AhoCorasick automaton, String text) {
+        TreeSet<Integer> found = new TreeSet<>();
+        automaton.searchDistinct(text, found::add);
+        return found.toString();
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(4)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,51 @@
+package snorochevskiy.pojoeval.v2.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class DoubleHashSetTest {
+
+    @Test
+    public void testAddAndContains() {
+        DoubleHashSet set = new DoubleHashSet(2);
+        Assert.assertTrue(set.add(1));
+        Assert.assertTrue(set.add(-3.5));
+        Assert.assertFalse(set.add(1.0));
+        Assert.assertFalse(set.add(Double.NaN));
+
+        Assert.assertEquals(2, set.size());
+        Assert.assertTrue(set.contains(1));
+        Assert.assertTrue(set.contains(-3.5));
+        Assert.assertFalse(set.contains(2));
+        Assert.assertFalse(set.contains(Double.NaN));
+        Assert.assertArrayEquals(new double[] {-3.5, 1}, set.toSortedArray(), 0);
+    }
+
+    @Test
+    public void testZeroes() {
+        DoubleHashSet set = new DoubleHashSet();
+        set.add(-0.0);
+
+        Assert.assertTrue(set.contains(0.0));
+        Assert.assertFalse(set.add(0.0));
+    }
+
+    @Test
+    public void testGrowsAndMatchesHashSet() {
+        Random random = new Random(42);
+        DoubleHashSet set = new DoubleHashSet();
+        Set<Double> expected = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            double v = random.nextInt(20000);
+            Assert.assertEquals(expected.add(v), set.add(v));
+        }
+        Assert.assertEquals(expected.size(), set.size());
+        for (int i = 0; i < 20000; i++) {
+            Assert.assertEquals(expected.contains((double) i), set.contains(i));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package snorochevskiy.pojoeval.v2.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+public class IntervalTreeTest {
+
+    @Test
+    public void testBounds() {
+        IntervalTree tree = IntervalTree.builder()
+                .add(2, false, Double.POSITIVE_INFINITY, false, 0)
+                .add(5, true, 8, false, 1)
+                .add(Double.NEGATIVE_INFINITY, true, 5, true, 2)
+                .add(3, true, 3, true, 3)
+                .add(4, false, 4, true, 4)
+                .build();
+
+        Assert.assertEquals(4, tree.size());
+        Assert.assertEquals("[2]", stab(tree, 2));
+        Assert.assertEquals("[0, 2, 3]", stab(tree, 3));
+        Assert.assertEquals("[0, 1, 2]", stab(tree, 5));
+        Assert.assertEquals("[0]", stab(tree, 8));
+        Assert.assertEquals("[2]", stab(tree, Double.NEGATIVE_INFINITY));
+        Assert.assertEquals("[]", stab(tree, Double.NaN));
+    }
+
+    @Test
+    public void testSameAsLinearScan() {
+        Random random = new Random(42);
+        List<double[]> intervals = new ArrayList<>();
+        IntervalTree.Builder builder = IntervalTree.builder();
+        for (int i = 0; i < 500; i++) {
+            double lo = random.nextInt(10) == 0 ? Double.NEGATIVE_INFINITY : random.nextInt(100);
+            double hi = random.nextInt(10) == 0 ? Double.POSITIVE_INFINITY : lo + random.nextInt(30);
+            boolean loClosed = random.nextBoolean();
+            boolean hiClosed = random.nextBoolean();
+            intervals.add(new double[] {lo, loClosed ? 1 : 0, hi, hiClosed ? 1 : 0});
+            builder.add(lo, loClosed, hi, hiClosed, i);
+        }
+        IntervalTree tree = builder.build();
+
+        for (double x = -5; x < 140; x += 0.5) {
+            TreeSet<Integer> expected = new TreeSet<>();
+            for (int i = 0; i < intervals.size(); i++) {
+                double[] in = intervals.get(i);
+                boolean aboveLo = in[0] < x || in[1] == 1 && in[0] == x;
+                boolean belowHi = in[2] > x || in[3] == 1 && in[2] == x;
+                if (aboveLo && belowHi) {
+                    expected.add(i);
+                }
+            }
+            Assert.assertEquals("x = " + x, expected.toString(), stab(tree, x));
+        }
+    }
+
+    private static String stab(IntervalTree tree, double x) {
+        TreeSet<Integer> found = new TreeSet<>();
+        tree.stab(x, found::add);
+        return found.toString();
+    }
+}
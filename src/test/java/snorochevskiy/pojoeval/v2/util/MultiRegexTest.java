@@ -0,0 +1,164 @@
+package snorochevskiy.pojoeval.v2.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+public class MultiRegexTest {
+
+    private static final String[] REGEXES = new String[] {
+            "dc\\d",
+            "^device\\d+\\.",
+            "[a-c]+x?",
+            "(Eth|eth)[0-9]{1,2}",
+            "[^a-z .]+",
+            "a.c",
+            "(?:ab|ba)*",
+            "x{2,}y",
+            "\\w+@\\w+\\.com$",
+            "colou?r",
+            "[\\d-]+",
+            "\\.\\*\\[",
+            "a|b|",
+            "a*?b",
+    };
+
+    private static final String[] TEXTS = new String[] {
+            "", "device12.dc2.myisp.com", "Eth10", "eth1 down", "abcx", "ABC", "a\nc", "abab", "xxxy", "xy",
+            "user@mail.com", "user@mail.com\n", "color", "colour", "12-34", ".*[", "aab", "c", "dc", "A.B",
+    };
+
+    private static final String ALPHABET = "abcxy.@dEth1 \n-";
+
+    @Test
+    public void testSameAsPattern() {
+        assertSameAsPattern(REGEXES, TEXTS);
+    }
+
+    @Test
+    public void testRandomTexts() {
+        Random random = new Random(3);
+        String[] texts = new String[300];
+        for (int i = 0; i < texts.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(16);
+            for (int j = 0; j < length; j++) {
+                sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            texts[i] = sb.toString();
+        }
+        assertSameAsPattern(REGEXES, texts);
+    }
+
+    @Test
+    public void testUnsupportedConstructs() {
+        MultiRegex.Builder builder = MultiRegex.builder();
+        Assert.assertEquals(-1, builder.add("(a)\\1", false));
+        Assert.assertEquals(-1, builder.add("a(?=b)", false));
+        Assert.assertEquals(-1, builder.add("(?i)abc", true));
+        Assert.assertEquals(-1, builder.add("a++", true));
+        Assert.assertEquals(-1, builder.add("\\bword\\b", false));
+        Assert.assertEquals(-1, builder.add("abc$", false));
+        Assert.assertEquals(-1, builder.add("[a-z&&[^b]]", true));
+        Assert.assertEquals(0, builder.add("abc$", true));
+    }
+
+    @Test
+    public void testStackedQuantifiersUnsupported() {
+        // Pattern doesn't treat these as a repetition of the repetition, so they are left to Pattern
+        MultiRegex.Builder builder = MultiRegex.builder();
+        Assert.assertEquals(-1, builder.add(".{1,2}{2}", false));
+        Assert.assertEquals(-1, builder.add("\\w+{2}", true));
+        Assert.assertEquals(-1, builder.add("c+{2}\n", false));
+        Assert.assertEquals(-1, builder.add("(ab)*?+", false));
+        Assert.assertEquals(-1, builder.add("a?*", true));
+        Assert.assertEquals(0, builder.add("(ab)*?c", false));
+        Assert.assertEquals(1, builder.add("a??b{2}?", true));
+        Assert.assertEquals(2, builder.add("a*b+", true));
+    }
+
+    @Test
+    public void testSurrogatesMatchedWithPattern() {
+        MultiRegex.Builder builder = MultiRegex.builder();
+        builder.add("a.b", true);
+        builder.add("[^x]", false);
+        MultiRegex regexes = builder.build();
+
+        TreeSet<Integer> found = new TreeSet<>();
+        regexes.match("a😀b", found::add);
+        Assert.assertEquals("[0, 1]", found.toString());
+    }
+
+    @Test
+    public void testReusedFoundSet() {
+        MultiRegex.Builder builder = MultiRegex.builder();
+        builder.add("a.b", true);
+        builder.add("[^x]", false);
+        builder.add("x", false);
+        MultiRegex regexes = builder.build();
+        BitSet found = new BitSet();
+        List<Integer> reported = new ArrayList<>();
+
+        regexes.match("acb", found, reported::add);
+        Assert.assertEquals("[1, 0]", reported.toString());
+        Assert.assertEquals("{0, 1}", found.toString());
+
+        reported.clear();
+        regexes.match("a😀x", found, reported::add);
+        Assert.assertEquals("[2]", reported.toString());
+    }
+
+    @Test
+    public void testDfaSizeLimit() {
+        MultiRegex.Builder builder = MultiRegex.builder();
+        builder.add("(a|b)*a(a|b){14}", false);
+        MultiRegex regexes = builder.build();
+        Pattern pattern = Pattern.compile("(a|b)*a(a|b){14}");
+
+        Random random = new Random(5);
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < 40; j++) {
+                sb.append(random.nextBoolean() ? 'a' : 'b');
+            }
+            TreeSet<Integer> found = new TreeSet<>();
+            regexes.match(sb, found::add);
+            Assert.assertEquals(pattern.matcher(sb).find(), found.contains(0));
+        }
+        Assert.assertEquals(MultiRegex.MAX_DFA_STATES, regexes.dfaSize());
+    }
+
+    private static void assertSameAsPattern(String[] regexes, String[] texts) {
+        MultiRegex.Builder builder = MultiRegex.builder();
+        List<Pattern> patterns = new ArrayList<>();
+        List<Boolean> fullMatch = new ArrayList<>();
+        for (String regex : regexes) {
+            for (boolean full : new boolean[] {true, false}) {
+                if (builder.add(regex, full) >= 0) {
+                    patterns.add(Pattern.compile(regex));
+                    fullMatch.add(full);
+                }
+            }
+        }
+        MultiRegex multiRegex = builder.build();
+        Assert.assertEquals(2 * regexes.length - 1, multiRegex.size());
+
+        for (String text : texts) {
+            TreeSet<Integer> expected = new TreeSet<>();
+            for (int i = 0; i < patterns.size(); i++) {
+                if (fullMatch.get(i) ? patterns.get(i).matcher(text).matches() : patterns.get(i).matcher(text).find()) {
+                    expected.add(i);
+                }
+            }
+            TreeSet<Integer> found = new TreeSet<>();
+            multiRegex.match(text, found::add);
+            Assert.assertEquals(text, expected, found);
+        }
+    }
+}